@@ -0,0 +1,47 @@
+package nl.utwente.cs.pxml;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.results.format.ResultFormatType;
+
+/**
+ * Runs the benchmarks, accepting the usual JMH command line options. Unless told otherwise, all benchmarks in this
+ * package and below are run and the results are written as JSON to {@link #RESULT_FILE}, so that results of
+ * different releases can be compared.
+ * 
+ * @author Mattijs Ugen
+ */
+public class Benchmarks {
+
+	/**
+	 * The file results are written to by default.
+	 */
+	public static final String RESULT_FILE = "benchmark-results.json";
+
+	public static void main(String... args) throws RunnerException {
+		CommandLineOptions options;
+		try {
+			options = new CommandLineOptions(args);
+		} catch (CommandLineOptionException e) {
+			System.err.println("error parsing arguments: " + e.getMessage());
+			return;
+		}
+
+		ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+		if (options.getIncludes().isEmpty()) {
+			builder.include(Benchmarks.class.getPackage().getName() + ".*");
+		}
+		if (!options.getResultFormat().hasValue()) {
+			builder.resultFormat(ResultFormatType.JSON);
+		}
+		if (!options.getResult().hasValue()) {
+			builder.result(RESULT_FILE);
+		}
+		new Runner(builder.build()).run();
+	}
+
+}
@@ -0,0 +1,65 @@
+package nl.utwente.cs.pxml;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks parsing descriptors into conditions with {@link ConditionGenerator}, and compiling them with
+ * {@link Descriptor#compile(String)} for comparison.
+ * 
+ * @author Mattijs Ugen
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConditionGeneratorBenchmark {
+
+	@Param({
+			"2", "8", "32"
+	})
+	protected int length;
+
+	protected String[] descriptors;
+	protected int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.descriptors = Descriptors.generate(1 << 10, this.length, 10000, new SplittableRandom(42));
+		this.next = 0;
+	}
+
+	@Benchmark
+	public void generate(Blackhole blackhole) {
+		for (Condition condition : new ConditionGenerator(this.next())) {
+			blackhole.consume(condition);
+		}
+	}
+
+	@Benchmark
+	public Descriptor compile() {
+		return Descriptor.compile(this.next());
+	}
+
+	protected String next() {
+		this.next = (this.next + 1) & (this.descriptors.length - 1);
+		return this.descriptors[this.next];
+	}
+
+}
@@ -0,0 +1,89 @@
+package nl.utwente.cs.pxml;
+
+import java.util.SplittableRandom;
+
+import nl.utwente.cs.pxml.transform.doc.DocumentTransformer;
+
+import org.basex.query.value.item.QNm;
+import org.basex.query.value.item.Str;
+import org.basex.query.value.node.ANode;
+import org.basex.query.value.node.FElem;
+import org.basex.util.Token;
+
+/**
+ * Generates the inputs of the benchmarks: descriptors and wsd-lists shaped like the ones DocumentTransformer writes
+ * (variables named var-i, having values 0 and 1).
+ * 
+ * @author Mattijs Ugen
+ */
+public final class Descriptors {
+
+	private Descriptors() {
+	}
+
+	/**
+	 * Generates random descriptors.
+	 * 
+	 * @param count
+	 *            The number of descriptors.
+	 * @param length
+	 *            The number of conditions in every descriptor.
+	 * @param numVariables
+	 *            The number of variables to draw from.
+	 * @param random
+	 *            The random generator.
+	 * @return The descriptors in string form.
+	 */
+	public static String[] generate(int count, int length, int numVariables, SplittableRandom random) {
+		String[] descriptors = new String[count];
+		StringBuilder descriptor = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			descriptor.setLength(0);
+			for (int c = 0; c < length; c++) {
+				if (c > 0) {
+					descriptor.append(' ');
+				}
+				descriptor.append("var-").append(random.nextInt(numVariables)).append('=').append(random.nextInt(2));
+			}
+			descriptors[i] = descriptor.toString();
+		}
+		return descriptors;
+	}
+
+	/**
+	 * Wraps descriptors into BaseX strings.
+	 * 
+	 * @param descriptors
+	 *            The descriptors.
+	 * @return The descriptors as Str items.
+	 */
+	public static Str[] items(String[] descriptors) {
+		Str[] items = new Str[descriptors.length];
+		for (int i = 0; i < descriptors.length; i++) {
+			items[i] = Str.get(descriptors[i]);
+		}
+		return items;
+	}
+
+	/**
+	 * Creates a wsd-list of binary variables with random probabilities.
+	 * 
+	 * @param numVariables
+	 *            The number of variables.
+	 * @param random
+	 *            The random generator.
+	 * @return A p:variables element.
+	 */
+	public static ANode wsdList(int numVariables, SplittableRandom random) {
+		FElem variables = new FElem(new QNm("p:variables", DocumentTransformer.NS_URI));
+		for (int i = 0; i < numVariables; i++) {
+			double probability = random.nextDouble();
+			FElem variable = new FElem(new QNm("p:var-" + i, DocumentTransformer.NS_URI));
+			variable.add(new QNm("p:val-0", DocumentTransformer.NS_URI), Token.token(String.valueOf(1.0 - probability)));
+			variable.add(new QNm("p:val-1", DocumentTransformer.NS_URI), Token.token(String.valueOf(probability)));
+			variables.add(variable);
+		}
+		return variables;
+	}
+
+}
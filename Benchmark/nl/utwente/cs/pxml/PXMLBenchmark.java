@@ -0,0 +1,113 @@
+package nl.utwente.cs.pxml;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.basex.query.value.item.Str;
+import org.basex.query.value.node.ANode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the descriptor functions of {@link PXML}. Every function is measured warm, cycling through a few
+ * descriptors that stay in the compiled descriptor and probability caches, and cold, cycling through more distinct
+ * descriptors than those caches hold (with enough variables, the probability cache misses as well).
+ * 
+ * @author Mattijs Ugen
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PXMLBenchmark {
+
+	// the number of distinct descriptors cycled through when warm
+	protected static final int WARM_DESCRIPTORS = 1 << 6;
+	// the number of distinct descriptors cycled through when cold (exceeding the compiled descriptor cache)
+	protected static final int COLD_DESCRIPTORS = 1 << 17;
+
+	@Param({
+			"2", "8", "32"
+	})
+	protected int length;
+
+	@Param({
+			"1000", "100000"
+	})
+	protected int numVariables;
+
+	protected PXML pxml;
+	protected ANode wsdList;
+	protected Str[] warm;
+	protected Str[] cold;
+	protected int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		SplittableRandom random = new SplittableRandom(42);
+		this.pxml = new PXML();
+		this.wsdList = Descriptors.wsdList(this.numVariables, random);
+		this.warm = Descriptors.items(Descriptors.generate(WARM_DESCRIPTORS, this.length, this.numVariables, random));
+		this.cold = Descriptors.items(Descriptors.generate(COLD_DESCRIPTORS, this.length, this.numVariables, random));
+		this.next = 0;
+	}
+
+	@Benchmark
+	public String combineWarm() {
+		return this.pxml.combine(this.next(this.warm), this.next(this.warm));
+	}
+
+	@Benchmark
+	public String combineCold() {
+		return this.pxml.combine(this.next(this.cold), this.next(this.cold));
+	}
+
+	@Benchmark
+	public boolean consistentWarm() {
+		return this.pxml.consistent(this.next(this.warm));
+	}
+
+	@Benchmark
+	public boolean consistentCold() {
+		return this.pxml.consistent(this.next(this.cold));
+	}
+
+	@Benchmark
+	public boolean mutuallyExclusiveWarm() {
+		return this.pxml.mutuallyExclusive(this.next(this.warm), this.next(this.warm));
+	}
+
+	@Benchmark
+	public boolean mutuallyExclusiveCold() {
+		return this.pxml.mutuallyExclusive(this.next(this.cold), this.next(this.cold));
+	}
+
+	@Benchmark
+	public double probabilityWarm() {
+		return this.pxml.probability(this.wsdList, this.next(this.warm));
+	}
+
+	@Benchmark
+	public double probabilityCold() {
+		return this.pxml.probability(this.wsdList, this.next(this.cold));
+	}
+
+	protected Str next(Str[] descriptors) {
+		// pools are sized to a power of two
+		this.next = (this.next + 1) & (descriptors.length - 1);
+		return descriptors[this.next];
+	}
+
+}
@@ -0,0 +1,103 @@
+package nl.utwente.cs.pxml.transform.doc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+/**
+ * Benchmarks transforming generated documents of increasing size, both through a DOM by
+ * {@link DocumentTransformer#transform(Document)} and streaming by {@link StreamingDocumentTransformer}. Documents are
+ * synthesized by a {@link SyntheticDocumentReader} (a record holds about 85 elements with the default settings), and
+ * transformed with a fixed seed.
+ * 
+ * @author Mattijs Ugen
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class DocumentTransformerBenchmark {
+
+	@Param({
+			"100", "1000", "10000"
+	})
+	protected int records;
+
+	protected byte[] input;
+	protected int numNodes;
+	protected Document parsed;
+	protected Document document;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		SyntheticDocumentReader reader = new SyntheticDocumentReader(this.records, 3, 4, 64, 42);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		XMLEventWriter writer = XMLOutputFactory.newInstance().createXMLEventWriter(out, "UTF-8");
+		writer.add(reader);
+		writer.close();
+		this.input = out.toByteArray();
+
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		this.parsed = factory.newDocumentBuilder().parse(new ByteArrayInputStream(this.input));
+		this.numNodes = this.parsed.getElementsByTagName("*").getLength();
+	}
+
+	@Setup(Level.Invocation)
+	public void copy() {
+		// transforming modifies the document, transform a fresh copy every time
+		this.document = (Document) this.parsed.cloneNode(true);
+	}
+
+	@Benchmark
+	public Document transform() throws DocumentTransformerException {
+		DocumentTransformer transformer = new DocumentTransformer();
+		transformer.random = new SplittableRandom(42);
+		transformer.transform(this.document);
+		return this.document;
+	}
+
+	@Benchmark
+	public void transformStreaming() throws Exception {
+		DocumentTransformer settings = new DocumentTransformer();
+		settings.random = new SplittableRandom(42);
+		XMLEventReader reader = XMLInputFactory.newInstance().createXMLEventReader(
+				new ByteArrayInputStream(this.input));
+		XMLEventWriter writer = XMLOutputFactory.newInstance().createXMLEventWriter(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		}, "UTF-8");
+		new StreamingDocumentTransformer(settings).transform(reader, writer, this.numNodes);
+		writer.close();
+	}
+
+}
@@ -0,0 +1,323 @@
+package nl.utwente.cs.pxml;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiled form of a {@link Lineage}: a decision diagram in which every node is either a constant, a single clause
+ * (a conjunction of independent conditions), an independent disjunction of variable-disjoint children, or a decision
+ * on a single variable with a branch per value. This is the structure {@link LineageEvaluator} walks, but recorded
+ * once so that it can be re-evaluated for any vector of condition probabilities in time linear in its size, without
+ * repeating the (potentially exponential) expansion.
+ * 
+ * Nodes are stored in arrays in topological order: children always precede their parents and the last node is the
+ * root.
+ * 
+ * @author Mattijs Ugen
+ */
+public final class Circuit {
+
+	// node kinds
+	protected static final byte TRUE = 0;
+	protected static final byte FALSE = 1;
+	protected static final byte CLAUSE = 2;
+	protected static final byte OR = 3;
+	protected static final byte DECISION = 4;
+
+	protected final byte[] kinds;
+	// the variable decided on by decision nodes
+	protected final int[] variables;
+	// the conjunction of clause nodes
+	protected final Descriptor[] clauses;
+	// children of node i are edges[offsets[i]] up to edges[offsets[i + 1]]
+	protected final int[] offsets;
+	protected final int[] edges;
+	// the value taken in the branch to the corresponding child of decision nodes
+	protected final int[] labels;
+	// whether the last child of a decision node is the branch for all values not mentioned
+	protected final boolean[] others;
+
+	private Circuit(byte[] kinds, int[] variables, Descriptor[] clauses, int[] offsets, int[] edges, int[] labels,
+			boolean[] others) {
+		this.kinds = kinds;
+		this.variables = variables;
+		this.clauses = clauses;
+		this.offsets = offsets;
+		this.edges = edges;
+		this.labels = labels;
+		this.others = others;
+	}
+
+	/**
+	 * Compiles a lineage into a circuit.
+	 * 
+	 * @param lineage
+	 *            The lineage to compile.
+	 * @return The compiled circuit.
+	 */
+	public static Circuit compile(Lineage lineage) {
+		Compiler compiler = new Compiler();
+		compiler.compile(lineage);
+		return compiler.build();
+	}
+
+	/**
+	 * @return The number of nodes in this circuit.
+	 */
+	public int size() {
+		return this.kinds.length;
+	}
+
+	/**
+	 * @return The number of edges in this circuit.
+	 */
+	public int edges() {
+		return this.edges.length;
+	}
+
+	/**
+	 * Computes the probability of the compiled lineage.
+	 * 
+	 * @param source
+	 *            The source of condition probabilities.
+	 * @return The probability of the lineage.
+	 */
+	public double evaluate(ProbabilitySource source) {
+		double[] values = this.forward(source);
+		return values[values.length - 1];
+	}
+
+	/**
+	 * Computes the probability of the compiled lineage along with its partial derivatives with respect to every
+	 * condition probability it depends on (treating all condition probabilities as independent parameters).
+	 * 
+	 * @param source
+	 *            The source of condition probabilities.
+	 * @param gradients
+	 *            Map to add the partial derivatives to, keyed by packed condition (see {@link Descriptor#pack(int, int)}).
+	 * @return The probability of the lineage.
+	 */
+	public double evaluate(ProbabilitySource source, Map<Long, Double> gradients) {
+		double[] values = this.forward(source);
+		int root = values.length - 1;
+
+		// propagate the adjoints back from the root, parents precede their children in reverse order
+		double[] adjoints = new double[values.length];
+		adjoints[root] = 1.0;
+		for (int node = root; node >= 0; node--) {
+			double adjoint = adjoints[node];
+			if (adjoint == 0.0) {
+				continue;
+			}
+
+			int from = this.offsets[node], to = this.offsets[node + 1];
+			switch (this.kinds[node]) {
+			case CLAUSE:
+				Descriptor clause = this.clauses[node];
+				for (int i = 0, size = clause.size(); i < size; i++) {
+					// the product of all other conditions (not dividing, probabilities might be zero)
+					double rest = 1.0;
+					for (int j = 0; j < size; j++) {
+						if (j != i) {
+							rest *= source.probability(clause.variable(j), clause.value(j));
+						}
+					}
+					Circuit.add(gradients, clause.condition(i), adjoint * rest);
+				}
+				break;
+			case OR:
+				for (int i = from; i < to; i++) {
+					double rest = 1.0;
+					for (int j = from; j < to; j++) {
+						if (j != i) {
+							rest *= 1.0 - values[this.edges[j]];
+						}
+					}
+					adjoints[this.edges[i]] += adjoint * rest;
+				}
+				break;
+			case DECISION:
+				int variable = this.variables[node];
+				int last = this.others[node] ? to - 1 : to;
+				double remaining = 1.0;
+				for (int i = from; i < last; i++) {
+					remaining -= source.probability(variable, this.labels[i]);
+				}
+				double other = this.others[node] ? values[this.edges[to - 1]] : 0.0;
+				for (int i = from; i < last; i++) {
+					double weight = source.probability(variable, this.labels[i]);
+					adjoints[this.edges[i]] += adjoint * weight;
+					// raising the weight of this branch lowers that of the other values
+					Circuit.add(gradients, Descriptor.pack(variable, this.labels[i]), adjoint
+							* (values[this.edges[i]] - (remaining > 0.0 ? other : 0.0)));
+				}
+				if (this.others[node] && remaining > 0.0) {
+					adjoints[this.edges[to - 1]] += adjoint * remaining;
+				}
+				break;
+			default:
+				// constants have no inputs
+				break;
+			}
+		}
+
+		return values[root];
+	}
+
+	/**
+	 * Computes the value of every node, children first.
+	 */
+	protected double[] forward(ProbabilitySource source) {
+		double[] values = new double[this.kinds.length];
+		for (int node = 0; node < values.length; node++) {
+			int from = this.offsets[node], to = this.offsets[node + 1];
+			switch (this.kinds[node]) {
+			case TRUE:
+				values[node] = 1.0;
+				break;
+			case FALSE:
+				values[node] = 0.0;
+				break;
+			case CLAUSE:
+				Descriptor clause = this.clauses[node];
+				double product = 1.0;
+				for (int i = 0, size = clause.size(); i < size; i++) {
+					product *= source.probability(clause.variable(i), clause.value(i));
+				}
+				values[node] = product;
+				break;
+			case OR:
+				double none = 1.0;
+				for (int i = from; i < to; i++) {
+					none *= 1.0 - values[this.edges[i]];
+				}
+				values[node] = 1.0 - none;
+				break;
+			case DECISION:
+				int variable = this.variables[node];
+				int last = this.others[node] ? to - 1 : to;
+				double sum = 0.0;
+				double remaining = 1.0;
+				for (int i = from; i < last; i++) {
+					double weight = source.probability(variable, this.labels[i]);
+					remaining -= weight;
+					sum += weight * values[this.edges[i]];
+				}
+				if (this.others[node] && remaining > 0.0) {
+					sum += remaining * values[this.edges[to - 1]];
+				}
+				values[node] = sum;
+				break;
+			}
+		}
+		return values;
+	}
+
+	private static void add(Map<Long, Double> gradients, long condition, double delta) {
+		Double current = gradients.get(condition);
+		gradients.put(condition, current == null ? delta : current + delta);
+	}
+
+	/**
+	 * Builds the node arrays of a circuit, sharing the nodes of equal sub-lineages.
+	 */
+	protected static class Compiler {
+
+		protected final Map<Lineage, Integer> unique = new HashMap<Lineage, Integer>();
+
+		protected byte[] kinds = new byte[64];
+		protected int[] variables = new int[64];
+		protected Descriptor[] clauses = new Descriptor[64];
+		protected boolean[] others = new boolean[64];
+		protected int[] offsets = new int[65];
+		protected int[] edges = new int[128];
+		protected int[] labels = new int[128];
+		protected int size = 0;
+		protected int numEdges = 0;
+
+		/**
+		 * Compiles lineage, returning the id of its node.
+		 */
+		protected int compile(Lineage lineage) {
+			Integer existing = this.unique.get(lineage);
+			if (existing != null) {
+				return existing;
+			}
+
+			int node;
+			if (lineage.isFalse()) {
+				node = this.node(FALSE, -1, null, false, new int[0], null);
+			} else if (lineage.isTrue()) {
+				node = this.node(TRUE, -1, null, false, new int[0], null);
+			} else if (lineage.size() == 1) {
+				node = this.node(CLAUSE, -1, lineage.clause(0), false, new int[0], null);
+			} else {
+				Lineage[] components = lineage.components();
+				if (components.length > 1) {
+					int[] children = new int[components.length];
+					for (int i = 0; i < children.length; i++) {
+						children[i] = this.compile(components[i]);
+					}
+					node = this.node(OR, -1, null, false, children, null);
+				} else {
+					// decide on the most frequent variable, with a branch for the values not mentioned
+					int variable = lineage.splitVariable();
+					int[] values = lineage.values(variable);
+					int[] children = new int[values.length + 1];
+					for (int i = 0; i < values.length; i++) {
+						children[i] = this.compile(lineage.condition(variable, values[i]));
+					}
+					children[values.length] = this.compile(lineage.exclude(variable));
+					node = this.node(DECISION, variable, null, true, children, Arrays.copyOf(values, children.length));
+				}
+			}
+
+			this.unique.put(lineage, node);
+			return node;
+		}
+
+		/**
+		 * Appends a node (all of its children have been appended before).
+		 */
+		protected int node(byte kind, int variable, Descriptor clause, boolean other, int[] children, int[] values) {
+			if (this.size == this.kinds.length) {
+				int capacity = this.size * 2;
+				this.kinds = Arrays.copyOf(this.kinds, capacity);
+				this.variables = Arrays.copyOf(this.variables, capacity);
+				this.clauses = Arrays.copyOf(this.clauses, capacity);
+				this.others = Arrays.copyOf(this.others, capacity);
+				this.offsets = Arrays.copyOf(this.offsets, capacity + 1);
+			}
+			while (this.numEdges + children.length > this.edges.length) {
+				this.edges = Arrays.copyOf(this.edges, this.edges.length * 2);
+				this.labels = Arrays.copyOf(this.labels, this.labels.length * 2);
+			}
+
+			int node = this.size++;
+			this.kinds[node] = kind;
+			this.variables[node] = variable;
+			this.clauses[node] = clause;
+			this.others[node] = other;
+			System.arraycopy(children, 0, this.edges, this.numEdges, children.length);
+			if (values != null) {
+				System.arraycopy(values, 0, this.labels, this.numEdges, children.length);
+			}
+			this.numEdges += children.length;
+			this.offsets[node + 1] = this.numEdges;
+			return node;
+		}
+
+		/**
+		 * Creates the circuit, the last compiled node being its root.
+		 */
+		protected Circuit build() {
+			return new Circuit(Arrays.copyOf(this.kinds, this.size), Arrays.copyOf(this.variables, this.size),
+					Arrays.copyOf(this.clauses, this.size), Arrays.copyOf(this.offsets, this.size + 1), Arrays.copyOf(
+							this.edges, this.numEdges), Arrays.copyOf(this.labels, this.numEdges), Arrays.copyOf(
+							this.others, this.size));
+		}
+
+	}
+
+}
@@ -1,5 +1,7 @@
 package nl.utwente.cs.pxml;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Record used to represent a variable and its value in {@link PXML#consistent(String)}.
  * 
@@ -28,13 +30,21 @@ public class Condition implements Comparable<Condition> {
 	 * 
 	 * @param condition
 	 *            The condition as a string.
+	 * @throws DescriptorFormatException
+	 *             When condition is not a single "name=value" pair.
 	 */
 	public Condition(String condition) {
+		byte[] bytes = condition.getBytes(StandardCharsets.UTF_8);
+		DescriptorTokenizer tokenizer = new DescriptorTokenizer(bytes);
 		// split name=value into name and value
-		String[] parts = condition.split("=");
-		// assume this went fine
-		this.name = parts[0].trim();
-		this.value = Integer.parseInt(parts[1].trim());
+		if (!tokenizer.next()) {
+			throw new DescriptorFormatException("missing condition", tokenizer.position());
+		}
+		this.name = new String(bytes, tokenizer.nameOffset(), tokenizer.nameLength(), StandardCharsets.UTF_8);
+		this.value = tokenizer.value();
+		if (tokenizer.hasNext()) {
+			throw new DescriptorFormatException("unexpected input after condition", tokenizer.position());
+		}
 	}
 
 	/**
@@ -62,6 +72,11 @@ public class Condition implements Comparable<Condition> {
 		return this.name.equals(condition.name) && this.value == condition.value;
 	}
 
+	@Override
+	public int hashCode() {
+		return 31 * this.name.hashCode() + this.value;
+	}
+
 	@Override
 	public String toString() {
 		return this.name + "=" + this.value;
@@ -70,7 +85,8 @@ public class Condition implements Comparable<Condition> {
 	@Override
 	public int compareTo(Condition other) {
 		int value = this.name.compareTo(other.name);
-		return value != 0 ? value : other.value - this.value;
+		// compare values in reverse, avoiding the overflow of subtracting them
+		return value != 0 ? value : Integer.compare(other.value, this.value);
 	}
 
 }
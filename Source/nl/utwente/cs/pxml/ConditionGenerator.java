@@ -1,8 +1,8 @@
 package nl.utwente.cs.pxml;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.Scanner;
 import java.util.regex.Pattern;
 
 /**
@@ -15,15 +15,19 @@ import java.util.regex.Pattern;
  * }
  * </pre>
  * 
+ * Kept as a thin wrapper around {@link DescriptorTokenizer}, which should be
+ * preferred where allocating a Condition per name=value pair is not needed.
+ * 
  * @author Mattijs Ugen
  */
 public class ConditionGenerator implements Iterable<Condition>, Iterator<Condition> {
 
 	// pattern separating both conditions and names and values within a
-	// condition
+	// condition (no longer used for tokenizing, see
+	// DescriptorTokenizer.isSeparator(byte))
 	public static final Pattern PATTERN = Pattern.compile("[\\s=]+");
 
-	protected Scanner input;
+	protected DescriptorTokenizer input;
 
 	/**
 	 * Creates a new ConditionGenerator generating Conditions from the provided
@@ -33,7 +37,7 @@ public class ConditionGenerator implements Iterable<Condition>, Iterator<Conditi
 	 *            A string containing conditions in "name=value"-form.
 	 */
 	public ConditionGenerator(String descriptor) {
-		this.input = new Scanner(descriptor).useDelimiter(ConditionGenerator.PATTERN);
+		this.input = new DescriptorTokenizer(descriptor.getBytes(StandardCharsets.UTF_8));
 	}
 
 	@Override
@@ -50,16 +54,20 @@ public class ConditionGenerator implements Iterable<Condition>, Iterator<Conditi
 	/**
 	 * Provides the next Condition in the 'stream'.
 	 * 
+	 * @throws DescriptorFormatException
+	 *             - when the stream is malformed.
 	 * @throws NoSuchElementException
-	 *             - when the stream is malformed when the end of the stream is
-	 *             reached.
+	 *             - when the end of the stream is reached.
 	 */
 	@Override
 	public Condition next() {
-		String name = this.input.next();
-		int value = this.input.nextInt();
+		if (!this.input.next()) {
+			throw new NoSuchElementException("no more conditions");
+		}
 
-		return new Condition(name, value);
+		String name = new String(this.input.input(), this.input.nameOffset(), this.input.nameLength(),
+				StandardCharsets.UTF_8);
+		return new Condition(name, this.input.value());
 	}
 
 	/**
@@ -87,8 +95,8 @@ public class ConditionGenerator implements Iterable<Condition>, Iterator<Conditi
 					System.out.print(cond + " ");
 				}
 				System.out.println();
-			} catch (NoSuchElementException e) {
-				System.err.println("input was malformed");
+			} catch (DescriptorFormatException e) {
+				System.err.println("input was malformed: " + e.getMessage());
 			}
 		}
 	}
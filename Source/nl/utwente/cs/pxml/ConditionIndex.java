@@ -0,0 +1,217 @@
+package nl.utwente.cs.pxml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.utwente.cs.pxml.util.LruCache;
+import nl.utwente.cs.pxml.util.Metrics;
+import nl.utwente.cs.pxml.util.RoaringBitmap;
+
+import org.basex.data.Data;
+import org.basex.query.value.node.ANode;
+import org.basex.query.value.node.DBNode;
+
+/**
+ * Inverted index of the <code>p:cie</code> nodes in a p-document, mapping every condition (a variable having a value)
+ * to a posting list of the nodes whose <code>p:descriptors</code> require it. Posting lists are
+ * {@link RoaringBitmap}s of pre values (or of document order positions for nodes that are not in a database), so
+ * looking up the nodes requiring a set of conditions intersects compressed lists instead of scanning the document.
+ * 
+ * The index is built in a single pass over the document the first time it is requested through {@link #of(ANode)},
+ * and rebuilt when the database containing the document was updated since. The number of indexes kept is read from
+ * the system property <code>pxml.conditions.capacity</code> (default 16).
+ * 
+ * @author Mattijs Ugen
+ */
+public final class ConditionIndex {
+
+	/**
+	 * The name of the system property configuring the maximum number of documents indexed at the same time.
+	 */
+	public static final String CAPACITY_PROPERTY = "pxml.conditions.capacity";
+
+	// indexes by document identity
+	private static final LruCache<NodeKey, ConditionIndex> INDEXES = new LruCache<NodeKey, ConditionIndex>(
+			Integer.getInteger(CAPACITY_PROPERTY, 16), 4);
+
+	// scans of documents building an index
+	private static final Metrics.Histogram BUILDS = Metrics.histogram("conditions.build");
+
+	// version of the document when the index was built
+	protected final long version;
+	// the database the document lives in, null for fragments
+	protected final Data data;
+	// the indexed nodes by document order position, for fragments only
+	protected final ANode[] nodes;
+	// the nodes requiring a condition by packed condition
+	protected final Map<Long, RoaringBitmap> postings;
+	// all indexed nodes
+	protected final RoaringBitmap all;
+
+	protected ConditionIndex(long version, Data data, ANode[] nodes, Map<Long, RoaringBitmap> postings,
+			RoaringBitmap all) {
+		this.version = version;
+		this.data = data;
+		this.nodes = nodes;
+		this.postings = postings;
+		this.all = all;
+	}
+
+	/**
+	 * Provides the index for document, building it if document was not indexed before.
+	 * 
+	 * @param document
+	 *            The root of the (part of the) p-document to index.
+	 * @return The index for document.
+	 */
+	public static ConditionIndex of(ANode document) {
+		NodeKey key = NodeKey.of(document);
+		ConditionIndex index = INDEXES.get(key);
+		if (index == null || index.version != key.version()) {
+			index = ConditionIndex.build(document);
+			INDEXES.put(key, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Builds an index by reading the descriptors of all p:cie nodes below document.
+	 * 
+	 * @param document
+	 *            The root of the (part of the) p-document to index.
+	 * @return A newly built index.
+	 */
+	public static ConditionIndex build(ANode document) {
+		long start = Metrics.start();
+		NodeKey key = NodeKey.of(document);
+		Data data = key.data();
+		List<ANode> nodes = data == null ? new ArrayList<ANode>() : null;
+		Map<Long, RoaringBitmap> postings = new HashMap<Long, RoaringBitmap>();
+		RoaringBitmap all = new RoaringBitmap();
+
+		for (ANode node : document.descendant()) {
+			if (ExistenceEvaluator.type(node) != ProbabilityNodeType.EVENTS) {
+				continue;
+			}
+			byte[] descriptors = ExistenceEvaluator.attribute(node, ExistenceEvaluator.DESCRIPTORS);
+			if (descriptors == null) {
+				continue;
+			}
+
+			// database axes may reuse a single node instance, read its pre value right away
+			int id;
+			if (nodes == null) {
+				id = ((DBNode) node).pre();
+			} else {
+				id = nodes.size();
+				nodes.add(node);
+			}
+			all.add(id);
+			Descriptor descriptor = Descriptor.get(descriptors);
+			for (int c = 0, size = descriptor.size(); c < size; c++) {
+				Long condition = descriptor.condition(c);
+				RoaringBitmap posting = postings.get(condition);
+				if (posting == null) {
+					posting = new RoaringBitmap();
+					postings.put(condition, posting);
+				}
+				posting.add(id);
+			}
+		}
+
+		ConditionIndex index = new ConditionIndex(key.version(), data, nodes == null ? null : nodes
+				.toArray(new ANode[nodes.size()]), postings, all);
+		BUILDS.stop(start);
+		return index;
+	}
+
+	/**
+	 * Looks up the nodes requiring a single condition.
+	 * 
+	 * @param variable
+	 *            The variable id.
+	 * @param value
+	 *            The value of the variable.
+	 * @return The posting list of the condition (not to be modified).
+	 */
+	public RoaringBitmap posting(int variable, int value) {
+		RoaringBitmap posting = this.postings.get(Descriptor.pack(variable, value));
+		return posting == null ? RoaringBitmap.EMPTY : posting;
+	}
+
+	/**
+	 * Looks up the nodes requiring all conditions of a descriptor, intersecting the posting lists of its conditions,
+	 * shortest first.
+	 * 
+	 * @param descriptor
+	 *            The conditions to look up.
+	 * @return The nodes requiring all conditions (all indexed nodes for the empty descriptor).
+	 */
+	public RoaringBitmap requiring(Descriptor descriptor) {
+		int size = descriptor.size();
+		if (size == 0) {
+			return this.all;
+		}
+
+		RoaringBitmap[] lists = new RoaringBitmap[size];
+		for (int c = 0; c < size; c++) {
+			lists[c] = this.posting(descriptor.variable(c), descriptor.value(c));
+			if (lists[c].isEmpty()) {
+				return RoaringBitmap.EMPTY;
+			}
+		}
+		if (size == 1) {
+			return lists[0];
+		}
+		Arrays.sort(lists, new Comparator<RoaringBitmap>() {
+			@Override
+			public int compare(RoaringBitmap a, RoaringBitmap b) {
+				return Integer.compare(a.cardinality(), b.cardinality());
+			}
+		});
+
+		RoaringBitmap result = lists[0];
+		for (int c = 1; c < size && !result.isEmpty(); c++) {
+			result = result.and(lists[c]);
+		}
+		return result;
+	}
+
+	/**
+	 * Looks up the nodes requiring all conditions of at least one of the descriptors.
+	 * 
+	 * @param descriptors
+	 *            The descriptors to look up.
+	 * @return The union of the nodes requiring every descriptor.
+	 */
+	public RoaringBitmap requiringAny(Descriptor[] descriptors) {
+		RoaringBitmap result = RoaringBitmap.EMPTY;
+		for (Descriptor descriptor : descriptors) {
+			result = result.or(this.requiring(descriptor));
+		}
+		return result;
+	}
+
+	/**
+	 * Provides the indexed node with the given id.
+	 * 
+	 * @param id
+	 *            A value from a posting list of this index.
+	 * @return The node.
+	 */
+	public ANode node(int id) {
+		return this.data != null ? new DBNode(this.data, id) : this.nodes[id];
+	}
+
+	/**
+	 * @return The number of distinct conditions in the index.
+	 */
+	public int size() {
+		return this.postings.size();
+	}
+
+}
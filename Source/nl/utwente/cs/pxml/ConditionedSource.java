@@ -0,0 +1,85 @@
+package nl.utwente.cs.pxml;
+
+/**
+ * Source of condition probabilities conditioned on evidence: a conjunction of conditions known to be true, overlaid
+ * on the probabilities of another source. Variables are independent, so conditioning only changes the distributions
+ * of the variables the evidence mentions: each is certain to have its observed value, all other variables are read
+ * from the underlying source as is. The underlying source (and any cache in front of it) is never changed, so
+ * evidence stays private to whoever holds the ConditionedSource; instances are immutable.
+ * 
+ * @author Mattijs Ugen
+ */
+public final class ConditionedSource implements ProbabilitySource {
+
+	protected final ProbabilitySource prior;
+	protected final Descriptor evidence;
+
+	/**
+	 * Creates a new ConditionedSource.
+	 * 
+	 * @param prior
+	 *            The source of the unconditioned probabilities.
+	 * @param evidence
+	 *            The conditions known to be true, which should be consistent.
+	 */
+	public ConditionedSource(ProbabilitySource prior, Descriptor evidence) {
+		this.prior = prior;
+		this.evidence = evidence;
+	}
+
+	/**
+	 * Conditions a source on evidence, returning the source itself when there is none.
+	 * 
+	 * @param prior
+	 *            The source of the unconditioned probabilities.
+	 * @param evidence
+	 *            The conditions known to be true, which should be consistent.
+	 * @return A source of the probabilities of prior given evidence.
+	 */
+	public static ProbabilitySource of(ProbabilitySource prior, Descriptor evidence) {
+		return evidence.size() == 0 ? prior : new ConditionedSource(prior, evidence);
+	}
+
+	/**
+	 * @return The conditions known to be true.
+	 */
+	public Descriptor evidence() {
+		return this.evidence;
+	}
+
+	/**
+	 * Provides the probability of a variable having a value given the evidence.
+	 * 
+	 * @param variable
+	 *            The variable id.
+	 * @param value
+	 *            The value of the variable.
+	 * @return 1.0 or 0.0 for an observed variable, depending on value being the observed one, the probability read
+	 *         from the underlying source otherwise.
+	 */
+	@Override
+	public double probability(int variable, int value) {
+		int c = this.evidence.indexOf(variable);
+		if (c < 0) {
+			return this.prior.probability(variable, value);
+		}
+		return this.evidence.value(c) == value ? 1.0 : 0.0;
+	}
+
+	/**
+	 * Calculates the probability of observing more conditions given the evidence: the product of the probabilities
+	 * of the conditions on variables not observed before.
+	 * 
+	 * @param observed
+	 *            The conditions to observe, which should be consistent with the evidence.
+	 * @return P(observed | evidence).
+	 */
+	public double likelihood(Descriptor observed) {
+		double likelihood = 1.0;
+		for (int c = 0, size = observed.size(); c < size; c++) {
+			likelihood *= this.probability(observed.variable(c), observed.value(c));
+		}
+		return likelihood;
+	}
+
+}
@@ -0,0 +1,459 @@
+package nl.utwente.cs.pxml;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import nl.utwente.cs.pxml.util.Metrics;
+
+import org.basex.util.Token;
+
+/**
+ * Compiled form of a condition descriptor string ("name=value name=value ..."). Variable names are interned through
+ * {@link SymbolTable#SHARED} and every condition is packed into a single long (variable id in the high, value in the
+ * low 32 bits). Conditions are kept sorted and free of duplicates, so consistency and exclusion tests are linear merges
+ * that do not allocate.
+ * 
+ * @author Mattijs Ugen
+ */
+public final class Descriptor implements Comparable<Descriptor> {
+
+	/**
+	 * The descriptor without any conditions (always true).
+	 */
+	public static final Descriptor EMPTY = new Descriptor(new long[0]);
+
+	// maximum number of compiled descriptors kept around by get(byte[])
+	private static final int CACHE_CAPACITY = 1 << 16;
+	// compiled descriptors by descriptor string
+	private static final ConcurrentMap<Key, Descriptor> CACHE = new ConcurrentHashMap<Key, Descriptor>();
+
+	private static final Metrics.Counter HITS = Metrics.counter("descriptor.hits");
+	private static final Metrics.Counter PARSES = Metrics.counter("descriptor.parses");
+
+	// the sorted, unique, packed conditions
+	protected final long[] conditions;
+
+	/**
+	 * Creates a new Descriptor from packed conditions. The array is used as is and should be sorted and free of
+	 * duplicates.
+	 * 
+	 * @param conditions
+	 *            The packed conditions.
+	 */
+	protected Descriptor(long[] conditions) {
+		this.conditions = conditions;
+	}
+
+	/**
+	 * Compiles a descriptor string, reusing an earlier compilation of the same string when available.
+	 * 
+	 * @param descriptor
+	 *            The descriptor string as bytes (not to be modified afterwards).
+	 * @return The compiled descriptor.
+	 * @throws DescriptorFormatException
+	 *             When the descriptor is malformed.
+	 */
+	public static Descriptor get(byte[] descriptor) {
+		Key key = new Key(descriptor);
+		Descriptor compiled = CACHE.get(key);
+		if (compiled == null) {
+			PARSES.increment();
+			compiled = Descriptor.compile(descriptor, 0, descriptor.length);
+			if (CACHE.size() >= CACHE_CAPACITY) {
+				// crude but bounded, the next few calls will simply recompile
+				CACHE.clear();
+			}
+			CACHE.put(key, compiled);
+		} else {
+			HITS.increment();
+		}
+		return compiled;
+	}
+
+	/**
+	 * Compiles a descriptor string.
+	 * 
+	 * @param descriptor
+	 *            A string containing conditions in "name=value"-form.
+	 * @return The compiled descriptor.
+	 * @throws DescriptorFormatException
+	 *             When the descriptor is malformed.
+	 */
+	public static Descriptor compile(String descriptor) {
+		byte[] bytes = Token.token(descriptor);
+		return Descriptor.compile(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Compiles (part of) a descriptor string given as UTF-8 bytes.
+	 * 
+	 * @param input
+	 *            Array containing the descriptor.
+	 * @param offset
+	 *            The offset of the descriptor in input.
+	 * @param length
+	 *            The length of the descriptor in bytes.
+	 * @return The compiled descriptor.
+	 * @throws DescriptorFormatException
+	 *             When the descriptor is malformed.
+	 */
+	public static Descriptor compile(byte[] input, int offset, int length) {
+		DescriptorTokenizer tokenizer = new DescriptorTokenizer(input, offset, length);
+		long[] packed = new long[8];
+		int size = 0;
+		while (tokenizer.next()) {
+			if (size == packed.length) {
+				packed = Arrays.copyOf(packed, size * 2);
+			}
+			int variable = SymbolTable.SHARED.intern(input, tokenizer.nameOffset(), tokenizer.nameLength());
+			packed[size++] = Descriptor.pack(variable, tokenizer.value());
+		}
+		return Descriptor.of(packed, size);
+	}
+
+	/**
+	 * Creates a Descriptor from the first size packed conditions in packed, sorting and deduplicating them. The array
+	 * may be modified.
+	 * 
+	 * @param packed
+	 *            Array containing packed conditions.
+	 * @param size
+	 *            The number of conditions in packed to use.
+	 * @return A descriptor containing the unique conditions.
+	 */
+	public static Descriptor of(long[] packed, int size) {
+		if (size == 0) {
+			return Descriptor.EMPTY;
+		}
+
+		Arrays.sort(packed, 0, size);
+		// squeeze out duplicates
+		int unique = 1;
+		for (int i = 1; i < size; i++) {
+			if (packed[i] != packed[unique - 1]) {
+				packed[unique++] = packed[i];
+			}
+		}
+		return new Descriptor(unique == packed.length ? packed : Arrays.copyOf(packed, unique));
+	}
+
+	/**
+	 * Packs a variable id and a value into a single long, ordering on variable first.
+	 * 
+	 * @param variable
+	 *            The variable id.
+	 * @param value
+	 *            The value of the variable.
+	 * @return The packed condition.
+	 */
+	public static long pack(int variable, int value) {
+		return ((long) variable << 32) | (value & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param condition
+	 *            A packed condition.
+	 * @return The variable id of the packed condition.
+	 */
+	public static int variable(long condition) {
+		return (int) (condition >>> 32);
+	}
+
+	/**
+	 * @param condition
+	 *            A packed condition.
+	 * @return The value of the packed condition.
+	 */
+	public static int value(long condition) {
+		return (int) condition;
+	}
+
+	/**
+	 * @return The number of unique conditions in this descriptor.
+	 */
+	public int size() {
+		return this.conditions.length;
+	}
+
+	/**
+	 * @param index
+	 *            The index of a condition, in [0, size()).
+	 * @return The packed condition at index.
+	 */
+	public long condition(int index) {
+		return this.conditions[index];
+	}
+
+	/**
+	 * @param index
+	 *            The index of a condition, in [0, size()).
+	 * @return The variable id of the condition at index.
+	 */
+	public int variable(int index) {
+		return Descriptor.variable(this.conditions[index]);
+	}
+
+	/**
+	 * @param index
+	 *            The index of a condition, in [0, size()).
+	 * @return The value of the condition at index.
+	 */
+	public int value(int index) {
+		return Descriptor.value(this.conditions[index]);
+	}
+
+	/**
+	 * Tests whether this descriptor is consistent, meaning no variable occurs with different values.
+	 * 
+	 * @return Whether all conditions can be true at the same time.
+	 */
+	public boolean isConsistent() {
+		// conditions are sorted on variable, conflicting conditions are neighbours
+		for (int i = 1; i < this.conditions.length; i++) {
+			if (Descriptor.variable(this.conditions[i]) == Descriptor.variable(this.conditions[i - 1])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Tests whether this descriptor is mutually exclusive with another, meaning a variable occurs in both with different
+	 * values.
+	 * 
+	 * @param other
+	 *            The descriptor to test against.
+	 * @return Whether the two descriptors can not be true at the same time.
+	 */
+	public boolean isExclusiveWith(Descriptor other) {
+		long[] a = this.conditions;
+		long[] b = other.conditions;
+		int i = 0, j = 0;
+		while (i < a.length && j < b.length) {
+			int varA = Descriptor.variable(a[i]);
+			int varB = Descriptor.variable(b[j]);
+			if (varA < varB) {
+				i++;
+			} else if (varA > varB) {
+				j++;
+			} else if (a[i] == b[j]) {
+				// same variable, same value, move on in both
+				i++;
+				j++;
+			} else {
+				// same variable, different value
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tests whether all conditions of this descriptor also occur in another (making this descriptor true whenever the
+	 * other is).
+	 * 
+	 * @param other
+	 *            The descriptor to test against.
+	 * @return Whether this descriptor's conditions are a subset of other's.
+	 */
+	public boolean isSubsetOf(Descriptor other) {
+		long[] a = this.conditions;
+		long[] b = other.conditions;
+		if (a.length > b.length) {
+			return false;
+		}
+
+		int j = 0;
+		for (int i = 0; i < a.length; i++) {
+			while (j < b.length && b[j] < a[i]) {
+				j++;
+			}
+			if (j == b.length || b[j] != a[i]) {
+				return false;
+			}
+			j++;
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the first condition on variable.
+	 * 
+	 * @param variable
+	 *            The variable id to look for.
+	 * @return The index of the first condition on variable, or -1 if variable does not occur.
+	 */
+	public int indexOf(int variable) {
+		// binary search for the lowest possible condition on variable (values are ordered unsigned)
+		int index = Arrays.binarySearch(this.conditions, Descriptor.pack(variable, 0));
+		if (index < 0) {
+			index = -index - 1;
+		}
+		return index < this.conditions.length && Descriptor.variable(this.conditions[index]) == variable ? index : -1;
+	}
+
+	/**
+	 * Creates a descriptor with all conditions on variable removed.
+	 * 
+	 * @param variable
+	 *            The variable id to remove.
+	 * @return A descriptor without conditions on variable (this when variable does not occur).
+	 */
+	public Descriptor without(int variable) {
+		int from = this.indexOf(variable);
+		if (from < 0) {
+			return this;
+		}
+
+		int to = from;
+		while (to < this.conditions.length && Descriptor.variable(this.conditions[to]) == variable) {
+			to++;
+		}
+		long[] remaining = new long[this.conditions.length - (to - from)];
+		System.arraycopy(this.conditions, 0, remaining, 0, from);
+		System.arraycopy(this.conditions, to, remaining, from, this.conditions.length - to);
+		return remaining.length == 0 ? Descriptor.EMPTY : new Descriptor(remaining);
+	}
+
+	/**
+	 * Combines the conditions of this descriptor with those of another. The result need not be consistent.
+	 * 
+	 * @param other
+	 *            The descriptor to combine with.
+	 * @return A descriptor containing the unique conditions of both.
+	 */
+	public Descriptor union(Descriptor other) {
+		if (other.conditions.length == 0 || other == this) {
+			return this;
+		} else if (this.conditions.length == 0) {
+			return other;
+		}
+
+		long[] a = this.conditions;
+		long[] b = other.conditions;
+		long[] merged = new long[a.length + b.length];
+		int i = 0, j = 0, size = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				merged[size++] = a[i++];
+			} else if (a[i] > b[j]) {
+				merged[size++] = b[j++];
+			} else {
+				merged[size++] = a[i++];
+				j++;
+			}
+		}
+		while (i < a.length) {
+			merged[size++] = a[i++];
+		}
+		while (j < b.length) {
+			merged[size++] = b[j++];
+		}
+		return new Descriptor(size == merged.length ? merged : Arrays.copyOf(merged, size));
+	}
+
+	/**
+	 * Orders descriptors lexicographically on their packed conditions.
+	 */
+	@Override
+	public int compareTo(Descriptor other) {
+		long[] a = this.conditions;
+		long[] b = other.conditions;
+		for (int i = 0, length = Math.min(a.length, b.length); i < length; i++) {
+			if (a[i] != b[i]) {
+				return a[i] < b[i] ? -1 : 1;
+			}
+		}
+		return Integer.compare(a.length, b.length);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof Descriptor && Arrays.equals(this.conditions, ((Descriptor) other).conditions);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(this.conditions);
+	}
+
+	/**
+	 * Calculates a 64-bit fingerprint of the conditions of this descriptor. The fingerprint depends on the variable
+	 * names and values only (not on the order in which the names were interned), so equal descriptors have the same
+	 * fingerprint in every run and different descriptors collide with a probability of about 2^-64.
+	 * 
+	 * @return The fingerprint of this descriptor.
+	 */
+	public long fingerprint() {
+		// summing the mixed conditions makes the fingerprint independent of their order
+		long fingerprint = 0L;
+		for (int i = 0; i < this.conditions.length; i++) {
+			long condition = SymbolTable.SHARED.fingerprint(this.variable(i)) + 0x9e3779b97f4a7c15L
+					* (this.value(i) + 1L);
+			condition = (condition ^ (condition >>> 30)) * 0xbf58476d1ce4e5b9L;
+			condition = (condition ^ (condition >>> 27)) * 0x94d049bb133111ebL;
+			fingerprint += condition ^ (condition >>> 31);
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Creates the canonical string form of this descriptor: conditions ordered on variable name (in natural order, see
+	 * {@link SymbolTable#compareNames(String, String)}) and value, separated by a single space. Equal descriptors have
+	 * the same string form, regardless of the order in which their conditions were written or interned.
+	 */
+	@Override
+	public String toString() {
+		Integer[] order = new Integer[this.conditions.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		if (order.length > 1) {
+			// the sort is stable and conditions on the same variable are already ordered on value
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return SymbolTable.compareNames(SymbolTable.SHARED.name(Descriptor.this.variable(a)),
+							SymbolTable.SHARED.name(Descriptor.this.variable(b)));
+				}
+			});
+		}
+
+		StringBuilder result = new StringBuilder(this.conditions.length * 10);
+		for (int i = 0; i < order.length; i++) {
+			if (i > 0) {
+				result.append(' ');
+			}
+			result.append(SymbolTable.SHARED.name(this.variable(order[i]))).append('=').append(this.value(order[i]));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Cache key comparing descriptor strings by content.
+	 */
+	private static final class Key {
+
+		private final byte[] string;
+		private final int hash;
+
+		private Key(byte[] string) {
+			this.string = string;
+			this.hash = Arrays.hashCode(string);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Key && Arrays.equals(this.string, ((Key) other).string);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+	}
+
+}
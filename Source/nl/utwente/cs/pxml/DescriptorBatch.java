@@ -0,0 +1,130 @@
+package nl.utwente.cs.pxml;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Evaluates a batch of descriptors at once, sharing the work on common prefixes. Descriptors of nested p:cie nodes
+ * extend the descriptors of their ancestors, so their sorted conditions share long prefixes. Visiting the descriptors
+ * in lexicographic order walks the trie of their conditions depth-first: a stack holds the result for every prefix of
+ * the current descriptor, and only the conditions following the prefix shared with the previous descriptor are
+ * evaluated.
+ * 
+ * @author Mattijs Ugen
+ */
+public class DescriptorBatch {
+
+	protected final Descriptor[] descriptors;
+	// the positions of the descriptors in lexicographic order
+	protected final int[] order;
+	// for every descriptor in order, the length of the prefix shared with its predecessor
+	protected final int[] shared;
+	protected final int maxSize;
+
+	/**
+	 * Creates a new DescriptorBatch.
+	 * 
+	 * @param descriptors
+	 *            The descriptors in the batch.
+	 */
+	public DescriptorBatch(final Descriptor[] descriptors) {
+		this.descriptors = descriptors;
+
+		Integer[] order = new Integer[descriptors.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return descriptors[a].compareTo(descriptors[b]);
+			}
+		});
+
+		this.order = new int[order.length];
+		this.shared = new int[order.length];
+		int maxSize = 0;
+		for (int i = 0; i < order.length; i++) {
+			this.order[i] = order[i];
+			Descriptor current = descriptors[order[i]];
+			maxSize = Math.max(maxSize, current.size());
+			if (i > 0) {
+				this.shared[i] = DescriptorBatch.sharedPrefix(descriptors[order[i - 1]], current);
+			}
+		}
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return The number of descriptors in the batch.
+	 */
+	public int size() {
+		return this.descriptors.length;
+	}
+
+	/**
+	 * Computes the probabilities of all descriptors by multiplying the probabilities of their conditions (without
+	 * checking for consistency, like {@link PXML#probability}).
+	 * 
+	 * @param source
+	 *            The source of condition probabilities.
+	 * @return The probabilities, in the order of the descriptors.
+	 */
+	public double[] probabilities(ProbabilitySource source) {
+		double[] probabilities = new double[this.descriptors.length];
+		// products[j] is the product of the first j conditions of the current descriptor
+		double[] products = new double[this.maxSize + 1];
+		products[0] = 1.0;
+		for (int i = 0; i < this.order.length; i++) {
+			Descriptor descriptor = this.descriptors[this.order[i]];
+			for (int j = this.shared[i], size = descriptor.size(); j < size; j++) {
+				products[j + 1] = products[j] * source.probability(descriptor.variable(j), descriptor.value(j));
+			}
+			probabilities[this.order[i]] = products[descriptor.size()];
+		}
+		return probabilities;
+	}
+
+	/**
+	 * Tests all descriptors for consistency.
+	 * 
+	 * @return Whether each descriptor is consistent, in the order of the descriptors.
+	 */
+	public boolean[] consistent() {
+		boolean[] consistent = new boolean[this.descriptors.length];
+		// prefixes[j] tells whether the first j conditions of the current descriptor are consistent
+		boolean[] prefixes = new boolean[this.maxSize + 1];
+		prefixes[0] = true;
+		for (int i = 0; i < this.order.length; i++) {
+			Descriptor descriptor = this.descriptors[this.order[i]];
+			for (int j = this.shared[i], size = descriptor.size(); j < size; j++) {
+				// conflicting conditions are neighbours
+				prefixes[j + 1] = prefixes[j] && (j == 0 || descriptor.variable(j) != descriptor.variable(j - 1));
+			}
+			consistent[this.order[i]] = prefixes[descriptor.size()];
+		}
+		return consistent;
+	}
+
+	/**
+	 * @return The total number of conditions evaluated by {@link #probabilities(ProbabilitySource)}.
+	 */
+	public long evaluated() {
+		long evaluated = 0;
+		for (int i = 0; i < this.order.length; i++) {
+			evaluated += this.descriptors[this.order[i]].size() - this.shared[i];
+		}
+		return evaluated;
+	}
+
+	private static int sharedPrefix(Descriptor a, Descriptor b) {
+		int length = Math.min(a.size(), b.size());
+		for (int i = 0; i < length; i++) {
+			if (a.condition(i) != b.condition(i)) {
+				return i;
+			}
+		}
+		return length;
+	}
+
+}
@@ -0,0 +1,38 @@
+package nl.utwente.cs.pxml;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Thrown when a condition descriptor is malformed. Extends {@link NoSuchElementException} as that is what callers of
+ * {@link ConditionGenerator} have always been catching.
+ * 
+ * @author Mattijs Ugen
+ */
+public class DescriptorFormatException extends NoSuchElementException {
+
+	private static final long serialVersionUID = 4925719081730916422L;
+
+	// offset into the descriptor at which the problem was found
+	protected final int position;
+
+	/**
+	 * Creates a new DescriptorFormatException.
+	 * 
+	 * @param message
+	 *            What was wrong with the descriptor.
+	 * @param position
+	 *            The offset into the descriptor at which the problem was found.
+	 */
+	public DescriptorFormatException(String message, int position) {
+		super(message + " at position " + position);
+		this.position = position;
+	}
+
+	/**
+	 * @return The offset into the descriptor at which the problem was found.
+	 */
+	public int getPosition() {
+		return this.position;
+	}
+
+}
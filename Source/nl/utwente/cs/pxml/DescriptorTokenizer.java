@@ -0,0 +1,182 @@
+package nl.utwente.cs.pxml;
+
+/**
+ * Cursor-style tokenizer reading "name=value" conditions directly from the bytes of a descriptor (as provided by
+ * BaseX's <code>Str.string()</code>). Names and values are separated from each other and from the next condition by
+ * any run of whitespace and '=' characters, just like {@link ConditionGenerator#PATTERN} used to do. Meant to be used
+ * as
+ * 
+ * <pre>
+ * DescriptorTokenizer tokenizer = new DescriptorTokenizer(bytes);
+ * while (tokenizer.next()) {
+ * 	// use tokenizer.nameOffset(), tokenizer.nameLength() and tokenizer.value()
+ * }
+ * </pre>
+ * 
+ * The tokenizer does not allocate while tokenizing.
+ * 
+ * @author Mattijs Ugen
+ */
+public final class DescriptorTokenizer {
+
+	protected final byte[] input;
+	protected final int end;
+	// offset of the next byte to read
+	protected int position;
+
+	// the current condition
+	protected int nameOffset;
+	protected int nameLength;
+	protected int value;
+
+	/**
+	 * Creates a new DescriptorTokenizer over all of input.
+	 * 
+	 * @param input
+	 *            The descriptor bytes.
+	 */
+	public DescriptorTokenizer(byte[] input) {
+		this(input, 0, input.length);
+	}
+
+	/**
+	 * Creates a new DescriptorTokenizer over a part of input.
+	 * 
+	 * @param input
+	 *            The descriptor bytes.
+	 * @param offset
+	 *            The offset of the first byte to read.
+	 * @param length
+	 *            The number of bytes to read.
+	 */
+	public DescriptorTokenizer(byte[] input, int offset, int length) {
+		this.input = input;
+		this.position = offset;
+		this.end = offset + length;
+		this.nameOffset = -1;
+	}
+
+	/**
+	 * Tests whether there is another condition to be read, without moving the cursor to it.
+	 * 
+	 * @return Whether a call to {@link #next()} would find a condition.
+	 */
+	public boolean hasNext() {
+		this.skipSeparators();
+		return this.position < this.end;
+	}
+
+	/**
+	 * Moves the cursor to the next condition.
+	 * 
+	 * @return Whether a condition was read (false when the end of the input was reached).
+	 * @throws DescriptorFormatException
+	 *             When the input is malformed.
+	 */
+	public boolean next() {
+		if (!this.hasNext()) {
+			return false;
+		}
+
+		// read the name, up to the next separator
+		this.nameOffset = this.position;
+		while (this.position < this.end && !DescriptorTokenizer.isSeparator(this.input[this.position])) {
+			this.position++;
+		}
+		this.nameLength = this.position - this.nameOffset;
+
+		this.skipSeparators();
+		if (this.position == this.end) {
+			throw new DescriptorFormatException("missing value for condition", this.position);
+		}
+
+		// read the value, an optionally signed integer
+		int start = this.position;
+		boolean negative = false;
+		if (this.input[this.position] == '-' || this.input[this.position] == '+') {
+			negative = this.input[this.position] == '-';
+			this.position++;
+		}
+		// accumulate negatively to be able to represent Integer.MIN_VALUE
+		long value = 0;
+		int digits = 0;
+		while (this.position < this.end && !DescriptorTokenizer.isSeparator(this.input[this.position])) {
+			int digit = this.input[this.position] - '0';
+			if (digit < 0 || digit > 9) {
+				throw new DescriptorFormatException("unexpected character '" + (char) this.input[this.position]
+						+ "' in value", this.position);
+			}
+			value = value * 10 - digit;
+			if (value < Integer.MIN_VALUE) {
+				throw new DescriptorFormatException("value out of range", start);
+			}
+			digits++;
+			this.position++;
+		}
+		if (digits == 0) {
+			throw new DescriptorFormatException("missing digits in value", start);
+		}
+		if (!negative && value == Integer.MIN_VALUE) {
+			throw new DescriptorFormatException("value out of range", start);
+		}
+
+		this.value = (int) (negative ? value : -value);
+		return true;
+	}
+
+	/**
+	 * @return The descriptor bytes this tokenizer reads from.
+	 */
+	public byte[] input() {
+		return this.input;
+	}
+
+	/**
+	 * @return The offset of the next byte to be read.
+	 */
+	public int position() {
+		return this.position;
+	}
+
+	/**
+	 * @return The offset of the name of the current condition in {@link #input()}.
+	 */
+	public int nameOffset() {
+		return this.nameOffset;
+	}
+
+	/**
+	 * @return The length in bytes of the name of the current condition.
+	 */
+	public int nameLength() {
+		return this.nameLength;
+	}
+
+	/**
+	 * @return The value of the current condition.
+	 */
+	public int value() {
+		return this.value;
+	}
+
+	/**
+	 * Advances the cursor past any separators.
+	 */
+	protected void skipSeparators() {
+		while (this.position < this.end && DescriptorTokenizer.isSeparator(this.input[this.position])) {
+			this.position++;
+		}
+	}
+
+	/**
+	 * Tests whether b separates names, values and conditions (whitespace as in \s, or '=').
+	 * 
+	 * @param b
+	 *            The byte to test.
+	 * @return Whether b is a separator.
+	 */
+	public static boolean isSeparator(byte b) {
+		return b == ' ' || b == '=' || b == '\t' || b == '\n' || b == '\r' || b == '\f' || b == 0x0B;
+	}
+
+}
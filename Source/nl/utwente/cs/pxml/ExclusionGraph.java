@@ -0,0 +1,209 @@
+package nl.utwente.cs.pxml;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Graph of mutual exclusion between descriptors: two descriptors are adjacent when a variable occurs in both with
+ * different values (see {@link Descriptor#isExclusiveWith(Descriptor)}). Rather than testing every pair, the
+ * conditions of all descriptors are sorted on (variable, value, descriptor), so that only descriptors sharing a
+ * variable are ever paired up.
+ * 
+ * The adjacency is stored in compressed sparse row form: the neighbours of descriptor i are
+ * neighbours[offsets[i]] up to neighbours[offsets[i + 1]], sorted.
+ * 
+ * @author Mattijs Ugen
+ */
+public final class ExclusionGraph {
+
+	protected final int size;
+	protected final int[] offsets;
+	protected final int[] neighbours;
+
+	private ExclusionGraph(int size, int[] offsets, int[] neighbours) {
+		this.size = size;
+		this.offsets = offsets;
+		this.neighbours = neighbours;
+	}
+
+	/**
+	 * Builds the exclusion graph of a set of descriptors.
+	 * 
+	 * @param descriptors
+	 *            The descriptors.
+	 * @return The exclusion graph, vertex i being descriptors[i].
+	 */
+	public static ExclusionGraph of(Descriptor[] descriptors) {
+		// flatten all conditions into (packed condition, descriptor) entries, sorted
+		int total = 0;
+		for (Descriptor descriptor : descriptors) {
+			total += descriptor.size();
+		}
+		final long[] conditions = new long[total];
+		final int[] owners = new int[total];
+		Integer[] order = new Integer[total];
+		for (int d = 0, e = 0; d < descriptors.length; d++) {
+			for (int c = 0, size = descriptors[d].size(); c < size; c++, e++) {
+				conditions[e] = descriptors[d].condition(c);
+				owners[e] = d;
+				order[e] = e;
+			}
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int result = Long.compare(conditions[a], conditions[b]);
+				return result != 0 ? result : Integer.compare(owners[a], owners[b]);
+			}
+		});
+
+		// pair up the descriptors of different values of every variable, as (low, high) packed into a long
+		long[] pairs = new long[16];
+		int numPairs = 0;
+		for (int from = 0; from < total;) {
+			int variable = Descriptor.variable(conditions[order[from]]);
+			int to = from;
+			while (to < total && Descriptor.variable(conditions[order[to]]) == variable) {
+				to++;
+			}
+
+			// every entry conflicts with all entries of later values of the same variable
+			for (int i = from; i < to; i++) {
+				int j = i + 1;
+				while (j < to && conditions[order[j]] == conditions[order[i]]) {
+					j++;
+				}
+				for (; j < to; j++) {
+					int a = owners[order[i]], b = owners[order[j]];
+					if (a == b) {
+						// an inconsistent descriptor is not excluded by itself
+						continue;
+					}
+					if (numPairs == pairs.length) {
+						pairs = Arrays.copyOf(pairs, pairs.length * 2);
+					}
+					pairs[numPairs++] = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+				}
+			}
+			from = to;
+		}
+
+		// descriptors conflicting on multiple variables yield duplicate pairs
+		Arrays.sort(pairs, 0, numPairs);
+		int unique = 0;
+		for (int i = 0; i < numPairs; i++) {
+			if (unique == 0 || pairs[unique - 1] != pairs[i]) {
+				pairs[unique++] = pairs[i];
+			}
+		}
+
+		// count the degrees, then fill in both directions of every edge
+		int[] offsets = new int[descriptors.length + 1];
+		for (int i = 0; i < unique; i++) {
+			offsets[(int) (pairs[i] >>> 32) + 1]++;
+			offsets[(int) pairs[i] + 1]++;
+		}
+		for (int i = 0; i < descriptors.length; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+		int[] neighbours = new int[unique * 2];
+		int[] fill = Arrays.copyOf(offsets, descriptors.length);
+		for (int i = 0; i < unique; i++) {
+			int a = (int) (pairs[i] >>> 32), b = (int) pairs[i];
+			neighbours[fill[a]++] = b;
+			neighbours[fill[b]++] = a;
+		}
+		for (int i = 0; i < descriptors.length; i++) {
+			Arrays.sort(neighbours, offsets[i], offsets[i + 1]);
+		}
+
+		return new ExclusionGraph(descriptors.length, offsets, neighbours);
+	}
+
+	/**
+	 * @return The number of descriptors (vertices).
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return The number of pairs of mutually exclusive descriptors (edges).
+	 */
+	public int edges() {
+		return this.neighbours.length / 2;
+	}
+
+	/**
+	 * @param descriptor
+	 *            The index of a descriptor.
+	 * @return The number of descriptors exclusive with descriptor.
+	 */
+	public int degree(int descriptor) {
+		return this.offsets[descriptor + 1] - this.offsets[descriptor];
+	}
+
+	/**
+	 * @param descriptor
+	 *            The index of a descriptor.
+	 * @return The indices of the descriptors exclusive with descriptor, sorted.
+	 */
+	public int[] neighbours(int descriptor) {
+		return Arrays.copyOfRange(this.neighbours, this.offsets[descriptor], this.offsets[descriptor + 1]);
+	}
+
+	/**
+	 * Tests whether two descriptors are mutually exclusive.
+	 * 
+	 * @param a
+	 *            The index of one descriptor.
+	 * @param b
+	 *            The index of the other descriptor.
+	 * @return Whether a and b are adjacent.
+	 */
+	public boolean isExclusive(int a, int b) {
+		return Arrays.binarySearch(this.neighbours, this.offsets[a], this.offsets[a + 1], b) >= 0;
+	}
+
+	/**
+	 * Partitions the descriptors into groups of pairwise compatible (non-exclusive) descriptors by greedily coloring
+	 * the graph, visiting descriptors in order of decreasing degree. The number of groups is not necessarily minimal,
+	 * but at most one more than the highest degree.
+	 * 
+	 * @return The group of every descriptor, groups numbered from 0.
+	 */
+	public int[] groups() {
+		Integer[] order = new Integer[this.size];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int result = Integer.compare(ExclusionGraph.this.degree(b), ExclusionGraph.this.degree(a));
+				return result != 0 ? result : Integer.compare(a, b);
+			}
+		});
+
+		int[] groups = new int[this.size];
+		Arrays.fill(groups, -1);
+		// marks the groups taken by neighbours of the current descriptor
+		int[] taken = new int[this.size + 1];
+		Arrays.fill(taken, -1);
+		for (int descriptor : order) {
+			for (int i = this.offsets[descriptor]; i < this.offsets[descriptor + 1]; i++) {
+				int group = groups[this.neighbours[i]];
+				if (group >= 0) {
+					taken[group] = descriptor;
+				}
+			}
+			int group = 0;
+			while (taken[group] == descriptor) {
+				group++;
+			}
+			groups[descriptor] = group;
+		}
+		return groups;
+	}
+
+}
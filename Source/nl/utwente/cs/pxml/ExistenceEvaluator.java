@@ -0,0 +1,279 @@
+package nl.utwente.cs.pxml;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.utwente.cs.pxml.transform.doc.DocumentTransformer;
+
+import org.basex.query.value.node.ANode;
+import org.basex.query.value.type.NodeType;
+import org.basex.util.Token;
+
+/**
+ * Computes the marginal probability of a node existing in a p-document, given the probability nodes among its
+ * ancestors: the <code>p:child-i</code> attributes of ind and mux nodes, the subsets of exp nodes (see
+ * {@link SubsetDistribution}) and the descriptors of cie nodes. Choices made by different ind, mux and exp nodes are
+ * independent, so their probabilities are multiplied, while the descriptors of all cie ancestors are combined into a
+ * single conjunction first (nested cie nodes may share variables).
+ * 
+ * The walk up to the root is done once per ancestor: the result for every node passed is memoized by its identity
+ * (database and pre value), so that the siblings and descendants of a node evaluated earlier only walk up to their
+ * nearest common ancestor. Children of probability nodes are numbered by their position among all children (text
+ * nodes included), as the DocumentTransformer numbers them. All children of a probability node are numbered in a
+ * single walk the first time one of them is evaluated (and the probabilities of all children of ind and mux nodes
+ * read at once), so evaluating every child of a wide node takes linear time.
+ * 
+ * An evaluator should not be shared between threads.
+ * 
+ * @author Mattijs Ugen
+ */
+public class ExistenceEvaluator {
+
+	// uri of the probability namespace
+	protected static final byte[] NS_URI = Token.token(DocumentTransformer.NS_URI);
+	// local names of the attributes read
+	protected static final byte[] DESCRIPTORS = Token.token("descriptors");
+	protected static final String CHILD_PREFIX = "child-";
+
+	protected final ProbabilitySource source;
+	protected final Map<NodeKey, Prefix> memo;
+	// the positions of the children of the probability nodes numbered so far, by child identity
+	protected final Map<NodeKey, Integer> positions;
+	// the number of children of the probability nodes numbered so far
+	protected final Map<NodeKey, Integer> childCounts;
+	// the p:child-i probabilities of the ind and mux nodes seen, by position
+	protected final Map<NodeKey, double[]> childProbabilities;
+	// the prefix of nodes without probability nodes among their ancestors
+	protected final Prefix certain;
+
+	/**
+	 * Creates a new ExistenceEvaluator reading condition probabilities from source.
+	 * 
+	 * @param source
+	 *            The source of condition probabilities.
+	 */
+	public ExistenceEvaluator(ProbabilitySource source) {
+		this.source = source;
+		this.memo = new HashMap<NodeKey, Prefix>();
+		this.positions = new HashMap<NodeKey, Integer>();
+		this.childCounts = new HashMap<NodeKey, Integer>();
+		this.childProbabilities = new HashMap<NodeKey, double[]>();
+		this.certain = new Prefix(1.0, Descriptor.EMPTY);
+	}
+
+	/**
+	 * Computes the probability of node existing.
+	 * 
+	 * @param node
+	 *            The node.
+	 * @return The probability of node existing, 0.0 when the descriptors of its cie ancestors are inconsistent.
+	 * @throws IllegalArgumentException
+	 *             When the probabilities of an ancestor are malformed.
+	 */
+	public double probability(ANode node) {
+		Prefix prefix = this.prefix(node);
+		if (Double.isNaN(prefix.probability)) {
+			prefix.probability = prefix.factor * this.conjunction(prefix.events);
+		}
+		return prefix.probability;
+	}
+
+	/**
+	 * @return The number of nodes memoized.
+	 */
+	public int size() {
+		return this.memo.size();
+	}
+
+	/**
+	 * Finds the prefix of node, walking up to the nearest ancestor memoized before (or the root) and extending its
+	 * prefix down again, memoizing every node on the way.
+	 */
+	protected Prefix prefix(ANode node) {
+		List<ANode> path = new ArrayList<ANode>();
+		List<NodeKey> keys = new ArrayList<NodeKey>();
+		Prefix prefix = null;
+		for (ANode current = node; current != null; current = current.parent()) {
+			NodeKey key = NodeKey.of(current);
+			prefix = this.memo.get(key);
+			if (prefix != null) {
+				break;
+			}
+			path.add(current);
+			keys.add(key);
+		}
+
+		for (int i = path.size() - 1; i >= 0; i--) {
+			ANode current = path.get(i);
+			ANode parent = current.parent();
+			prefix = parent == null ? this.certain : this.extend(prefix, parent, current);
+			this.memo.put(keys.get(i), prefix);
+		}
+		return prefix;
+	}
+
+	/**
+	 * Extends the prefix of parent with the probability of child being chosen by parent.
+	 */
+	protected Prefix extend(Prefix prefix, ANode parent, ANode child) {
+		ProbabilityNodeType type = ExistenceEvaluator.type(parent);
+		if (type == null || child.type == NodeType.ATT) {
+			// regular elements and attributes exist along with their parent
+			return prefix;
+		}
+
+		switch (type) {
+		case INDEPENDENT:
+		case MUTEX:
+			return new Prefix(prefix.factor * this.childProbability(parent, this.position(parent, child)),
+					prefix.events);
+		case EXPLICIT:
+			return new Prefix(prefix.factor
+					* SubsetDistribution.of(parent).childProbability(this.position(parent, child)),
+					prefix.events);
+		case EVENTS:
+			byte[] descriptors = ExistenceEvaluator.attribute(parent, DESCRIPTORS);
+			return descriptors == null ? prefix : new Prefix(prefix.factor, prefix.events.union(Descriptor
+					.get(descriptors)));
+		default:
+			return prefix;
+		}
+	}
+
+	/**
+	 * Calculates the probability of all conditions of a consistent descriptor being true.
+	 */
+	protected double conjunction(Descriptor events) {
+		if (!events.isConsistent()) {
+			return 0.0;
+		}
+		double probability = 1.0;
+		for (int i = 0, size = events.size(); i < size; i++) {
+			probability *= this.source.probability(events.variable(i), events.value(i));
+		}
+		return probability;
+	}
+
+	/**
+	 * Determines the type of a probability node.
+	 * 
+	 * @param node
+	 *            The node.
+	 * @return The type of the node, null when it is not an element in the probability namespace.
+	 */
+	protected static ProbabilityNodeType type(ANode node) {
+		if (node.type != NodeType.ELM || !Token.eq(node.qname().uri(), NS_URI)) {
+			return null;
+		}
+		String name = Token.string(node.qname().local());
+		for (ProbabilityNodeType type : ProbabilityNodeType.values()) {
+			if (type.nodeName.equals(name)) {
+				return type;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Looks up the p:child-i probability of the child at a position of an ind or mux node, reading all of them the
+	 * first time (a missing attribute meaning the child is never chosen).
+	 */
+	protected double childProbability(ANode parent, int position) {
+		NodeKey key = NodeKey.of(parent);
+		double[] probabilities = this.childProbabilities.get(key);
+		if (probabilities == null) {
+			// attributes beyond the last child are never looked up (the children are numbered by now)
+			Integer numChilds = this.childCounts.get(key);
+			if (numChilds == null) {
+				this.position(parent, parent);
+				numChilds = this.childCounts.get(key);
+			}
+			probabilities = new double[numChilds + 1];
+			for (ANode attr : parent.attributes()) {
+				String name = Token.string(attr.qname().local());
+				if (!name.startsWith(CHILD_PREFIX)) {
+					continue;
+				}
+				int i;
+				try {
+					i = Integer.parseInt(name.substring(CHILD_PREFIX.length()));
+				} catch (NumberFormatException e) {
+					// not a p:child-i attribute
+					continue;
+				}
+				if (i < 1 || i > numChilds) {
+					continue;
+				}
+				probabilities[i] = ExistenceEvaluator.parseProbability(attr.string());
+			}
+			this.childProbabilities.put(key, probabilities);
+		}
+		return position < probabilities.length ? probabilities[position] : 0.0;
+	}
+
+	/**
+	 * Determines the (1-based) position of child among all children of parent, numbering all children of parent the
+	 * first time.
+	 */
+	protected int position(ANode parent, ANode child) {
+		NodeKey key = NodeKey.of(child);
+		Integer position = this.positions.get(key);
+		NodeKey parentKey = NodeKey.of(parent);
+		if (position == null && !this.childCounts.containsKey(parentKey)) {
+			int next = 1;
+			for (ANode sibling : parent.children()) {
+				this.positions.put(NodeKey.of(sibling), next++);
+			}
+			this.childCounts.put(parentKey, next - 1);
+			position = this.positions.get(key);
+		}
+		return position == null ? 0 : position;
+	}
+
+	/**
+	 * Finds an attribute of node by its local name.
+	 */
+	protected static byte[] attribute(ANode node, byte[] local) {
+		for (ANode attr : node.attributes()) {
+			if (Token.eq(attr.qname().local(), local)) {
+				return attr.string();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Parses a probability attribute, a missing attribute meaning the child is never chosen.
+	 */
+	protected static double parseProbability(byte[] probability) {
+		if (probability == null) {
+			return 0.0;
+		}
+		try {
+			return Double.parseDouble(Token.string(probability));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("malformed probability " + Token.string(probability), e);
+		}
+	}
+
+	/**
+	 * The existence of a node: the product of the probabilities of the ind, mux and exp nodes among its ancestors
+	 * choosing the path to it, and the combined descriptors of its cie ancestors.
+	 */
+	protected static final class Prefix {
+
+		protected final double factor;
+		protected final Descriptor events;
+		// the probability of the node, calculated when first requested
+		protected double probability = Double.NaN;
+
+		protected Prefix(double factor, Descriptor events) {
+			this.factor = factor;
+			this.events = events;
+		}
+
+	}
+
+}
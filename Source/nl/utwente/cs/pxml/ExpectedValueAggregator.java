@@ -0,0 +1,108 @@
+package nl.utwente.cs.pxml;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Accumulates expected aggregates over probabilistic results: every result exists with the probability of its
+ * descriptor, so by linearity of expectation the expected number of results is the sum of those probabilities, and
+ * the expected sum of their values the sum of probability-weighted values. Inconsistent descriptors never hold and
+ * contribute nothing.
+ * 
+ * Results tend to share descriptors (all results below the same p:cie node do), so probabilities are memoized per
+ * distinct descriptor. An aggregator should not be shared between threads.
+ * 
+ * @author Mattijs Ugen
+ */
+public class ExpectedValueAggregator {
+
+	protected final ProbabilitySource source;
+	protected final Map<Descriptor, Double> memo;
+
+	protected double count = 0.0;
+	protected double sum = 0.0;
+
+	/**
+	 * Creates a new ExpectedValueAggregator.
+	 * 
+	 * @param source
+	 *            The source of condition probabilities.
+	 */
+	public ExpectedValueAggregator(ProbabilitySource source) {
+		this.source = source;
+		this.memo = new HashMap<Descriptor, Double>();
+	}
+
+	/**
+	 * Adds a result without a value, contributing to the expected count only.
+	 * 
+	 * @param descriptor
+	 *            The descriptor of the result.
+	 */
+	public void add(Descriptor descriptor) {
+		this.count += this.probability(descriptor);
+	}
+
+	/**
+	 * Adds a result with a value.
+	 * 
+	 * @param descriptor
+	 *            The descriptor of the result.
+	 * @param value
+	 *            The value of the result.
+	 */
+	public void add(Descriptor descriptor, double value) {
+		double probability = this.probability(descriptor);
+		this.count += probability;
+		this.sum += probability * value;
+	}
+
+	/**
+	 * @return The expected number of results.
+	 */
+	public double count() {
+		return this.count;
+	}
+
+	/**
+	 * @return The expected sum of the values of the results.
+	 */
+	public double sum() {
+		return this.sum;
+	}
+
+	/**
+	 * Computes the ratio of the expected sum and the expected count. Note that this is not in general the expected
+	 * value of the average (which is undefined in worlds without results), but the usual estimate for it.
+	 * 
+	 * @return The expected sum divided by the expected count, NaN when the expected count is 0.0.
+	 */
+	public double average() {
+		return this.count == 0.0 ? Double.NaN : this.sum / this.count;
+	}
+
+	/**
+	 * Computes the probability of a descriptor, 0.0 for inconsistent descriptors.
+	 * 
+	 * @param descriptor
+	 *            The descriptor.
+	 * @return The probability of all of its conditions being true.
+	 */
+	public double probability(Descriptor descriptor) {
+		if (!descriptor.isConsistent()) {
+			return 0.0;
+		}
+
+		Double memoized = this.memo.get(descriptor);
+		if (memoized == null) {
+			double probability = 1.0;
+			for (int i = 0, size = descriptor.size(); i < size; i++) {
+				probability *= this.source.probability(descriptor.variable(i), descriptor.value(i));
+			}
+			memoized = probability;
+			this.memo.put(descriptor, memoized);
+		}
+		return memoized;
+	}
+
+}
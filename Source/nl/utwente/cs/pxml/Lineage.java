@@ -0,0 +1,336 @@
+package nl.utwente.cs.pxml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Lineage formula in disjunctive normal form: a disjunction of descriptors (clauses), each a conjunction of conditions.
+ * Lineages are kept normalized: inconsistent clauses are dropped (they are never true), clauses are unique and sorted,
+ * and clauses subsumed by another clause are removed. A lineage containing the empty clause is always true, a lineage
+ * without clauses is never true.
+ * 
+ * @author Mattijs Ugen
+ */
+public final class Lineage {
+
+	/**
+	 * The lineage without clauses (never true).
+	 */
+	public static final Lineage FALSE = new Lineage(new Descriptor[0]);
+
+	/**
+	 * The lineage containing only the empty clause (always true).
+	 */
+	public static final Lineage TRUE = new Lineage(new Descriptor[] { Descriptor.EMPTY });
+
+	// the normalized clauses
+	protected final Descriptor[] clauses;
+	// cached hash code of the clauses
+	protected final int hash;
+
+	private Lineage(Descriptor[] clauses) {
+		this.clauses = clauses;
+		this.hash = Arrays.hashCode(clauses);
+	}
+
+	/**
+	 * Creates a normalized lineage from a collection of clauses.
+	 * 
+	 * @param clauses
+	 *            The clauses of the disjunction.
+	 * @return The normalized lineage.
+	 */
+	public static Lineage of(Collection<Descriptor> clauses) {
+		return Lineage.of(clauses.toArray(new Descriptor[clauses.size()]), clauses.size());
+	}
+
+	/**
+	 * Creates a normalized lineage from the first size clauses in clauses. The array may be modified.
+	 * 
+	 * @param clauses
+	 *            The clauses of the disjunction.
+	 * @param size
+	 *            The number of clauses to use.
+	 * @return The normalized lineage.
+	 */
+	public static Lineage of(Descriptor[] clauses, int size) {
+		// drop the clauses that can never be true
+		int consistent = 0;
+		for (int i = 0; i < size; i++) {
+			if (clauses[i].size() == 0) {
+				// a single empty clause makes the whole disjunction true
+				return Lineage.TRUE;
+			}
+			if (clauses[i].isConsistent()) {
+				clauses[consistent++] = clauses[i];
+			}
+		}
+		if (consistent == 0) {
+			return Lineage.FALSE;
+		}
+
+		return new Lineage(Lineage.removeSubsumed(clauses, consistent));
+	}
+
+	/**
+	 * @return The number of clauses.
+	 */
+	public int size() {
+		return this.clauses.length;
+	}
+
+	/**
+	 * @param index
+	 *            The index of a clause, in [0, size()).
+	 * @return The clause at index.
+	 */
+	public Descriptor clause(int index) {
+		return this.clauses[index];
+	}
+
+	/**
+	 * @return Whether this lineage is always true.
+	 */
+	public boolean isTrue() {
+		return this.clauses.length == 1 && this.clauses[0].size() == 0;
+	}
+
+	/**
+	 * @return Whether this lineage is never true.
+	 */
+	public boolean isFalse() {
+		return this.clauses.length == 0;
+	}
+
+	/**
+	 * Splits this lineage into groups of clauses not sharing any variables. The groups are probabilistically
+	 * independent, so the probability of the disjunction can be computed from the probabilities of the groups.
+	 * 
+	 * @return The independent components (this lineage itself when it can not be split).
+	 */
+	public Lineage[] components() {
+		int[] variables = this.variables();
+		// union-find over the variables, joining all variables of a clause
+		int[] parents = new int[variables.length];
+		for (int i = 0; i < parents.length; i++) {
+			parents[i] = i;
+		}
+		for (Descriptor clause : this.clauses) {
+			int first = Lineage.find(parents, Arrays.binarySearch(variables, clause.variable(0)));
+			for (int i = 1, size = clause.size(); i < size; i++) {
+				int other = Lineage.find(parents, Arrays.binarySearch(variables, clause.variable(i)));
+				if (other != first) {
+					parents[other] = first;
+				}
+			}
+		}
+
+		// assign the clauses to the component of their first variable
+		int[] component = new int[variables.length];
+		Arrays.fill(component, -1);
+		List<List<Descriptor>> groups = new ArrayList<List<Descriptor>>();
+		for (Descriptor clause : this.clauses) {
+			int root = Lineage.find(parents, Arrays.binarySearch(variables, clause.variable(0)));
+			if (component[root] < 0) {
+				component[root] = groups.size();
+				groups.add(new ArrayList<Descriptor>());
+			}
+			groups.get(component[root]).add(clause);
+		}
+
+		if (groups.size() == 1) {
+			return new Lineage[] { this };
+		}
+		Lineage[] components = new Lineage[groups.size()];
+		for (int i = 0; i < components.length; i++) {
+			// subsets of a normalized lineage are normalized as well
+			List<Descriptor> group = groups.get(i);
+			components[i] = new Lineage(group.toArray(new Descriptor[group.size()]));
+		}
+		return components;
+	}
+
+	/**
+	 * Finds the variable occurring in the most clauses, the best candidate to branch on.
+	 * 
+	 * @return The variable id, or -1 if this lineage has no variables.
+	 */
+	public int splitVariable() {
+		int[] variables = this.variables();
+		int[] counts = new int[variables.length];
+		int best = -1;
+		for (Descriptor clause : this.clauses) {
+			for (int i = 0, size = clause.size(); i < size; i++) {
+				int index = Arrays.binarySearch(variables, clause.variable(i));
+				if (++counts[index] > (best < 0 ? 0 : counts[best])) {
+					best = index;
+				}
+			}
+		}
+		return best < 0 ? -1 : variables[best];
+	}
+
+	/**
+	 * Collects the values variable is required to have by any of the clauses.
+	 * 
+	 * @param variable
+	 *            The variable id.
+	 * @return The distinct values, sorted.
+	 */
+	public int[] values(int variable) {
+		int[] values = new int[this.clauses.length];
+		int size = 0;
+		for (Descriptor clause : this.clauses) {
+			int index = clause.indexOf(variable);
+			if (index >= 0) {
+				// clauses are consistent, a variable occurs at most once
+				values[size++] = clause.value(index);
+			}
+		}
+		Arrays.sort(values, 0, size);
+		int unique = 0;
+		for (int i = 0; i < size; i++) {
+			if (unique == 0 || values[unique - 1] != values[i]) {
+				values[unique++] = values[i];
+			}
+		}
+		return Arrays.copyOf(values, unique);
+	}
+
+	/**
+	 * Restricts this lineage to the worlds in which variable has value: clauses requiring a different value are dropped,
+	 * the condition is removed from clauses requiring this value.
+	 * 
+	 * @param variable
+	 *            The variable id.
+	 * @param value
+	 *            The value of the variable.
+	 * @return The conditioned lineage.
+	 */
+	public Lineage condition(int variable, int value) {
+		Descriptor[] conditioned = new Descriptor[this.clauses.length];
+		int size = 0;
+		for (Descriptor clause : this.clauses) {
+			int index = clause.indexOf(variable);
+			if (index < 0) {
+				conditioned[size++] = clause;
+			} else if (clause.value(index) == value) {
+				conditioned[size++] = clause.without(variable);
+			}
+		}
+		return Lineage.of(conditioned, size);
+	}
+
+	/**
+	 * Restricts this lineage to the worlds in which variable has none of the values occurring in it: all clauses
+	 * mentioning variable are dropped.
+	 * 
+	 * @param variable
+	 *            The variable id.
+	 * @return The conditioned lineage.
+	 */
+	public Lineage exclude(int variable) {
+		Descriptor[] remaining = new Descriptor[this.clauses.length];
+		int size = 0;
+		for (Descriptor clause : this.clauses) {
+			if (clause.indexOf(variable) < 0) {
+				remaining[size++] = clause;
+			}
+		}
+		// dropping clauses keeps a lineage normalized
+		return size == 0 ? Lineage.FALSE : new Lineage(Arrays.copyOf(remaining, size));
+	}
+
+	/**
+	 * @return The distinct variables occurring in this lineage, sorted.
+	 */
+	public int[] variables() {
+		int total = 0;
+		for (Descriptor clause : this.clauses) {
+			total += clause.size();
+		}
+		int[] variables = new int[total];
+		int size = 0;
+		for (Descriptor clause : this.clauses) {
+			for (int i = 0, length = clause.size(); i < length; i++) {
+				variables[size++] = clause.variable(i);
+			}
+		}
+		Arrays.sort(variables);
+		int unique = 0;
+		for (int i = 0; i < size; i++) {
+			if (unique == 0 || variables[unique - 1] != variables[i]) {
+				variables[unique++] = variables[i];
+			}
+		}
+		return Arrays.copyOf(variables, unique);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof Lineage && this.hash == ((Lineage) other).hash
+				&& Arrays.equals(this.clauses, ((Lineage) other).clauses);
+	}
+
+	@Override
+	public int hashCode() {
+		return this.hash;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < this.clauses.length; i++) {
+			if (i > 0) {
+				result.append(" | ");
+			}
+			result.append('(').append(this.clauses[i]).append(')');
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Sorts and deduplicates clauses, dropping those that are a superset of another clause (they are true only when
+	 * the other is true as well).
+	 */
+	private static Descriptor[] removeSubsumed(Descriptor[] clauses, int size) {
+		// sort on size first, a clause can only be subsumed by a shorter (or equal) one
+		Descriptor[] bySize = Arrays.copyOf(clauses, size);
+		Arrays.sort(bySize, 0, size, new Comparator<Descriptor>() {
+			@Override
+			public int compare(Descriptor a, Descriptor b) {
+				int result = Integer.compare(a.size(), b.size());
+				return result != 0 ? result : a.compareTo(b);
+			}
+		});
+
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			Descriptor clause = bySize[i];
+			boolean subsumed = false;
+			for (int j = 0; j < kept && !subsumed; j++) {
+				subsumed = bySize[j].isSubsetOf(clause);
+			}
+			if (!subsumed) {
+				bySize[kept++] = clause;
+			}
+		}
+
+		Descriptor[] result = Arrays.copyOf(bySize, kept);
+		Arrays.sort(result);
+		return result;
+	}
+
+	private static int find(int[] parents, int index) {
+		while (parents[index] != index) {
+			// path halving
+			parents[index] = parents[parents[index]];
+			index = parents[index];
+		}
+		return index;
+	}
+
+}
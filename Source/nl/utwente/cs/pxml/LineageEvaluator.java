@@ -0,0 +1,105 @@
+package nl.utwente.cs.pxml;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Computes the exact probability of a {@link Lineage} (a disjunction of descriptors) using Shannon expansion: the
+ * formula is split into independent components where possible, and otherwise expanded on its most frequent variable.
+ * Results for sub-formulas are memoized, as different branches of the expansion tend to arrive at the same
+ * sub-formulas.
+ * 
+ * An evaluator should not be shared between threads.
+ * 
+ * @author Mattijs Ugen
+ */
+public class LineageEvaluator {
+
+	protected final ProbabilitySource source;
+	protected final Map<Lineage, Double> memo;
+
+	/**
+	 * Creates a new LineageEvaluator reading condition probabilities from source.
+	 * 
+	 * @param source
+	 *            The source of condition probabilities.
+	 */
+	public LineageEvaluator(ProbabilitySource source) {
+		this.source = source;
+		this.memo = new HashMap<Lineage, Double>();
+	}
+
+	/**
+	 * Computes the probability of at least one of the clauses of lineage being true.
+	 * 
+	 * @param lineage
+	 *            The (normalized) lineage.
+	 * @return The probability of the lineage.
+	 */
+	public double probability(Lineage lineage) {
+		if (lineage.isFalse()) {
+			return 0.0;
+		} else if (lineage.isTrue()) {
+			return 1.0;
+		} else if (lineage.size() == 1) {
+			// a single conjunction of independent conditions
+			return this.conjunction(lineage.clause(0));
+		}
+
+		Double memoized = this.memo.get(lineage);
+		if (memoized != null) {
+			return memoized;
+		}
+
+		double probability;
+		Lineage[] components = lineage.components();
+		if (components.length > 1) {
+			// independent components: the disjunction is false only when all of them are
+			double none = 1.0;
+			for (Lineage component : components) {
+				none *= 1.0 - this.probability(component);
+			}
+			probability = 1.0 - none;
+		} else {
+			probability = this.expand(lineage);
+		}
+
+		this.memo.put(lineage, probability);
+		return probability;
+	}
+
+	/**
+	 * Expands lineage on its most frequent variable, summing the probabilities of the branches weighted by the
+	 * probability of taking them.
+	 */
+	protected double expand(Lineage lineage) {
+		int variable = lineage.splitVariable();
+		double probability = 0.0;
+		double remaining = 1.0;
+		for (int value : lineage.values(variable)) {
+			double weight = this.source.probability(variable, value);
+			remaining -= weight;
+			if (weight > 0.0) {
+				probability += weight * this.probability(lineage.condition(variable, value));
+			}
+		}
+
+		// the variable might take a value not mentioned in the lineage
+		if (remaining > 0.0) {
+			probability += remaining * this.probability(lineage.exclude(variable));
+		}
+		return probability;
+	}
+
+	/**
+	 * Computes the probability of a consistent conjunction of conditions.
+	 */
+	protected double conjunction(Descriptor clause) {
+		double probability = 1.0;
+		for (int i = 0, size = clause.size(); i < size; i++) {
+			probability *= this.source.probability(clause.variable(i), clause.value(i));
+		}
+		return probability;
+	}
+
+}
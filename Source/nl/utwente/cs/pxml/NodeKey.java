@@ -0,0 +1,89 @@
+package nl.utwente.cs.pxml;
+
+import org.basex.data.Data;
+import org.basex.query.value.node.ANode;
+import org.basex.query.value.node.DBNode;
+
+/**
+ * Key identifying a node by its database identity: the data reference and pre value for database nodes, the node
+ * instance itself for constructed fragments.
+ * 
+ * @author Mattijs Ugen
+ */
+public final class NodeKey {
+
+	// the database the node lives in, or the node itself for fragments
+	protected final Object owner;
+	// the pre value of the node, 0 for fragments
+	protected final int pre;
+
+	private NodeKey(Object owner, int pre) {
+		this.owner = owner;
+		this.pre = pre;
+	}
+
+	/**
+	 * Creates the key for node.
+	 * 
+	 * @param node
+	 *            The node to identify.
+	 * @return The key for node.
+	 */
+	public static NodeKey of(ANode node) {
+		Data data = node.data();
+		if (data != null && node instanceof DBNode) {
+			return new NodeKey(data, ((DBNode) node).pre());
+		}
+		return new NodeKey(node, 0);
+	}
+
+	/**
+	 * @return The database the node lives in, null for fragments.
+	 */
+	public Data data() {
+		return this.owner instanceof Data ? (Data) this.owner : null;
+	}
+
+	/**
+	 * Provides a stamp that changes when the database the node lives in is updated. Fragments can not be updated and
+	 * always have version 0.
+	 * 
+	 * @return The current version of the node's database.
+	 */
+	public long version() {
+		Data data = this.data();
+		// modification time alone might not change between updates in quick succession, mix in the size as well
+		return data == null ? 0 : data.meta.time * 31 + data.meta.size;
+	}
+
+	/**
+	 * @return The pre value of the node, 0 for fragments.
+	 */
+	public int pre() {
+		return this.pre;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof NodeKey)) {
+			return false;
+		}
+
+		// database and fragment identity are both reference identity
+		NodeKey key = (NodeKey) other;
+		return this.owner == key.owner && this.pre == key.pre;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * System.identityHashCode(this.owner) + this.pre;
+	}
+
+	@Override
+	public String toString() {
+		Data data = this.data();
+		return data != null ? data.meta.name + "#" + this.pre : "fragment@"
+				+ Integer.toHexString(System.identityHashCode(this.owner));
+	}
+
+}
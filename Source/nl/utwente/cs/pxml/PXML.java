@@ -1,19 +1,33 @@
 package nl.utwente.cs.pxml;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 
 import nl.utwente.cs.pxml.util.CollectionUtils;
+import nl.utwente.cs.pxml.util.LruCache;
+import nl.utwente.cs.pxml.util.Metrics;
+import nl.utwente.cs.pxml.util.RoaringBitmap;
 
 import org.basex.query.QueryException;
 import org.basex.query.QueryModule;
 import org.basex.query.value.Value;
+import org.basex.query.value.ValueBuilder;
+import org.basex.query.value.item.Bln;
+import org.basex.query.value.item.Dbl;
 import org.basex.query.value.item.Item;
+import org.basex.query.value.item.QNm;
 import org.basex.query.value.item.Str;
 import org.basex.query.value.node.ANode;
+import org.basex.query.value.node.FElem;
+import org.basex.query.value.seq.Empty;
+import org.basex.query.value.type.AtomType;
+import org.basex.query.value.type.NodeType;
+import org.basex.util.Token;
 
 /**
  * Importable query module containing functions for use with probabilistic XML.
@@ -23,20 +37,88 @@ import org.basex.query.value.node.ANode;
 public class PXML extends QueryModule {
 
 	/**
-	 * Mapping used to cache probabilities for conditions encountered earlier.
+	 * The name of the system property configuring the number of compiled circuits kept.
 	 */
-	protected Map<Condition, Double> probabilityCache;
+	public static final String CIRCUIT_CAPACITY_PROPERTY = "pxml.circuit.capacity";
 
 	/**
-	 * Creates a new PXML instance, with a newly created probability cache.
+	 * The z-score used for the confidence intervals of sampled estimates (95%).
+	 */
+	public static final double SAMPLE_CONFIDENCE_Z = 1.96;
+
+	/**
+	 * Compiled circuits by handle (shared between all instances).
+	 */
+	protected static final LruCache<String, Circuit> CIRCUITS = new LruCache<String, Circuit>(Integer.getInteger(
+			CIRCUIT_CAPACITY_PROPERTY, 256), 4);
+
+	/**
+	 * Latencies of the module functions.
+	 */
+	protected static final Metrics.Histogram COMBINE_TIME = Metrics.histogram("pxml:combine");
+	protected static final Metrics.Histogram NORMALIZE_TIME = Metrics.histogram("pxml:normalize");
+	protected static final Metrics.Histogram FINGERPRINT_TIME = Metrics.histogram("pxml:fingerprint");
+	protected static final Metrics.Histogram CONSISTENT_TIME = Metrics.histogram("pxml:consistent");
+	protected static final Metrics.Histogram MUTUALLY_EXCLUSIVE_TIME = Metrics.histogram("pxml:mutually-exclusive");
+	protected static final Metrics.Histogram PROBABILITY_TIME = Metrics.histogram("pxml:probability");
+	protected static final Metrics.Histogram PROBABILITY_BATCH_TIME = Metrics.histogram("pxml:probability-batch");
+	protected static final Metrics.Histogram CONSISTENT_BATCH_TIME = Metrics.histogram("pxml:consistent-batch");
+	protected static final Metrics.Histogram MUTUALLY_EXCLUSIVE_BATCH_TIME = Metrics
+			.histogram("pxml:mutually-exclusive-batch");
+	protected static final Metrics.Histogram EXCLUSION_GRAPH_TIME = Metrics.histogram("pxml:exclusion-graph");
+	protected static final Metrics.Histogram EXCLUSION_GROUPS_TIME = Metrics.histogram("pxml:exclusion-groups");
+	protected static final Metrics.Histogram PROBABILITY_ANY_TIME = Metrics.histogram("pxml:probability-any");
+	protected static final Metrics.Histogram TOP_K_TIME = Metrics.histogram("pxml:top-k");
+	protected static final Metrics.Histogram EXPECTED_COUNT_TIME = Metrics.histogram("pxml:expected-count");
+	protected static final Metrics.Histogram EXPECTED_SUM_TIME = Metrics.histogram("pxml:expected-sum");
+	protected static final Metrics.Histogram EXPECTED_AVERAGE_TIME = Metrics.histogram("pxml:expected-average");
+	protected static final Metrics.Histogram COMPILE_CIRCUIT_TIME = Metrics.histogram("pxml:compile-circuit");
+	protected static final Metrics.Histogram EVALUATE_CIRCUIT_TIME = Metrics.histogram("pxml:evaluate-circuit");
+	protected static final Metrics.Histogram CIRCUIT_GRADIENTS_TIME = Metrics.histogram("pxml:circuit-gradients");
+	protected static final Metrics.Histogram SAMPLE_TIME = Metrics.histogram("pxml:sample");
+	protected static final Metrics.Histogram EXPLICIT_PROBABILITY_TIME = Metrics.histogram("pxml:explicit-probability");
+	protected static final Metrics.Histogram EXPLICIT_EXPECTED_COUNT_TIME = Metrics
+			.histogram("pxml:explicit-expected-count");
+	protected static final Metrics.Histogram EXISTENCE_TIME = Metrics.histogram("pxml:existence");
+	protected static final Metrics.Histogram WORLDS_TIME = Metrics.histogram("pxml:worlds");
+	protected static final Metrics.Histogram REQUIRING_TIME = Metrics.histogram("pxml:requiring");
+	protected static final Metrics.Histogram REQUIRING_ANY_TIME = Metrics.histogram("pxml:requiring-any");
+	protected static final Metrics.Histogram REQUIRING_COUNT_TIME = Metrics.histogram("pxml:requiring-count");
+	protected static final Metrics.Histogram OBSERVE_TIME = Metrics.histogram("pxml:observe");
+	protected static final Metrics.Histogram CONDITIONAL_PROBABILITY_TIME = Metrics
+			.histogram("pxml:conditional-probability");
+
+	/**
+	 * Cache used for probabilities of conditions encountered earlier (shared between all instances).
+	 */
+	protected final ProbabilityCache probabilityCache;
+
+	/**
+	 * Memoized existence probabilities of the nodes seen by this instance (a
+	 * single query), for the wsd-list they were evaluated against.
+	 */
+	protected ExistenceEvaluator existence;
+	protected NodeKey existenceList;
+
+	/**
+	 * Evidence registered through {@link #observe(ANode, Value)} by this
+	 * instance (a single query), by wsd-list identity. Other queries never see
+	 * it, and it is dropped along with the instance.
+	 */
+	protected final Map<NodeKey, Descriptor> evidence;
+
+	/**
+	 * Creates a new PXML instance, using the module-wide probability cache.
 	 */
 	public PXML() {
-		this.probabilityCache = new TreeMap<Condition, Double>();
+		this.probabilityCache = ProbabilityCache.SHARED;
+		this.evidence = new HashMap<NodeKey, Descriptor>();
 	}
 
 	/**
 	 * Combines all conditions into a single string keeping only the unique
-	 * conditions. The result need not be consistent.
+	 * conditions, in canonical form (see {@link #normalize(Str)}). The result
+	 * need not be consistent.
 	 * 
 	 * @param existing
 	 *            A string containing conditions.
@@ -47,29 +129,70 @@ public class PXML extends QueryModule {
 	@Requires(Permission.NONE)
 	@Deterministic
 	public String combine(Str existing, Value additional) {
+		long start = Metrics.start();
 		try {
-			// create a condition 'container'
-			Set<String> result = new HashSet<String>();
-
-			// store the existing conditions
-			for (Condition condition : new ConditionGenerator(existing.toJava())) {
-				result.add(condition.toString());
-			}
+			// start out with the existing conditions
+			Descriptor result = Descriptor.get(existing.string());
 
 			// read all the additional conditions from the sequence.
 			for (Item item : additional) {
 				// a single item in the sequence might contain multiple conditions
-				for (Condition condition : new ConditionGenerator(item.toJava().toString())) {
-					result.add(condition.toString());
-				}
+				result = result.union(Descriptor.get(item.string(null)));
 			}
 
-			// join the resulting set on a space
-			return CollectionUtils.join(result, " ");
+			// the descriptor joins its conditions on a space, in canonical order
+			return result.toString();
 		} catch (QueryException e) {
 			// TODO: submit message to BaseX logging (or declare thrown?)
 			System.err.println("error combining descriptor values: " + e.getMessage());
 			return "";
+		} finally {
+			COMBINE_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Brings a descriptor into canonical form: duplicate conditions removed,
+	 * the others ordered on variable name (numbers in names compared by
+	 * value, so var-2 comes before var-10) and value, separated by a single
+	 * space. Descriptors holding the same conditions have the same canonical
+	 * form, so they can be grouped, compared and indexed as strings.
+	 * 
+	 * @param descriptor
+	 *            The descriptor to normalize.
+	 * @return The canonical form of the descriptor.
+	 */
+	@Requires(Permission.NONE)
+	@Deterministic
+	public String normalize(Str descriptor) {
+		long start = Metrics.start();
+		try {
+			return Descriptor.get(descriptor.string()).toString();
+		} finally {
+			NORMALIZE_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Calculates a 64-bit fingerprint of a descriptor, equal for descriptors
+	 * holding the same conditions (in any order) and different otherwise
+	 * (with overwhelming probability). The fingerprint depends on variable
+	 * names and values only, so it can be stored and compared across queries
+	 * and sessions, to group or join on descriptors without comparing
+	 * strings.
+	 * 
+	 * @param descriptor
+	 *            The descriptor to fingerprint.
+	 * @return The fingerprint of the descriptor.
+	 */
+	@Requires(Permission.NONE)
+	@Deterministic
+	public long fingerprint(Str descriptor) {
+		long start = Metrics.start();
+		try {
+			return Descriptor.get(descriptor.string()).fingerprint();
+		} finally {
+			FINGERPRINT_TIME.stop(start);
 		}
 	}
 
@@ -85,20 +208,12 @@ public class PXML extends QueryModule {
 	@Requires(Permission.NONE)
 	@Deterministic
 	public boolean consistent(Str descriptor) {
-		ConditionGenerator generator = new ConditionGenerator(descriptor.toJava());
-		Map<String, Integer> conditions = new HashMap<String, Integer>();
-
-		for (Condition condition : generator) {
-			// rely on Map to enforce uniqueness of name, use Integer as it can be null
-			Integer value = conditions.put(condition.name, condition.value);
-			if (value != null && value != condition.value) {
-				// immediately return false if the name was already encountered with a different value
-				return false;
-			}
+		long start = Metrics.start();
+		try {
+			return Descriptor.get(descriptor.string()).isConsistent();
+		} finally {
+			CONSISTENT_TIME.stop(start);
 		}
-
-		// no inconsistencies found, return true
-		return true;
 	}
 
 	/**
@@ -114,25 +229,12 @@ public class PXML extends QueryModule {
 	@Requires(Permission.NONE)
 	@Deterministic
 	public boolean mutuallyExclusive(Str a, Str b) {
-		ConditionGenerator condA = new ConditionGenerator(a.toJava());
-		ConditionGenerator condB = new ConditionGenerator(b.toJava());
-		Map<String, Integer> conditions = new HashMap<String, Integer>();
-
-		// put all conditions a into the map ...
-		for (Condition condition : condA) {
-			conditions.put(condition.name, condition.value);
-		}
-
-		// ... check if there is a condition in b that has the same name but a different value
-		for (Condition condition : condB) {
-			Integer value = conditions.get(condition.name);
-			if (value != null && value != condition.value) {
-				// immediately return false if this such a condition is found
-				return true;
-			}
+		long start = Metrics.start();
+		try {
+			return Descriptor.get(a.string()).isExclusiveWith(Descriptor.get(b.string()));
+		} finally {
+			MUTUALLY_EXCLUSIVE_TIME.stop(start);
 		}
-
-		return false;
 	}
 
 	/**
@@ -149,24 +251,939 @@ public class PXML extends QueryModule {
 	@Requires(Permission.NONE)
 	@ContextDependent
 	public double probability(ANode wsdList, Str conditions) {
-		double probability = 1.0;
-		// find probabilities for all conditions, multiply them
-		for (Condition condition : new ConditionGenerator(conditions.toJava())) {
-			// use Double to allow null when key is not present
-			Double value = this.probabilityCache.get(condition);
-			if (value == null) {
-				// find it in the wsd-list ...
-				value = this.findProbability(wsdList, condition.toString());
-				// ... and cache it for future use
-				this.probabilityCache.put(condition, value);
+		long start = Metrics.start();
+		try {
+			Descriptor descriptor = Descriptor.get(conditions.string());
+			// the index is built once per wsd-list (version), the cache is scoped to it
+			ProbabilitySource source = this.source(wsdList);
+			double probability = 1.0;
+			// find probabilities for all conditions, multiply them
+			for (int i = 0, size = descriptor.size(); i < size; i++) {
+				probability *= source.probability(descriptor.variable(i), descriptor.value(i));
 			}
 
-			// do the probability multiplication
-			probability *= value;
+			// return the result
+			return probability;
+		} finally {
+			PROBABILITY_TIME.stop(start);
 		}
+	}
 
-		// return the result
-		return probability;
+	/**
+	 * Batch variant of {@link #probability(ANode, Str)}, calculating the
+	 * probabilities of a whole sequence of descriptors in a single call.
+	 * Descriptors sharing a prefix of (sorted) conditions, like those of
+	 * nested p:cie nodes, share the product of that prefix.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @param descriptors
+	 *            The descriptors to calculate the probabilities of.
+	 * @return The probabilities, in the order of the descriptors.
+	 * @throws QueryException
+	 *             When an item in descriptors can not be read as a string.
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public Value probabilityBatch(ANode wsdList, Value descriptors) throws QueryException {
+		long start = Metrics.start();
+		try {
+			double[] probabilities = new DescriptorBatch(this.compile(descriptors)).probabilities(this.source(wsdList));
+			Item[] items = new Item[probabilities.length];
+			for (int i = 0; i < items.length; i++) {
+				items[i] = Dbl.get(probabilities[i]);
+			}
+			return ValueBuilder.value(items, items.length, AtomType.DBL);
+		} finally {
+			PROBABILITY_BATCH_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Batch variant of {@link #consistent(Str)}, testing a whole sequence of
+	 * descriptors in a single call.
+	 * 
+	 * @param descriptors
+	 *            The descriptors to be tested.
+	 * @return Whether each descriptor is consistent, in the order of the
+	 *         descriptors.
+	 * @throws QueryException
+	 *             When an item in descriptors can not be read as a string.
+	 */
+	@Requires(Permission.NONE)
+	@Deterministic
+	public Value consistentBatch(Value descriptors) throws QueryException {
+		long start = Metrics.start();
+		try {
+			boolean[] consistent = new DescriptorBatch(this.compile(descriptors)).consistent();
+			Item[] items = new Item[consistent.length];
+			for (int i = 0; i < items.length; i++) {
+				items[i] = Bln.get(consistent[i]);
+			}
+			return ValueBuilder.value(items, items.length, AtomType.BLN);
+		} finally {
+			CONSISTENT_BATCH_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Batch variant of {@link #mutuallyExclusive(Str, Str)}, testing the
+	 * descriptors pairwise. A single descriptor in a is tested against
+	 * all descriptors in b.
+	 * 
+	 * @param a
+	 *            The one sequence of descriptors (or a single descriptor).
+	 * @param b
+	 *            The other sequence of descriptors.
+	 * @return Whether each pair of descriptors is mutually exclusive, in the
+	 *         order of b.
+	 * @throws QueryException
+	 *             When a contains more than one descriptor and the lengths of
+	 *             the sequences differ, or an item can not be read as a
+	 *             string.
+	 */
+	@Requires(Permission.NONE)
+	@Deterministic
+	public Value mutuallyExclusiveBatch(Value a, Value b) throws QueryException {
+		long start = Metrics.start();
+		try {
+			if (a.size() != 1 && a.size() != b.size()) {
+				throw new QueryException("expected a single descriptor or one for every other descriptor, got "
+						+ a.size() + " descriptors for " + b.size());
+			}
+
+			Descriptor[] as = this.compile(a);
+			Descriptor[] bs = this.compile(b);
+			Item[] items = new Item[bs.length];
+			for (int i = 0; i < items.length; i++) {
+				items[i] = Bln.get(as[as.length == 1 ? 0 : i].isExclusiveWith(bs[i]));
+			}
+			return ValueBuilder.value(items, items.length, AtomType.BLN);
+		} finally {
+			MUTUALLY_EXCLUSIVE_BATCH_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Computes which pairs of descriptors in a sequence are mutually
+	 * exclusive, without testing every pair: only descriptors sharing a
+	 * variable are compared. Returns the adjacency as an element of the form
+	 * 
+	 * <pre>
+	 * &lt;exclusions descriptors="..." edges="..."&gt;
+	 *   &lt;descriptor position="1" exclusive="3 7"/&gt;
+	 * &lt;/exclusions&gt;
+	 * </pre>
+	 * 
+	 * listing only descriptors exclusive with at least one other, positions
+	 * starting at 1.
+	 * 
+	 * @param descriptors
+	 *            The descriptors to be tested.
+	 * @return An element describing the exclusion graph.
+	 * @throws QueryException
+	 *             When an item in descriptors can not be read as a string.
+	 */
+	@Requires(Permission.NONE)
+	@Deterministic
+	public FElem exclusionGraph(Value descriptors) throws QueryException {
+		long start = Metrics.start();
+		try {
+			ExclusionGraph graph = ExclusionGraph.of(this.compile(descriptors));
+			FElem result = PXML.element("exclusions", "descriptors", graph.size(), "edges", graph.edges());
+			for (int i = 0; i < graph.size(); i++) {
+				if (graph.degree(i) > 0) {
+					StringBuilder exclusive = new StringBuilder();
+					for (int neighbour : graph.neighbours(i)) {
+						exclusive.append(exclusive.length() == 0 ? "" : " ").append(neighbour + 1);
+					}
+					result.add(PXML.element("descriptor", "position", i + 1, "exclusive", exclusive));
+				}
+			}
+			return result;
+		} finally {
+			EXCLUSION_GRAPH_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Partitions a sequence of descriptors into groups of pairwise compatible
+	 * descriptors (no two descriptors in a group being mutually exclusive).
+	 * The number of groups is small, but not necessarily minimal. Returns an
+	 * element of the form
+	 * 
+	 * <pre>
+	 * &lt;groups count="..."&gt;
+	 *   &lt;group positions="1 2 5"/&gt;
+	 * &lt;/groups&gt;
+	 * </pre>
+	 * 
+	 * groups being ordered by their first member, positions starting at 1.
+	 * 
+	 * @param descriptors
+	 *            The descriptors to be grouped.
+	 * @return An element describing the groups.
+	 * @throws QueryException
+	 *             When an item in descriptors can not be read as a string.
+	 */
+	@Requires(Permission.NONE)
+	@Deterministic
+	public FElem exclusionGroups(Value descriptors) throws QueryException {
+		long start = Metrics.start();
+		try {
+			int[] groups = ExclusionGraph.of(this.compile(descriptors)).groups();
+			// number the groups in order of their first member
+			int[] numbers = new int[groups.length + 1];
+			Arrays.fill(numbers, -1);
+			List<StringBuilder> members = new ArrayList<StringBuilder>();
+			for (int i = 0; i < groups.length; i++) {
+				if (numbers[groups[i]] < 0) {
+					numbers[groups[i]] = members.size();
+					members.add(new StringBuilder());
+				}
+				StringBuilder positions = members.get(numbers[groups[i]]);
+				positions.append(positions.length() == 0 ? "" : " ").append(i + 1);
+			}
+
+			FElem result = PXML.element("groups", "count", members.size());
+			for (StringBuilder positions : members) {
+				result.add(PXML.element("group", "positions", positions));
+			}
+			return result;
+		} finally {
+			EXCLUSION_GROUPS_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Calculates the exact probability of at least one of the provided
+	 * descriptors being true (the probability of their disjunction), taking
+	 * shared variables into account. Inconsistent descriptors are ignored.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @param descriptors
+	 *            The descriptors of the disjunction.
+	 * @return The probability of any of the descriptors being true.
+	 * @throws QueryException
+	 *             When an item in descriptors can not be read as a string.
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public double probabilityAny(ANode wsdList, Value descriptors) throws QueryException {
+		long start = Metrics.start();
+		try {
+			Lineage lineage = Lineage.of(this.compile(descriptors), (int) descriptors.size());
+			return new LineageEvaluator(this.conditioned(wsdList)).probability(lineage);
+		} finally {
+			PROBABILITY_ANY_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Selects the k most probable candidates, without necessarily computing
+	 * the probability of every candidate: once k candidates have been found,
+	 * candidates are dropped as soon as the product of their first conditions
+	 * falls below the least probable of those. Candidates with equal
+	 * probabilities keep their relative order.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @param candidates
+	 *            The candidates to select from.
+	 * @param descriptors
+	 *            The descriptors of the candidates, in the same order.
+	 * @param k
+	 *            The number of candidates to select.
+	 * @return The (at most) k most probable candidates, most probable first.
+	 * @throws QueryException
+	 *             When the number of candidates and descriptors differ, or an
+	 *             item in descriptors can not be read as a string.
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public Value topK(ANode wsdList, Value candidates, Value descriptors, long k) throws QueryException {
+		long start = Metrics.start();
+		try {
+			if (candidates.size() != descriptors.size()) {
+				throw new QueryException("expected a descriptor for every candidate, got " + descriptors.size()
+						+ " descriptors for " + candidates.size() + " candidates");
+			}
+
+			TopKSelector.Selection selection = new TopKSelector((int) Math.min(k, Integer.MAX_VALUE),
+					this.source(wsdList)).select(this.compile(descriptors));
+			Item[] items = new Item[(int) candidates.size()];
+			int i = 0;
+			for (Item candidate : candidates) {
+				items[i++] = candidate;
+			}
+			Item[] selected = new Item[selection.size()];
+			for (int rank = 0; rank < selected.length; rank++) {
+				selected[rank] = items[selection.position(rank)];
+			}
+			return ValueBuilder.value(selected, selected.length, candidates.type);
+		} finally {
+			TOP_K_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Calculates the expected number of results, given the descriptors of all
+	 * results: the sum of the probabilities of the descriptors. Inconsistent
+	 * descriptors contribute 0.0.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @param descriptors
+	 *            The descriptors of the results.
+	 * @return The expected number of results.
+	 * @throws QueryException
+	 *             When an item in descriptors can not be read as a string.
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public double expectedCount(ANode wsdList, Value descriptors) throws QueryException {
+		long start = Metrics.start();
+		try {
+			ExpectedValueAggregator aggregator = new ExpectedValueAggregator(this.source(wsdList));
+			for (Item descriptor : descriptors) {
+				aggregator.add(Descriptor.get(descriptor.string(null)));
+			}
+			return aggregator.count();
+		} finally {
+			EXPECTED_COUNT_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Calculates the expected sum of the values of results: the sum of the
+	 * values weighted by the probabilities of their descriptors.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @param descriptors
+	 *            The descriptors of the results.
+	 * @param values
+	 *            The values of the results, in the same order.
+	 * @return The expected sum of the values.
+	 * @throws QueryException
+	 *             When the number of descriptors and values differ, or an item
+	 *             can not be read as a string or number.
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public double expectedSum(ANode wsdList, Value descriptors, Value values) throws QueryException {
+		long start = Metrics.start();
+		try {
+			return this.aggregate(wsdList, descriptors, values).sum();
+		} finally {
+			EXPECTED_SUM_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Calculates the expected average of the values of results as the ratio
+	 * of the expected sum and the expected count.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @param descriptors
+	 *            The descriptors of the results.
+	 * @param values
+	 *            The values of the results, in the same order.
+	 * @return The expected average, or the empty sequence when the expected
+	 *         count is 0.0.
+	 * @throws QueryException
+	 *             When the number of descriptors and values differ, or an item
+	 *             can not be read as a string or number.
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public Value expectedAverage(ANode wsdList, Value descriptors, Value values) throws QueryException {
+		long start = Metrics.start();
+		try {
+			ExpectedValueAggregator aggregator = this.aggregate(wsdList, descriptors, values);
+			return aggregator.count() == 0.0 ? Empty.SEQ : Dbl.get(aggregator.average());
+		} finally {
+			EXPECTED_AVERAGE_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Compiles a set of descriptors (a disjunction) into a circuit kept by the
+	 * module, which can be evaluated repeatedly using
+	 * {@link #evaluateCircuit(ANode, Str)} without repeating the expansion
+	 * done by {@link #probabilityAny(ANode, Value)}. Compiling the same set of
+	 * descriptors again yields the same handle.
+	 * 
+	 * @param descriptors
+	 *            The descriptors of the disjunction.
+	 * @return A handle for the compiled circuit.
+	 * @throws QueryException
+	 *             When an item in descriptors can not be read as a string.
+	 */
+	@Requires(Permission.NONE)
+	public String compileCircuit(Value descriptors) throws QueryException {
+		long start = Metrics.start();
+		try {
+			Lineage lineage = Lineage.of(this.compile(descriptors), (int) descriptors.size());
+			// derive the handle from the normalized lineage, making it stable between sessions
+			String handle = String.format("circuit-%016x", CollectionUtils.hash64(lineage.toString()));
+			if (CIRCUITS.get(handle) == null) {
+				CIRCUITS.put(handle, Circuit.compile(lineage));
+			}
+			return handle;
+		} finally {
+			COMPILE_CIRCUIT_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Evaluates a circuit compiled earlier using the probabilities in wsdList,
+	 * in time linear in the size of the circuit.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @param handle
+	 *            The handle returned by {@link #compileCircuit(Value)}.
+	 * @return The probability of any of the compiled descriptors being true.
+	 * @throws QueryException
+	 *             When the handle is unknown (or the circuit was evicted).
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public double evaluateCircuit(ANode wsdList, Str handle) throws QueryException {
+		long start = Metrics.start();
+		try {
+			return this.circuit(handle).evaluate(this.conditioned(wsdList));
+		} finally {
+			EVALUATE_CIRCUIT_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Evaluates a circuit compiled earlier using the probabilities in wsdList,
+	 * also computing the partial derivatives of the result with respect to the
+	 * probability of every condition involved. Returns an element of the form
+	 * 
+	 * <pre>
+	 * &lt;circuit handle="..." probability="..." nodes="..."&gt;
+	 *   &lt;gradient condition="var-3=1" derivative="..."/&gt;
+	 * &lt;/circuit&gt;
+	 * </pre>
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @param handle
+	 *            The handle returned by {@link #compileCircuit(Value)}.
+	 * @return An element containing the probability and gradients.
+	 * @throws QueryException
+	 *             When the handle is unknown (or the circuit was evicted).
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public FElem circuitGradients(ANode wsdList, Str handle) throws QueryException {
+		long start = Metrics.start();
+		try {
+			Circuit circuit = this.circuit(handle);
+			Map<Long, Double> gradients = new TreeMap<Long, Double>();
+			double probability = circuit.evaluate(this.conditioned(wsdList), gradients);
+
+			FElem result = PXML.element("circuit", "handle", handle.toJava(), "probability", probability, "nodes",
+					circuit.size());
+			for (Map.Entry<Long, Double> gradient : gradients.entrySet()) {
+				long condition = gradient.getKey();
+				result.add(PXML.element("gradient", "condition",
+						SymbolTable.SHARED.name(Descriptor.variable(condition)) + "=" + Descriptor.value(condition),
+						"derivative", gradient.getValue()));
+			}
+			return result;
+		} finally {
+			CIRCUIT_GRADIENTS_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Estimates the probabilities of descriptors by sampling the given number
+	 * of possible worlds, using a random seed. See
+	 * {@link #sample(ANode, Value, long, long, double)}.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @param descriptors
+	 *            The descriptors to estimate probabilities for.
+	 * @param samples
+	 *            The number of worlds to sample.
+	 * @return An element containing the estimates.
+	 * @throws QueryException
+	 *             When an item in descriptors can not be read as a string,
+	 *             or samples is less than 1.
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public FElem sample(ANode wsdList, Value descriptors, long samples) throws QueryException {
+		return this.sample(wsdList, descriptors, samples, System.nanoTime(), 0.0);
+	}
+
+	/**
+	 * Estimates the probabilities of descriptors by sampling possible worlds on
+	 * all available cores, for formulas too large for
+	 * {@link #probabilityAny(ANode, Value)}. Sampling stops after the given
+	 * number of worlds, or earlier once all 95% confidence intervals are
+	 * within epsilon of their estimate. Results are reproducible for a fixed
+	 * seed. Returns an element of the form
+	 * 
+	 * <pre>
+	 * &lt;estimates samples="..." seed="..."&gt;
+	 *   &lt;estimate descriptor="..." probability="..." lower="..." upper="..."/&gt;
+	 *   &lt;any probability="..." lower="..." upper="..."/&gt;
+	 * &lt;/estimates&gt;
+	 * </pre>
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @param descriptors
+	 *            The descriptors to estimate probabilities for.
+	 * @param samples
+	 *            The maximum number of worlds to sample.
+	 * @param seed
+	 *            The seed for the random generators.
+	 * @param epsilon
+	 *            The requested error bound, 0.0 to always sample all worlds.
+	 * @return An element containing the estimates.
+	 * @throws QueryException
+	 *             When an item in descriptors can not be read as a string,
+	 *             or samples is less than 1.
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public FElem sample(ANode wsdList, Value descriptors, long samples, long seed, double epsilon)
+			throws QueryException {
+		if (samples < 1) {
+			throw new QueryException("expected at least 1 sample, got " + samples);
+		}
+		long start = Metrics.start();
+		try {
+			Descriptor[] compiled = this.compile(descriptors);
+			WorldSampler sampler = new WorldSampler(compiled, this.conditioned(wsdList));
+			WorldSampler.Estimates estimates = sampler.sample(samples, seed, epsilon, SAMPLE_CONFIDENCE_Z,
+					ForkJoinPool.commonPool());
+
+			FElem result = PXML.element("estimates", "samples", estimates.samples(), "seed", seed);
+			int i = 0;
+			for (Item descriptor : descriptors) {
+				result.add(PXML.element("estimate", "descriptor", Token.string(descriptor.string(null)),
+						"probability", estimates.probability(i), "lower", estimates.lower(i), "upper",
+						estimates.upper(i)));
+				i++;
+			}
+			result.add(PXML.element("any", "probability", estimates.probability(i), "lower", estimates.lower(i),
+					"upper", estimates.upper(i)));
+			return result;
+		} finally {
+			SAMPLE_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Enumerates all possible worlds relevant to the descriptors, see
+	 * {@link #worlds(ANode, Value, boolean, double, long)}.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @param descriptors
+	 *            The descriptors determining the relevant variables.
+	 * @return The lazily enumerated sequence of worlds.
+	 * @throws QueryException
+	 *             When an item in descriptors can not be read as a string.
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public Value worlds(ANode wsdList, Value descriptors) throws QueryException {
+		return this.worlds(wsdList, descriptors, false, 1.0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Enumerates the possible worlds relevant to the descriptors: the
+	 * assignments to the variables occurring in them, telling apart only the
+	 * values the descriptors mention (any other value is listed as such).
+	 * Worlds of probability 0.0 are pruned before they are expanded. Worlds
+	 * are produced lazily, one at a time, so taking only the first few (using
+	 * head or subsequence) does not enumerate the others. Every world is an
+	 * element of the form
+	 * 
+	 * <pre>
+	 * &lt;world probability="..." descriptor="..." other="..." holds="..."/&gt;
+	 * </pre>
+	 * 
+	 * listing the conditions of the world on the values mentioned, the
+	 * variables having any other value and the (1-based) positions of the
+	 * descriptors true in the world.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @param descriptors
+	 *            The descriptors determining the relevant variables.
+	 * @param ordered
+	 *            Whether to produce the worlds most probable first (keeping
+	 *            a queue of partial worlds, instead of a single world).
+	 * @param mass
+	 *            The probability mass after which to stop, 1.0 for all worlds.
+	 * @param limit
+	 *            The maximum number of worlds to produce.
+	 * @return The lazily enumerated sequence of worlds.
+	 * @throws QueryException
+	 *             When an item in descriptors can not be read as a string.
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public Value worlds(ANode wsdList, Value descriptors, boolean ordered, double mass, long limit)
+			throws QueryException {
+		Descriptor[] compiled = this.compile(descriptors);
+		return new WorldSequence(new WorldEnumerator(compiled, this.source(wsdList), ordered, mass, limit), compiled);
+	}
+
+	/**
+	 * Calculates the probability of children of an explicit (p:exp) node
+	 * existing together, given the subsets of children listed in its
+	 * p:subsets attribute. The subsets are read into bitmasks once per node,
+	 * after which the probability is the sum over all subsets containing the
+	 * requested children.
+	 * 
+	 * @param exp
+	 *            The explicit node.
+	 * @param positions
+	 *            The positions of the children among the children of exp
+	 *            (1-based), the empty sequence for the probability of exp
+	 *            existing at all (1.0).
+	 * @return The probability of all children existing together.
+	 * @throws QueryException
+	 *             When an item in positions can not be read as a number, or
+	 *             the p:subsets attribute of exp is malformed.
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public double explicitProbability(ANode exp, Value positions) throws QueryException {
+		long start = Metrics.start();
+		try {
+			int[] children = new int[(int) positions.size()];
+			int i = 0;
+			for (Item position : positions) {
+				children[i++] = (int) position.dbl(null);
+			}
+			return this.distribution(exp).allProbability(children);
+		} finally {
+			EXPLICIT_PROBABILITY_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Calculates the expected number of children of an explicit (p:exp) node:
+	 * the sizes of the subsets listed in its p:subsets attribute, weighted by
+	 * their probabilities.
+	 * 
+	 * @param exp
+	 *            The explicit node.
+	 * @return The expected number of children of exp.
+	 * @throws QueryException
+	 *             When the p:subsets attribute of exp is malformed.
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public double explicitExpectedCount(ANode exp) throws QueryException {
+		long start = Metrics.start();
+		try {
+			return this.distribution(exp).expectedChildren();
+		} finally {
+			EXPLICIT_EXPECTED_COUNT_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Calculates the marginal probability of a node existing, given all
+	 * probability nodes among its ancestors: the p:child-i probabilities of
+	 * p:ind and p:mux nodes, the p:subsets of p:exp nodes and the
+	 * p:descriptors of p:cie nodes (combined into a single conjunction, as
+	 * nested p:cie nodes may share variables). The ancestors are walked once:
+	 * the result for every ancestor is memoized for the rest of the query, so
+	 * siblings and descendants of nodes evaluated earlier reuse their shared
+	 * path to the root.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @param node
+	 *            The node to calculate the probability of existing for.
+	 * @return The probability of node existing.
+	 * @throws QueryException
+	 *             When the probabilities of an ancestor are malformed.
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public double existence(ANode wsdList, ANode node) throws QueryException {
+		long start = Metrics.start();
+		try {
+			NodeKey key = NodeKey.of(wsdList);
+			if (this.existence == null || !key.equals(this.existenceList)) {
+				this.existence = new ExistenceEvaluator(this.source(wsdList));
+				this.existenceList = key;
+			}
+			return this.existence.probability(node);
+		} catch (IllegalArgumentException e) {
+			throw new QueryException("malformed probabilities: " + e.getMessage());
+		} finally {
+			EXISTENCE_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Finds the p:cie nodes in a document requiring all conditions of a
+	 * descriptor (their p:descriptors include every condition), using an
+	 * inverted index of the document built on first use. A lookup intersects
+	 * the compressed posting lists of the conditions, taking time in the
+	 * order of the size of the lists, not of the document.
+	 * 
+	 * @param document
+	 *            The (root of the) p-document.
+	 * @param descriptor
+	 *            The conditions to look up, the empty string for all p:cie
+	 *            nodes.
+	 * @return The p:cie nodes requiring all conditions, in document order.
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public Value requiring(ANode document, Str descriptor) {
+		long start = Metrics.start();
+		try {
+			ConditionIndex index = ConditionIndex.of(document);
+			return PXML.nodes(index, index.requiring(Descriptor.get(descriptor.string())));
+		} finally {
+			REQUIRING_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Finds the p:cie nodes in a document requiring all conditions of at
+	 * least one of the descriptors, uniting the results of
+	 * {@link #requiring(ANode, Str)} for every descriptor.
+	 * 
+	 * @param document
+	 *            The (root of the) p-document.
+	 * @param descriptors
+	 *            The descriptors to look up.
+	 * @return The p:cie nodes requiring any of the descriptors, in document
+	 *         order.
+	 * @throws QueryException
+	 *             When an item in descriptors can not be read as a string.
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public Value requiringAny(ANode document, Value descriptors) throws QueryException {
+		long start = Metrics.start();
+		try {
+			ConditionIndex index = ConditionIndex.of(document);
+			return PXML.nodes(index, index.requiringAny(this.compile(descriptors)));
+		} finally {
+			REQUIRING_ANY_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Counts the p:cie nodes in a document requiring all conditions of a
+	 * descriptor, like {@link #requiring(ANode, Str)} without creating the
+	 * nodes.
+	 * 
+	 * @param document
+	 *            The (root of the) p-document.
+	 * @param descriptor
+	 *            The conditions to look up.
+	 * @return The number of p:cie nodes requiring all conditions.
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public long requiringCount(ANode document, Str descriptor) {
+		long start = Metrics.start();
+		try {
+			return ConditionIndex.of(document).requiring(Descriptor.get(descriptor.string())).cardinality();
+		} finally {
+			REQUIRING_COUNT_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Registers evidence against a wsd-list: all conditions of the descriptors
+	 * are known to be true. From then on, the probabilities read from the
+	 * wsd-list by all functions of this query are conditioned on the
+	 * evidence: every observed variable is certain to have its observed value,
+	 * all other variables keep their probabilities. The evidence is overlaid
+	 * on the shared index of the list (see {@link ConditionedSource}), which
+	 * other queries, and the probability cache, keep reading unconditioned.
+	 * Evidence accumulates until retracted with {@link #retract(ANode)}, or
+	 * until the query ends.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @param descriptors
+	 *            The descriptors observed to be true.
+	 * @return The probability of the new evidence given the evidence
+	 *         registered before.
+	 * @throws QueryException
+	 *             When an item in descriptors can not be read as a string, or
+	 *             the evidence is impossible or contradicts earlier evidence.
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public double observe(ANode wsdList, Value descriptors) throws QueryException {
+		long start = Metrics.start();
+		try {
+			Descriptor observed = Descriptor.EMPTY;
+			for (Descriptor descriptor : this.compile(descriptors)) {
+				observed = observed.union(descriptor);
+			}
+			Descriptor before = this.observed(wsdList);
+			Descriptor after = before.union(observed);
+			if (!after.isConsistent()) {
+				throw new QueryException("evidence " + observed + " contradicts " + before);
+			}
+			double likelihood = new ConditionedSource(this.source(wsdList), before).likelihood(observed);
+			if (likelihood == 0.0) {
+				throw new QueryException("evidence " + observed + " is impossible");
+			}
+
+			this.evidence.put(NodeKey.of(wsdList), after);
+			// existence probabilities memoized before no longer hold
+			this.existence = null;
+			return likelihood;
+		} finally {
+			OBSERVE_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Provides the evidence registered against a wsd-list through
+	 * {@link #observe(ANode, Value)}, in canonical form.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @return The conditions observed so far, the empty string for none.
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public String evidence(ANode wsdList) {
+		return this.observed(wsdList).toString();
+	}
+
+	/**
+	 * Retracts all evidence registered against a wsd-list, restoring the
+	 * listed probabilities of the observed variables.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 */
+	@Requires(Permission.NONE)
+	public void retract(ANode wsdList) {
+		if (this.evidence.remove(NodeKey.of(wsdList)) != null) {
+			this.existence = null;
+		}
+	}
+
+	/**
+	 * Calculates the probability of all conditions of a descriptor given
+	 * evidence, without registering the evidence: P(descriptor | evidence) =
+	 * P(descriptor and evidence) / P(evidence), both conjunctions being 0.0
+	 * when inconsistent. Probabilities are read as conditioned on the
+	 * evidence registered through {@link #observe(ANode, Value)}, if any.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @param descriptor
+	 *            The conditions to calculate the probability of.
+	 * @param evidence
+	 *            The descriptors known to be true.
+	 * @return The conditional probability of descriptor.
+	 * @throws QueryException
+	 *             When an item in evidence can not be read as a string, or the
+	 *             evidence is impossible.
+	 */
+	@Requires(Permission.NONE)
+	@ContextDependent
+	public double conditionalProbability(ANode wsdList, Str descriptor, Value evidence) throws QueryException {
+		long start = Metrics.start();
+		try {
+			Descriptor given = Descriptor.EMPTY;
+			for (Descriptor item : this.compile(evidence)) {
+				given = given.union(item);
+			}
+			ProbabilitySource source = this.source(wsdList);
+			double marginal = this.conjunction(source, given);
+			if (marginal == 0.0) {
+				throw new QueryException("evidence " + given + " is impossible");
+			}
+			return this.conjunction(source, given.union(Descriptor.get(descriptor.string()))) / marginal;
+		} finally {
+			CONDITIONAL_PROBABILITY_TIME.stop(start);
+		}
+	}
+
+	/**
+	 * Drops the cached index of the provided wsd-list, forcing probabilities to
+	 * be read from the list again. Updates to a database are detected
+	 * automatically, this is meant for cases where that is not possible.
+	 * Evidence registered against the list is kept (see
+	 * {@link #retract(ANode)}), memoized existence probabilities are not.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 */
+	@Requires(Permission.NONE)
+	public void invalidate(ANode wsdList) {
+		VariableIndex.invalidate(wsdList);
+		// existence probabilities memoized before were read from the old index
+		this.existence = null;
+	}
+
+	/**
+	 * Reports the runtime metrics of the module: counters (cache hits and
+	 * misses, descriptor parses) and latency histograms of the functions and
+	 * wsd-list scans. Metrics are only recorded when enabled through the
+	 * system property pxml.metrics. Durations are in nanoseconds, quantiles
+	 * are upper bounds within a factor of two. Returns an element of the form
+	 * 
+	 * <pre>
+	 * &lt;stats enabled="..." cache-size="..."&gt;
+	 *   &lt;counter name="..." value="..."/&gt;
+	 *   &lt;histogram name="..." count="..." total="..." mean="..." p50="..." p90="..." p99="..." max="..."/&gt;
+	 * &lt;/stats&gt;
+	 * </pre>
+	 * 
+	 * Histograms that did not record anything are left out.
+	 * 
+	 * @return An element containing the metrics.
+	 */
+	@Requires(Permission.NONE)
+	public FElem stats() {
+		FElem result = PXML.element("stats", "enabled", Metrics.isEnabled(), "cache-size",
+				this.probabilityCache.size());
+		for (Metrics.Counter counter : Metrics.counters()) {
+			result.add(PXML.element("counter", "name", counter.name(), "value", counter.value()));
+		}
+		for (Metrics.Histogram histogram : Metrics.histograms()) {
+			long count = histogram.count();
+			if (count == 0) {
+				continue;
+			}
+			result.add(PXML.element("histogram", "name", histogram.name(), "count", count, "total",
+					histogram.total(), "mean", histogram.total() / count, "p50", histogram.quantile(0.5), "p90",
+					histogram.quantile(0.9), "p99", histogram.quantile(0.99), "max", histogram.max()));
+		}
+		return result;
+	}
+
+	/**
+	 * Resets all runtime metrics of the module to zero (see {@link #stats()}).
+	 */
+	@Requires(Permission.NONE)
+	public void resetStats() {
+		Metrics.reset();
 	}
 
 	/**
@@ -179,33 +1196,206 @@ public class PXML extends QueryModule {
 	 * @return The probability of the condition being true.
 	 */
 	protected Double findProbability(ANode wsdList, String strCondition) {
+		Condition condition = new Condition(strCondition);
+		return this.source(wsdList).probability(SymbolTable.SHARED.intern(condition.name), condition.value);
+	}
+
+	/**
+	 * Calculates the probability of all conditions of a descriptor, 0.0 when
+	 * the descriptor is inconsistent.
+	 * 
+	 * @param source
+	 *            The source of the probabilities.
+	 * @param descriptor
+	 *            The conditions.
+	 * @return The probability of all conditions being true.
+	 */
+	protected double conjunction(ProbabilitySource source, Descriptor descriptor) {
+		if (!descriptor.isConsistent()) {
+			return 0.0;
+		}
+		double probability = 1.0;
+		for (int i = 0, size = descriptor.size(); i < size; i++) {
+			probability *= source.probability(descriptor.variable(i), descriptor.value(i));
+		}
+		return probability;
+	}
+
+	/**
+	 * Creates a source of condition probabilities reading from wsdList through
+	 * the probability cache, like {@link #probability(ANode, Str)} does,
+	 * conditioned on the evidence registered against wsdList by this instance.
+	 * The cache only ever holds unconditioned probabilities.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @return A source of condition probabilities.
+	 */
+	protected ProbabilitySource source(ANode wsdList) {
+		final VariableIndex index = VariableIndex.of(wsdList);
+		return ConditionedSource.of(new ProbabilitySource() {
+			@Override
+			public double probability(int variable, int value) {
+				return PXML.this.probabilityCache.probability(index, variable, value);
+			}
+		}, this.observed(wsdList));
+	}
+
+	/**
+	 * Creates a source of condition probabilities reading from the index of
+	 * wsdList directly, conditioned on the evidence registered against wsdList
+	 * by this instance.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @return A source of condition probabilities.
+	 */
+	protected ProbabilitySource conditioned(ANode wsdList) {
+		return ConditionedSource.of(VariableIndex.of(wsdList), this.observed(wsdList));
+	}
+
+	/**
+	 * Provides the evidence registered against wsdList by this instance.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @return The conditions observed so far, the empty descriptor for none.
+	 */
+	protected Descriptor observed(ANode wsdList) {
+		Descriptor evidence = this.evidence.isEmpty() ? null : this.evidence.get(NodeKey.of(wsdList));
+		return evidence == null ? Descriptor.EMPTY : evidence;
+	}
+
+	/**
+	 * Provides the subset distribution of an explicit node.
+	 * 
+	 * @param exp
+	 *            The explicit node.
+	 * @return The distribution of exp.
+	 * @throws QueryException
+	 *             When the p:subsets attribute of exp is malformed.
+	 */
+	protected SubsetDistribution distribution(ANode exp) throws QueryException {
 		try {
-			Condition condition = new Condition(strCondition);
-			// find node matching variable name
-			for (ANode variable : wsdList.children()) {
-				if (condition.name.equals(new String(variable.qname().local()))) {
-					String valName = "val-" + condition.value;
-					// found the right node, now find the right attribute matching variable value
-					for (ANode attr : variable.attributes()) {
-						if (valName.equals(new String(attr.qname().local()))) {
-							// found the right attribute, parse the value as a double
-							return Double.parseDouble(new String(attr.string()));
-						}
-					}
+			return SubsetDistribution.of(exp);
+		} catch (IllegalArgumentException e) {
+			throw new QueryException("malformed subsets of explicit node: " + e.getMessage());
+		}
+	}
 
-					// no attribute matching the value was found, return 0.0
-					return 0.0;
-				}
+	/**
+	 * Aggregates the values of results weighted by their descriptors.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @param descriptors
+	 *            The descriptors of the results.
+	 * @param values
+	 *            The values of the results, in the same order.
+	 * @return The aggregator containing all results.
+	 * @throws QueryException
+	 *             When the number of descriptors and values differ, or an item
+	 *             can not be read as a string or number.
+	 */
+	protected ExpectedValueAggregator aggregate(ANode wsdList, Value descriptors, Value values)
+			throws QueryException {
+		if (descriptors.size() != values.size()) {
+			throw new QueryException("expected a descriptor for every value, got " + descriptors.size()
+					+ " descriptors for " + values.size() + " values");
+		}
+
+		ExpectedValueAggregator aggregator = new ExpectedValueAggregator(this.source(wsdList));
+		for (long i = 0, size = descriptors.size(); i < size; i++) {
+			aggregator.add(Descriptor.get(descriptors.itemAt(i).string(null)), values.itemAt(i).dbl(null));
+		}
+		return aggregator;
+	}
+
+	/**
+	 * Compiles all items in a sequence as descriptors.
+	 * 
+	 * @param descriptors
+	 *            The sequence of descriptor strings (or nodes).
+	 * @return The compiled descriptors, in sequence order.
+	 * @throws QueryException
+	 *             When an item can not be read as a string.
+	 */
+	protected Descriptor[] compile(Value descriptors) throws QueryException {
+		Descriptor[] compiled = new Descriptor[(int) descriptors.size()];
+		int i = 0;
+		for (Item item : descriptors) {
+			compiled[i++] = Descriptor.get(item.string(null));
+		}
+		return compiled;
+	}
+
+	/**
+	 * Finds a circuit compiled earlier.
+	 * 
+	 * @param handle
+	 *            The handle returned by {@link #compileCircuit(Value)}.
+	 * @return The compiled circuit.
+	 * @throws QueryException
+	 *             When the handle is unknown (or the circuit was evicted).
+	 */
+	protected Circuit circuit(Str handle) throws QueryException {
+		Circuit circuit = CIRCUITS.get(handle.toJava());
+		if (circuit == null) {
+			throw new QueryException("unknown circuit " + handle.toJava() + ", compile its descriptors (again)");
+		}
+		return circuit;
+	}
+
+	/**
+	 * Creates the element describing a world produced by
+	 * {@link #worlds(ANode, Value, boolean, double, long)}.
+	 */
+	protected static FElem world(WorldEnumerator enumerator, WorldEnumerator.World world, Descriptor[] descriptors) {
+		List<String> other = new ArrayList<String>();
+		int[] variables = enumerator.variables();
+		for (int i = 0; i < variables.length; i++) {
+			if (world.value(i) == WorldEnumerator.OTHER) {
+				other.add(SymbolTable.SHARED.name(variables[i]));
 			}
+		}
+		List<Integer> holds = new ArrayList<Integer>();
+		for (int d = 0; d < descriptors.length; d++) {
+			if (world.holds(descriptors[d])) {
+				holds.add(d + 1);
+			}
+		}
+		return PXML.element("world", "probability", world.probability(), "descriptor", world.descriptor(), "other",
+				CollectionUtils.join(other, " "), "holds", CollectionUtils.join(holds, " "));
+	}
 
-			// no node matching the variable was found, return 0.0
-			return 0.0;
-		} catch (NumberFormatException e) {
-			// malformed probability, fall back to 0.0
-			// TODO: submit message to BaseX logging
-			System.err.println("malformed probability for condition " + strCondition + ": " + e.getMessage());
-			return 0.0;
+	/**
+	 * Creates the sequence of the nodes in a posting list of index.
+	 */
+	protected static Value nodes(ConditionIndex index, RoaringBitmap posting) {
+		int[] ids = posting.toArray();
+		Item[] nodes = new Item[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			nodes[i] = index.node(ids[i]);
+		}
+		return ValueBuilder.value(nodes, nodes.length, NodeType.ELM);
+	}
+
+	/**
+	 * Creates an element with the given attributes.
+	 * 
+	 * @param name
+	 *            The name of the element.
+	 * @param attributes
+	 *            Alternating attribute names and values (converted using
+	 *            String.valueOf).
+	 * @return The newly created element.
+	 */
+	protected static FElem element(String name, Object... attributes) {
+		FElem element = new FElem(new QNm(name));
+		for (int i = 0; i + 1 < attributes.length; i += 2) {
+			element.add(new QNm(String.valueOf(attributes[i])), Token.token(String.valueOf(attributes[i + 1])));
 		}
+		return element;
 	}
 
 }
@@ -0,0 +1,108 @@
+package nl.utwente.cs.pxml;
+
+import nl.utwente.cs.pxml.util.LruCache;
+import nl.utwente.cs.pxml.util.Metrics;
+
+/**
+ * Module-wide cache of condition probabilities, keyed by the wsd-list they were read from and the condition. Entries
+ * are scoped to a generation of the wsd-list's {@link VariableIndex}: when the underlying document changes, the index
+ * is rebuilt under a new generation and the stale entries are no longer reachable, aging out of the cache as it
+ * evicts least recently used entries.
+ * 
+ * The capacity is read from the system property <code>pxml.cache.capacity</code> (default 65536 entries).
+ * 
+ * @author Mattijs Ugen
+ */
+public class ProbabilityCache {
+
+	/**
+	 * The name of the system property configuring the capacity of {@link #SHARED}.
+	 */
+	public static final String CAPACITY_PROPERTY = "pxml.cache.capacity";
+
+	/**
+	 * The cache shared by all PXML functions.
+	 */
+	public static final ProbabilityCache SHARED = new ProbabilityCache(Integer.getInteger(CAPACITY_PROPERTY, 1 << 16));
+
+	protected static final Metrics.Counter HITS = Metrics.counter("cache.hits");
+	protected static final Metrics.Counter MISSES = Metrics.counter("cache.misses");
+
+	protected final LruCache<Key, Double> entries;
+
+	/**
+	 * Creates a new ProbabilityCache.
+	 * 
+	 * @param capacity
+	 *            The maximum number of cached probabilities.
+	 */
+	public ProbabilityCache(int capacity) {
+		this.entries = new LruCache<Key, Double>(capacity);
+	}
+
+	/**
+	 * Looks up the probability of a condition, reading it from index (and caching it) when not cached yet.
+	 * 
+	 * @param index
+	 *            The index of the wsd-list the probability is read from.
+	 * @param variable
+	 *            The variable id.
+	 * @param value
+	 *            The value of the variable.
+	 * @return The probability of the condition.
+	 */
+	public double probability(VariableIndex index, int variable, int value) {
+		Key key = new Key(index, Descriptor.pack(variable, value));
+		Double probability = this.entries.get(key);
+		if (probability == null) {
+			ProbabilityCache.MISSES.increment();
+			probability = index.probability(variable, value);
+			this.entries.put(key, probability);
+		} else {
+			ProbabilityCache.HITS.increment();
+		}
+		return probability;
+	}
+
+	/**
+	 * @return The number of cached probabilities.
+	 */
+	public int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Cache key: document identity, index generation and packed condition.
+	 */
+	protected static final class Key {
+
+		protected final NodeKey document;
+		protected final long generation;
+		protected final long condition;
+
+		protected Key(VariableIndex index, long condition) {
+			this.document = index.document;
+			this.generation = index.generation;
+			this.condition = condition;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+
+			Key key = (Key) other;
+			return this.condition == key.condition && this.generation == key.generation
+					&& this.document.equals(key.document);
+		}
+
+		@Override
+		public int hashCode() {
+			long hash = this.condition * 0x9E3779B97F4A7C15L + this.generation;
+			return (int) (hash ^ (hash >>> 32)) * 31 + this.document.hashCode();
+		}
+
+	}
+
+}
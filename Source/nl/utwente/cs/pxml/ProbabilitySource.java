@@ -0,0 +1,21 @@
+package nl.utwente.cs.pxml;
+
+/**
+ * Source of the probabilities of conditions, variables being independent of each other.
+ * 
+ * @author Mattijs Ugen
+ */
+public interface ProbabilitySource {
+
+	/**
+	 * Provides the probability of a variable having a value.
+	 * 
+	 * @param variable
+	 *            The variable id.
+	 * @param value
+	 *            The value of the variable.
+	 * @return The probability of the condition being true.
+	 */
+	public double probability(int variable, int value);
+
+}
@@ -0,0 +1,287 @@
+package nl.utwente.cs.pxml;
+
+import java.util.Arrays;
+
+import nl.utwente.cs.pxml.util.LruCache;
+
+import org.basex.query.value.node.ANode;
+import org.basex.util.Token;
+
+/**
+ * Distribution over subsets of the children of an explicit (<code>p:exp</code>) node, read from its
+ * <code>p:subsets</code> attribute as written by the DocumentTransformer. The attribute lists the subsets that have a
+ * non-zero probability as space-separated <code>mask:probability</code> pairs, where mask is a hexadecimal number in
+ * which bit i - 1 is set when child i is part of the subset:
+ * 
+ * <pre>
+ * &lt;p:exp p:subsets="0:0.2 5:0.5 3:0.3"&gt;
+ * </pre>
+ * 
+ * lists the empty set, the set of children 1 and 3 and the set of children 1 and 2. Masks are kept as words of 64 bits
+ * each, so that the probability of (a set of) children existing is a matter of masking and summing, not of processing
+ * strings.
+ * 
+ * The number of distributions kept is read from the system property <code>pxml.subsets.capacity</code> (default 256).
+ * 
+ * @author Mattijs Ugen
+ */
+public final class SubsetDistribution {
+
+	// local name of the attribute listing the subsets
+	protected static final byte[] SUBSETS = Token.token("subsets");
+
+	/**
+	 * The name of the system property configuring the maximum number of distributions kept at the same time.
+	 */
+	public static final String CAPACITY_PROPERTY = "pxml.subsets.capacity";
+
+	// distributions by exp node identity
+	private static final LruCache<NodeKey, SubsetDistribution> CACHE = new LruCache<NodeKey, SubsetDistribution>(
+			Integer.getInteger(CAPACITY_PROPERTY, 256), 4);
+
+	// version of the document when the distribution was read
+	protected final long version;
+	// the number of 64-bit words per mask
+	protected final int stride;
+	// the masks of all subsets, stride words each
+	protected final long[] masks;
+	// the probabilities of all subsets
+	protected final double[] probabilities;
+
+	/**
+	 * Creates a new SubsetDistribution.
+	 * 
+	 * @param version
+	 *            The version of the document the distribution was read from.
+	 * @param stride
+	 *            The number of words per mask.
+	 * @param masks
+	 *            The masks of the subsets, stride words each.
+	 * @param probabilities
+	 *            The probabilities of the subsets.
+	 */
+	protected SubsetDistribution(long version, int stride, long[] masks, double[] probabilities) {
+		this.version = version;
+		this.stride = stride;
+		this.masks = masks;
+		this.probabilities = probabilities;
+	}
+
+	/**
+	 * Provides the distribution of exp, reading it if it was not read before (or its database was updated since).
+	 * 
+	 * @param exp
+	 *            The explicit node.
+	 * @return The distribution of exp, empty when exp has no subsets attribute.
+	 * @throws IllegalArgumentException
+	 *             When the subsets attribute is malformed.
+	 */
+	public static SubsetDistribution of(ANode exp) {
+		NodeKey key = NodeKey.of(exp);
+		SubsetDistribution distribution = CACHE.get(key);
+		if (distribution == null || distribution.version != key.version()) {
+			distribution = SubsetDistribution.parse(SubsetDistribution.subsets(exp), key.version());
+			CACHE.put(key, distribution);
+		}
+		return distribution;
+	}
+
+	/**
+	 * Parses a list of subsets in the format of the <code>p:subsets</code> attribute.
+	 * 
+	 * @param subsets
+	 *            The attribute value, null for none.
+	 * @param version
+	 *            The version of the document the value was read from.
+	 * @return The parsed distribution.
+	 * @throws IllegalArgumentException
+	 *             When the value is malformed.
+	 */
+	public static SubsetDistribution parse(byte[] subsets, long version) {
+		if (subsets == null) {
+			return new SubsetDistribution(version, 1, new long[0], new double[0]);
+		}
+
+		// first pass: count the subsets and find the longest mask to size the arrays
+		int count = 0;
+		int maxDigits = 0;
+		for (int i = 0; i < subsets.length;) {
+			while (i < subsets.length && Token.ws(subsets[i])) {
+				i++;
+			}
+			if (i == subsets.length) {
+				break;
+			}
+			int digits = 0;
+			while (i < subsets.length && subsets[i] != ':' && !Token.ws(subsets[i])) {
+				digits++;
+				i++;
+			}
+			if (i == subsets.length || subsets[i] != ':' || digits == 0) {
+				throw new IllegalArgumentException("expected mask:probability at position " + (i - digits));
+			}
+			while (i < subsets.length && !Token.ws(subsets[i])) {
+				i++;
+			}
+			maxDigits = Math.max(maxDigits, digits);
+			count++;
+		}
+
+		// second pass: fill the masks, 16 hexadecimal digits per word, least significant word first
+		int stride = Math.max(1, (maxDigits + 15) / 16);
+		long[] masks = new long[count * stride];
+		double[] probabilities = new double[count];
+		int subset = 0;
+		for (int i = 0; subset < count; subset++) {
+			while (Token.ws(subsets[i])) {
+				i++;
+			}
+			int colon = i;
+			while (subsets[colon] != ':') {
+				colon++;
+			}
+			for (int digit = colon - 1, bit = 0; digit >= i; digit--, bit += 4) {
+				int value = Character.digit(subsets[digit], 16);
+				if (value < 0) {
+					throw new IllegalArgumentException("malformed mask at position " + digit);
+				}
+				masks[subset * stride + (bit >>> 6)] |= (long) value << (bit & 63);
+			}
+			int end = colon + 1;
+			while (end < subsets.length && !Token.ws(subsets[end])) {
+				end++;
+			}
+			try {
+				probabilities[subset] = Double.parseDouble(Token.string(subsets, colon + 1, end - colon - 1));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("malformed probability at position " + (colon + 1), e);
+			}
+			i = end;
+		}
+		return new SubsetDistribution(version, stride, masks, probabilities);
+	}
+
+	/**
+	 * Finds the subsets attribute of exp by its local name.
+	 * 
+	 * @param exp
+	 *            The explicit node.
+	 * @return The value of the attribute, null when exp has none.
+	 */
+	protected static byte[] subsets(ANode exp) {
+		for (ANode attr : exp.attributes()) {
+			if (Token.eq(attr.qname().local(), SUBSETS)) {
+				return attr.string();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The number of subsets listed.
+	 */
+	public int size() {
+		return this.probabilities.length;
+	}
+
+	/**
+	 * Provides (a copy of) the mask of a subset.
+	 * 
+	 * @param subset
+	 *            The index of the subset, in listed order.
+	 * @return The words of the mask, least significant first.
+	 */
+	public long[] mask(int subset) {
+		return Arrays.copyOfRange(this.masks, subset * this.stride, (subset + 1) * this.stride);
+	}
+
+	/**
+	 * @param subset
+	 *            The index of the subset, in listed order.
+	 * @return The probability of the subset.
+	 */
+	public double probability(int subset) {
+		return this.probabilities[subset];
+	}
+
+	/**
+	 * Calculates the probability of a child existing: the sum of the probabilities of all subsets containing it.
+	 * 
+	 * @param child
+	 *            The position of the child (1-based, like the <code>p:child-i</code> attributes of ind and mux nodes).
+	 * @return The probability of the child existing.
+	 */
+	public double childProbability(int child) {
+		int word = (child - 1) >>> 6;
+		if (child < 1 || word >= this.stride) {
+			return 0.0;
+		}
+		long bit = 1L << ((child - 1) & 63);
+		double probability = 0.0;
+		for (int subset = 0, offset = word; subset < this.probabilities.length; subset++, offset += this.stride) {
+			if ((this.masks[offset] & bit) != 0) {
+				probability += this.probabilities[subset];
+			}
+		}
+		return probability;
+	}
+
+	/**
+	 * Calculates the probability of all children in a set existing together: the sum of the probabilities of all
+	 * subsets containing the set.
+	 * 
+	 * @param children
+	 *            The positions of the children (1-based).
+	 * @return The probability of all children existing, 1.0 for no children.
+	 */
+	public double allProbability(int... children) {
+		long[] set = new long[this.stride];
+		for (int child : children) {
+			int word = (child - 1) >>> 6;
+			if (child < 1 || word >= this.stride) {
+				// a child not in any subset
+				return 0.0;
+			}
+			set[word] |= 1L << ((child - 1) & 63);
+		}
+
+		double probability = 0.0;
+		for (int subset = 0, offset = 0; subset < this.probabilities.length; subset++, offset += this.stride) {
+			if (this.contains(offset, set)) {
+				probability += this.probabilities[subset];
+			}
+		}
+		return probability;
+	}
+
+	/**
+	 * Calculates the expected number of children existing: the sum of the sizes of all subsets weighted by their
+	 * probabilities.
+	 * 
+	 * @return The expected number of children.
+	 */
+	public double expectedChildren() {
+		double expected = 0.0;
+		for (int subset = 0, offset = 0; subset < this.probabilities.length; subset++, offset += this.stride) {
+			int size = 0;
+			for (int word = 0; word < this.stride; word++) {
+				size += Long.bitCount(this.masks[offset + word]);
+			}
+			expected += size * this.probabilities[subset];
+		}
+		return expected;
+	}
+
+	/**
+	 * Checks whether the mask starting at offset contains all bits of set.
+	 */
+	private boolean contains(int offset, long[] set) {
+		for (int word = 0; word < this.stride; word++) {
+			if ((this.masks[offset + word] & set[word]) != set[word]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,274 @@
+package nl.utwente.cs.pxml;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Module-wide table interning variable names to dense int ids. Ids are handed out in order of first appearance and
+ * are never reused, which allows {@link Descriptor}s to refer to variables by id only. Names are looked up by their
+ * UTF-8 bytes, so interning a name straight from a descriptor does not need an intermediate String. Lookups do not
+ * lock; only adding a new name does.
+ * 
+ * @author Mattijs Ugen
+ */
+public final class SymbolTable {
+
+	/**
+	 * The table shared by all PXML functions.
+	 */
+	public static final SymbolTable SHARED = new SymbolTable();
+
+	// open addressing hash table of id + 1 (0 marks an empty slot)
+	private volatile AtomicIntegerArray slots;
+	// names indexed by id, as bytes and as string (only grown while holding the lock on this table)
+	private volatile byte[][] bytes;
+	private volatile String[] names;
+	// stable 64-bit hashes of the names by id, see fingerprint(int)
+	private volatile long[] fingerprints;
+	// the number of ids handed out
+	private volatile int size;
+
+	/**
+	 * Creates a new, empty SymbolTable.
+	 */
+	public SymbolTable() {
+		this.slots = new AtomicIntegerArray(128);
+		this.bytes = new byte[64][];
+		this.names = new String[64];
+		this.fingerprints = new long[64];
+		this.size = 0;
+	}
+
+	/**
+	 * Finds the id for a name, assigning a new one if the name was not seen before.
+	 * 
+	 * @param input
+	 *            Array containing the name as UTF-8 bytes.
+	 * @param offset
+	 *            The offset of the name in input.
+	 * @param length
+	 *            The length of the name in bytes.
+	 * @return The id for the name.
+	 */
+	public int intern(byte[] input, int offset, int length) {
+		int hash = SymbolTable.hash(input, offset, length);
+		int id = this.find(hash, input, offset, length);
+		if (id >= 0) {
+			return id;
+		}
+
+		synchronized (this) {
+			// another thread might have beaten us to it
+			id = this.find(hash, input, offset, length);
+			if (id >= 0) {
+				return id;
+			}
+
+			id = this.size;
+			if (id == this.names.length) {
+				this.bytes = Arrays.copyOf(this.bytes, id * 2);
+				this.names = Arrays.copyOf(this.names, id * 2);
+				this.fingerprints = Arrays.copyOf(this.fingerprints, id * 2);
+			}
+			// store the name before its slot becomes visible to readers
+			this.bytes[id] = Arrays.copyOfRange(input, offset, offset + length);
+			this.names[id] = new String(input, offset, length, StandardCharsets.UTF_8);
+			this.fingerprints[id] = SymbolTable.fingerprint(input, offset, length);
+			this.size = id + 1;
+
+			if (this.size * 2 > this.slots.length()) {
+				// keep the load factor below one half, rehashing into a fresh table
+				AtomicIntegerArray grown = new AtomicIntegerArray(this.slots.length() * 2);
+				for (int existing = 0; existing < this.size; existing++) {
+					byte[] name = this.bytes[existing];
+					SymbolTable.place(grown, SymbolTable.hash(name, 0, name.length), existing);
+				}
+				this.slots = grown;
+			} else {
+				SymbolTable.place(this.slots, hash, id);
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * Finds the id for name, assigning a new one if name was not seen before.
+	 * 
+	 * @param name
+	 *            The variable name to intern.
+	 * @return The id for name.
+	 */
+	public int intern(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		return this.intern(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Finds the id for name without interning it.
+	 * 
+	 * @param name
+	 *            The variable name to look up.
+	 * @return The id for name, or -1 if name was never interned.
+	 */
+	public int lookup(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		return this.find(SymbolTable.hash(bytes, 0, bytes.length), bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Provides the name of the variable with the given id.
+	 * 
+	 * @param id
+	 *            An id obtained from {@link #intern(String)}.
+	 * @return The name of the variable.
+	 * @throws IndexOutOfBoundsException
+	 *             When id was not handed out by this table.
+	 */
+	public String name(int id) {
+		if (id < 0 || id >= this.size) {
+			throw new IndexOutOfBoundsException("unknown variable id " + id);
+		}
+		return this.names[id];
+	}
+
+	/**
+	 * Provides a 64-bit hash of the name of the variable with the given id. Unlike the id itself, the hash depends on
+	 * the name only, so it is the same in every table (and every run).
+	 * 
+	 * @param id
+	 *            An id obtained from {@link #intern(String)}.
+	 * @return The hash of the name of the variable.
+	 * @throws IndexOutOfBoundsException
+	 *             When id was not handed out by this table.
+	 */
+	public long fingerprint(int id) {
+		if (id < 0 || id >= this.size) {
+			throw new IndexOutOfBoundsException("unknown variable id " + id);
+		}
+		return this.fingerprints[id];
+	}
+
+	/**
+	 * Compares variable names in natural order: runs of digits are compared by their numeric value, so that var-2
+	 * sorts before var-10. Names that only differ in leading zeros are ordered as strings.
+	 * 
+	 * @param a
+	 *            The first name.
+	 * @param b
+	 *            The second name.
+	 * @return A negative number, zero or a positive number when a sorts before, equal to or after b.
+	 */
+	public static int compareNames(String a, String b) {
+		int i = 0, j = 0;
+		while (i < a.length() && j < b.length()) {
+			char ca = a.charAt(i), cb = b.charAt(j);
+			if (ca >= '0' && ca <= '9' && cb >= '0' && cb <= '9') {
+				// skip leading zeros, then the longer run of digits is the larger number
+				while (i < a.length() && a.charAt(i) == '0') {
+					i++;
+				}
+				while (j < b.length() && b.charAt(j) == '0') {
+					j++;
+				}
+				int endA = i, endB = j;
+				while (endA < a.length() && a.charAt(endA) >= '0' && a.charAt(endA) <= '9') {
+					endA++;
+				}
+				while (endB < b.length() && b.charAt(endB) >= '0' && b.charAt(endB) <= '9') {
+					endB++;
+				}
+				if (endA - i != endB - j) {
+					return (endA - i) - (endB - j);
+				}
+				for (; i < endA; i++, j++) {
+					if (a.charAt(i) != b.charAt(j)) {
+						return a.charAt(i) - b.charAt(j);
+					}
+				}
+			} else if (ca != cb) {
+				return ca - cb;
+			} else {
+				i++;
+				j++;
+			}
+		}
+		if (i < a.length() || j < b.length()) {
+			return i < a.length() ? 1 : -1;
+		}
+		return a.compareTo(b);
+	}
+
+	/**
+	 * @return The number of distinct names interned so far.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Looks up a name in the current table.
+	 * 
+	 * @return The id of the name, or -1 if it was not found.
+	 */
+	private int find(int hash, byte[] input, int offset, int length) {
+		AtomicIntegerArray slots = this.slots;
+		int mask = slots.length() - 1;
+		for (int i = hash & mask;; i = (i + 1) & mask) {
+			int slot = slots.get(i);
+			if (slot == 0) {
+				return -1;
+			}
+			// read the names after the slot, they are at least as recent
+			byte[] name = this.bytes[slot - 1];
+			if (SymbolTable.equals(name, input, offset, length)) {
+				return slot - 1;
+			}
+		}
+	}
+
+	/**
+	 * Stores id in the first free slot for hash.
+	 */
+	private static void place(AtomicIntegerArray slots, int hash, int id) {
+		int mask = slots.length() - 1;
+		int i = hash & mask;
+		while (slots.get(i) != 0) {
+			i = (i + 1) & mask;
+		}
+		slots.set(i, id + 1);
+	}
+
+	private static int hash(byte[] input, int offset, int length) {
+		int hash = 1;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			hash = 31 * hash + input[i];
+		}
+		// spread the bits, names tend to differ in their last characters only
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Hashes a name using 64-bit FNV-1a.
+	 */
+	private static long fingerprint(byte[] input, int offset, int length) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			hash = (hash ^ (input[i] & 0xff)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private static boolean equals(byte[] name, byte[] input, int offset, int length) {
+		if (name.length != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (name[i] != input[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,177 @@
+package nl.utwente.cs.pxml;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Selects the k most probable out of a set of candidate descriptors without computing the probability of every
+ * candidate in full. The probability of a descriptor is the product of the probabilities of its conditions, which can
+ * only shrink as conditions are multiplied in. Once k candidates have been seen, the least probable of them is a
+ * threshold: a candidate is dropped as soon as its partial product falls below it, skipping the lookups of its
+ * remaining conditions.
+ * 
+ * Candidates are visited in order of increasing descriptor size, as short descriptors tend to be the most probable
+ * ones and raise the threshold early.
+ * 
+ * @author Mattijs Ugen
+ */
+public class TopKSelector {
+
+	protected final int k;
+	protected final ProbabilitySource source;
+
+	/**
+	 * Creates a new TopKSelector.
+	 * 
+	 * @param k
+	 *            The number of candidates to select.
+	 * @param source
+	 *            The source of condition probabilities.
+	 */
+	public TopKSelector(int k, ProbabilitySource source) {
+		if (k < 0) {
+			throw new IllegalArgumentException("k should not be negative: " + k);
+		}
+		this.k = k;
+		this.source = source;
+	}
+
+	/**
+	 * Selects the k most probable candidates. Candidates with equal probabilities are ordered by their position in
+	 * candidates. Inconsistent descriptors have probability 0.0.
+	 * 
+	 * @param candidates
+	 *            The descriptors of the candidates.
+	 * @return The selection, most probable first.
+	 */
+	public Selection select(final Descriptor[] candidates) {
+		// visit short descriptors first (stable, keeping the original position as tie breaker)
+		Integer[] order = new Integer[candidates.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int result = Integer.compare(candidates[a].size(), candidates[b].size());
+				return result != 0 ? result : Integer.compare(a, b);
+			}
+		});
+
+		// min-heap on (probability, -position): the head is the worst candidate kept
+		PriorityQueue<Candidate> kept = new PriorityQueue<Candidate>(Math.max(1, this.k));
+		long lookups = 0;
+		for (int position : order) {
+			if (this.k == 0) {
+				break;
+			}
+
+			Descriptor descriptor = candidates[position];
+			Candidate worst = kept.size() < this.k ? null : kept.peek();
+			double probability = descriptor.isConsistent() ? 1.0 : 0.0;
+			for (int i = 0, size = descriptor.size(); i < size && probability > 0.0; i++) {
+				if (worst != null && !worst.isWorseThan(probability, position)) {
+					// the partial product is an upper bound, this candidate can not make the cut
+					break;
+				}
+				probability *= this.source.probability(descriptor.variable(i), descriptor.value(i));
+				lookups++;
+			}
+
+			if (worst == null) {
+				kept.add(new Candidate(position, probability));
+			} else if (worst.isWorseThan(probability, position)) {
+				kept.poll();
+				kept.add(new Candidate(position, probability));
+			}
+		}
+
+		Candidate[] selected = kept.toArray(new Candidate[kept.size()]);
+		Arrays.sort(selected, new Comparator<Candidate>() {
+			@Override
+			public int compare(Candidate a, Candidate b) {
+				// most probable first
+				return b.compareTo(a);
+			}
+		});
+		return new Selection(selected, lookups);
+	}
+
+	/**
+	 * A candidate kept in the heap.
+	 */
+	protected static final class Candidate implements Comparable<Candidate> {
+
+		protected final int position;
+		protected final double probability;
+
+		protected Candidate(int position, double probability) {
+			this.position = position;
+			this.probability = probability;
+		}
+
+		/**
+		 * Tests whether this candidate ranks below a candidate with the given probability and position.
+		 */
+		protected boolean isWorseThan(double probability, int position) {
+			return this.probability < probability || (this.probability == probability && this.position > position);
+		}
+
+		@Override
+		public int compareTo(Candidate other) {
+			// lower probabilities first, later positions first on ties
+			int result = Double.compare(this.probability, other.probability);
+			return result != 0 ? result : Integer.compare(other.position, this.position);
+		}
+
+	}
+
+	/**
+	 * The outcome of a selection.
+	 */
+	public static class Selection {
+
+		protected final Candidate[] selected;
+		protected final long lookups;
+
+		protected Selection(Candidate[] selected, long lookups) {
+			this.selected = selected;
+			this.lookups = lookups;
+		}
+
+		/**
+		 * @return The number of candidates selected (k, unless there were fewer candidates).
+		 */
+		public int size() {
+			return this.selected.length;
+		}
+
+		/**
+		 * @param rank
+		 *            The rank, 0 being the most probable candidate.
+		 * @return The position of the candidate at rank in the candidate array.
+		 */
+		public int position(int rank) {
+			return this.selected[rank].position;
+		}
+
+		/**
+		 * @param rank
+		 *            The rank, 0 being the most probable candidate.
+		 * @return The probability of the candidate at rank.
+		 */
+		public double probability(int rank) {
+			return this.selected[rank].probability;
+		}
+
+		/**
+		 * @return The number of condition probabilities looked up during the selection.
+		 */
+		public long lookups() {
+			return this.lookups;
+		}
+
+	}
+
+}
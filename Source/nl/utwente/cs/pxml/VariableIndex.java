@@ -0,0 +1,310 @@
+package nl.utwente.cs.pxml;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.utwente.cs.pxml.util.LruCache;
+import nl.utwente.cs.pxml.util.Metrics;
+
+import org.basex.query.value.node.ANode;
+import org.basex.query.value.type.NodeType;
+import org.basex.util.Token;
+
+/**
+ * Index of the value probabilities listed in a wsd-list (the <code>p:variables</code> element written by the
+ * DocumentTransformer), mapping variable id to an array of value probabilities. The index is built in a single pass
+ * over the list the first time it is requested through {@link #of(ANode)}, and rebuilt when the database containing
+ * the list was updated since. Every build gets a new generation, scoping {@link ProbabilityCache} entries to it.
+ * 
+ * An index is never changed once built, so it can be shared by all queries. Evidence is not registered against the
+ * index, but overlaid on it by whoever observed it (see {@link ConditionedSource}).
+ * 
+ * Instead of listing its variables, a wsd-list may refer to a binary sidecar (see {@link VariableTable}) through its
+ * <code>p:sidecar</code> attribute, holding the probabilities of the variables named <code>var-N</code>. The path is
+ * resolved against the directory in the system property <code>pxml.sidecar.dir</code> (default the working
+ * directory). As any query may refer to a sidecar, absolute paths and paths leading outside that directory are
+ * refused, unless the system property <code>pxml.sidecar.unrestricted</code> is true. The table is mapped into memory
+ * rather than read, so building such an index takes constant time and the probabilities stay off the heap. Variables
+ * listed in the wsd-list itself take precedence over those in the sidecar.
+ * 
+ * The number of indexes kept is read from the system property <code>pxml.index.capacity</code> (default 64).
+ * 
+ * @author Mattijs Ugen
+ */
+public final class VariableIndex implements ProbabilitySource {
+
+	// local name prefix of the attributes holding value probabilities
+	protected static final byte[] VALUE_PREFIX = Token.token("val-");
+
+	/**
+	 * The name of the system property configuring the maximum number of wsd-lists indexed at the same time.
+	 */
+	public static final String CAPACITY_PROPERTY = "pxml.index.capacity";
+
+	/**
+	 * The name of the system property configuring the directory relative sidecar paths are resolved against.
+	 */
+	public static final String SIDECAR_DIR_PROPERTY = "pxml.sidecar.dir";
+
+	/**
+	 * The name of the system property allowing sidecar paths that are absolute or lead outside the sidecar directory.
+	 */
+	public static final String SIDECAR_UNRESTRICTED_PROPERTY = "pxml.sidecar.unrestricted";
+
+	// local name of the attribute referring to a sidecar
+	protected static final byte[] SIDECAR = Token.token("sidecar");
+
+	// indexes by wsd-list identity
+	private static final LruCache<NodeKey, VariableIndex> INDEXES = new LruCache<NodeKey, VariableIndex>(
+			Integer.getInteger(CAPACITY_PROPERTY, 64), 4);
+	// source of index generations
+	private static final AtomicLong GENERATIONS = new AtomicLong();
+
+	// scans of wsd-lists building an index
+	private static final Metrics.Histogram BUILDS = Metrics.histogram("index.build");
+
+	// identity of the indexed wsd-list
+	protected final NodeKey document;
+	// version of the document when the index was built
+	protected final long version;
+	// unique number of this build
+	protected final long generation;
+	// value probabilities by variable id (null for variables not in the list)
+	protected final double[][] distributions;
+	// the sidecar holding the probabilities of the variables not listed, null for none
+	protected final VariableTable table;
+
+	/**
+	 * Creates a new VariableIndex.
+	 * 
+	 * @param document
+	 *            The identity of the indexed wsd-list.
+	 * @param distributions
+	 *            The value probabilities by variable id.
+	 * @param table
+	 *            The sidecar holding the probabilities of the variables not listed, null for none.
+	 */
+	protected VariableIndex(NodeKey document, double[][] distributions, VariableTable table) {
+		this.document = document;
+		this.version = document.version();
+		this.generation = GENERATIONS.incrementAndGet();
+		this.distributions = distributions;
+		this.table = table;
+	}
+
+	/**
+	 * Provides the index for wsdList, building it if wsdList was not indexed before.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @return The index for wsdList.
+	 */
+	public static VariableIndex of(ANode wsdList) {
+		NodeKey key = NodeKey.of(wsdList);
+		VariableIndex index = INDEXES.get(key);
+		if (index == null || index.version != key.version()) {
+			// not seen before or updated since, (re)build it
+			index = VariableIndex.build(wsdList);
+			INDEXES.put(key, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Drops the index for wsdList, if any. The next request for it will rebuild the index under a new generation.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 */
+	public static void invalidate(ANode wsdList) {
+		INDEXES.remove(NodeKey.of(wsdList));
+	}
+
+	/**
+	 * Builds an index by reading all variables from wsdList.
+	 * 
+	 * @param wsdList
+	 *            The node containing the probabilities.
+	 * @return A newly built index.
+	 * @throws IllegalArgumentException
+	 *             When the sidecar the wsd-list refers to can not be opened, or its path is not allowed.
+	 */
+	public static VariableIndex build(ANode wsdList) {
+		long start = Metrics.start();
+		VariableTable table = null;
+		byte[] sidecar = ExistenceEvaluator.attribute(wsdList, SIDECAR);
+		if (sidecar != null) {
+			try {
+				table = VariableTable.open(VariableIndex.resolve(Token.string(sidecar)));
+			} catch (IOException e) {
+				throw new IllegalArgumentException("unable to open sidecar " + Token.string(sidecar) + ": "
+						+ e.getMessage(), e);
+			}
+		}
+
+		double[][] distributions = new double[Math.max(SymbolTable.SHARED.size(), 16)][];
+		for (ANode variable : wsdList.children()) {
+			if (variable.type != NodeType.ELM) {
+				continue;
+			}
+
+			byte[] name = variable.qname().local();
+			int id = SymbolTable.SHARED.intern(name, 0, name.length);
+			if (id >= distributions.length) {
+				distributions = Arrays.copyOf(distributions, Math.max(id + 1, distributions.length * 2));
+			}
+
+			double[] distribution = new double[2];
+			for (ANode attr : variable.attributes()) {
+				int value = VariableIndex.valueOf(attr.qname().local());
+				if (value < 0) {
+					// not a val-N attribute
+					continue;
+				}
+				if (value >= distribution.length) {
+					distribution = Arrays.copyOf(distribution, value + 1);
+				}
+				distribution[value] = VariableIndex.parseProbability(variable, attr);
+			}
+			distributions[id] = distribution;
+		}
+		VariableIndex index = new VariableIndex(NodeKey.of(wsdList), distributions, table);
+		BUILDS.stop(start);
+		return index;
+	}
+
+	/**
+	 * @return The identity of the indexed wsd-list.
+	 */
+	public NodeKey document() {
+		return this.document;
+	}
+
+	/**
+	 * @return The unique number of this build of the index.
+	 */
+	public long generation() {
+		return this.generation;
+	}
+
+	/**
+	 * Looks up the probability of a variable having a value.
+	 * 
+	 * @param variable
+	 *            The variable id.
+	 * @param value
+	 *            The value of the variable.
+	 * @return The probability of the condition being true, 0.0 when either the variable or the value is not listed.
+	 */
+	@Override
+	public double probability(int variable, int value) {
+		double[] distribution = variable < this.distributions.length ? this.distributions[variable] : null;
+		if (distribution == null) {
+			return this.table == null ? 0.0 : this.table.probability(this.row(variable), value);
+		}
+		return value < 0 || value >= distribution.length ? 0.0 : distribution[value];
+	}
+
+	/**
+	 * Provides the value probabilities of a variable, indexed by value. The array should not be modified.
+	 * 
+	 * @param variable
+	 *            The variable id.
+	 * @return The value probabilities, or null when the variable is not listed.
+	 */
+	public double[] distribution(int variable) {
+		if (variable < this.distributions.length && this.distributions[variable] != null) {
+			return this.distributions[variable];
+		}
+		// read from the sidecar
+		long row = this.row(variable);
+		if (this.table == null || row < 0 || row >= this.table.count()) {
+			return null;
+		}
+		double[] distribution = new double[this.table.width()];
+		for (int value = 0; value < distribution.length; value++) {
+			distribution[value] = this.table.probability(row, value);
+		}
+		return distribution;
+	}
+
+	/**
+	 * Finds the row of a variable in the sidecar from its name.
+	 */
+	protected long row(int variable) {
+		return variable < SymbolTable.SHARED.size() ? VariableTable.row(SymbolTable.SHARED.name(variable)) : -1;
+	}
+
+	/**
+	 * Resolves the path of a sidecar against the directory in {@link #SIDECAR_DIR_PROPERTY}, refusing absolute paths
+	 * and paths leading outside that directory unless {@link #SIDECAR_UNRESTRICTED_PROPERTY} is true.
+	 * 
+	 * @throws IOException
+	 *             When the path is not allowed.
+	 */
+	protected static File resolve(String path) throws IOException {
+		File directory = new File(System.getProperty(SIDECAR_DIR_PROPERTY, ".")).getCanonicalFile();
+		File file = new File(path);
+		if (Boolean.getBoolean(SIDECAR_UNRESTRICTED_PROPERTY)) {
+			return file.isAbsolute() ? file : new File(directory, path);
+		}
+		if (file.isAbsolute()) {
+			throw new IOException("absolute sidecar paths are not allowed unless " + SIDECAR_UNRESTRICTED_PROPERTY
+					+ " is true");
+		}
+		// canonical paths, so neither .. nor symbolic links lead outside the directory
+		File resolved = new File(directory, path).getCanonicalFile();
+		if (!resolved.toPath().startsWith(directory.toPath())) {
+			throw new IOException("sidecar paths leading outside " + directory + " are not allowed unless "
+					+ SIDECAR_UNRESTRICTED_PROPERTY + " is true");
+		}
+		return resolved;
+	}
+
+	/**
+	 * Parses the value number from an attribute name of the form "val-N".
+	 * 
+	 * @param name
+	 *            The local name of the attribute.
+	 * @return N, or -1 when name is not of the expected form.
+	 */
+	protected static int valueOf(byte[] name) {
+		int prefix = VALUE_PREFIX.length;
+		if (name.length <= prefix || name.length > prefix + 9) {
+			return -1;
+		}
+		for (int i = 0; i < prefix; i++) {
+			if (name[i] != VALUE_PREFIX[i]) {
+				return -1;
+			}
+		}
+
+		int value = 0;
+		for (int i = prefix; i < name.length; i++) {
+			int digit = name[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Parses the probability stored in attr, falling back to 0.0 when malformed.
+	 */
+	private static double parseProbability(ANode variable, ANode attr) {
+		try {
+			return Double.parseDouble(Token.string(attr.string()));
+		} catch (NumberFormatException e) {
+			// malformed probability, fall back to 0.0
+			// TODO: submit message to BaseX logging
+			System.err.println("malformed probability for " + Token.string(variable.qname().local()) + "="
+					+ Token.string(attr.qname().local()) + ": " + e.getMessage());
+			return 0.0;
+		}
+	}
+
+}
@@ -0,0 +1,228 @@
+package nl.utwente.cs.pxml;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary sidecar holding the value probabilities of the variables of a p-document, as an alternative to listing them
+ * in the <code>p:variables</code> element. The table has a fixed width: every variable takes the same number of
+ * doubles, so the probability of variable <code>var-N</code> having value v is found at a computed offset without
+ * reading anything else. The file consists of a header of 16 bytes followed by the rows of all variables, in order of
+ * N:
+ * 
+ * <pre>
+ * int    magic ("PXV1")
+ * int    width (values per variable)
+ * long   count (number of variables)
+ * double probability[count][width] (big-endian)
+ * </pre>
+ * 
+ * Tables are read through memory mapped buffers (in segments of at most 1GB, tables may exceed 2GB), so opening one
+ * takes no parsing and its rows stay off the heap, paged in by the operating system as they are used.
+ * 
+ * @author Mattijs Ugen
+ */
+public final class VariableTable {
+
+	/**
+	 * The extension of sidecar files.
+	 */
+	public static final String EXTENSION = ".pxv";
+
+	// "PXV1" in ASCII
+	protected static final int MAGIC = 0x50585631;
+	protected static final int HEADER_SIZE = 16;
+	// the prefix of the names of the variables in a table
+	protected static final String ROW_PREFIX = "var-";
+	// the maximum size of a mapped segment
+	protected static final long SEGMENT_SIZE = 1L << 30;
+
+	protected final int width;
+	protected final long count;
+	// the number of rows per segment
+	protected final long rowsPerSegment;
+	protected final MappedByteBuffer[] segments;
+
+	protected VariableTable(int width, long count, long rowsPerSegment, MappedByteBuffer[] segments) {
+		this.width = width;
+		this.count = count;
+		this.rowsPerSegment = rowsPerSegment;
+		this.segments = segments;
+	}
+
+	/**
+	 * Opens a table, mapping it into memory.
+	 * 
+	 * @param file
+	 *            The sidecar file.
+	 * @return The table.
+	 * @throws IOException
+	 *             When the file can not be read or is not a (complete) table.
+	 */
+	public static VariableTable open(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			if (in.length() < HEADER_SIZE || in.readInt() != MAGIC) {
+				throw new IOException(file + " is not a variable table");
+			}
+			int width = in.readInt();
+			long count = in.readLong();
+			long rowSize = (long) width * 8;
+			if (width < 1 || count < 0 || in.length() < HEADER_SIZE + count * rowSize) {
+				throw new IOException(file + " is truncated or malformed");
+			}
+
+			// segments hold whole rows, so a row never straddles two of them
+			long rowsPerSegment = SEGMENT_SIZE / rowSize;
+			MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((count + rowsPerSegment - 1) / rowsPerSegment)];
+			FileChannel channel = in.getChannel();
+			for (int s = 0; s < segments.length; s++) {
+				long first = s * rowsPerSegment;
+				long rows = Math.min(rowsPerSegment, count - first);
+				segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * rowSize, rows * rowSize);
+			}
+			// mappings stay valid after the channel is closed
+			return new VariableTable(width, count, rowsPerSegment, segments);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return The number of values per variable.
+	 */
+	public int width() {
+		return this.width;
+	}
+
+	/**
+	 * @return The number of variables in the table.
+	 */
+	public long count() {
+		return this.count;
+	}
+
+	/**
+	 * Reads the probability of a variable having a value.
+	 * 
+	 * @param row
+	 *            The number N of variable <code>var-N</code>.
+	 * @param value
+	 *            The value of the variable.
+	 * @return The probability of the condition being true, 0.0 when either the variable or the value is not in the
+	 *         table.
+	 */
+	public double probability(long row, int value) {
+		if (row < 0 || row >= this.count || value < 0 || value >= this.width) {
+			return 0.0;
+		}
+		MappedByteBuffer segment = this.segments[(int) (row / this.rowsPerSegment)];
+		return segment.getDouble((int) ((row % this.rowsPerSegment) * this.width + value) * 8);
+	}
+
+	/**
+	 * Parses the row of a variable from its name.
+	 * 
+	 * @param name
+	 *            The name of the variable.
+	 * @return N for a name of the form "var-N", -1 otherwise.
+	 */
+	public static long row(String name) {
+		if (name == null || name.length() <= ROW_PREFIX.length() || name.length() > ROW_PREFIX.length() + 18
+				|| !name.startsWith(ROW_PREFIX)) {
+			return -1;
+		}
+
+		long row = 0;
+		for (int i = ROW_PREFIX.length(); i < name.length(); i++) {
+			int digit = name.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			row = row * 10 + digit;
+		}
+		return row;
+	}
+
+	/**
+	 * Writes a table row by row, without keeping the rows in memory.
+	 */
+	public static final class Writer implements Closeable {
+
+		protected final File file;
+		protected final int width;
+		protected final long count;
+		protected final DataOutputStream out;
+		protected long written = 0;
+
+		/**
+		 * Creates a new Writer, writing the header right away.
+		 * 
+		 * @param file
+		 *            The sidecar file to create (or overwrite).
+		 * @param width
+		 *            The number of values per variable.
+		 * @param count
+		 *            The number of variables that will be written.
+		 * @throws IOException
+		 *             When the file can not be written.
+		 */
+		public Writer(File file, int width, long count) throws IOException {
+			if (width < 1 || count < 0) {
+				throw new IllegalArgumentException("invalid table dimensions " + count + "x" + width);
+			}
+			this.file = file;
+			this.width = width;
+			this.count = count;
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			this.out.writeInt(MAGIC);
+			this.out.writeInt(width);
+			this.out.writeLong(count);
+		}
+
+		/**
+		 * Writes the row of the next variable.
+		 * 
+		 * @param distribution
+		 *            The probabilities of the values of the variable, missing values are written as 0.0.
+		 * @throws IOException
+		 *             When the row can not be written.
+		 */
+		public void add(double... distribution) throws IOException {
+			if (distribution.length > this.width) {
+				throw new IllegalArgumentException("expected at most " + this.width + " values, got "
+						+ distribution.length);
+			}
+			if (this.written == this.count) {
+				throw new IllegalStateException("all " + this.count + " variables were written already");
+			}
+			for (int value = 0; value < this.width; value++) {
+				this.out.writeDouble(value < distribution.length ? distribution[value] : 0.0);
+			}
+			this.written++;
+		}
+
+		/**
+		 * Closes the file.
+		 * 
+		 * @throws IOException
+		 *             When the file can not be written, or fewer variables were written than announced.
+		 */
+		@Override
+		public void close() throws IOException {
+			this.out.close();
+			if (this.written != this.count) {
+				throw new IOException("wrote " + this.written + " of " + this.count + " variables to " + this.file);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,381 @@
+package nl.utwente.cs.pxml;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Lazily enumerates the possible worlds relevant to a set of descriptors. Like the {@link WorldSampler}, only the
+ * variables occurring in consistent descriptors are considered, and only as far as the descriptors can tell their
+ * values apart: every variable takes one of the values mentioned for it, or {@link #OTHER} for any other value.
+ * Branches of probability 0.0 (values not listed, or no probability left for other values) are pruned before
+ * enumerating, so every world produced is possible.
+ * 
+ * Worlds are produced one at a time by {@link #next()}, either depth-first (needing no more memory than a single
+ * world) or in descending order of probability (best-first, bounding every partial world by the product of the most
+ * probable values of the variables left). Enumeration stops once the probability mass of the worlds produced reaches a
+ * threshold, or after a maximum number of worlds.
+ * 
+ * An enumerator should not be shared between threads.
+ * 
+ * @author Mattijs Ugen
+ */
+public class WorldEnumerator {
+
+	/**
+	 * The value of a variable in a world having any value not mentioned by the descriptors.
+	 */
+	public static final int OTHER = -1;
+
+	// the relevant variables, sorted
+	protected final int[] variables;
+	// per variable: the possible values (OTHER for any other value) and their probabilities, most probable first
+	protected final int[][] values;
+	protected final double[][] probabilities;
+	// per depth: the product of the highest probabilities of the variables from that depth on
+	protected final double[] bounds;
+
+	protected final double mass;
+	protected final long limit;
+
+	// the number of worlds and the probability mass produced so far
+	protected long count = 0;
+	protected double seen = 0.0;
+
+	// depth-first: the value indexes of the last world produced, null before the first
+	protected int[] odometer;
+	protected boolean exhausted = false;
+	// best-first: the partial worlds left to expand, null when enumerating depth-first
+	protected final PriorityQueue<Partial> queue;
+
+	/**
+	 * Creates a new WorldEnumerator for a set of descriptors.
+	 * 
+	 * @param descriptors
+	 *            The descriptors determining the relevant variables and values.
+	 * @param source
+	 *            The source of condition probabilities.
+	 * @param ordered
+	 *            Whether to produce the worlds in descending order of probability.
+	 * @param mass
+	 *            The probability mass after which to stop, 1.0 (or more) to produce all worlds.
+	 * @param limit
+	 *            The maximum number of worlds to produce.
+	 */
+	public WorldEnumerator(Descriptor[] descriptors, ProbabilitySource source, boolean ordered, double mass,
+			long limit) {
+		// collect all conditions that can ever be true, grouped by variable
+		Descriptor all = Descriptor.EMPTY;
+		for (Descriptor descriptor : descriptors) {
+			if (descriptor.isConsistent()) {
+				all = all.union(descriptor);
+			}
+		}
+		int numVariables = 0;
+		for (int c = 0; c < all.size(); c++) {
+			if (c == 0 || all.variable(c) != all.variable(c - 1)) {
+				numVariables++;
+			}
+		}
+
+		this.variables = new int[numVariables];
+		this.values = new int[numVariables][];
+		this.probabilities = new double[numVariables][];
+		for (int i = 0, c = 0; i < numVariables; i++) {
+			int from = c;
+			this.variables[i] = all.variable(c);
+			while (c < all.size() && all.variable(c) == this.variables[i]) {
+				c++;
+			}
+			this.prune(i, all, from, c, source);
+		}
+
+		this.bounds = new double[numVariables + 1];
+		this.bounds[numVariables] = 1.0;
+		for (int i = numVariables - 1; i >= 0; i--) {
+			this.bounds[i] = this.bounds[i + 1] * (this.values[i].length == 0 ? 0.0 : this.probabilities[i][0]);
+		}
+
+		this.mass = mass;
+		this.limit = limit;
+		this.queue = ordered ? WorldEnumerator.queue(this.bounds[0]) : null;
+		this.exhausted = !ordered && this.bounds[0] == 0.0;
+	}
+
+	/**
+	 * Creates a new WorldEnumerator producing the same worlds as another one, from the start.
+	 */
+	protected WorldEnumerator(WorldEnumerator other) {
+		// pruned once, never modified
+		this.variables = other.variables;
+		this.values = other.values;
+		this.probabilities = other.probabilities;
+		this.bounds = other.bounds;
+
+		this.mass = other.mass;
+		this.limit = other.limit;
+		this.queue = other.queue != null ? WorldEnumerator.queue(this.bounds[0]) : null;
+		this.exhausted = other.queue == null && this.bounds[0] == 0.0;
+	}
+
+	/**
+	 * Creates the queue of partial worlds for best-first enumeration, holding the empty world when bound is not 0.0.
+	 */
+	protected static PriorityQueue<Partial> queue(double bound) {
+		PriorityQueue<Partial> queue = new PriorityQueue<Partial>(64, new Comparator<Partial>() {
+			@Override
+			public int compare(Partial a, Partial b) {
+				// highest bound first, deeper (closer to complete) first on ties
+				int order = Double.compare(b.bound, a.bound);
+				return order != 0 ? order : Integer.compare(b.depth, a.depth);
+			}
+		});
+		if (bound > 0.0) {
+			queue.add(new Partial(null, 0, -1, 1.0, bound));
+		}
+		return queue;
+	}
+
+	/**
+	 * Determines the possible values of variable i: the values of the conditions from (inclusive) up to to (exclusive)
+	 * in all and any other value, leaving out those of probability 0.0, most probable first.
+	 */
+	protected void prune(int i, Descriptor all, int from, int to, ProbabilitySource source) {
+		int size = to - from + 1;
+		int[] values = new int[size];
+		double[] probabilities = new double[size];
+		double remaining = 1.0;
+		int possible = 0;
+		for (int c = from; c < to; c++) {
+			double probability = source.probability(this.variables[i], all.value(c));
+			remaining -= probability;
+			if (probability > 0.0) {
+				values[possible] = all.value(c);
+				probabilities[possible++] = probability;
+			}
+		}
+		// rounding errors in the listed probabilities should not make for an 'other' branch
+		if (remaining > 1e-12) {
+			values[possible] = OTHER;
+			probabilities[possible++] = remaining;
+		}
+
+		// sort on descending probability (a handful of values, insertion sort will do)
+		for (int j = 1; j < possible; j++) {
+			for (int k = j; k > 0 && probabilities[k] > probabilities[k - 1]; k--) {
+				double probability = probabilities[k];
+				probabilities[k] = probabilities[k - 1];
+				probabilities[k - 1] = probability;
+				int value = values[k];
+				values[k] = values[k - 1];
+				values[k - 1] = value;
+			}
+		}
+		this.values[i] = Arrays.copyOf(values, possible);
+		this.probabilities[i] = Arrays.copyOf(probabilities, possible);
+	}
+
+	/**
+	 * @return The relevant variables (sorted), in the order of the values of every world. The array should not be
+	 *         modified.
+	 */
+	public int[] variables() {
+		return this.variables;
+	}
+
+	/**
+	 * Counts the worlds produced from start to end. Producing all worlds (a mass of 1.0 or more), that is the product
+	 * of the numbers of possible values of the variables, up to the maximum number of worlds. Otherwise, where to
+	 * stop depends on the probabilities of the worlds, so these are enumerated by a separate enumerator, leaving this
+	 * one untouched.
+	 * 
+	 * @return The total number of worlds, including those produced already.
+	 */
+	public long size() {
+		if (this.mass >= 1.0) {
+			long size = 1;
+			for (int[] values : this.values) {
+				if (values.length == 0) {
+					return 0;
+				}
+				// stop before overflowing
+				if (size > this.limit / values.length) {
+					return this.limit;
+				}
+				size *= values.length;
+			}
+			return Math.min(size, this.limit);
+		}
+
+		WorldEnumerator counter = new WorldEnumerator(this);
+		while (counter.next() != null) {
+			// count the next world
+		}
+		return counter.count;
+	}
+
+	/**
+	 * Produces the next world.
+	 * 
+	 * @return The next world, null when all worlds were produced, or the probability mass or maximum number of worlds
+	 *         was reached.
+	 */
+	public World next() {
+		// producing all worlds, rounding errors in the mass seen should not stop enumeration before the last one
+		if (this.count >= this.limit || this.mass < 1.0 && this.seen >= this.mass) {
+			return null;
+		}
+
+		World world = this.queue == null ? this.nextDepthFirst() : this.nextBestFirst();
+		if (world != null) {
+			this.count++;
+			this.seen += world.probability;
+		}
+		return world;
+	}
+
+	/**
+	 * Advances the odometer to the next combination of values.
+	 */
+	protected World nextDepthFirst() {
+		if (this.exhausted) {
+			return null;
+		}
+
+		if (this.odometer == null) {
+			this.odometer = new int[this.variables.length];
+		} else {
+			int i = this.variables.length - 1;
+			while (i >= 0 && ++this.odometer[i] == this.values[i].length) {
+				this.odometer[i--] = 0;
+			}
+			if (i < 0) {
+				this.exhausted = true;
+				return null;
+			}
+		}
+
+		int[] values = new int[this.variables.length];
+		double probability = 1.0;
+		for (int i = 0; i < values.length; i++) {
+			values[i] = this.values[i][this.odometer[i]];
+			probability *= this.probabilities[i][this.odometer[i]];
+		}
+		return new World(this.variables, values, probability);
+	}
+
+	/**
+	 * Expands the most promising partial worlds until a complete one comes out on top.
+	 */
+	protected World nextBestFirst() {
+		Partial partial;
+		while ((partial = this.queue.poll()) != null) {
+			if (partial.depth == this.variables.length) {
+				int[] values = new int[this.variables.length];
+				for (Partial p = partial; p.parent != null; p = p.parent) {
+					values[p.depth - 1] = this.values[p.depth - 1][p.index];
+				}
+				return new World(this.variables, values, partial.probability);
+			}
+
+			int depth = partial.depth;
+			for (int index = 0; index < this.values[depth].length; index++) {
+				double probability = partial.probability * this.probabilities[depth][index];
+				this.queue.add(new Partial(partial, depth + 1, index, probability, probability
+						* this.bounds[depth + 1]));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * An assignment of values to the relevant variables.
+	 */
+	public static final class World {
+
+		protected final int[] variables;
+		protected final int[] values;
+		protected final double probability;
+
+		protected World(int[] variables, int[] values, double probability) {
+			this.variables = variables;
+			this.values = values;
+			this.probability = probability;
+		}
+
+		/**
+		 * @return The probability of this world.
+		 */
+		public double probability() {
+			return this.probability;
+		}
+
+		/**
+		 * @param i
+		 *            The index of the variable in {@link WorldEnumerator#variables()}.
+		 * @return The value of the variable in this world, {@link WorldEnumerator#OTHER} for any value not mentioned.
+		 */
+		public int value(int i) {
+			return this.values[i];
+		}
+
+		/**
+		 * @return The conditions of this world on the variables having a value mentioned by the descriptors.
+		 */
+		public Descriptor descriptor() {
+			long[] packed = new long[this.values.length];
+			int size = 0;
+			for (int i = 0; i < this.values.length; i++) {
+				if (this.values[i] != OTHER) {
+					packed[size++] = Descriptor.pack(this.variables[i], this.values[i]);
+				}
+			}
+			return Descriptor.of(packed, size);
+		}
+
+		/**
+		 * Tests whether a descriptor holds in this world.
+		 * 
+		 * @param descriptor
+		 *            The descriptor to test.
+		 * @return Whether all conditions of the descriptor are true in this world.
+		 */
+		public boolean holds(Descriptor descriptor) {
+			if (!descriptor.isConsistent()) {
+				return false;
+			}
+			for (int c = 0, size = descriptor.size(); c < size; c++) {
+				int i = Arrays.binarySearch(this.variables, descriptor.variable(c));
+				if (i < 0 || this.values[i] != descriptor.value(c)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+	/**
+	 * A world with values assigned to the first depth variables, linked to the world it was expanded from.
+	 */
+	protected static final class Partial {
+
+		protected final Partial parent;
+		protected final int depth;
+		// the index of the value of variable depth - 1
+		protected final int index;
+		protected final double probability;
+		// the highest probability of any completion of this world
+		protected final double bound;
+
+		protected Partial(Partial parent, int depth, int index, double probability, double bound) {
+			this.parent = parent;
+			this.depth = depth;
+			this.index = index;
+			this.probability = probability;
+			this.bound = bound;
+		}
+
+	}
+
+}
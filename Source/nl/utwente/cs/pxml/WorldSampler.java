@@ -0,0 +1,358 @@
+package nl.utwente.cs.pxml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Estimates the probabilities of descriptors by sampling possible worlds. Only the variables occurring in the
+ * descriptors are sampled, and only as far as the descriptors can tell their values apart: each variable is drawn as
+ * one of the values mentioned for it or 'any other value', encoded in as few bits as needed and packed into longs.
+ * 
+ * Sampling is done in blocks of {@link #BLOCK_SIZE} worlds spread over a {@link ForkJoinPool}. Every block draws from
+ * its own {@link SplittableRandom}, split off a root generator in block order, so results for a given seed do not
+ * depend on the number of threads.
+ * 
+ * @author Mattijs Ugen
+ */
+public class WorldSampler {
+
+	/**
+	 * The number of worlds sampled by a single task.
+	 */
+	public static final int BLOCK_SIZE = 4096;
+
+	// the relevant variables, sorted
+	protected final int[] variables;
+	// cumulative probabilities of the value codes of every variable (the last code being 'any other value')
+	protected final double[][] cumulative;
+	// position of every variable's code in a packed world
+	protected final int[] words;
+	protected final int[] shifts;
+	// the number of longs in a packed world
+	protected final int numWords;
+
+	// per descriptor: the positions and codes of its conditions (null for inconsistent descriptors)
+	protected final int[][] checkWords;
+	protected final int[][] checkShifts;
+	protected final long[][] checkMasks;
+	protected final long[][] checkCodes;
+
+	/**
+	 * Creates a new WorldSampler for a set of descriptors.
+	 * 
+	 * @param descriptors
+	 *            The descriptors to estimate probabilities for.
+	 * @param source
+	 *            The source of condition probabilities.
+	 */
+	public WorldSampler(Descriptor[] descriptors, ProbabilitySource source) {
+		// collect all conditions that can ever be true, grouped by variable
+		Descriptor all = Descriptor.EMPTY;
+		for (Descriptor descriptor : descriptors) {
+			if (descriptor.isConsistent()) {
+				all = all.union(descriptor);
+			}
+		}
+		int numVariables = 0;
+		for (int c = 0; c < all.size(); c++) {
+			if (c == 0 || all.variable(c) != all.variable(c - 1)) {
+				numVariables++;
+			}
+		}
+
+		// lay out the codes of the variables, never letting one straddle two longs
+		this.variables = new int[numVariables];
+		this.cumulative = new double[numVariables][];
+		this.words = new int[numVariables];
+		this.shifts = new int[numVariables];
+		int[][] values = new int[numVariables][];
+		int word = 0, shift = 0;
+		for (int i = 0, c = 0; i < numVariables; i++) {
+			int from = c;
+			this.variables[i] = all.variable(c);
+			while (c < all.size() && all.variable(c) == this.variables[i]) {
+				c++;
+			}
+			values[i] = new int[c - from];
+			for (int v = from; v < c; v++) {
+				values[i][v - from] = all.value(v);
+			}
+			this.cumulative[i] = WorldSampler.cumulative(source, this.variables[i], values[i]);
+
+			int bits = 32 - Integer.numberOfLeadingZeros(values[i].length);
+			if (shift + bits > 64) {
+				word++;
+				shift = 0;
+			}
+			this.words[i] = word;
+			this.shifts[i] = shift;
+			shift += bits;
+		}
+		this.numWords = word + 1;
+
+		this.checkWords = new int[descriptors.length][];
+		this.checkShifts = new int[descriptors.length][];
+		this.checkMasks = new long[descriptors.length][];
+		this.checkCodes = new long[descriptors.length][];
+		for (int d = 0; d < descriptors.length; d++) {
+			Descriptor descriptor = descriptors[d];
+			if (!descriptor.isConsistent()) {
+				// never true, leave the checks null
+				continue;
+			}
+
+			int size = descriptor.size();
+			this.checkWords[d] = new int[size];
+			this.checkShifts[d] = new int[size];
+			this.checkMasks[d] = new long[size];
+			this.checkCodes[d] = new long[size];
+			for (int c = 0; c < size; c++) {
+				int i = Arrays.binarySearch(this.variables, descriptor.variable(c));
+				int bits = 32 - Integer.numberOfLeadingZeros(values[i].length);
+				this.checkWords[d][c] = this.words[i];
+				this.checkShifts[d][c] = this.shifts[i];
+				this.checkMasks[d][c] = (1L << bits) - 1;
+				this.checkCodes[d][c] = WorldSampler.indexOf(values[i], descriptor.value(c));
+			}
+		}
+	}
+
+	/**
+	 * Samples worlds until either maxSamples worlds were drawn or the confidence intervals of all estimates are no
+	 * wider than twice epsilon (checked after every round of blocks).
+	 * 
+	 * @param maxSamples
+	 *            The maximum number of worlds to draw.
+	 * @param seed
+	 *            The seed of the root random generator.
+	 * @param epsilon
+	 *            The requested maximum half-width of the confidence intervals, 0.0 to always draw maxSamples worlds.
+	 * @param z
+	 *            The z-score of the confidence level (1.96 for 95%).
+	 * @param pool
+	 *            The pool to sample on.
+	 * @return The estimates for every descriptor (followed by the estimate for any of them).
+	 * @throws IllegalArgumentException
+	 *             When maxSamples is less than 1.
+	 */
+	public Estimates sample(long maxSamples, long seed, double epsilon, double z, ForkJoinPool pool) {
+		if (maxSamples < 1) {
+			throw new IllegalArgumentException("expected at least 1 sample, got " + maxSamples);
+		}
+		SplittableRandom root = new SplittableRandom(seed);
+		long[] hits = new long[this.checkWords.length + 1];
+		long samples = 0;
+		// a round keeps all workers busy for a few blocks before checking the error bound
+		int blocksPerRound = Math.max(1, pool.getParallelism() * 4);
+
+		while (samples < maxSamples) {
+			List<Callable<long[]>> tasks = new ArrayList<Callable<long[]>>(blocksPerRound);
+			for (int i = 0; i < blocksPerRound && samples < maxSamples; i++) {
+				int size = (int) Math.min(BLOCK_SIZE, maxSamples - samples);
+				tasks.add(new Block(root.split(), size));
+				samples += size;
+			}
+
+			try {
+				for (Future<long[]> result : pool.invokeAll(tasks)) {
+					long[] blockHits = result.get();
+					for (int i = 0; i < hits.length; i++) {
+						hits[i] += blockHits[i];
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted while sampling", e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("error while sampling: " + e.getCause().getMessage(), e.getCause());
+			}
+
+			Estimates estimates = new Estimates(hits, samples, z);
+			if (epsilon > 0.0 && estimates.maxHalfWidth() <= epsilon) {
+				return estimates;
+			}
+		}
+		return new Estimates(hits, samples, z);
+	}
+
+	/**
+	 * Draws a single world into the packed world array.
+	 */
+	protected void draw(SplittableRandom random, long[] world) {
+		Arrays.fill(world, 0L);
+		for (int i = 0; i < this.variables.length; i++) {
+			double[] cumulative = this.cumulative[i];
+			double u = random.nextDouble();
+			int code = 0;
+			while (code < cumulative.length - 1 && u >= cumulative[code]) {
+				code++;
+			}
+			world[this.words[i]] |= (long) code << this.shifts[i];
+		}
+	}
+
+	/**
+	 * Tests whether descriptor d holds in the packed world.
+	 */
+	protected boolean holds(int d, long[] world) {
+		int[] words = this.checkWords[d];
+		if (words == null) {
+			return false;
+		}
+
+		int[] shifts = this.checkShifts[d];
+		long[] masks = this.checkMasks[d];
+		long[] codes = this.checkCodes[d];
+		for (int c = 0; c < words.length; c++) {
+			if (((world[words[c]] >>> shifts[c]) & masks[c]) != codes[c]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int indexOf(int[] values, int value) {
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Computes the cumulative probabilities of the values of variable, followed by 'any other value'.
+	 */
+	protected static double[] cumulative(ProbabilitySource source, int variable, int[] values) {
+		double[] cumulative = new double[values.length + 1];
+		double sum = 0.0;
+		for (int i = 0; i < values.length; i++) {
+			sum = Math.min(1.0, sum + source.probability(variable, values[i]));
+			cumulative[i] = sum;
+		}
+		cumulative[values.length] = 1.0;
+		return cumulative;
+	}
+
+	/**
+	 * Task sampling a block of worlds.
+	 */
+	protected class Block implements Callable<long[]> {
+
+		protected final SplittableRandom random;
+		protected final int size;
+
+		protected Block(SplittableRandom random, int size) {
+			this.random = random;
+			this.size = size;
+		}
+
+		@Override
+		public long[] call() {
+			int numDescriptors = WorldSampler.this.checkWords.length;
+			long[] hits = new long[numDescriptors + 1];
+			long[] world = new long[WorldSampler.this.numWords];
+			for (int sample = 0; sample < this.size; sample++) {
+				WorldSampler.this.draw(this.random, world);
+				boolean any = false;
+				for (int d = 0; d < numDescriptors; d++) {
+					if (WorldSampler.this.holds(d, world)) {
+						hits[d]++;
+						any = true;
+					}
+				}
+				if (any) {
+					hits[numDescriptors]++;
+				}
+			}
+			return hits;
+		}
+
+	}
+
+	/**
+	 * Sampling outcome: hit counts with Wilson score confidence intervals.
+	 */
+	public static class Estimates {
+
+		protected final long[] hits;
+		protected final long samples;
+		protected final double z;
+
+		protected Estimates(long[] hits, long samples, double z) {
+			this.hits = hits.clone();
+			this.samples = samples;
+			this.z = z;
+		}
+
+		/**
+		 * @return The number of worlds drawn.
+		 */
+		public long samples() {
+			return this.samples;
+		}
+
+		/**
+		 * @param index
+		 *            The index of a descriptor, or the number of descriptors for 'any descriptor'.
+		 * @return The fraction of worlds in which the descriptor held.
+		 */
+		public double probability(int index) {
+			return this.samples == 0 ? 0.0 : this.hits[index] / (double) this.samples;
+		}
+
+		/**
+		 * @param index
+		 *            The index of a descriptor, or the number of descriptors for 'any descriptor'.
+		 * @return The lower bound of the confidence interval.
+		 */
+		public double lower(int index) {
+			return Math.max(0.0, this.center(index) - this.halfWidth(index));
+		}
+
+		/**
+		 * @param index
+		 *            The index of a descriptor, or the number of descriptors for 'any descriptor'.
+		 * @return The upper bound of the confidence interval.
+		 */
+		public double upper(int index) {
+			return Math.min(1.0, this.center(index) + this.halfWidth(index));
+		}
+
+		/**
+		 * @return The largest half-width of any of the confidence intervals.
+		 */
+		public double maxHalfWidth() {
+			double max = 0.0;
+			for (int i = 0; i < this.hits.length; i++) {
+				max = Math.max(max, this.halfWidth(i));
+			}
+			return max;
+		}
+
+		protected double center(int index) {
+			if (this.samples == 0) {
+				// nothing known, the interval is [0, 1]
+				return 0.5;
+			}
+			double n = this.samples, z2 = this.z * this.z;
+			return (this.probability(index) + z2 / (2 * n)) / (1 + z2 / n);
+		}
+
+		protected double halfWidth(int index) {
+			if (this.samples == 0) {
+				return 0.5;
+			}
+			double n = this.samples, z2 = this.z * this.z, p = this.probability(index);
+			return this.z * Math.sqrt(p * (1 - p) / n + z2 / (4 * n * n)) / (1 + z2 / n);
+		}
+
+	}
+
+}
@@ -0,0 +1,219 @@
+package nl.utwente.cs.pxml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.utwente.cs.pxml.util.Metrics;
+
+import org.basex.query.QueryContext;
+import org.basex.query.QueryException;
+import org.basex.query.iter.BasicIter;
+import org.basex.query.value.Value;
+import org.basex.query.value.ValueBuilder;
+import org.basex.query.value.item.Item;
+import org.basex.query.value.node.FElem;
+import org.basex.query.value.type.NodeType;
+import org.basex.query.value.type.SeqType;
+import org.basex.util.InputInfo;
+
+/**
+ * Sequence of the world elements produced by a {@link WorldEnumerator}, pulling worlds from the enumerator only as
+ * items are requested. Being a {@link Value} rather than an Iter, BaseX keeps the sequence as is instead of
+ * materializing it when it is returned from a Java function, so taking only the first few worlds (using head or
+ * subsequence) does not enumerate the others. Worlds pulled are kept, so the sequence can be iterated more than once.
+ * 
+ * BaseX expects the size of a value to be known up front, which it is without enumerating when all worlds are asked
+ * for (see {@link WorldEnumerator#size()}). Iterating, {@link #itemAt(long)}, {@link #subSeq(long, long)} and the
+ * single item and effective boolean value checks only pull the worlds they need. Everything else that depends on the
+ * whole sequence (atomization, hashing, reversing, serialization) pulls all worlds first. The time spent producing
+ * every world is recorded in the pxml:worlds histogram.
+ * 
+ * @author Mattijs Ugen
+ */
+public final class WorldSequence extends Value {
+
+	protected final WorldEnumerator enumerator;
+	protected final Descriptor[] descriptors;
+	protected final long size;
+	// the world elements pulled from the enumerator so far
+	protected final List<Item> worlds = new ArrayList<Item>();
+	protected boolean exhausted = false;
+
+	/**
+	 * Creates a new sequence of the worlds produced by an enumerator.
+	 * 
+	 * @param enumerator
+	 *            The enumerator, which should not be used by anything else.
+	 * @param descriptors
+	 *            The descriptors the enumerator was created for.
+	 */
+	public WorldSequence(WorldEnumerator enumerator, Descriptor[] descriptors) {
+		super(NodeType.ELM);
+		this.enumerator = enumerator;
+		this.descriptors = descriptors;
+		this.size = enumerator.size();
+	}
+
+	@Override
+	public long size() {
+		return this.size;
+	}
+
+	/**
+	 * Pulls worlds up to the one at pos.
+	 * 
+	 * @return The world at pos, or null when there are fewer worlds.
+	 */
+	@Override
+	public Item itemAt(long pos) {
+		synchronized (this) {
+			while (this.worlds.size() <= pos && this.pull()) {
+				// pull the next world
+			}
+			return pos < this.worlds.size() ? this.worlds.get((int) pos) : null;
+		}
+	}
+
+	/**
+	 * @return An iterator pulling the next world only once it is asked for.
+	 */
+	@Override
+	public BasicIter<Item> iter() {
+		return new BasicIter<Item>(this.size) {
+			@Override
+			public Item get(long pos) {
+				return WorldSequence.this.itemAt(pos);
+			}
+
+			@Override
+			public Value value(QueryContext qc) {
+				return WorldSequence.this;
+			}
+		};
+	}
+
+	/**
+	 * Pulls the worlds up to the end of the subsequence only.
+	 */
+	@Override
+	public Value subSeq(long start, long length) {
+		synchronized (this) {
+			if (length > 0) {
+				this.itemAt(start + length - 1);
+			}
+			int from = (int) Math.min(start, this.worlds.size());
+			int to = (int) Math.min(start + length, this.worlds.size());
+			Item[] items = this.worlds.subList(from, to).toArray(new Item[to - from]);
+			return ValueBuilder.value(items, items.length, NodeType.ELM);
+		}
+	}
+
+	@Override
+	public Item item(QueryContext qc, InputInfo ii) throws QueryException {
+		// a second world suffices to tell this is not a single item
+		return this.subSeq(0, 2).item(qc, ii);
+	}
+
+	@Override
+	public Item atomItem(QueryContext qc, InputInfo ii) throws QueryException {
+		return this.subSeq(0, 2).atomItem(qc, ii);
+	}
+
+	@Override
+	public Item ebv(QueryContext qc, InputInfo ii) throws QueryException {
+		return this.subSeq(0, 2).ebv(qc, ii);
+	}
+
+	@Override
+	public Item test(QueryContext qc, InputInfo ii) throws QueryException {
+		return this.subSeq(0, 2).test(qc, ii);
+	}
+
+	@Override
+	public SeqType seqType() {
+		return SeqType.ELM_ZM;
+	}
+
+	@Override
+	public boolean homogeneous() {
+		return true;
+	}
+
+	@Override
+	public void materialize(InputInfo ii) {
+		if (this.size > 0) {
+			this.itemAt(this.size - 1);
+		}
+	}
+
+	@Override
+	public Value atomValue(InputInfo ii) throws QueryException {
+		return this.materialized().atomValue(ii);
+	}
+
+	@Override
+	public long atomSize() {
+		return this.materialized().atomSize();
+	}
+
+	@Override
+	public Object toJava() throws QueryException {
+		return this.materialized().toJava();
+	}
+
+	@Override
+	public int hash(InputInfo ii) throws QueryException {
+		return this.materialized().hash(ii);
+	}
+
+	@Override
+	public int writeTo(Item[] arr, int index) {
+		return this.materialized().writeTo(arr, index);
+	}
+
+	@Override
+	public Value reverse() {
+		return this.materialized().reverse();
+	}
+
+	@Override
+	public void plan(FElem plan) {
+		this.materialized().plan(plan);
+	}
+
+	@Override
+	public String toString() {
+		return this.materialized().toString();
+	}
+
+	/**
+	 * Pulls all worlds, providing them as an ordinary sequence.
+	 */
+	protected Value materialized() {
+		return this.subSeq(0, this.size);
+	}
+
+	/**
+	 * Pulls the next world from the enumerator, the caller holding the lock on this sequence.
+	 * 
+	 * @return Whether a world was pulled.
+	 */
+	protected boolean pull() {
+		if (this.exhausted) {
+			return false;
+		}
+		long start = Metrics.start();
+		try {
+			WorldEnumerator.World world = this.enumerator.next();
+			if (world == null) {
+				this.exhausted = true;
+				return false;
+			}
+			this.worlds.add(PXML.world(this.enumerator, world, this.descriptors));
+			return true;
+		} finally {
+			PXML.WORLDS_TIME.stop(start);
+		}
+	}
+
+}
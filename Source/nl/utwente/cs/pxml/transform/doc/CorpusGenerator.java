@@ -0,0 +1,178 @@
+package nl.utwente.cs.pxml.transform.doc;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+import nl.utwente.cs.pxml.ProbabilityNodeType;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+
+/**
+ * Generates synthetic p-documents for benchmarking: a base document is synthesized by a
+ * {@link SyntheticDocumentReader} and streamed through a {@link StreamingDocumentTransformer} straight to disk, so the
+ * size of the generated documents is not limited by memory. The overlay is configured using the options of
+ * {@link DocumentTransformer}. A manifest describing the generated document is written next to it, recording the
+ * settings, the number of nodes, the number of pNodes of every type and the number of variables.
+ * 
+ * The output only depends on the settings and the seed: a corpus can be regenerated using the seed recorded in its
+ * manifest.
+ * 
+ * @author Mattijs Ugen
+ */
+public class CorpusGenerator {
+
+	@Parameter(names = "--records", description = "number of records in the document element")
+	protected int numRecords = 1000;
+	@Parameter(names = "--depth", description = "number of levels of sections in every record")
+	protected int depth = 3;
+	@Parameter(names = "--fan-out", description = "average number of children of records and sections")
+	protected int fanOut = 4;
+	@Parameter(names = "--text-size", description = "minimal number of characters in every text node")
+	protected int textSize = 64;
+
+	@Parameter(names = "--output", description = "file to write the generated document to", required = true)
+	protected String output;
+	@Parameter(names = "--manifest", description = "file to write the manifest to (defaults to <output>.manifest)")
+	protected String manifest;
+
+	protected final DocumentTransformer settings;
+
+	/**
+	 * Creates a new CorpusGenerator.
+	 * 
+	 * @param settings
+	 *            The transformer holding the settings of the overlay.
+	 */
+	public CorpusGenerator(DocumentTransformer settings) {
+		this.settings = settings;
+	}
+
+	/**
+	 * Generates a p-document, writing it and its manifest.
+	 * 
+	 * @param seed
+	 *            The seed for both the base document and the overlay.
+	 * @return The manifest written.
+	 * @throws DocumentTransformerException
+	 *             When writing fails.
+	 */
+	public Properties generate(long seed) throws DocumentTransformerException {
+		// separate streams for the base document and the overlay
+		SplittableRandom random = new SplittableRandom(seed);
+		long documentSeed = random.nextLong();
+		this.settings.random = random.split();
+
+		// the number of elements determines the number of variables, count them by generating the document twice
+		int[] nodes = this.countNodes(documentSeed);
+
+		File output = new File(this.output);
+		StreamingDocumentTransformer transformer = new StreamingDocumentTransformer(this.settings);
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+			try {
+				XMLEventReader reader = this.createReader(documentSeed);
+				XMLEventWriter writer = XMLOutputFactory.newInstance().createXMLEventWriter(out, "UTF-8");
+				transformer.transform(reader, writer, nodes[0]);
+				writer.close();
+				reader.close();
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			throw new DocumentTransformerException("I/O error while generating: " + e.getMessage(), e);
+		} catch (XMLStreamException e) {
+			throw new DocumentTransformerException("XML error while generating: " + e.getMessage(), e);
+		}
+
+		Properties manifest = new Properties();
+		manifest.setProperty("seed", String.valueOf(seed));
+		manifest.setProperty("records", String.valueOf(this.numRecords));
+		manifest.setProperty("depth", String.valueOf(this.depth));
+		manifest.setProperty("fanOut", String.valueOf(this.fanOut));
+		manifest.setProperty("textSize", String.valueOf(this.textSize));
+		manifest.setProperty("elements", String.valueOf(nodes[0]));
+		manifest.setProperty("textNodes", String.valueOf(nodes[1]));
+		int pNodes = 0;
+		for (ProbabilityNodeType type : ProbabilityNodeType.values()) {
+			pNodes += transformer.report().count(type);
+			manifest.setProperty("pNodes." + type.name().toLowerCase(),
+					String.valueOf(transformer.report().count(type)));
+		}
+		manifest.setProperty("pNodes", String.valueOf(pNodes));
+		manifest.setProperty("variables", String.valueOf(transformer.report().numVariables()));
+		manifest.setProperty("bytes", String.valueOf(output.length()));
+
+		File manifestFile = new File(this.manifest != null ? this.manifest : this.output + ".manifest");
+		try {
+			OutputStream out = new FileOutputStream(manifestFile);
+			try {
+				manifest.store(out, "synthetic p-document " + output.getName());
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			throw new DocumentTransformerException("I/O error while writing manifest: " + e.getMessage(), e);
+		}
+		return manifest;
+	}
+
+	protected XMLEventReader createReader(long seed) {
+		return new SyntheticDocumentReader(this.numRecords, this.depth, this.fanOut, this.textSize, seed);
+	}
+
+	/**
+	 * Counts the nodes of the base document generated from seed.
+	 * 
+	 * @param seed
+	 *            The seed of the base document.
+	 * @return The number of elements and the number of text nodes.
+	 */
+	protected int[] countNodes(long seed) {
+		XMLEventReader reader = this.createReader(seed);
+		int[] counts = new int[2];
+		while (reader.hasNext()) {
+			XMLEvent event = (XMLEvent) reader.next();
+			if (event.isStartElement()) {
+				counts[0]++;
+			} else if (event.isCharacters()) {
+				counts[1]++;
+			}
+		}
+		return counts;
+	}
+
+	public static void main(String... args) {
+		DocumentTransformer settings = new DocumentTransformer();
+		CorpusGenerator generator = new CorpusGenerator(settings);
+		JCommander arguments = new JCommander(new Object[] {
+				generator, settings
+		});
+
+		try {
+			arguments.parse(args);
+			// pick a seed when none was given, it is recorded in the manifest
+			long seed = settings.seed != null ? settings.seed : new SplittableRandom().nextLong();
+			Properties manifest = generator.generate(seed);
+			System.out.println("  wrote " + manifest.getProperty("bytes") + " bytes, " + manifest.getProperty("pNodes")
+					+ " pNodes, " + manifest.getProperty("variables") + " variables (seed " + seed + ")");
+		} catch (ParameterException e) {
+			arguments.usage();
+		} catch (DocumentTransformerException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
@@ -0,0 +1,195 @@
+package nl.utwente.cs.pxml.transform.doc;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.basex.build.Builder;
+import org.basex.util.Atts;
+import org.basex.util.Token;
+
+/**
+ * XMLEventWriter feeding the events written to it into a BaseX {@link Builder}, building a database from them without
+ * serializing them first. Adjacent character events are merged into a single text node, whitespace outside of the
+ * document element is dropped. Attributes and namespaces are expected to be part of their start element events.
+ * Optionally, all events are also written to another writer.
+ * 
+ * @author Mattijs Ugen
+ */
+public class DatabaseEventWriter implements XMLEventWriter {
+
+	protected final Builder builder;
+	protected final byte[] name;
+	protected final XMLEventWriter also;
+
+	protected final Atts attributes = new Atts();
+	protected final Atts namespaces = new Atts();
+	protected final StringBuilder text = new StringBuilder();
+	protected int depth = 0;
+
+	/**
+	 * Creates a new DatabaseEventWriter.
+	 * 
+	 * @param builder
+	 *            The builder to feed the events into.
+	 * @param name
+	 *            The name of the document in the database.
+	 * @param also
+	 *            A writer to write all events to as well, null for none.
+	 */
+	public DatabaseEventWriter(Builder builder, String name, XMLEventWriter also) {
+		this.builder = builder;
+		this.name = Token.token(name);
+		this.also = also;
+	}
+
+	@Override
+	public void add(XMLEvent event) throws XMLStreamException {
+		if (this.also != null) {
+			this.also.add(event);
+		}
+
+		try {
+			switch (event.getEventType()) {
+			case XMLEvent.START_DOCUMENT:
+				this.builder.openDoc(this.name);
+				break;
+			case XMLEvent.END_DOCUMENT:
+				this.flushText();
+				this.builder.closeDoc();
+				break;
+			case XMLEvent.START_ELEMENT:
+				this.flushText();
+				this.startElement(event.asStartElement());
+				break;
+			case XMLEvent.END_ELEMENT:
+				this.flushText();
+				this.depth--;
+				this.builder.closeElem();
+				break;
+			case XMLEvent.CHARACTERS:
+			case XMLEvent.CDATA:
+			case XMLEvent.SPACE:
+				Characters characters = event.asCharacters();
+				if (this.depth > 0) {
+					this.text.append(characters.getData());
+				}
+				break;
+			case XMLEvent.COMMENT:
+				this.flushText();
+				this.builder.comment(Token.token(((Comment) event).getText()));
+				break;
+			case XMLEvent.PROCESSING_INSTRUCTION:
+				this.flushText();
+				ProcessingInstruction pi = (ProcessingInstruction) event;
+				String data = pi.getData() == null || pi.getData().isEmpty() ? "" : " " + pi.getData();
+				this.builder.pi(Token.token(pi.getTarget() + data));
+				break;
+			case XMLEvent.ATTRIBUTE:
+			case XMLEvent.NAMESPACE:
+				throw new XMLStreamException("attributes and namespaces should be part of their start element");
+			default:
+				// dtd, entity declarations, ...
+				break;
+			}
+		} catch (IOException e) {
+			throw new XMLStreamException("error building database: " + e.getMessage(), e);
+		}
+	}
+
+	protected void startElement(StartElement element) throws IOException {
+		this.attributes.reset();
+		for (Iterator<?> it = element.getAttributes(); it.hasNext();) {
+			Attribute attribute = (Attribute) it.next();
+			this.attributes.add(DatabaseEventWriter.qualifiedName(attribute.getName()),
+					Token.token(attribute.getValue()));
+		}
+		this.namespaces.reset();
+		for (Iterator<?> it = element.getNamespaces(); it.hasNext();) {
+			Namespace namespace = (Namespace) it.next();
+			this.namespaces.add(Token.token(namespace.getPrefix()), Token.token(namespace.getNamespaceURI()));
+		}
+		this.depth++;
+		this.builder.openElem(DatabaseEventWriter.qualifiedName(element.getName()), this.attributes, this.namespaces);
+	}
+
+	protected void flushText() throws IOException {
+		if (this.text.length() > 0) {
+			this.builder.text(Token.token(this.text.toString()));
+			this.text.setLength(0);
+		}
+	}
+
+	protected static byte[] qualifiedName(QName name) {
+		String prefix = name.getPrefix();
+		if (prefix == null || prefix.isEmpty()) {
+			return Token.token(name.getLocalPart());
+		}
+		return Token.token(prefix + ':' + name.getLocalPart());
+	}
+
+	@Override
+	public void add(XMLEventReader reader) throws XMLStreamException {
+		while (reader.hasNext()) {
+			this.add(reader.nextEvent());
+		}
+	}
+
+	@Override
+	public void flush() throws XMLStreamException {
+		if (this.also != null) {
+			this.also.flush();
+		}
+	}
+
+	@Override
+	public void close() throws XMLStreamException {
+		if (this.also != null) {
+			this.also.close();
+		}
+	}
+
+	@Override
+	public String getPrefix(String uri) throws XMLStreamException {
+		return this.also != null ? this.also.getPrefix(uri) : null;
+	}
+
+	@Override
+	public void setPrefix(String prefix, String uri) throws XMLStreamException {
+		if (this.also != null) {
+			this.also.setPrefix(prefix, uri);
+		}
+	}
+
+	@Override
+	public void setDefaultNamespace(String uri) throws XMLStreamException {
+		if (this.also != null) {
+			this.also.setDefaultNamespace(uri);
+		}
+	}
+
+	@Override
+	public void setNamespaceContext(NamespaceContext context) throws XMLStreamException {
+		if (this.also != null) {
+			this.also.setNamespaceContext(context);
+		}
+	}
+
+	@Override
+	public NamespaceContext getNamespaceContext() {
+		return this.also != null ? this.also.getNamespaceContext() : null;
+	}
+
+}
@@ -0,0 +1,149 @@
+package nl.utwente.cs.pxml.transform.doc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.basex.build.Builder;
+import org.basex.build.Parser;
+import org.basex.build.xml.DOMWrapper;
+import org.basex.core.Context;
+import org.basex.core.MainOptions;
+import org.basex.core.cmd.Close;
+import org.basex.core.cmd.CreateDB;
+import org.basex.data.Data;
+import org.basex.io.IO;
+import org.w3c.dom.Document;
+
+/**
+ * Loads transformed documents directly into a BaseX database, without serializing them to a file and having BaseX
+ * parse that file again. A transformed DOM is handed to BaseX as is, a streaming transformation feeds its events into
+ * the database builder as they are produced (optionally writing them to a file at the same time).
+ * 
+ * @author Mattijs Ugen
+ */
+public class DatabaseLoader {
+
+	protected final Context context;
+
+	/**
+	 * Creates a new DatabaseLoader.
+	 * 
+	 * @param context
+	 *            The BaseX context holding the databases.
+	 */
+	public DatabaseLoader(Context context) {
+		this.context = context;
+	}
+
+	/**
+	 * Creates a database from a (transformed) document, replacing an existing database with the same name.
+	 * 
+	 * @param name
+	 *            The name of the database.
+	 * @param doc
+	 *            The document to load.
+	 * @throws DocumentTransformerException
+	 *             When creating the database fails.
+	 */
+	public void load(String name, Document doc) throws DocumentTransformerException {
+		this.create(name, new DOMWrapper(doc, name, this.context.options));
+	}
+
+	/**
+	 * Transforms a document while streaming it into a database, replacing an existing database with the same name.
+	 * 
+	 * @param name
+	 *            The name of the database.
+	 * @param transformer
+	 *            The transformer to transform the document with.
+	 * @param input
+	 *            The file to read.
+	 * @param output
+	 *            The file to write the transformed document to as well, null to only create the database.
+	 * @throws DocumentTransformerException
+	 *             When reading, parsing, writing or creating the database fails.
+	 */
+	public void load(String name, StreamingDocumentTransformer transformer, File input, File output)
+			throws DocumentTransformerException {
+		TransformReport report = new TransformReport();
+		int numNodes = transformer.countElements(input);
+		report.phase("count");
+		MainOptions options = this.context.options;
+		this.create(name, new StreamingParser(name, transformer, input, output, numNodes, report, options));
+		report.phase("database");
+	}
+
+	protected void create(String name, Parser parser) throws DocumentTransformerException {
+		try {
+			// the new database is opened (and pinned) by the context, release it rather than closing it
+			Data data = CreateDB.create(name, parser, this.context, this.context.options);
+			Close.close(data, this.context);
+		} catch (IOException e) {
+			throw new DocumentTransformerException("Unable to create database " + name + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Parser running a streaming transformation, feeding its output into the database builder.
+	 */
+	protected static class StreamingParser extends Parser {
+
+		protected final String name;
+		protected final StreamingDocumentTransformer transformer;
+		protected final File input;
+		protected final File output;
+		protected final int numNodes;
+		protected final TransformReport report;
+
+		protected StreamingParser(String name, StreamingDocumentTransformer transformer, File input, File output,
+				int numNodes, TransformReport report, MainOptions options) {
+			super(IO.get(input.getPath()), options);
+			this.name = name;
+			this.transformer = transformer;
+			this.input = input;
+			this.output = output;
+			this.numNodes = numNodes;
+			this.report = report;
+		}
+
+		@Override
+		public void parse(Builder builder) throws IOException {
+			InputStream in = new BufferedInputStream(new FileInputStream(this.input));
+			try {
+				OutputStream out = this.output == null ? null : new BufferedOutputStream(new FileOutputStream(
+						this.output));
+				try {
+					XMLEventReader reader = XMLInputFactory.newInstance().createXMLEventReader(in);
+					XMLEventWriter also = out == null ? null : XMLOutputFactory.newInstance().createXMLEventWriter(
+							out, "UTF-8");
+					XMLEventWriter writer = new DatabaseEventWriter(builder, this.name, also);
+					this.transformer.transform(reader, writer, this.numNodes, this.report);
+					writer.close();
+					reader.close();
+				} finally {
+					if (out != null) {
+						out.close();
+					}
+				}
+			} catch (XMLStreamException e) {
+				throw new IOException("XML error while transforming: " + e.getMessage(), e);
+			} finally {
+				in.close();
+			}
+		}
+
+	}
+
+}
@@ -7,11 +7,22 @@ import static nl.utwente.cs.pxml.ProbabilityNodeType.MUTEX;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerConfigurationException;
@@ -20,14 +31,12 @@ import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.TransformerFactoryConfigurationError;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathException;
-import javax.xml.xpath.XPathFactory;
 
 import nl.utwente.cs.pxml.ProbabilityNodeType;
+import nl.utwente.cs.pxml.VariableTable;
 import nl.utwente.cs.pxml.util.CollectionUtils;
 
+import org.basex.core.Context;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -40,6 +49,22 @@ import com.beust.jcommander.ParameterException;
 
 public class DocumentTransformer {
 
+	/**
+	 * The number of partitions aimed for when transforming partitioned: subtrees larger than the document size
+	 * divided by this number are split into their children.
+	 */
+	public static final int PARTITION_TARGET = 256;
+
+	/**
+	 * The maximum depth at which subtrees are split into partitions.
+	 */
+	public static final int MAX_PARTITION_DEPTH = 8;
+
+	/**
+	 * The number of values of every random variable.
+	 */
+	public static final int VARIABLE_VALUES = 2;
+
 	// the prefix used for the probability namespace
 	@Parameter(names = "--ns-prefix", description = "namespace prefix to use")
 	public static final String NS_PREFIX = "p";
@@ -54,7 +79,7 @@ public class DocumentTransformer {
 	// XMLToPXMLTransformer.java)
 	// TODO: encode this into an @Parameter
 	protected ProbabilityNodeType[] pNodeDistribution = {
-			MUTEX, MUTEX, MUTEX, MUTEX, INDEPENDENT, INDEPENDENT, INDEPENDENT, INDEPENDENT, EVENTS
+			MUTEX, MUTEX, MUTEX, MUTEX, INDEPENDENT, INDEPENDENT, INDEPENDENT, INDEPENDENT, EXPLICIT, EVENTS
 	};
 	// the number of random variables relative to the expected number of EVENT-type pNodes
 	@Parameter(names = "--num-vars", description = "fraction of random variables relative to the number of EVENT-type nodes")
@@ -64,128 +89,499 @@ public class DocumentTransformer {
 	@Parameter(names = "--text-nodes", description = "handle text nodes as 'wrap' ('ignore' to be added later)")
 	protected String textNodeStrategy = "";
 
-	// TODO: incorporate _ratioExpSubsets, and _maxExpSubsetsPwr from XMLToPXMLTransformer.java
+	// whether to stream the document instead of loading it into a DOM (for documents too large to fit in memory)
+	@Parameter(names = "--streaming", description = "transform the document while streaming it instead of using a DOM")
+	protected boolean streaming = false;
+	// the maximum number of sibling elements wrapped by a single pNode in streaming mode
+	@Parameter(names = "--max-wrap", description = "maximum number of siblings wrapped by a pnode when streaming")
+	protected int maxWrappedSiblings = 4;
+	// the maximum number of events held back while determining the number of children of a pNode in streaming mode
+	@Parameter(names = "--max-buffer", description = "maximum number of events buffered for a pnode when streaming")
+	protected int maxBufferedEvents = 4096;
 
-	protected Random random;
+	// the seed for the random generators, making the output reproducible
+	@Parameter(names = "--seed", description = "seed for the random generators (output is reproducible for a seed)")
+	protected Long seed = null;
+	// the number of threads used to transform partitions of the document in parallel (more than one partitions)
+	@Parameter(names = "--threads", description = "number of threads to transform with; more than 1 transforms "
+			+ "partitions in parallel, never wrapping the elements containing them (output is the same for any "
+			+ "number above 1)")
+	protected int threads = 1;
 
-	// file names list (collected in a list due to JCommander)
-	@Parameter(description = "<infile> <outfile>", arity = 2)
+	// the name of a BaseX database to load the transformed document into
+	@Parameter(names = "--database", description = "load the output into a BaseX database with this name")
+	protected String database = null;
+	// whether to skip writing the output file when loading into a database
+	@Parameter(names = "--skip-file", description = "do not write the output file when loading into a database")
+	protected boolean skipFile = false;
+
+	// the fraction of all subsets of its children listed by an exp node (taken from XMLToPXMLTransformer.java)
+	@Parameter(names = "--exp-subsets", description = "fraction of the subsets of its children listed by an exp node")
+	protected float ratioExpSubsets = 0.5f;
+	// the number of subsets listed by an exp node is capped at 2^maxExpSubsetsPwr (taken from XMLToPXMLTransformer)
+	@Parameter(names = "--max-exp-subsets-pwr", description = "list at most 2^n subsets of children for an exp node")
+	protected int maxExpSubsetsPwr = 4;
+
+	// the binary file to write the variable probabilities to instead of listing them, null to list them
+	@Parameter(names = "--sidecar", description = "write the variable probabilities to a binary table in this file, "
+			+ "referred to by its path relative to the directory of the output file")
+	protected String sidecar = null;
+	// the directory the sidecar is referred to relative to, null for the working directory
+	protected File outputDirectory = null;
+
+	protected SplittableRandom random;
+	// the report of the last transformation
+	protected TransformReport report;
+
+	// file names list (collected in a list due to JCommander, the output file is left out with --skip-file)
+	@Parameter(description = "<infile> <outfile>")
 	protected List<String> fileNames = new ArrayList<String>();
 
 	/**
 	 * Creates a new DocumentTransformer using the default distribution ratios specified.
 	 */
 	public DocumentTransformer() {
-		this.random = new Random();
+		this.random = new SplittableRandom();
+	}
+
+	/**
+	 * Creates a new DocumentTransformer with the same settings as another, but drawing from a different random
+	 * generator.
+	 * 
+	 * @param settings
+	 *            The transformer to copy the settings from.
+	 * @param random
+	 *            The random generator to use.
+	 */
+	protected DocumentTransformer(DocumentTransformer settings, SplittableRandom random) {
+		this.pNodesOccurrence = settings.pNodesOccurrence;
+		this.pNodeDistribution = settings.pNodeDistribution;
+		this.pVariablesRatio = settings.pVariablesRatio;
+		this.textNodeStrategy = settings.textNodeStrategy;
+		this.streaming = settings.streaming;
+		this.maxWrappedSiblings = settings.maxWrappedSiblings;
+		this.maxBufferedEvents = settings.maxBufferedEvents;
+		this.seed = settings.seed;
+		this.threads = settings.threads;
+		this.database = settings.database;
+		this.skipFile = settings.skipFile;
+		this.ratioExpSubsets = settings.ratioExpSubsets;
+		this.maxExpSubsetsPwr = settings.maxExpSubsetsPwr;
+		this.sidecar = settings.sidecar;
+		this.outputDirectory = settings.outputDirectory;
+		this.random = random;
 	}
 
 	/**
 	 * Overlays a multiverse of possible worlds over a given document using node types defined when this
-	 * DocumentTransformer was constructed.
+	 * DocumentTransformer was constructed. The document is processed in a single pass: all elements are collected in
+	 * one walk, pNodes are recorded by type as they are inserted, and their attributes are added once all pNodes are in
+	 * place. The output is reproducible for the seed of this transformer's generator. With more than one thread, the
+	 * document is transformed partitioned instead (see {@link #transformPartitioned(Document)}).
 	 * 
 	 * @param doc
 	 *            The document to process.
 	 * @throws DocumentTransformerException
-	 *             When an XML or XPath error occurs while processing.
+	 *             When an error occurs while processing.
 	 */
 	public void transform(Document doc) throws DocumentTransformerException {
-		System.err.println("text node strategy is " + this.textNodeStrategy);
+		if (this.threads > 1) {
+			this.transformPartitioned(doc);
+			return;
+		}
+
+		this.report = new TransformReport();
+		// add the pxml namespace to the document
+		Element root = doc.getDocumentElement();
+		root.setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns:" + NS_PREFIX, NS_URI);
+
+		// find all the nodes in the document element, along with the number of children of every element
+		List<Element> nodes = new ArrayList<Element>();
+		Map<Node, Integer> childCounts = new IdentityHashMap<Node, Integer>();
+		DocumentTransformer.collectElements(root, nodes, childCounts);
+		// the document element is counted, but never wrapped (it has no siblings)
+		int length = nodes.size() + 1;
+		int numVariables = this.determineNumVariables(length);
+		this.report.numNodes = length;
+		this.report.numVariables = numVariables;
+		this.report.phase("collect");
+
+		Map<ProbabilityNodeType, List<Element>> pNodes = this.insertPNodes(doc, nodes, childCounts,
+				(int) (nodes.size() * this.pNodesOccurrence));
+		for (ProbabilityNodeType type : pNodes.keySet()) {
+			this.report.pNodes[type.ordinal()] = pNodes.get(type).size();
+		}
+		this.report.phase("insert");
+		this.insertAttributes(doc, pNodes, numVariables);
+		this.report.phase("attributes");
+
+		// add the used random variables to the document
+		root.appendChild(this.createVariables(doc, numVariables));
+		this.report.phase("variables");
+	}
+
+	/**
+	 * Overlays a multiverse of possible worlds over a given document by splitting it into independent subtrees
+	 * (partitions) that are transformed in parallel. Every partition draws from its own random generator, split off
+	 * this transformer's generator in document order, making the output for a given seed independent of the number of
+	 * threads. The partitions are the children of the document element, recursively replaced by their children when
+	 * larger than 1/{@link #PARTITION_TARGET} of the document. Unlike {@link #transform(Document)}, this never wraps
+	 * the partitions themselves nor the elements containing them, so the children of the document element never end
+	 * up below a pNode, and the output differs from a single threaded transformation for the same seed. The number of
+	 * variables and pNodes is determined for the whole document up front, the pNodes are shared out over the
+	 * partitions by size (see {@link #distributePNodes(int[], int)}), and the list of variables is added once all
+	 * partitions are done.
+	 * 
+	 * @param doc
+	 *            The document to process.
+	 * @throws DocumentTransformerException
+	 *             When a partition fails to transform.
+	 */
+	public void transformPartitioned(Document doc) throws DocumentTransformerException {
+		this.report = new TransformReport();
+		// add the pxml namespace to the document
+		Element root = doc.getDocumentElement();
+		root.setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns:" + NS_PREFIX, NS_URI);
+
+		int length = DocumentTransformer.countElements(root);
+		int numVariables = this.determineNumVariables(length);
+		this.report.numNodes = length;
+		this.report.numVariables = numVariables;
+		this.report.phase("count");
+
+		List<Element> partitions = new ArrayList<Element>();
+		this.partition(root, Math.max(1, length / PARTITION_TARGET), MAX_PARTITION_DEPTH, partitions);
+		// the partitions themselves are never wrapped, only their descendants
+		int[] sizes = new int[partitions.size()];
+		for (int i = 0; i < sizes.length; i++) {
+			sizes[i] = DocumentTransformer.countElements(partitions.get(i)) - 1;
+		}
+		// as many pNodes as a single threaded transformation would insert, the document element is never wrapped
+		int[] numPNodes = this.distributePNodes(sizes, (int) ((length - 1) * this.pNodesOccurrence));
+
+		// split off the generators in document order, independent of scheduling
+		List<Partition> tasks = new ArrayList<Partition>(partitions.size());
 		try {
-			// add the pxml namespace to the document
-			doc.getDocumentElement().setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns:" + NS_PREFIX, NS_URI);
-
-			// create a new xpath object (...)
-			XPath xpath = XPathFactory.newInstance().newXPath();
-			// (...) and make sure it knows about the namespaces used in the document
-			xpath.setNamespaceContext(new NamespaceResolver(doc));
-
-			// find all the nodes in the document element
-			NodeList nodes = (NodeList) xpath.evaluate("//*", doc.getDocumentElement(), XPathConstants.NODESET);
-			int length = nodes.getLength();
-			System.out.println("  document has " + length + " cadidate nodes");
-			int numVariables = this.determineNumVariables(length);
-			System.out.println("  will use " + numVariables + " random variables");
-
-			// select length * occurrence nodes at random
-			for (int i = 0, max = (int) (length * this.pNodesOccurrence); i < max; i++) {
-				Node el = nodes.item(this.random.nextInt(length));
-				// select a random number of preceding/following siblings to wrap together
-				List<Node> selected = this.selectNodes(el);
-				// create a pNode to wrap the selected elements with (make sure to create exactly enough attributes)
-				Node pNode = this.createPNode(doc);
-				// replace the first selected node with the newly created pNode
-				Node firstSelected = selected.get(0);
-				firstSelected.getParentNode().replaceChild(pNode, firstSelected);
-				// attach all the selected nodes to the pNode now in the document
-				// (appending a node will move it if it is already in the DOM
-				for (Node node : selected) {
-					pNode.appendChild(node);
-				}
+			DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+			for (int i = 0; i < sizes.length; i++) {
+				// every partition gets a document of its own, DOM implementations are not thread safe
+				Document copy = builder.newDocument();
+				copy.appendChild(copy.importNode(partitions.get(i), true));
+				tasks.add(new Partition(new DocumentTransformer(this, this.random.split()), copy, numPNodes[i],
+						numVariables));
 			}
+		} catch (ParserConfigurationException e) {
+			throw new DocumentTransformerException("Unable to create partition documents: " + e.getMessage(), e);
+		}
+		this.report.phase("partition");
 
-			// fetch all pNode type elements from the document and add attributes (due to DOM modification, this can not
-			// be done when inserting)
-			NodeList independents = (NodeList) xpath.evaluate("//" + NS_PREFIX + ":" + INDEPENDENT.nodeName,
-					doc.getDocumentElement(), XPathConstants.NODESET);
-			System.out.println("  inserted " + independents.getLength() + " independent pNodes as <" + NS_PREFIX + ":"
-					+ INDEPENDENT.nodeName + ">");
-			for (int i = 0, max = independents.getLength(); i < max; i++) {
-				Element pNode = (Element) independents.item(i);
-				this.insertIndependantAttributes(doc, pNode, pNode.getChildNodes().getLength());
-				// wrap the text nodes if requested
-				if ("wrap".equalsIgnoreCase(this.textNodeStrategy)) {
-					this.wrapTextNodes(doc, pNode.getChildNodes());
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, this.threads));
+		try {
+			List<Future<int[]>> results = pool.invokeAll(tasks);
+			this.report.phase("transform");
+			for (int i = 0; i < results.size(); i++) {
+				int[] partitionCounts = results.get(i).get();
+				for (int type = 0; type < partitionCounts.length; type++) {
+					this.report.pNodes[type] += partitionCounts[type];
 				}
+				// put the transformed partition back in place
+				Element partition = partitions.get(i);
+				partition.getParentNode().replaceChild(
+						doc.importNode(tasks.get(i).document.getDocumentElement(), true), partition);
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DocumentTransformerException("Interrupted while transforming partitions", e);
+		} catch (ExecutionException e) {
+			throw new DocumentTransformerException("Unexpected error while transforming a partition: "
+					+ e.getCause().getMessage(), e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		this.report.phase("merge");
+
+		// add the used random variables to the document
+		root.appendChild(this.createVariables(doc, numVariables));
+		this.report.phase("variables");
+	}
+
+	/**
+	 * Creates the <code>&lt;p:variables&gt;</code> list of a document, listing numVariables variables. When writing to
+	 * a sidecar, the variables are written to it instead and the list only refers to it.
+	 * 
+	 * @param doc
+	 *            The document to create the list for.
+	 * @param numVariables
+	 *            The number of variables.
+	 * @return The list of variables.
+	 * @throws DocumentTransformerException
+	 *             When the sidecar can not be written.
+	 */
+	protected Element createVariables(Document doc, int numVariables) throws DocumentTransformerException {
+		Element varList = doc.createElementNS(NS_URI, NS_PREFIX + ":variables");
+		if (this.sidecar != null) {
+			varList.setAttributeNS(NS_URI, NS_PREFIX + ":sidecar", this.writeSidecar(numVariables));
+			return varList;
+		}
+		for (int i = 0; i < numVariables; i++) {
+			Element var = doc.createElementNS(NS_URI, NS_PREFIX + ":var-" + i);
+			this.setAttributes(var, this.createVariableAttributes());
+			varList.appendChild(var);
+		}
+		return varList;
+	}
 
-			NodeList mutexes = (NodeList) xpath.evaluate("//" + NS_PREFIX + ":" + MUTEX.nodeName,
-					doc.getDocumentElement(), XPathConstants.NODESET);
-			System.out.println("  inserted " + mutexes.getLength() + " mutex pNodes as <" + NS_PREFIX + ":"
-					+ MUTEX.nodeName + ">");
-			for (int i = 0, max = mutexes.getLength(); i < max; i++) {
-				Element pNode = (Element) mutexes.item(i);
-				this.insertMutexAttributes(doc, pNode, pNode.getChildNodes().getLength());
-				// wrap the text nodes if requested
-				if ("wrap".equalsIgnoreCase(this.textNodeStrategy)) {
-					this.wrapTextNodes(doc, pNode.getChildNodes());
+	/**
+	 * Writes the probabilities of numVariables variables to the sidecar file, drawing them like
+	 * {@link #createVariableAttributes()} does.
+	 * 
+	 * @param numVariables
+	 *            The number of variables.
+	 * @return The path of the sidecar to refer to it by from the list of variables, see
+	 *         {@link #reference(File, File)}.
+	 * @throws DocumentTransformerException
+	 *             When the sidecar is not in the directory of the output, or can not be written.
+	 */
+	protected String writeSidecar(int numVariables) throws DocumentTransformerException {
+		File file = new File(this.sidecar).getAbsoluteFile();
+		// refuse a sidecar that could not be referred to before writing it
+		String reference = DocumentTransformer.reference(file, this.outputDirectory);
+		try {
+			VariableTable.Writer writer = new VariableTable.Writer(file, VARIABLE_VALUES, numVariables);
+			try {
+				for (int i = 0; i < numVariables; i++) {
+					writer.add(this.createVariableDistribution());
 				}
+			} finally {
+				writer.close();
 			}
+		} catch (IOException e) {
+			throw new DocumentTransformerException("Unable to write sidecar " + file + ": " + e.getMessage(), e);
+		}
+		return reference;
+	}
 
-			NodeList explicits = (NodeList) xpath.evaluate("//" + NS_PREFIX + ":" + EXPLICIT.nodeName,
-					doc.getDocumentElement(), XPathConstants.NODESET);
-			System.out.println("  inserted " + explicits.getLength() + " explicit pNodes as <" + NS_PREFIX + ":"
-					+ EXPLICIT.nodeName + ">");
-			for (int i = 0, max = explicits.getLength(); i < max; i++) {
-				Element pNode = (Element) explicits.item(i);
-				this.insertExplicitAttributes(doc, pNode, pNode.getChildNodes().getLength());
-				// wrap the text nodes if requested
-				if ("wrap".equalsIgnoreCase(this.textNodeStrategy)) {
-					this.wrapTextNodes(doc, pNode.getChildNodes());
+	/**
+	 * Determines the path to refer to a sidecar by: its path relative to the directory of the output, which the
+	 * system property pxml.sidecar.dir should point to when querying (absolute paths are refused there).
+	 * 
+	 * @param file
+	 *            The sidecar file.
+	 * @param directory
+	 *            The directory of the output, null for the working directory.
+	 * @return The relative path of the sidecar, using '/' as separator.
+	 * @throws DocumentTransformerException
+	 *             When the sidecar is not in directory (or one of its subdirectories), no relative path would resolve.
+	 */
+	protected static String reference(File file, File directory) throws DocumentTransformerException {
+		Path base = (directory == null ? new File(".") : directory).getAbsoluteFile().toPath().normalize();
+		Path path = file.getAbsoluteFile().toPath().normalize();
+		if (!path.startsWith(base) || path.equals(base)) {
+			throw new DocumentTransformerException("Sidecar " + path + " is not in " + base
+					+ ", the directory of the output");
+		}
+		return base.relativize(path).toString().replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * @return The report of the last transformation, null when nothing was transformed yet.
+	 */
+	public TransformReport report() {
+		return this.report;
+	}
+
+	/**
+	 * Shares out a number of pNodes over partitions by their sizes: every partition gets its share rounded down, the
+	 * pNodes left are handed out one at a time to partitions drawn from this transformer's generator, weighted by
+	 * size. Partitions of size 0 get no pNodes.
+	 * 
+	 * @param sizes
+	 *            The number of elements that can be wrapped in every partition, in document order.
+	 * @param numPNodes
+	 *            The number of pNodes for the whole document.
+	 * @return The number of pNodes for every partition, none at all when no partition has elements to wrap.
+	 */
+	protected int[] distributePNodes(int[] sizes, int numPNodes) {
+		long total = 0;
+		for (int size : sizes) {
+			total += size;
+		}
+		int[] shares = new int[sizes.length];
+		if (total == 0) {
+			return shares;
+		}
+
+		int remaining = numPNodes;
+		for (int i = 0; i < sizes.length; i++) {
+			shares[i] = (int) (numPNodes * (long) sizes[i] / total);
+			remaining -= shares[i];
+		}
+		for (; remaining > 0; remaining--) {
+			long draw = this.random.nextLong(total);
+			int i = 0;
+			while (draw >= sizes[i]) {
+				draw -= sizes[i++];
+			}
+			shares[i]++;
+		}
+		return shares;
+	}
+
+	/**
+	 * Inserts pNodes into a single partition, wrapping random descendants of its document element along with some of
+	 * their siblings, and adds their attributes.
+	 * 
+	 * @param doc
+	 *            The document containing the partition.
+	 * @param numPNodes
+	 *            The number of pNodes to insert, the share of the partition.
+	 * @param numVariables
+	 *            The total number of available variables.
+	 * @return The number of pNodes inserted, indexed by the ordinal of their type.
+	 */
+	protected int[] transformPartition(Document doc, int numPNodes, int numVariables) {
+		// the document element itself can not be wrapped, its siblings are in other partitions
+		List<Element> nodes = new ArrayList<Element>();
+		Map<Node, Integer> childCounts = new IdentityHashMap<Node, Integer>();
+		DocumentTransformer.collectElements(doc.getDocumentElement(), nodes, childCounts);
+
+		Map<ProbabilityNodeType, List<Element>> pNodes = this.insertPNodes(doc, nodes, childCounts, numPNodes);
+		this.insertAttributes(doc, pNodes, numVariables);
+
+		int[] counts = new int[ProbabilityNodeType.values().length];
+		for (ProbabilityNodeType type : pNodes.keySet()) {
+			counts[type.ordinal()] = pNodes.get(type).size();
+		}
+		return counts;
+	}
+
+	/**
+	 * Wraps random elements along with some of their siblings into pNodes.
+	 * 
+	 * @param origin
+	 *            The document, used to create pNodes.
+	 * @param nodes
+	 *            The candidate elements.
+	 * @param childCounts
+	 *            The number of children of every element, kept up to date while wrapping.
+	 * @param numPNodes
+	 *            The number of pNodes to insert, none when there are no candidates.
+	 * @return The inserted pNodes by type, in order of insertion.
+	 */
+	protected Map<ProbabilityNodeType, List<Element>> insertPNodes(Document origin, List<Element> nodes,
+			Map<Node, Integer> childCounts, int numPNodes) {
+		Map<ProbabilityNodeType, List<Element>> pNodes = new EnumMap<ProbabilityNodeType, List<Element>>(
+				ProbabilityNodeType.class);
+		for (ProbabilityNodeType type : ProbabilityNodeType.values()) {
+			pNodes.put(type, new ArrayList<Element>());
+		}
+
+		// select numPNodes nodes at random
+		int length = nodes.size();
+		for (int i = 0, max = length == 0 ? 0 : numPNodes; i < max; i++) {
+			Node el = nodes.get(this.random.nextInt(length));
+			Node parent = el.getParentNode();
+			// select a random number of preceding/following siblings to wrap together
+			List<Node> selected = this.selectNodes(el, childCounts.get(parent));
+			// create a pNode to wrap the selected elements with
+			ProbabilityNodeType type = this.pNodeDistribution[this.random.nextInt(this.pNodeDistribution.length)];
+			Element pNode = (Element) this.createPNode(origin, type);
+			// replace the first selected node with the newly created pNode
+			parent.replaceChild(pNode, selected.get(0));
+			// attach all the selected nodes to the pNode now in the document
+			// (appending a node will move it if it is already in the DOM
+			for (Node node : selected) {
+				pNode.appendChild(node);
+			}
+
+			childCounts.put(parent, childCounts.get(parent) - selected.size() + 1);
+			childCounts.put(pNode, selected.size());
+			pNodes.get(type).add(pNode);
+		}
+		return pNodes;
+	}
+
+	/**
+	 * Adds attributes to all pNodes (due to DOM modification, this can not be done when inserting, wrapping changes
+	 * the number of children).
+	 * 
+	 * @param origin
+	 *            The document, used to create attributes.
+	 * @param pNodes
+	 *            The pNodes by type.
+	 * @param numVariables
+	 *            The total number of available variables.
+	 */
+	protected void insertAttributes(Document origin, Map<ProbabilityNodeType, List<Element>> pNodes, int numVariables) {
+		for (Element pNode : pNodes.get(INDEPENDENT)) {
+			this.insertIndependantAttributes(origin, pNode, pNode.getChildNodes().getLength());
+		}
+		for (Element pNode : pNodes.get(MUTEX)) {
+			this.insertMutexAttributes(origin, pNode, pNode.getChildNodes().getLength());
+		}
+		for (Element pNode : pNodes.get(EXPLICIT)) {
+			this.insertExplicitAttributes(origin, pNode, pNode.getChildNodes().getLength());
+		}
+		for (Element pNode : pNodes.get(EVENTS)) {
+			this.insertEventsAttributes(origin, pNode, numVariables);
+		}
+
+		// wrap the text nodes if requested
+		if ("wrap".equalsIgnoreCase(this.textNodeStrategy)) {
+			for (ProbabilityNodeType type : new ProbabilityNodeType[] { INDEPENDENT, MUTEX, EXPLICIT }) {
+				for (Element pNode : pNodes.get(type)) {
+					this.wrapTextNodes(origin, pNode.getChildNodes());
 				}
 			}
+		}
+	}
+
+	/**
+	 * Collects the partitions of the subtree of element: its child elements, or their children if they are too large.
+	 */
+	protected void partition(Element element, int maxSize, int maxDepth, List<Element> partitions) {
+		for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() != Node.ELEMENT_NODE) {
+				continue;
+			}
+
+			Element partition = (Element) child;
+			int size = DocumentTransformer.countElements(partition);
+			if (maxDepth > 0 && size > maxSize && size > 1) {
+				this.partition(partition, maxSize, maxDepth - 1, partitions);
+			} else {
+				partitions.add(partition);
+			}
+		}
+	}
 
-			NodeList events = (NodeList) xpath.evaluate("//" + NS_PREFIX + ":" + EVENTS.nodeName,
-					doc.getDocumentElement(), XPathConstants.NODESET);
-			System.out.println("  inserted " + events.getLength() + " event conjunction pNodes as <" + NS_PREFIX + ":"
-					+ EVENTS.nodeName + ">");
-			for (int i = 0, max = events.getLength(); i < max; i++) {
-				Element pNode = (Element) events.item(i);
-				this.insertEventsAttributes(doc, pNode, numVariables);
+	/**
+	 * Counts the elements in the subtree of element (including element itself).
+	 */
+	protected static int countElements(Element element) {
+		int count = 1;
+		for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE) {
+				count += DocumentTransformer.countElements((Element) child);
 			}
+		}
+		return count;
+	}
 
-			// add the used random variables to the document
-			Node varList = doc.createElementNS(NS_URI, NS_PREFIX + ":variables");
-			for (int i = 0; i < numVariables; i++) {
-				Element var = doc.createElementNS(NS_URI, NS_PREFIX + ":var-" + i);
-				double probability = this.random.nextDouble();
-				var.setAttributeNS(NS_URI, NS_PREFIX + ":val-0", "" + (1.0 - probability));
-				var.setAttributeNS(NS_URI, NS_PREFIX + ":val-1", "" + probability);
-				varList.appendChild(var);
+	/**
+	 * Collects the descendant elements of element in document order (excluding element itself), along with the number
+	 * of child nodes of element and all of its descendant elements.
+	 */
+	protected static void collectElements(Element element, List<Element> elements, Map<Node, Integer> childCounts) {
+		int count = 0;
+		for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+			count++;
+			if (child.getNodeType() == Node.ELEMENT_NODE) {
+				elements.add((Element) child);
+				DocumentTransformer.collectElements((Element) child, elements, childCounts);
 			}
-			doc.getDocumentElement().appendChild(varList);
-		} catch (XPathException e) {
-			throw new DocumentTransformerException("Unexpected XPath error while transforming: " + e.getMessage(), e);
 		}
+		childCounts.put(element, count);
 	}
 
 	/**
@@ -213,38 +609,32 @@ public class DocumentTransformer {
 	/**
 	 * Selects a list of nodes that are siblings of the given node to be wrapped by a pNode. A minimum number of 1
 	 * elements are selected (the node itself). The total number of siblings is the maximum number of nodes selected.
+	 * Only the selected siblings are visited, the position of el among its siblings is never determined.
 	 * 
 	 * @param el
 	 *            The selected element.
+	 * @param numChildren
+	 *            The number of children of el's parent.
 	 * @return A list of siblings of el (including el itself).
 	 */
-	protected List<Node> selectNodes(Node el) {
-		// default to child index 0 (...)
-		int index = 0;
-		// (...) but try to find the actual child index
-		NodeList children = el.getParentNode().getChildNodes();
-		for (int i = 0, max = children.getLength(); index == 0 && i < max; i++) {
-			if (children.item(i) == el) {
-				// el found, update index
-				index = i;
-			}
-		}
-
+	protected List<Node> selectNodes(Node el, int numChildren) {
 		// determine the number of siblings to select
-		int numSiblings = this.random.nextInt(children.getLength());
+		int numSiblings = this.random.nextInt(numChildren);
 		// make sure to not select too many elements but at least one
-		numSiblings = Math.max(Math.min(numSiblings, children.getLength()), 1);
+		numSiblings = Math.max(Math.min(numSiblings, numChildren), 1);
 
-		// determine the starting index (but it should be at least zero)
-		int startIndex = Math.max(index - (numSiblings / 2), 0);
-		int endIndex = Math.min(startIndex + numSiblings, children.getLength() - 1);
-
-		// TODO: fix end - start not being equal to num?
+		// start at most half of the siblings before el (but not before the first child)
+		Node first = el;
+		for (int i = 0; i < numSiblings / 2 && first.getPreviousSibling() != null; i++) {
+			first = first.getPreviousSibling();
+		}
 
-		// gather the actual nodes
-		List<Node> selected = new ArrayList<Node>(numSiblings);
-		for (int i = startIndex; i <= endIndex; i++) {
-			selected.add(children.item(i));
+		// gather the actual nodes, up to numSiblings after the first (but not beyond the last child)
+		List<Node> selected = new ArrayList<Node>(numSiblings + 1);
+		selected.add(first);
+		for (Node node = first.getNextSibling(); node != null && selected.size() <= numSiblings; node = node
+				.getNextSibling()) {
+			selected.add(node);
 		}
 		// return the selected nodes
 		return selected;
@@ -259,8 +649,7 @@ public class DocumentTransformer {
 	 *            The document to be used when creating new elements.
 	 */
 	protected void wrapTextNodes(Document origin, NodeList nodes) {
-		System.err.println("wrapTextNodes called");
-		for (int i = 9, length = nodes.getLength(); i < length; i++) {
+		for (int i = 0, length = nodes.getLength(); i < length; i++) {
 			Node node = nodes.item(i);
 			if (node.getNodeType() == Node.TEXT_NODE) {
 				// create a wrapper element named <p:text>
@@ -281,11 +670,21 @@ public class DocumentTransformer {
 	 */
 	protected Node createPNode(Document origin) {
 		// select a type at random
-		ProbabilityNodeType type = this.pNodeDistribution[this.random.nextInt(this.pNodeDistribution.length)];
+		return this.createPNode(origin, this.pNodeDistribution[this.random.nextInt(this.pNodeDistribution.length)]);
+	}
+
+	/**
+	 * Creates a pNode of the given type.
+	 * 
+	 * @param origin
+	 *            The source document, used to create a new node.
+	 * @param type
+	 *            The type of the pNode.
+	 * @return A newly created pNode.
+	 */
+	protected Node createPNode(Document origin, ProbabilityNodeType type) {
 		// create a new node of the required type
-		Element pNode = origin.createElementNS(NS_URI, NS_PREFIX + ":" + type.nodeName);
-		// return the newly created node
-		return pNode;
+		return origin.createElementNS(NS_URI, NS_PREFIX + ":" + type.nodeName);
 	}
 
 	/**
@@ -299,10 +698,7 @@ public class DocumentTransformer {
 	 *            The number of childs of pNode.
 	 */
 	protected void insertIndependantAttributes(Document origin, Element pNode, int numChilds) {
-		for (int i = 1; i <= numChilds; i++) {
-			// add a p:child-i probability for each child
-			pNode.setAttributeNS(NS_URI, NS_PREFIX + ":child-" + i, "" + this.random.nextDouble());
-		}
+		this.setAttributes(pNode, this.createIndependentAttributes(numChilds));
 	}
 
 	/**
@@ -316,6 +712,88 @@ public class DocumentTransformer {
 	 *            The number childs of pNode.
 	 */
 	protected void insertMutexAttributes(Document origin, Element pNode, int numChilds) {
+		this.setAttributes(pNode, this.createMutexAttributes(numChilds));
+	}
+
+	/**
+	 * Inserts an attribute into pNode listing the chances of a number of subsets of its children.
+	 * 
+	 * @param origin
+	 *            The source document, used to create attributes.
+	 * @param pNode
+	 *            The node to add attributes to.
+	 * @param numChilds
+	 *            The number childs of pNode.
+	 */
+	protected void insertExplicitAttributes(Document origin, Element pNode, int numChilds) {
+		this.setAttributes(pNode, this.createExplicitAttributes(numChilds));
+	}
+
+	/**
+	 * Inserts a number of predicate attributes into pNode, representing values of random variables. The number of
+	 * variables used varies between 1 and log_2(total number of available variables).
+	 * 
+	 * @param origin
+	 *            The source documents, used to create attributes.
+	 * @param pNode
+	 *            The node to add attributes to.
+	 * @param numVariables
+	 *            The total number of available variables.
+	 */
+	protected void insertEventsAttributes(Document origin, Element pNode, int numVariables) {
+		this.setAttributes(pNode, this.createEventsAttributes(numVariables));
+	}
+
+	/**
+	 * Creates the attributes of a pNode of the given type, independent of the way the pNode is written.
+	 * 
+	 * @param type
+	 *            The type of the pNode.
+	 * @param numChilds
+	 *            The number of childs of the pNode.
+	 * @param numVariables
+	 *            The total number of available variables.
+	 * @return The local names of the attributes (in the probability namespace) mapped to their values.
+	 */
+	protected Map<String, String> createAttributes(ProbabilityNodeType type, int numChilds, int numVariables) {
+		switch (type) {
+		case INDEPENDENT:
+			return this.createIndependentAttributes(numChilds);
+		case MUTEX:
+			return this.createMutexAttributes(numChilds);
+		case EXPLICIT:
+			return this.createExplicitAttributes(numChilds);
+		case EVENTS:
+			return this.createEventsAttributes(numVariables);
+		default:
+			return new LinkedHashMap<String, String>();
+		}
+	}
+
+	/**
+	 * Creates numChilds attributes representing independent chances for a pNode's children.
+	 * 
+	 * @param numChilds
+	 *            The number of childs of the pNode.
+	 * @return The local names of the attributes mapped to their values.
+	 */
+	protected Map<String, String> createIndependentAttributes(int numChilds) {
+		Map<String, String> attributes = new LinkedHashMap<String, String>();
+		for (int i = 1; i <= numChilds; i++) {
+			// add a p:child-i probability for each child
+			attributes.put("child-" + i, "" + this.random.nextDouble());
+		}
+		return attributes;
+	}
+
+	/**
+	 * Creates numChilds + 1 attributes representing the chances of none or a single child of a pNode.
+	 * 
+	 * @param numChilds
+	 *            The number of childs of the pNode.
+	 * @return The local names of the attributes mapped to their values.
+	 */
+	protected Map<String, String> createMutexAttributes(int numChilds) {
 		// create a distribution of random numbers
 		int[] distribution = new int[numChilds + 1];
 		// keep track of the sum
@@ -327,56 +805,176 @@ public class DocumentTransformer {
 			sum += value;
 		}
 
+		Map<String, String> attributes = new LinkedHashMap<String, String>();
 		// add probability for no child (cast to double to force floating point result)
-		pNode.setAttributeNS(NS_URI, NS_PREFIX + ":none", "" + distribution[0] / (double) sum);
+		attributes.put("none", "" + distribution[0] / (double) sum);
 		for (int i = 1; i <= numChilds; i++) {
 			// add probability for child i
-			pNode.setAttributeNS(NS_URI, NS_PREFIX + ":child-" + i, "" + distribution[i] / (double) sum);
+			attributes.put("child-" + i, "" + distribution[i] / (double) sum);
 		}
+		return attributes;
 	}
 
 	/**
-	 * Unimplemented.
+	 * Creates a subsets attribute listing the chances of a number of distinct subsets of the children of a pNode. A
+	 * fraction ratioExpSubsets of all 2^numChilds subsets is listed, but no more than 2^maxExpSubsetsPwr (and at least
+	 * one). Every subset is written as a hexadecimal mask in which bit i - 1 is set when child i is part of the subset,
+	 * followed by a colon and its probability (see {@link nl.utwente.cs.pxml.SubsetDistribution}).
+	 * 
+	 * @param numChilds
+	 *            The number of childs of the pNode.
+	 * @return The local names of the attributes mapped to their values.
 	 */
-	protected void insertExplicitAttributes(Document origin, Element pNode, int numChilds) {
-		// TODO
+	protected Map<String, String> createExplicitAttributes(int numChilds) {
+		// determine the number of subsets to list (2^numChilds might not fit a long, estimate the fraction as double)
+		long cap = 1L << Math.max(0, Math.min(this.maxExpSubsetsPwr, 30));
+		if (numChilds < 62) {
+			cap = Math.min(cap, 1L << numChilds);
+		}
+		int numSubsets = (int) Math.max(1, Math.min(cap, Math.ceil(this.ratioExpSubsets * Math.pow(2, numChilds))));
+
+		Set<String> subsets = new LinkedHashSet<String>();
+		if (numChilds < 62) {
+			// pick numSubsets distinct masks without listing all of them (Floyd's algorithm)
+			Set<Long> masks = new LinkedHashSet<Long>();
+			long numMasks = 1L << numChilds;
+			for (long j = numMasks - numSubsets; j < numMasks; j++) {
+				long mask = this.random.nextLong(j + 1);
+				masks.add(masks.contains(mask) ? j : mask);
+			}
+			for (long mask : masks) {
+				subsets.add(Long.toHexString(mask));
+			}
+		} else {
+			// too many masks to pick from for a long, duplicates are unlikely enough to simply draw again
+			long[] words = new long[(numChilds + 63) / 64];
+			while (subsets.size() < numSubsets) {
+				for (int word = 0; word < words.length; word++) {
+					words[word] = this.random.nextLong();
+				}
+				if (numChilds % 64 != 0) {
+					words[words.length - 1] &= (1L << (numChilds % 64)) - 1;
+				}
+				subsets.add(DocumentTransformer.hexMask(words));
+			}
+		}
+
+		// create a distribution of random numbers over the subsets, like for mutex nodes
+		int[] distribution = new int[numSubsets];
+		long sum = 0;
+		for (int i = 0; i < numSubsets; i++) {
+			distribution[i] = Math.abs(this.random.nextInt());
+			sum += distribution[i];
+		}
+
+		List<String> listed = new ArrayList<String>(numSubsets);
+		int i = 0;
+		for (String mask : subsets) {
+			listed.add(mask + ":" + distribution[i++] / (double) sum);
+		}
+
+		Map<String, String> attributes = new LinkedHashMap<String, String>();
+		attributes.put("subsets", CollectionUtils.join(listed, " "));
+		return attributes;
 	}
 
 	/**
-	 * Inserts a number of predicate attributes into pNode, representing values of random variables. The number of
-	 * variables used varies between 1 and log_2(total number of available variables).
+	 * Writes a mask of multiple words as a single hexadecimal number.
+	 * 
+	 * @param words
+	 *            The words of the mask, least significant first.
+	 * @return The hexadecimal representation of the mask, without leading zeros.
+	 */
+	protected static String hexMask(long[] words) {
+		StringBuilder hex = new StringBuilder();
+		for (int word = words.length - 1; word >= 0; word--) {
+			String digits = Long.toHexString(words[word]);
+			if (hex.length() > 0) {
+				// pad all but the most significant word to 16 digits
+				for (int pad = digits.length(); pad < 16; pad++) {
+					hex.append('0');
+				}
+				hex.append(digits);
+			} else if (words[word] != 0 || word == 0) {
+				hex.append(digits);
+			}
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Creates a number of predicate attributes representing values of random variables, along with a descriptors
+	 * attribute containing all of them. The number of variables used varies between 1 and log_2(total number of
+	 * available variables).
 	 * 
-	 * @param origin
-	 *            The source documents, used to create attributes.
-	 * @param pNode
-	 *            The node to add attributes to.
 	 * @param numVariables
 	 *            The total number of available variables.
+	 * @return The local names of the attributes mapped to their values.
 	 */
-	protected void insertEventsAttributes(Document origin, Element pNode, int numVariables) {
+	protected Map<String, String> createEventsAttributes(int numVariables) {
 		// determine number of vars to use (max log_2(total vars), min 1)
 		int numUsed = numVariables == 1 ? 1 : 1 + this.random.nextInt((int) Math.round((Math.log(numVariables) / Math
 				.log(2))));
 
-		// create list of available variables
-		List<Integer> toUse = new ArrayList<Integer>(numVariables);
-		for (int i = 0; i < numVariables; i++) {
-			toUse.add(i);
+		// pick numUsed distinct variables without listing all of them (Floyd's algorithm)
+		Set<Integer> toUse = new LinkedHashSet<Integer>();
+		for (int j = numVariables - numUsed; j < numVariables; j++) {
+			int variable = this.random.nextInt(j + 1);
+			toUse.add(toUse.contains(variable) ? j : variable);
 		}
 
+		Map<String, String> attributes = new LinkedHashMap<String, String>();
 		List<String> descriptors = new ArrayList<String>(numUsed);
-		// randomize the list
-		Collections.shuffle(toUse);
-		for (int i = 0; i < numUsed; i++) {
+		for (int variable : toUse) {
 			String value = this.random.nextBoolean() ? "1" : "0";
-			// add 'requirement' for a variable to be either true or false (using the numUsed first items in toUse)
-			pNode.setAttributeNS(NS_URI, NS_PREFIX + ":var-" + toUse.get(i), value);
+			// add 'requirement' for a variable to be either true or false
+			attributes.put("var-" + variable, value);
 			// save a string representation of the descriptor
-			descriptors.add("var-" + toUse.get(i) + "=" + value);
+			descriptors.add("var-" + variable + "=" + value);
 		}
 
 		// save the entire description list to a single attribute for ease the XQuery expression later
-		pNode.setAttributeNS(NS_URI, NS_PREFIX + ":descriptors", CollectionUtils.join(descriptors, " "));
+		attributes.put("descriptors", CollectionUtils.join(descriptors, " "));
+		return attributes;
+	}
+
+	/**
+	 * Creates the attributes of a single random variable in the <code>&lt;p:variables&gt;</code> list: the
+	 * probabilities of its values 0 and 1.
+	 * 
+	 * @return The local names of the attributes mapped to their values.
+	 */
+	protected Map<String, String> createVariableAttributes() {
+		Map<String, String> attributes = new LinkedHashMap<String, String>();
+		double[] distribution = this.createVariableDistribution();
+		for (int value = 0; value < distribution.length; value++) {
+			attributes.put("val-" + value, "" + distribution[value]);
+		}
+		return attributes;
+	}
+
+	/**
+	 * Draws the probabilities of the values of a single random variable.
+	 * 
+	 * @return The probabilities of values 0 and 1.
+	 */
+	protected double[] createVariableDistribution() {
+		double probability = this.random.nextDouble();
+		return new double[] { 1.0 - probability, probability };
+	}
+
+	/**
+	 * Sets attributes in the probability namespace on an element.
+	 * 
+	 * @param element
+	 *            The element to set the attributes on.
+	 * @param attributes
+	 *            The local names of the attributes mapped to their values.
+	 */
+	protected void setAttributes(Element element, Map<String, String> attributes) {
+		for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+			element.setAttributeNS(NS_URI, NS_PREFIX + ":" + attribute.getKey(), attribute.getValue());
+		}
 	}
 
 	/**
@@ -394,15 +992,62 @@ public class DocumentTransformer {
 		try {
 			// have JCommander parse and assign arguments
 			arguments.parse(args);
+			if (transformer.skipFile && transformer.database == null) {
+				throw new ParameterException("--skip-file requires --database");
+			}
+			boolean skipFile = transformer.skipFile;
+			if (transformer.fileNames.size() != (skipFile ? 1 : 2)) {
+				throw new ParameterException("expected an input and an output file (only an input file with "
+						+ "--database and --skip-file)");
+			}
+			if (transformer.seed != null) {
+				transformer.random = new SplittableRandom(transformer.seed);
+			}
+			File inputFile = new File(transformer.fileNames.get(0));
+			File outputFile = skipFile ? null : new File(transformer.fileNames.get(1));
+			if (outputFile != null) {
+				transformer.outputDirectory = outputFile.getAbsoluteFile().getParentFile();
+			}
+
+			if (transformer.streaming) {
+				// stream from the first filename argument to the second and/or the database
+				StreamingDocumentTransformer streaming = new StreamingDocumentTransformer(transformer);
+				if (transformer.database != null) {
+					Context context = new Context();
+					try {
+						new DatabaseLoader(context).load(transformer.database, streaming, inputFile, outputFile);
+					} finally {
+						context.close();
+					}
+				} else {
+					streaming.transform(inputFile, outputFile);
+				}
+				System.out.println(streaming.report());
+				return;
+			}
 			// create input from first filename argument
-			Document input = DocumentBuilderFactory.newInstance().newDocumentBuilder()
-					.parse(new File(transformer.fileNames.get(0)));
+			Document input = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(inputFile);
 			// do the actual transforming
 			transformer.transform(input);
-			// write the output to the second filename argument
-			TransformerFactory.newInstance().newTransformer()
-					.transform(new DOMSource(input), new StreamResult(new File(transformer.fileNames.get(1))));
+			if (outputFile != null) {
+				// write the output to the second filename argument
+				TransformerFactory.newInstance().newTransformer()
+						.transform(new DOMSource(input), new StreamResult(outputFile));
+				transformer.report.phase("write");
+			}
+			if (transformer.database != null) {
+				// hand the document to BaseX as is, rather than having it parse the output file again
+				Context context = new Context();
+				try {
+					new DatabaseLoader(context).load(transformer.database, input);
+				} finally {
+					context.close();
+				}
+				transformer.report.phase("database");
+			}
+			System.out.println(transformer.report());
 		} catch (ParameterException e) {
+			System.err.println(e.getMessage());
 			arguments.usage();
 		} catch (SAXException e) {
 			e.printStackTrace();
@@ -421,4 +1066,28 @@ public class DocumentTransformer {
 		}
 	}
 
+	/**
+	 * Task transforming a single partition.
+	 */
+	protected static class Partition implements Callable<int[]> {
+
+		protected final DocumentTransformer transformer;
+		protected final Document document;
+		protected final int numPNodes;
+		protected final int numVariables;
+
+		protected Partition(DocumentTransformer transformer, Document document, int numPNodes, int numVariables) {
+			this.transformer = transformer;
+			this.document = document;
+			this.numPNodes = numPNodes;
+			this.numVariables = numVariables;
+		}
+
+		@Override
+		public int[] call() {
+			return this.transformer.transformPartition(this.document, this.numPNodes, this.numVariables);
+		}
+
+	}
+
 }
@@ -0,0 +1,448 @@
+package nl.utwente.cs.pxml.transform.doc;
+
+import static nl.utwente.cs.pxml.ProbabilityNodeType.EVENTS;
+import static nl.utwente.cs.pxml.transform.doc.DocumentTransformer.NS_PREFIX;
+import static nl.utwente.cs.pxml.transform.doc.DocumentTransformer.NS_URI;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import nl.utwente.cs.pxml.ProbabilityNodeType;
+
+/**
+ * Streaming counterpart of {@link DocumentTransformer#transform(org.w3c.dom.Document)}, using StAX event readers and
+ * writers instead of a DOM so that memory use does not depend on the size of the document.
+ * 
+ * Whenever an element starts (below the document element), a pNode wrapping it and a number of its following siblings
+ * is started with the configured probability. The attributes of a pNode depend on its number of children, which is
+ * only known once they have passed, so the events of the wrapped siblings are held back in a buffer until either all
+ * of them have been read, their parent ends, or the buffer reaches its limit. In the latter case the pNode is cut
+ * short to the children read so far (including the one being read) and the rest of the document streams through
+ * unbuffered. Only one pNode is buffered at a time: starting a pNode further down commits the buffered one first.
+ * 
+ * The number of random variables is determined from the number of elements, counted in a separate first pass over
+ * the input. The <code>&lt;p:variables&gt;</code> list is written as the last child of the document element.
+ * 
+ * @author Mattijs Ugen
+ */
+public class StreamingDocumentTransformer {
+
+	protected final DocumentTransformer settings;
+	protected final XMLInputFactory inputFactory;
+	protected final XMLOutputFactory outputFactory;
+	protected final XMLEventFactory eventFactory;
+
+	// the state of a single transformation
+	protected XMLEventWriter writer;
+	protected int numVariables;
+	protected int depth;
+	protected Wrapper pending;
+	protected Deque<Wrapper> open;
+	// the report of the current (or last) transformation
+	protected TransformReport report;
+
+	/**
+	 * Creates a new StreamingDocumentTransformer.
+	 * 
+	 * @param settings
+	 *            The transformer providing the settings and random attribute values.
+	 */
+	public StreamingDocumentTransformer(DocumentTransformer settings) {
+		this.settings = settings;
+		this.inputFactory = XMLInputFactory.newInstance();
+		this.outputFactory = XMLOutputFactory.newInstance();
+		this.eventFactory = XMLEventFactory.newInstance();
+	}
+
+	/**
+	 * Transforms the document in input, writing the result to output. The input is read twice.
+	 * 
+	 * @param input
+	 *            The file to read.
+	 * @param output
+	 *            The file to write.
+	 * @throws DocumentTransformerException
+	 *             When reading, parsing or writing fails.
+	 */
+	public void transform(File input, File output) throws DocumentTransformerException {
+		TransformReport report = new TransformReport();
+		int numNodes = this.countElements(input);
+		report.phase("count");
+
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(input));
+			try {
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+				try {
+					XMLEventReader reader = this.inputFactory.createXMLEventReader(in);
+					XMLEventWriter writer = this.outputFactory.createXMLEventWriter(out, "UTF-8");
+					this.transform(reader, writer, numNodes, report);
+					writer.close();
+					reader.close();
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new DocumentTransformerException("I/O error while transforming: " + e.getMessage(), e);
+		} catch (XMLStreamException e) {
+			throw new DocumentTransformerException("XML error while transforming: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Counts the elements in a document without keeping it in memory.
+	 * 
+	 * @param input
+	 *            The file to read.
+	 * @return The number of elements in the document.
+	 * @throws DocumentTransformerException
+	 *             When reading or parsing fails.
+	 */
+	public int countElements(File input) throws DocumentTransformerException {
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(input));
+			try {
+				XMLStreamReader reader = this.inputFactory.createXMLStreamReader(in);
+				int count = 0;
+				while (reader.hasNext()) {
+					if (reader.next() == XMLEvent.START_ELEMENT) {
+						count++;
+					}
+				}
+				reader.close();
+				return count;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new DocumentTransformerException("I/O error while counting elements: " + e.getMessage(), e);
+		} catch (XMLStreamException e) {
+			throw new DocumentTransformerException("XML error while counting elements: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Transforms the events read from reader, writing the result to writer.
+	 * 
+	 * @param reader
+	 *            The source of events.
+	 * @param writer
+	 *            The destination of the transformed events.
+	 * @param numNodes
+	 *            The number of elements in the document (determining the number of variables).
+	 * @throws XMLStreamException
+	 *             When reading or writing fails.
+	 */
+	public void transform(XMLEventReader reader, XMLEventWriter writer, int numNodes) throws XMLStreamException {
+		this.transform(reader, writer, numNodes, new TransformReport());
+	}
+
+	/**
+	 * Transforms the events read from reader, writing the result to writer and recording it in report.
+	 * 
+	 * @param reader
+	 *            The source of events.
+	 * @param writer
+	 *            The destination of the transformed events.
+	 * @param numNodes
+	 *            The number of elements in the document (determining the number of variables).
+	 * @param report
+	 *            The report to record the transformation in.
+	 * @throws XMLStreamException
+	 *             When reading or writing fails.
+	 */
+	protected void transform(XMLEventReader reader, XMLEventWriter writer, int numNodes, TransformReport report)
+			throws XMLStreamException {
+		this.writer = writer;
+		this.numVariables = this.settings.determineNumVariables(numNodes);
+		this.report = report;
+		this.report.numNodes = numNodes;
+		this.report.numVariables = this.numVariables;
+		this.depth = 0;
+		this.pending = null;
+		this.open = new ArrayDeque<Wrapper>();
+
+		while (reader.hasNext()) {
+			XMLEvent event = reader.nextEvent();
+			switch (event.getEventType()) {
+			case XMLEvent.START_ELEMENT:
+				this.startElement(event.asStartElement());
+				break;
+			case XMLEvent.END_ELEMENT:
+				this.endElement(event);
+				break;
+			case XMLEvent.CHARACTERS:
+			case XMLEvent.CDATA:
+			case XMLEvent.SPACE:
+			case XMLEvent.COMMENT:
+			case XMLEvent.PROCESSING_INSTRUCTION:
+				this.content(event);
+				break;
+			default:
+				// document start and end, dtd, ...
+				this.emit(event);
+				break;
+			}
+		}
+
+		this.writer.flush();
+		this.writer = null;
+		this.report.phase("stream");
+	}
+
+	/**
+	 * @return The report of the last transformation, null when nothing was transformed yet.
+	 */
+	public TransformReport report() {
+		return this.report;
+	}
+
+	protected void startElement(StartElement element) throws XMLStreamException {
+		if (this.depth == 0) {
+			// declare the probability namespace on the document element
+			List<Namespace> namespaces = new ArrayList<Namespace>();
+			for (Iterator<?> it = element.getNamespaces(); it.hasNext();) {
+				namespaces.add((Namespace) it.next());
+			}
+			namespaces.add(this.eventFactory.createNamespace(NS_PREFIX, NS_URI));
+			element = this.eventFactory.createStartElement(element.getName(), element.getAttributes(),
+					namespaces.iterator());
+		} else if (this.settings.random.nextDouble() < this.settings.pNodesOccurrence
+				&& (this.pending == null || this.pending.level != this.depth)) {
+			// siblings of the buffered pNode's children are absorbed by it, anything deeper cuts it short
+			if (this.pending != null) {
+				this.cut();
+			}
+			this.pending = new Wrapper(this.settings.pNodeDistribution[this.settings.random
+					.nextInt(this.settings.pNodeDistribution.length)], this.depth,
+					1 + this.settings.random.nextInt(Math.max(1, this.settings.maxWrappedSiblings)));
+		}
+
+		if (this.pending != null && this.pending.level == this.depth) {
+			this.pending.inChild = true;
+			this.pending.inText = false;
+		}
+		this.depth++;
+		this.emit(element);
+		this.checkBuffer();
+	}
+
+	protected void endElement(XMLEvent event) throws XMLStreamException {
+		this.depth--;
+		if (this.pending != null && this.pending.level == this.depth + 1) {
+			// the parent of the buffered pNode's children ends
+			this.commit(this.pending.children, true);
+		}
+		while (!this.open.isEmpty() && this.open.peek().level == this.depth + 1) {
+			// should not happen, committed pNodes end with their last child
+			this.closeWrapper();
+		}
+		if (this.depth == 0) {
+			this.writeVariables();
+		}
+		this.emit(event);
+
+		if (this.pending != null && this.pending.level == this.depth) {
+			this.pending.inChild = false;
+			this.pending.children++;
+			if (++this.pending.elements == this.pending.target) {
+				this.commit(this.pending.children, true);
+			}
+		} else if (!this.open.isEmpty() && this.open.peek().level == this.depth) {
+			if (++this.open.peek().children == this.open.peek().target) {
+				this.closeWrapper();
+			}
+		}
+		this.checkBuffer();
+	}
+
+	protected void content(XMLEvent event) throws XMLStreamException {
+		if (this.pending != null && this.pending.level == this.depth) {
+			// content directly in the pNode counts as a child, adjacent text being a single node
+			boolean text = event.isCharacters();
+			if (!text || !this.pending.inText) {
+				this.pending.children++;
+			}
+			this.pending.inText = text;
+		}
+		this.emit(event);
+		this.checkBuffer();
+	}
+
+	/**
+	 * Writes an event, or holds it back while a pNode is buffered.
+	 */
+	protected void emit(XMLEvent event) throws XMLStreamException {
+		if (this.pending != null) {
+			this.pending.buffer.add(event);
+		} else {
+			this.writer.add(event);
+		}
+	}
+
+	/**
+	 * Cuts the buffered pNode short when its buffer is full.
+	 */
+	protected void checkBuffer() throws XMLStreamException {
+		if (this.pending != null && this.pending.buffer.size() >= this.settings.maxBufferedEvents) {
+			this.cut();
+		}
+	}
+
+	/**
+	 * Commits the buffered pNode, wrapping only the children read so far and the child being read.
+	 */
+	protected void cut() throws XMLStreamException {
+		if (this.pending.inChild) {
+			this.commit(this.pending.children + 1, false);
+		} else {
+			this.commit(this.pending.children, true);
+		}
+	}
+
+	/**
+	 * Writes the buffered pNode with the given number of children, followed by the buffered events.
+	 * 
+	 * @param numChilds
+	 *            The number of children of the pNode.
+	 * @param close
+	 *            Whether all children have been buffered, so the pNode can be closed right away.
+	 */
+	protected void commit(int numChilds, boolean close) throws XMLStreamException {
+		Wrapper wrapper = this.pending;
+		this.pending = null;
+		this.report.pNodes[wrapper.type.ordinal()]++;
+
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		for (Map.Entry<String, String> attribute : this.settings.createAttributes(wrapper.type, numChilds,
+				this.numVariables).entrySet()) {
+			attributes.add(this.eventFactory.createAttribute(NS_PREFIX, NS_URI, attribute.getKey(),
+					attribute.getValue()));
+		}
+		this.writer.add(this.eventFactory.createStartElement(NS_PREFIX, NS_URI, wrapper.type.nodeName,
+				attributes.iterator(), null));
+
+		// wrap text nodes directly in the pNode if requested
+		boolean wrapText = "wrap".equalsIgnoreCase(this.settings.textNodeStrategy) && wrapper.type != EVENTS;
+		boolean inText = false;
+		int level = 0;
+		for (XMLEvent event : wrapper.buffer) {
+			boolean text = level == 0 && event.isCharacters();
+			if (wrapText && text && !inText) {
+				this.writer.add(this.eventFactory.createStartElement(NS_PREFIX, NS_URI, "text"));
+			} else if (wrapText && !text && inText) {
+				this.writer.add(this.eventFactory.createEndElement(NS_PREFIX, NS_URI, "text"));
+			}
+			inText = text;
+
+			if (event.isStartElement()) {
+				level++;
+			} else if (event.isEndElement()) {
+				level--;
+			}
+			this.writer.add(event);
+		}
+		if (wrapText && inText) {
+			this.writer.add(this.eventFactory.createEndElement(NS_PREFIX, NS_URI, "text"));
+		}
+
+		wrapper.target = numChilds;
+		wrapper.buffer = null;
+		if (close || wrapper.children == numChilds) {
+			this.writer.add(this.eventFactory.createEndElement(NS_PREFIX, NS_URI, wrapper.type.nodeName));
+		} else {
+			this.open.push(wrapper);
+		}
+	}
+
+	protected void closeWrapper() throws XMLStreamException {
+		Wrapper wrapper = this.open.pop();
+		this.emit(this.eventFactory.createEndElement(NS_PREFIX, NS_URI, wrapper.type.nodeName));
+	}
+
+	/**
+	 * Writes the list of random variables, or a list referring to the sidecar they are written to.
+	 */
+	protected void writeVariables() throws XMLStreamException {
+		if (this.settings.sidecar != null) {
+			String sidecar;
+			try {
+				sidecar = this.settings.writeSidecar(this.numVariables);
+			} catch (DocumentTransformerException e) {
+				throw new XMLStreamException(e.getMessage(), e);
+			}
+			List<Attribute> attributes = new ArrayList<Attribute>();
+			attributes.add(this.eventFactory.createAttribute(NS_PREFIX, NS_URI, "sidecar", sidecar));
+			this.emit(this.eventFactory.createStartElement(NS_PREFIX, NS_URI, "variables", attributes.iterator(),
+					null));
+			this.emit(this.eventFactory.createEndElement(NS_PREFIX, NS_URI, "variables"));
+			return;
+		}
+
+		this.emit(this.eventFactory.createStartElement(NS_PREFIX, NS_URI, "variables"));
+		for (int i = 0; i < this.numVariables; i++) {
+			List<Attribute> attributes = new ArrayList<Attribute>();
+			for (Map.Entry<String, String> attribute : this.settings.createVariableAttributes().entrySet()) {
+				attributes.add(this.eventFactory.createAttribute(NS_PREFIX, NS_URI, attribute.getKey(),
+						attribute.getValue()));
+			}
+			this.emit(this.eventFactory.createStartElement(NS_PREFIX, NS_URI, "var-" + i, attributes.iterator(),
+					null));
+			this.emit(this.eventFactory.createEndElement(NS_PREFIX, NS_URI, "var-" + i));
+		}
+		this.emit(this.eventFactory.createEndElement(NS_PREFIX, NS_URI, "variables"));
+	}
+
+	/**
+	 * A pNode being buffered or written.
+	 */
+	protected static class Wrapper {
+
+		protected final ProbabilityNodeType type;
+		// the depth of the parent of the pNode's children
+		protected final int level;
+		// the number of children: elements to wrap while buffering, child nodes once committed
+		protected int target;
+		// the number of child nodes (elements, text, comments) read so far
+		protected int children = 0;
+		protected int elements = 0;
+		protected boolean inChild = false;
+		protected boolean inText = false;
+		protected List<XMLEvent> buffer = new ArrayList<XMLEvent>();
+
+		protected Wrapper(ProbabilityNodeType type, int level, int target) {
+			this.type = type;
+			this.level = level;
+			this.target = target;
+		}
+
+	}
+
+}
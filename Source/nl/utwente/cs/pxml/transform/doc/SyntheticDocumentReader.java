@@ -0,0 +1,211 @@
+package nl.utwente.cs.pxml.transform.doc;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * XMLEventReader synthesizing a document instead of parsing one, generating its events lazily so that documents of
+ * any size can be streamed. The document element <code>&lt;corpus&gt;</code> contains a number of
+ * <code>&lt;record&gt;</code> elements, each the root of a random tree of <code>&lt;section&gt;</code> elements of the
+ * configured depth, with <code>&lt;text&gt;</code> leaves containing words. The number of children of every element is
+ * drawn uniformly around the configured fan-out. Two readers created with the same settings and seed produce the same
+ * events.
+ * 
+ * @author Mattijs Ugen
+ */
+public class SyntheticDocumentReader implements XMLEventReader {
+
+	// words used to fill text nodes
+	protected static final String[] WORDS = {
+			"lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit", "sed", "do", "eiusmod",
+			"tempor", "incididunt", "ut", "labore", "et", "dolore", "magna", "aliqua", "enim", "ad", "minim", "veniam",
+			"quis", "nostrud", "exercitation", "ullamco", "laboris", "nisi", "aliquip", "ex", "ea", "commodo"
+	};
+
+	protected final int numRecords;
+	protected final int depth;
+	protected final int fanOut;
+	protected final int textSize;
+	protected final SplittableRandom random;
+	protected final XMLEventFactory factory;
+
+	// events generated but not yet read
+	protected final Deque<XMLEvent> queue;
+	// the open elements, innermost first
+	protected final Deque<Frame> open;
+	protected boolean started = false;
+	protected boolean ended = false;
+	protected int numRecordIds = 0;
+
+	/**
+	 * Creates a new SyntheticDocumentReader.
+	 * 
+	 * @param numRecords
+	 *            The number of records in the document element.
+	 * @param depth
+	 *            The number of levels of sections in every record.
+	 * @param fanOut
+	 *            The average number of children of records and sections.
+	 * @param textSize
+	 *            The minimal number of characters in every text node.
+	 * @param seed
+	 *            The seed for the random generator.
+	 */
+	public SyntheticDocumentReader(int numRecords, int depth, int fanOut, int textSize, long seed) {
+		this.numRecords = numRecords;
+		this.depth = depth;
+		this.fanOut = Math.max(1, fanOut);
+		this.textSize = textSize;
+		this.random = new SplittableRandom(seed);
+		this.factory = XMLEventFactory.newInstance();
+		this.queue = new ArrayDeque<XMLEvent>();
+		this.open = new ArrayDeque<Frame>();
+	}
+
+	@Override
+	public XMLEvent nextEvent() {
+		if (this.queue.isEmpty()) {
+			this.generate();
+		}
+		if (this.queue.isEmpty()) {
+			throw new NoSuchElementException("end of document reached");
+		}
+		return this.queue.poll();
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (this.queue.isEmpty()) {
+			this.generate();
+		}
+		return !this.queue.isEmpty();
+	}
+
+	@Override
+	public XMLEvent peek() {
+		return this.hasNext() ? this.queue.peek() : null;
+	}
+
+	@Override
+	public Object next() {
+		return this.nextEvent();
+	}
+
+	@Override
+	public String getElementText() throws XMLStreamException {
+		throw new XMLStreamException("getElementText is not supported by synthetic documents");
+	}
+
+	@Override
+	public XMLEvent nextTag() throws XMLStreamException {
+		throw new XMLStreamException("nextTag is not supported by synthetic documents");
+	}
+
+	@Override
+	public Object getProperty(String name) {
+		throw new IllegalArgumentException("unsupported property: " + name);
+	}
+
+	@Override
+	public void close() {
+		this.queue.clear();
+		this.open.clear();
+		this.ended = true;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("events can not be removed");
+	}
+
+	/**
+	 * Generates the next few events.
+	 */
+	protected void generate() {
+		if (!this.started) {
+			this.started = true;
+			this.queue.add(this.factory.createStartDocument("UTF-8", "1.0"));
+			this.start("corpus", this.numRecords);
+			return;
+		}
+		if (this.open.isEmpty()) {
+			if (!this.ended) {
+				this.ended = true;
+				this.queue.add(this.factory.createEndDocument());
+			}
+			return;
+		}
+
+		Frame frame = this.open.peek();
+		if (frame.remaining == 0) {
+			this.open.pop();
+			this.queue.add(this.factory.createEndElement("", "", frame.name));
+			return;
+		}
+
+		frame.remaining--;
+		// the level below the document element of the new child
+		int level = this.open.size();
+		if (level > this.depth) {
+			this.text();
+		} else if (level == 1) {
+			this.start("record", this.children());
+		} else {
+			this.start("section", this.children());
+		}
+	}
+
+	protected void start(String name, int numChildren) {
+		if ("record".equals(name)) {
+			this.queue.add(this.factory.createStartElement("", "", name, Collections.singletonList(
+					this.factory.createAttribute("id", String.valueOf(++this.numRecordIds))).iterator(), null));
+		} else {
+			this.queue.add(this.factory.createStartElement("", "", name));
+		}
+		this.open.push(new Frame(name, numChildren));
+	}
+
+	protected void text() {
+		StringBuilder text = new StringBuilder(this.textSize + 16);
+		while (text.length() < this.textSize) {
+			if (text.length() > 0) {
+				text.append(' ');
+			}
+			text.append(WORDS[this.random.nextInt(WORDS.length)]);
+		}
+		this.queue.add(this.factory.createStartElement("", "", "text"));
+		this.queue.add(this.factory.createCharacters(text.toString()));
+		this.queue.add(this.factory.createEndElement("", "", "text"));
+	}
+
+	/**
+	 * Draws a number of children, uniformly between 1 and twice the fan-out (minus one).
+	 */
+	protected int children() {
+		return 1 + this.random.nextInt(2 * this.fanOut - 1);
+	}
+
+	/**
+	 * An open element and the number of children still to be generated for it.
+	 */
+	protected static class Frame {
+
+		protected final String name;
+		protected int remaining;
+
+		protected Frame(String name, int remaining) {
+			this.name = name;
+			this.remaining = remaining;
+		}
+
+	}
+
+}
@@ -0,0 +1,97 @@
+package nl.utwente.cs.pxml.transform.doc;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import nl.utwente.cs.pxml.ProbabilityNodeType;
+
+/**
+ * Report of a single transformation: the size of the document, the number of variables and pNodes, and the time
+ * spent in every phase, in the order the phases ran. Timing works by marking the end of every phase with
+ * {@link #phase(String)}, the first phase starting at the creation of the report.
+ * 
+ * @author Mattijs Ugen
+ */
+public class TransformReport {
+
+	protected int numNodes;
+	protected int numVariables;
+	protected final int[] pNodes = new int[ProbabilityNodeType.values().length];
+	protected final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+	protected long mark = System.nanoTime();
+
+	/**
+	 * Marks the end of a phase, which started at the end of the previous phase.
+	 * 
+	 * @param name
+	 *            The name of the phase.
+	 */
+	public void phase(String name) {
+		long now = System.nanoTime();
+		Long previous = this.phases.get(name);
+		this.phases.put(name, (previous == null ? 0L : previous) + now - this.mark);
+		this.mark = now;
+	}
+
+	/**
+	 * @return The durations of all phases in nanoseconds, by name in the order they ran.
+	 */
+	public Map<String, Long> phases() {
+		return this.phases;
+	}
+
+	/**
+	 * @return The total duration of all phases, in nanoseconds.
+	 */
+	public long total() {
+		long total = 0;
+		for (long duration : this.phases.values()) {
+			total += duration;
+		}
+		return total;
+	}
+
+	/**
+	 * @return The number of candidate nodes in the document.
+	 */
+	public int numNodes() {
+		return this.numNodes;
+	}
+
+	/**
+	 * @return The number of random variables used.
+	 */
+	public int numVariables() {
+		return this.numVariables;
+	}
+
+	/**
+	 * @param type
+	 *            A type of pNode.
+	 * @return The number of pNodes of type inserted.
+	 */
+	public int count(ProbabilityNodeType type) {
+		return this.pNodes[type.ordinal()];
+	}
+
+	/**
+	 * Formats the report as one "key=value" pair per line, durations in milliseconds.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		report.append("nodes=").append(this.numNodes).append('\n');
+		report.append("variables=").append(this.numVariables).append('\n');
+		for (ProbabilityNodeType type : ProbabilityNodeType.values()) {
+			report.append("pNodes.").append(type.nodeName).append('=').append(this.count(type)).append('\n');
+		}
+		for (Map.Entry<String, Long> phase : this.phases.entrySet()) {
+			report.append("time.").append(phase.getKey()).append('=')
+					.append(String.format(Locale.ROOT, "%.3f", phase.getValue() / 1e6)).append("ms\n");
+		}
+		report.append("time.total=").append(String.format(Locale.ROOT, "%.3f", this.total() / 1e6)).append("ms");
+		return report.toString();
+	}
+
+}
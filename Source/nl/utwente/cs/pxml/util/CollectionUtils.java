@@ -37,4 +37,21 @@ public abstract class CollectionUtils {
 		return result.toString();
 	}
 
+	/**
+	 * Computes a 64-bit hash of a string (FNV-1a over its UTF-16 code units),
+	 * stable between runs and JVMs.
+	 * 
+	 * @param string
+	 *            The string to hash.
+	 * @return The 64-bit hash of string.
+	 */
+	public static long hash64(CharSequence string) {
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0, length = string.length(); i < length; i++) {
+			hash ^= string.charAt(i);
+			hash *= 0x100000001B3L;
+		}
+		return hash;
+	}
+
 }
@@ -0,0 +1,162 @@
+package nl.utwente.cs.pxml.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded, thread-safe cache evicting the least recently used entries. The cache is split into a number of
+ * independently locked segments (each an access-ordered {@link LinkedHashMap}), so concurrent sessions rarely contend
+ * on the same lock. Recency is tracked per segment, which makes eviction approximately LRU across the whole cache.
+ * 
+ * @author Mattijs Ugen
+ */
+public class LruCache<K, V> {
+
+	protected final Segment<K, V>[] segments;
+	protected final int mask;
+	protected final int capacity;
+
+	/**
+	 * Creates a new LruCache holding at most capacity entries.
+	 * 
+	 * @param capacity
+	 *            The maximum number of entries.
+	 */
+	public LruCache(int capacity) {
+		this(capacity, 16);
+	}
+
+	/**
+	 * Creates a new LruCache holding at most capacity entries, split over a number of segments.
+	 * 
+	 * @param capacity
+	 *            The maximum number of entries.
+	 * @param concurrency
+	 *            The number of segments (rounded up to a power of two, at most capacity).
+	 */
+	public LruCache(int capacity, int concurrency) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity should be positive: " + capacity);
+		}
+
+		int numSegments = 1;
+		while (numSegments < concurrency && numSegments * 2 <= capacity) {
+			numSegments *= 2;
+		}
+
+		// generic arrays can not be created, the segments only ever hold K and V
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Segment<K, V>[] segments = new Segment[numSegments];
+		this.segments = segments;
+		for (int i = 0; i < numSegments; i++) {
+			// spread the capacity over the segments, the first few taking the remainder
+			this.segments[i] = new Segment<K, V>(capacity / numSegments + (i < capacity % numSegments ? 1 : 0));
+		}
+		this.mask = numSegments - 1;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Looks up the value for key, marking it as recently used.
+	 * 
+	 * @param key
+	 *            The key to look up.
+	 * @return The value for key, or null if it is not cached.
+	 */
+	public V get(K key) {
+		Segment<K, V> segment = this.segment(key);
+		synchronized (segment) {
+			return segment.get(key);
+		}
+	}
+
+	/**
+	 * Stores value for key, possibly evicting the least recently used entry of its segment.
+	 * 
+	 * @param key
+	 *            The key to store value for.
+	 * @param value
+	 *            The value to store.
+	 */
+	public void put(K key, V value) {
+		Segment<K, V> segment = this.segment(key);
+		synchronized (segment) {
+			segment.put(key, value);
+		}
+	}
+
+	/**
+	 * Removes the entry for key, if any.
+	 * 
+	 * @param key
+	 *            The key to remove.
+	 * @return The value that was removed, or null.
+	 */
+	public V remove(K key) {
+		Segment<K, V> segment = this.segment(key);
+		synchronized (segment) {
+			return segment.remove(key);
+		}
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		for (Segment<K, V> segment : this.segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return The number of entries currently cached.
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment<K, V> segment : this.segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return The maximum number of entries.
+	 */
+	public int capacity() {
+		return this.capacity;
+	}
+
+	protected Segment<K, V> segment(K key) {
+		int hash = key.hashCode();
+		// spread the bits so that keys differing in high bits end up in different segments
+		hash ^= (hash >>> 16);
+		hash *= 0x85EBCA6B;
+		return this.segments[(hash ^ (hash >>> 13)) & this.mask];
+	}
+
+	/**
+	 * Access-ordered map evicting its eldest entry when full.
+	 */
+	protected static class Segment<K, V> extends LinkedHashMap<K, V> {
+
+		private static final long serialVersionUID = 3075239542376810214L;
+
+		protected final int capacity;
+
+		protected Segment(int capacity) {
+			super(Math.min(capacity, 1024), 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			return this.size() > this.capacity;
+		}
+
+	}
+
+}
@@ -0,0 +1,308 @@
+package nl.utwente.cs.pxml.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Registry of runtime metrics: named counters and latency histograms, updated through striped {@link LongAdder}s so
+ * that concurrent queries do not contend on them. Metrics are only recorded while enabled, which is configured by the
+ * system property <code>pxml.metrics</code> (default false) and can be changed at runtime through
+ * {@link #setEnabled(boolean)}. While disabled, recording a metric amounts to reading a single flag.
+ * 
+ * Metrics are meant to be created once, in static fields of the class they instrument:
+ * 
+ * <pre>
+ * protected static final Metrics.Counter HITS = Metrics.counter(&quot;cache.hits&quot;);
+ * </pre>
+ * 
+ * @author Mattijs Ugen
+ */
+public final class Metrics {
+
+	/**
+	 * The name of the system property enabling metrics.
+	 */
+	public static final String ENABLED_PROPERTY = "pxml.metrics";
+
+	// the number of histogram buckets, bucket i holding durations of i significant bits
+	protected static final int NUM_BUCKETS = 64;
+
+	private static volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+
+	private static final Map<String, Counter> COUNTERS = new LinkedHashMap<String, Counter>();
+	private static final Map<String, Histogram> HISTOGRAMS = new LinkedHashMap<String, Histogram>();
+
+	private Metrics() {
+	}
+
+	/**
+	 * @return Whether metrics are being recorded.
+	 */
+	public static boolean isEnabled() {
+		return Metrics.enabled;
+	}
+
+	/**
+	 * Enables or disables recording metrics. Values recorded so far are kept.
+	 * 
+	 * @param enabled
+	 *            Whether metrics should be recorded.
+	 */
+	public static void setEnabled(boolean enabled) {
+		Metrics.enabled = enabled;
+	}
+
+	/**
+	 * Provides the counter registered under name, registering a new one when there is none.
+	 * 
+	 * @param name
+	 *            The name of the counter.
+	 * @return The counter.
+	 */
+	public static Counter counter(String name) {
+		synchronized (COUNTERS) {
+			Counter counter = COUNTERS.get(name);
+			if (counter == null) {
+				counter = new Counter(name);
+				COUNTERS.put(name, counter);
+			}
+			return counter;
+		}
+	}
+
+	/**
+	 * Provides the histogram registered under name, registering a new one when there is none.
+	 * 
+	 * @param name
+	 *            The name of the histogram.
+	 * @return The histogram.
+	 */
+	public static Histogram histogram(String name) {
+		synchronized (HISTOGRAMS) {
+			Histogram histogram = HISTOGRAMS.get(name);
+			if (histogram == null) {
+				histogram = new Histogram(name);
+				HISTOGRAMS.put(name, histogram);
+			}
+			return histogram;
+		}
+	}
+
+	/**
+	 * @return All registered counters, in order of registration.
+	 */
+	public static List<Counter> counters() {
+		synchronized (COUNTERS) {
+			return new ArrayList<Counter>(COUNTERS.values());
+		}
+	}
+
+	/**
+	 * @return All registered histograms, in order of registration.
+	 */
+	public static List<Histogram> histograms() {
+		synchronized (HISTOGRAMS) {
+			return new ArrayList<Histogram>(HISTOGRAMS.values());
+		}
+	}
+
+	/**
+	 * Resets all registered metrics to zero. Updates made concurrently with a reset may or may not be kept.
+	 */
+	public static void reset() {
+		for (Counter counter : Metrics.counters()) {
+			counter.reset();
+		}
+		for (Histogram histogram : Metrics.histograms()) {
+			histogram.reset();
+		}
+	}
+
+	/**
+	 * Starts timing an operation, to be completed by {@link Histogram#stop(long)}.
+	 * 
+	 * @return The current time in nanoseconds, or 0 when metrics are disabled.
+	 */
+	public static long start() {
+		return Metrics.enabled ? System.nanoTime() : 0L;
+	}
+
+	/**
+	 * Counter of events.
+	 */
+	public static final class Counter {
+
+		protected final String name;
+		protected final LongAdder value = new LongAdder();
+
+		protected Counter(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @return The name of the counter.
+		 */
+		public String name() {
+			return this.name;
+		}
+
+		/**
+		 * Counts a single event.
+		 */
+		public void increment() {
+			if (Metrics.enabled) {
+				this.value.increment();
+			}
+		}
+
+		/**
+		 * Counts a number of events.
+		 * 
+		 * @param count
+		 *            The number of events.
+		 */
+		public void add(long count) {
+			if (Metrics.enabled) {
+				this.value.add(count);
+			}
+		}
+
+		/**
+		 * @return The number of events counted.
+		 */
+		public long value() {
+			return this.value.sum();
+		}
+
+		protected void reset() {
+			this.value.reset();
+		}
+
+	}
+
+	/**
+	 * Histogram of durations in nanoseconds, using buckets of powers of two: a duration of n significant bits is
+	 * counted in bucket n, so that quantiles are known to within a factor of two.
+	 */
+	public static final class Histogram {
+
+		protected final String name;
+		protected final LongAdder[] buckets;
+		protected final LongAdder total = new LongAdder();
+		protected final LongAccumulator max = new LongAccumulator(new LongBinaryOperator() {
+			@Override
+			public long applyAsLong(long left, long right) {
+				return Math.max(left, right);
+			}
+		}, 0L);
+
+		protected Histogram(String name) {
+			this.name = name;
+			this.buckets = new LongAdder[NUM_BUCKETS];
+			for (int i = 0; i < NUM_BUCKETS; i++) {
+				this.buckets[i] = new LongAdder();
+			}
+		}
+
+		/**
+		 * @return The name of the histogram.
+		 */
+		public String name() {
+			return this.name;
+		}
+
+		/**
+		 * Records the duration of an operation started by {@link Metrics#start()}.
+		 * 
+		 * @param start
+		 *            The value returned by {@link Metrics#start()}.
+		 */
+		public void stop(long start) {
+			if (Metrics.enabled && start != 0L) {
+				this.record(System.nanoTime() - start);
+			}
+		}
+
+		/**
+		 * Records a duration.
+		 * 
+		 * @param nanos
+		 *            The duration in nanoseconds.
+		 */
+		public void record(long nanos) {
+			if (Metrics.enabled) {
+				nanos = Math.max(0L, nanos);
+				this.buckets[Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+				this.total.add(nanos);
+				this.max.accumulate(nanos);
+			}
+		}
+
+		/**
+		 * @return The number of durations recorded.
+		 */
+		public long count() {
+			long count = 0;
+			for (LongAdder bucket : this.buckets) {
+				count += bucket.sum();
+			}
+			return count;
+		}
+
+		/**
+		 * @return The sum of all durations recorded, in nanoseconds.
+		 */
+		public long total() {
+			return this.total.sum();
+		}
+
+		/**
+		 * @return The longest duration recorded, in nanoseconds.
+		 */
+		public long max() {
+			return this.max.get();
+		}
+
+		/**
+		 * Estimates a quantile of the recorded durations.
+		 * 
+		 * @param quantile
+		 *            The quantile, between 0.0 and 1.0.
+		 * @return An upper bound for the quantile (less than twice its actual value), in nanoseconds, 0 when nothing
+		 *         was recorded.
+		 */
+		public long quantile(double quantile) {
+			long[] counts = new long[NUM_BUCKETS];
+			long count = 0;
+			for (int i = 0; i < NUM_BUCKETS; i++) {
+				counts[i] = this.buckets[i].sum();
+				count += counts[i];
+			}
+			long rank = (long) Math.ceil(quantile * count);
+			long seen = 0;
+			for (int i = 0; i < NUM_BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= rank && seen > 0) {
+					// the largest duration of i significant bits, but never more than the maximum seen
+					return Math.min(i == 0 ? 0L : (1L << i) - 1, this.max());
+				}
+			}
+			return 0L;
+		}
+
+		protected void reset() {
+			for (LongAdder bucket : this.buckets) {
+				bucket.reset();
+			}
+			this.total.reset();
+			this.max.reset();
+		}
+
+	}
+
+}
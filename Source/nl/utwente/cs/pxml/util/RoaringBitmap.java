@@ -0,0 +1,459 @@
+package nl.utwente.cs.pxml.util;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of non-negative ints, laid out like a Roaring bitmap: values are grouped by their high 16 bits, and
+ * every group is stored either as a sorted array of its low 16 bits (up to {@link #MAX_ARRAY} values) or as a bitmap
+ * of 2^16 bits (for denser groups). Sparse sets take two bytes per value, dense sets one bit, and intersections and
+ * unions are merges of the groups the operands share rather than of the individual values.
+ * 
+ * Bitmaps are not thread-safe while being added to, but can be shared freely once complete.
+ * 
+ * @author Mattijs Ugen
+ */
+public final class RoaringBitmap {
+
+	/**
+	 * The maximum number of values in a group stored as an array.
+	 */
+	public static final int MAX_ARRAY = 4096;
+
+	/**
+	 * The empty bitmap (not to be added to).
+	 */
+	public static final RoaringBitmap EMPTY = new RoaringBitmap();
+
+	// the high 16 bits of every group, sorted
+	protected char[] keys;
+	// the low 16 bits of the values in every group, in the same order
+	protected Container[] containers;
+	protected int size;
+
+	/**
+	 * Creates a new, empty RoaringBitmap.
+	 */
+	public RoaringBitmap() {
+		this.keys = new char[4];
+		this.containers = new Container[4];
+		this.size = 0;
+	}
+
+	/**
+	 * Creates a bitmap containing values.
+	 * 
+	 * @param values
+	 *            The values to add (need not be sorted).
+	 * @return A new bitmap.
+	 */
+	public static RoaringBitmap of(int... values) {
+		RoaringBitmap bitmap = new RoaringBitmap();
+		for (int value : values) {
+			bitmap.add(value);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Adds a value to this bitmap. Adding values in ascending order is fastest.
+	 * 
+	 * @param value
+	 *            The value to add.
+	 * @throws IllegalArgumentException
+	 *             When value is negative.
+	 */
+	public void add(int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("negative value " + value);
+		}
+
+		char key = (char) (value >>> 16);
+		int index = this.size > 0 && this.keys[this.size - 1] == key ? this.size - 1 : this.indexOf(key);
+		if (index < 0) {
+			index = -index - 1;
+			if (this.size == this.keys.length) {
+				this.keys = Arrays.copyOf(this.keys, this.size * 2);
+				this.containers = Arrays.copyOf(this.containers, this.size * 2);
+			}
+			System.arraycopy(this.keys, index, this.keys, index + 1, this.size - index);
+			System.arraycopy(this.containers, index, this.containers, index + 1, this.size - index);
+			this.keys[index] = key;
+			this.containers[index] = new ArrayContainer(new char[4], 0);
+			this.size++;
+		}
+		this.containers[index] = this.containers[index].add((char) value);
+	}
+
+	/**
+	 * @param value
+	 *            The value to look for.
+	 * @return Whether this bitmap contains value.
+	 */
+	public boolean contains(int value) {
+		int index = value < 0 ? -1 : this.indexOf((char) (value >>> 16));
+		return index >= 0 && this.containers[index].contains((char) value);
+	}
+
+	/**
+	 * @return The number of values in this bitmap.
+	 */
+	public int cardinality() {
+		int cardinality = 0;
+		for (int i = 0; i < this.size; i++) {
+			cardinality += this.containers[i].cardinality;
+		}
+		return cardinality;
+	}
+
+	/**
+	 * @return Whether this bitmap is empty.
+	 */
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Intersects this bitmap with another, visiting only the groups present in both.
+	 * 
+	 * @param other
+	 *            The bitmap to intersect with.
+	 * @return A new bitmap containing the values in both bitmaps.
+	 */
+	public RoaringBitmap and(RoaringBitmap other) {
+		RoaringBitmap result = new RoaringBitmap();
+		int i = 0, j = 0;
+		while (i < this.size && j < other.size) {
+			if (this.keys[i] < other.keys[j]) {
+				i++;
+			} else if (this.keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				Container container = this.containers[i].and(other.containers[j]);
+				if (container.cardinality > 0) {
+					result.append(this.keys[i], container);
+				}
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Unites this bitmap with another.
+	 * 
+	 * @param other
+	 *            The bitmap to unite with.
+	 * @return A new bitmap containing the values in either bitmap.
+	 */
+	public RoaringBitmap or(RoaringBitmap other) {
+		RoaringBitmap result = new RoaringBitmap();
+		int i = 0, j = 0;
+		while (i < this.size || j < other.size) {
+			if (j == other.size || i < this.size && this.keys[i] < other.keys[j]) {
+				result.append(this.keys[i], this.containers[i]);
+				i++;
+			} else if (i == this.size || this.keys[i] > other.keys[j]) {
+				result.append(other.keys[j], other.containers[j]);
+				j++;
+			} else {
+				result.append(this.keys[i], this.containers[i].or(other.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return The values in this bitmap, in ascending order.
+	 */
+	public int[] toArray() {
+		int[] values = new int[this.cardinality()];
+		int offset = 0;
+		for (int i = 0; i < this.size; i++) {
+			offset = this.containers[i].fill(values, offset, this.keys[i] << 16);
+		}
+		return values;
+	}
+
+	/**
+	 * @return The approximate number of bytes taken by the values in this bitmap.
+	 */
+	public long sizeInBytes() {
+		long bytes = this.size * 2L;
+		for (int i = 0; i < this.size; i++) {
+			bytes += this.containers[i] instanceof BitmapContainer ? 8192 : this.containers[i].cardinality * 2L;
+		}
+		return bytes;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof RoaringBitmap && Arrays.equals(this.toArray(), ((RoaringBitmap) other).toArray());
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(this.toArray());
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(this.toArray());
+	}
+
+	/**
+	 * Appends a group after all groups present (containers are immutable once shared between bitmaps by
+	 * {@link #or(RoaringBitmap)}, adding to such a bitmap copies them first).
+	 */
+	protected void append(char key, Container container) {
+		if (this.size == this.keys.length) {
+			this.keys = Arrays.copyOf(this.keys, this.size * 2);
+			this.containers = Arrays.copyOf(this.containers, this.size * 2);
+		}
+		this.keys[this.size] = key;
+		this.containers[this.size++] = container.share();
+	}
+
+	protected int indexOf(char key) {
+		return Arrays.binarySearch(this.keys, 0, this.size, key);
+	}
+
+	/**
+	 * The low 16 bits of the values in a single group.
+	 */
+	protected abstract static class Container {
+
+		protected int cardinality;
+		// whether this container is part of more than one bitmap (and should be copied before adding to it)
+		protected boolean shared = false;
+
+		protected Container share() {
+			this.shared = true;
+			return this;
+		}
+
+		protected abstract Container add(char value);
+
+		protected abstract boolean contains(char value);
+
+		protected abstract Container and(Container other);
+
+		protected abstract Container or(Container other);
+
+		protected abstract int fill(int[] values, int offset, int high);
+
+	}
+
+	/**
+	 * Sorted array of the low bits of at most {@link RoaringBitmap#MAX_ARRAY} values.
+	 */
+	protected static final class ArrayContainer extends Container {
+
+		protected char[] values;
+
+		protected ArrayContainer(char[] values, int cardinality) {
+			this.values = values;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		protected Container add(char value) {
+			int index = this.cardinality > 0 && this.values[this.cardinality - 1] < value ? -this.cardinality - 1
+					: Arrays.binarySearch(this.values, 0, this.cardinality, value);
+			if (index >= 0) {
+				return this;
+			}
+			if (this.cardinality == MAX_ARRAY) {
+				return this.toBitmap().add(value);
+			}
+
+			index = -index - 1;
+			char[] values = this.values;
+			if (this.shared || this.cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(MAX_ARRAY, Math.max(4, this.cardinality * 2)));
+			}
+			System.arraycopy(this.values, index, values, index + 1, this.cardinality - index);
+			System.arraycopy(this.values, 0, values, 0, index);
+			values[index] = value;
+			if (this.shared) {
+				return new ArrayContainer(values, this.cardinality + 1);
+			}
+			this.values = values;
+			this.cardinality++;
+			return this;
+		}
+
+		@Override
+		protected boolean contains(char value) {
+			return Arrays.binarySearch(this.values, 0, this.cardinality, value) >= 0;
+		}
+
+		@Override
+		protected Container and(Container other) {
+			char[] result = new char[Math.min(this.cardinality, other.cardinality)];
+			int size = 0;
+			if (other instanceof BitmapContainer) {
+				for (int i = 0; i < this.cardinality; i++) {
+					if (other.contains(this.values[i])) {
+						result[size++] = this.values[i];
+					}
+				}
+			} else {
+				ArrayContainer array = (ArrayContainer) other;
+				for (int i = 0, j = 0; i < this.cardinality && j < array.cardinality;) {
+					if (this.values[i] < array.values[j]) {
+						i++;
+					} else if (this.values[i] > array.values[j]) {
+						j++;
+					} else {
+						result[size++] = this.values[i++];
+						j++;
+					}
+				}
+			}
+			return new ArrayContainer(result, size);
+		}
+
+		@Override
+		protected Container or(Container other) {
+			if (other instanceof BitmapContainer) {
+				return other.or(this);
+			}
+
+			ArrayContainer array = (ArrayContainer) other;
+			if (this.cardinality + array.cardinality > MAX_ARRAY) {
+				return this.toBitmap().or(array);
+			}
+			char[] result = new char[this.cardinality + array.cardinality];
+			int size = 0, i = 0, j = 0;
+			while (i < this.cardinality && j < array.cardinality) {
+				if (this.values[i] < array.values[j]) {
+					result[size++] = this.values[i++];
+				} else if (this.values[i] > array.values[j]) {
+					result[size++] = array.values[j++];
+				} else {
+					result[size++] = this.values[i++];
+					j++;
+				}
+			}
+			while (i < this.cardinality) {
+				result[size++] = this.values[i++];
+			}
+			while (j < array.cardinality) {
+				result[size++] = array.values[j++];
+			}
+			return new ArrayContainer(result, size);
+		}
+
+		@Override
+		protected int fill(int[] values, int offset, int high) {
+			for (int i = 0; i < this.cardinality; i++) {
+				values[offset++] = high | this.values[i];
+			}
+			return offset;
+		}
+
+		protected BitmapContainer toBitmap() {
+			BitmapContainer bitmap = new BitmapContainer(new long[1024], 0);
+			for (int i = 0; i < this.cardinality; i++) {
+				bitmap.words[this.values[i] >>> 6] |= 1L << this.values[i];
+			}
+			bitmap.cardinality = this.cardinality;
+			return bitmap;
+		}
+
+	}
+
+	/**
+	 * Bitmap of all 2^16 possible low bits of the values in a group.
+	 */
+	protected static final class BitmapContainer extends Container {
+
+		protected final long[] words;
+
+		protected BitmapContainer(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		protected Container add(char value) {
+			long bit = 1L << value;
+			if ((this.words[value >>> 6] & bit) != 0) {
+				return this;
+			}
+			BitmapContainer target = this.shared ? new BitmapContainer(this.words.clone(), this.cardinality) : this;
+			target.words[value >>> 6] |= bit;
+			target.cardinality++;
+			return target;
+		}
+
+		@Override
+		protected boolean contains(char value) {
+			return (this.words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		@Override
+		protected Container and(Container other) {
+			if (other instanceof ArrayContainer) {
+				return other.and(this);
+			}
+
+			long[] words = new long[1024];
+			int cardinality = 0;
+			long[] others = ((BitmapContainer) other).words;
+			for (int i = 0; i < words.length; i++) {
+				words[i] = this.words[i] & others[i];
+				cardinality += Long.bitCount(words[i]);
+			}
+			BitmapContainer result = new BitmapContainer(words, cardinality);
+			return cardinality > MAX_ARRAY ? result : result.toArray();
+		}
+
+		@Override
+		protected Container or(Container other) {
+			long[] words = this.words.clone();
+			if (other instanceof ArrayContainer) {
+				ArrayContainer array = (ArrayContainer) other;
+				for (int i = 0; i < array.cardinality; i++) {
+					words[array.values[i] >>> 6] |= 1L << array.values[i];
+				}
+			} else {
+				long[] others = ((BitmapContainer) other).words;
+				for (int i = 0; i < words.length; i++) {
+					words[i] |= others[i];
+				}
+			}
+			int cardinality = 0;
+			for (long word : words) {
+				cardinality += Long.bitCount(word);
+			}
+			return new BitmapContainer(words, cardinality);
+		}
+
+		@Override
+		protected int fill(int[] values, int offset, int high) {
+			for (int i = 0; i < this.words.length; i++) {
+				for (long word = this.words[i]; word != 0; word &= word - 1) {
+					values[offset++] = high | (i << 6) | Long.numberOfTrailingZeros(word);
+				}
+			}
+			return offset;
+		}
+
+		protected ArrayContainer toArray() {
+			char[] values = new char[this.cardinality];
+			int size = 0;
+			for (int i = 0; i < this.words.length; i++) {
+				for (long word = this.words[i]; word != 0; word &= word - 1) {
+					values[size++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+				}
+			}
+			return new ArrayContainer(values, size);
+		}
+
+	}
+
+}
@@ -0,0 +1,64 @@
+package nl.utwente.cs.pxml;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCircuit {
+
+	/**
+	 * Tests {@link Circuit#evaluate(ProbabilitySource)} agreeing with {@link LineageEvaluator}, for several probability
+	 * vectors per compiled circuit.
+	 */
+	@Test
+	public void testEvaluate() {
+		Random random = new Random(7);
+		int[] ids = TestLineageEvaluator.ids();
+		for (int round = 0; round < 20; round++) {
+			Lineage lineage = Lineage.of(TestLineageEvaluator.formula(random));
+			Circuit circuit = Circuit.compile(lineage);
+			for (int vector = 0; vector < 5; vector++) {
+				ProbabilitySource source = TestLineageEvaluator.source(ids,
+						TestLineageEvaluator.distributions(random));
+				Assert.assertEquals(new LineageEvaluator(source).probability(lineage), circuit.evaluate(source), 1e-9);
+			}
+		}
+	}
+
+	/**
+	 * Tests the gradients computed by {@link Circuit#evaluate(ProbabilitySource, Map)} against finite differences.
+	 */
+	@Test
+	public void testGradients() {
+		Random random = new Random(11);
+		int[] ids = TestLineageEvaluator.ids();
+		double epsilon = 1e-6;
+		for (int round = 0; round < 20; round++) {
+			List<Descriptor> clauses = TestLineageEvaluator.formula(random);
+			Circuit circuit = Circuit.compile(Lineage.of(clauses));
+			double[][] distributions = TestLineageEvaluator.distributions(random);
+
+			Map<Long, Double> gradients = new HashMap<Long, Double>();
+			circuit.evaluate(TestLineageEvaluator.source(ids, distributions), gradients);
+			for (int i = 0; i < ids.length; i++) {
+				for (int value = 0; value < TestLineageEvaluator.NUM_VALUES; value++) {
+					double original = distributions[i][value];
+					distributions[i][value] = original + epsilon;
+					double up = circuit.evaluate(TestLineageEvaluator.source(ids, distributions));
+					distributions[i][value] = original - epsilon;
+					double down = circuit.evaluate(TestLineageEvaluator.source(ids, distributions));
+					distributions[i][value] = original;
+
+					Double gradient = gradients.get(Descriptor.pack(ids[i], value));
+					Assert.assertEquals("d/d(" + i + "=" + value + ") of " + clauses, (up - down) / (2 * epsilon),
+							gradient == null ? 0.0 : gradient, 1e-5);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,50 @@
+package nl.utwente.cs.pxml;
+
+import nl.utwente.cs.pxml.transform.doc.DocumentTransformer;
+
+import org.basex.query.value.Value;
+import org.basex.query.value.item.QNm;
+import org.basex.query.value.item.Str;
+import org.basex.query.value.node.FElem;
+import org.basex.util.Token;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestConditionIndex {
+
+	/**
+	 * Tests looking up, intersecting and uniting the p:cie nodes requiring conditions.
+	 */
+	@Test
+	public void testRequiring() throws Exception {
+		FElem root = new FElem("root");
+		FElem[] cie = new FElem[300];
+		for (int i = 0; i < cie.length; i++) {
+			cie[i] = new FElem(new QNm("p:cie", DocumentTransformer.NS_URI));
+			cie[i].add(new QNm("p:descriptors", DocumentTransformer.NS_URI), Token.token("idx-" + (i % 3) + "=1 idx-"
+					+ (i % 5) + "=0"));
+			// nest some of them, the index covers all descendants
+			(i % 2 == 0 ? root : cie[i - 1]).add(cie[i]);
+		}
+		root.add(new FElem(new QNm("p:ind", DocumentTransformer.NS_URI)));
+
+		ConditionIndex index = ConditionIndex.of(root);
+		Assert.assertSame(index, ConditionIndex.of(root));
+		Assert.assertEquals(300, index.requiring(Descriptor.EMPTY).cardinality());
+		Assert.assertEquals(100, index.requiring(Descriptor.compile("idx-1=1")).cardinality());
+		// i % 3 == 1 and i % 5 == 2: i % 15 == 7
+		Assert.assertEquals(20, index.requiring(Descriptor.compile("idx-1=1 idx-2=0")).cardinality());
+		Assert.assertTrue(index.requiring(Descriptor.compile("idx-1=1 idx-9=0")).isEmpty());
+		Assert.assertEquals(100 + 60 - 20, index.requiringAny(new Descriptor[] {
+				Descriptor.compile("idx-1=1"), Descriptor.compile("idx-2=0")
+		}).cardinality());
+
+		PXML pxml = new PXML();
+		Value nodes = pxml.requiring(root, Str.get("idx-0=1 idx-0=0"));
+		Assert.assertEquals(20, nodes.size());
+		Assert.assertSame(cie[0], nodes.itemAt(0));
+		Assert.assertSame(cie[15], nodes.itemAt(1));
+		Assert.assertEquals(20, pxml.requiringCount(root, Str.get("idx-0=0 idx-0=1")));
+	}
+
+}
@@ -0,0 +1,85 @@
+package nl.utwente.cs.pxml;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestDescriptor {
+
+	/**
+	 * Tests {@link Descriptor#compile(String)} removing duplicates and keeping conflicts.
+	 */
+	@Test
+	public void testCompile() {
+		Descriptor descriptor = Descriptor.compile("arg1=1 arg2=2 arg1=1 arg2=1");
+
+		// the duplicate arg1=1 is dropped, the conflicting arg2 values are kept
+		Assert.assertEquals(3, descriptor.size());
+		Assert.assertFalse(descriptor.isConsistent());
+
+		// compiling the same conditions in a different order yields an equal descriptor
+		Assert.assertEquals(descriptor, Descriptor.compile("arg2=1 arg1=1 arg2=2"));
+		Assert.assertEquals(descriptor.hashCode(), Descriptor.compile("arg2=1 arg1=1 arg2=2").hashCode());
+
+		// the empty string compiles to the empty descriptor
+		Assert.assertSame(Descriptor.EMPTY, Descriptor.compile(""));
+	}
+
+	/**
+	 * Tests {@link Descriptor#isExclusiveWith(Descriptor)} and {@link Descriptor#union(Descriptor)}.
+	 */
+	@Test
+	public void testMerge() {
+		Descriptor a = Descriptor.compile("arg1=1 arg5=2 arg6=0");
+		Descriptor b = Descriptor.compile("arg1=1 arg2=2 arg6=0");
+		Descriptor c = Descriptor.compile("arg5=1");
+
+		Assert.assertFalse(a.isExclusiveWith(b));
+		Assert.assertTrue(a.isExclusiveWith(c));
+		Assert.assertTrue(c.isExclusiveWith(a));
+
+		// union keeps unique conditions only
+		Assert.assertEquals(4, a.union(b).size());
+		Assert.assertTrue(a.union(b).isConsistent());
+		Assert.assertFalse(a.union(c).isConsistent());
+		Assert.assertSame(a, a.union(Descriptor.EMPTY));
+	}
+
+	/**
+	 * Tests {@link Descriptor#toString()} and {@link Descriptor#fingerprint()} not depending on the order of the
+	 * conditions.
+	 */
+	@Test
+	public void testCanonical() {
+		// intern the variables in an order that differs from their natural order
+		Descriptor a = Descriptor.compile("canon-10=1 canon-2=1 canon-2=0 canon-1=3 canon-10=1");
+		Descriptor b = Descriptor.compile("canon-1=3 canon-2=0 canon-10=1 canon-2=1");
+		Assert.assertEquals("canon-1=3 canon-2=0 canon-2=1 canon-10=1", a.toString());
+		Assert.assertEquals(a.toString(), b.toString());
+		Assert.assertEquals(a, Descriptor.compile(a.toString()));
+
+		Assert.assertEquals(a.fingerprint(), b.fingerprint());
+		Assert.assertNotEquals(a.fingerprint(), Descriptor.compile("canon-1=3 canon-2=0 canon-10=1").fingerprint());
+		Assert.assertNotEquals(Descriptor.compile("canon-1=2").fingerprint(), Descriptor.compile("canon-2=1")
+				.fingerprint());
+		Assert.assertEquals(0L, Descriptor.EMPTY.fingerprint());
+
+		Assert.assertTrue(SymbolTable.compareNames("var-2", "var-10") < 0);
+		Assert.assertTrue(SymbolTable.compareNames("var-10", "var-9a") > 0);
+		Assert.assertTrue(SymbolTable.compareNames("a", "a-1") < 0);
+		Assert.assertTrue(SymbolTable.compareNames("var-01", "var-1") != 0);
+		Assert.assertEquals(0, SymbolTable.compareNames("var-1", "var-1"));
+	}
+
+	/**
+	 * Tests packing variable ids and values into a long.
+	 */
+	@Test
+	public void testPack() {
+		long packed = Descriptor.pack(42, -3);
+		Assert.assertEquals(42, Descriptor.variable(packed));
+		Assert.assertEquals(-3, Descriptor.value(packed));
+		// packed conditions order on variable first
+		Assert.assertTrue(Descriptor.pack(1, 100) < Descriptor.pack(2, 0));
+	}
+
+}
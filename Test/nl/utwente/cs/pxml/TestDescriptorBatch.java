@@ -0,0 +1,44 @@
+package nl.utwente.cs.pxml;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestDescriptorBatch {
+
+	/**
+	 * Tests {@link DescriptorBatch} against evaluating nested descriptors one by one.
+	 */
+	@Test
+	public void testBatch() {
+		Random random = new Random(17);
+		ProbabilitySource source = TestLineageEvaluator.source(TestLineageEvaluator.ids(),
+				TestLineageEvaluator.distributions(random));
+
+		// descriptors of nested nodes, every one extending a random earlier one
+		Descriptor[] descriptors = new Descriptor[200];
+		descriptors[0] = Descriptor.EMPTY;
+		long conditions = 0;
+		for (int i = 1; i < descriptors.length; i++) {
+			descriptors[i] = descriptors[random.nextInt(i)].union(Descriptor.compile("eval-"
+					+ random.nextInt(TestLineageEvaluator.NUM_VARIABLES) + "="
+					+ random.nextInt(TestLineageEvaluator.NUM_VALUES)));
+			conditions += descriptors[i].size();
+		}
+
+		DescriptorBatch batch = new DescriptorBatch(descriptors);
+		double[] probabilities = batch.probabilities(source);
+		boolean[] consistent = batch.consistent();
+		for (int i = 0; i < descriptors.length; i++) {
+			double expected = 1.0;
+			for (int c = 0; c < descriptors[i].size(); c++) {
+				expected *= source.probability(descriptors[i].variable(c), descriptors[i].value(c));
+			}
+			Assert.assertEquals(expected, probabilities[i], 1e-12);
+			Assert.assertEquals(descriptors[i].isConsistent(), consistent[i]);
+		}
+		Assert.assertTrue(batch.evaluated() < conditions);
+	}
+
+}
@@ -0,0 +1,83 @@
+package nl.utwente.cs.pxml;
+
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestDescriptorTokenizer {
+
+	/**
+	 * Tests {@link DescriptorTokenizer#next()} on well-formed input with varying separators.
+	 */
+	@Test
+	public void testNext() {
+		byte[] input = " var-1=0  var-22 = -7\tx==2147483647 ".getBytes(StandardCharsets.UTF_8);
+		DescriptorTokenizer tokenizer = new DescriptorTokenizer(input);
+
+		Assert.assertTrue(tokenizer.next());
+		Assert.assertEquals("var-1", TestDescriptorTokenizer.name(tokenizer));
+		Assert.assertEquals(0, tokenizer.value());
+
+		Assert.assertTrue(tokenizer.next());
+		Assert.assertEquals("var-22", TestDescriptorTokenizer.name(tokenizer));
+		Assert.assertEquals(-7, tokenizer.value());
+
+		Assert.assertTrue(tokenizer.next());
+		Assert.assertEquals("x", TestDescriptorTokenizer.name(tokenizer));
+		Assert.assertEquals(Integer.MAX_VALUE, tokenizer.value());
+
+		Assert.assertFalse(tokenizer.hasNext());
+		Assert.assertFalse(tokenizer.next());
+	}
+
+	/**
+	 * Tests malformed input being reported along with its position.
+	 */
+	@Test
+	public void testMalformed() {
+		TestDescriptorTokenizer.assertMalformed("var-1=0 var-2", 13);
+		TestDescriptorTokenizer.assertMalformed("var-1=0 var-2=1x", 15);
+		TestDescriptorTokenizer.assertMalformed("var-1=-", 6);
+		TestDescriptorTokenizer.assertMalformed("var-1=2147483648", 6);
+	}
+
+	/**
+	 * Tests the compatibility wrappers {@link ConditionGenerator} and {@link Condition#Condition(String)}.
+	 */
+	@Test
+	public void testCompatibility() {
+		ConditionGenerator generator = new ConditionGenerator("arg1=1 arg2 = 2");
+		Assert.assertEquals(new Condition("arg1", 1), generator.next());
+		Assert.assertEquals(new Condition("arg2", 2), generator.next());
+		Assert.assertFalse(generator.hasNext());
+
+		Assert.assertEquals(new Condition("arg3", 4), new Condition(" arg3 = 4 "));
+
+		// callers catching NoSuchElementException still catch malformed input
+		try {
+			new ConditionGenerator("arg1=one").next();
+			Assert.fail("malformed input accepted");
+		} catch (NoSuchElementException e) {
+			Assert.assertTrue(e instanceof DescriptorFormatException);
+		}
+	}
+
+	private static String name(DescriptorTokenizer tokenizer) {
+		return new String(tokenizer.input(), tokenizer.nameOffset(), tokenizer.nameLength(), StandardCharsets.UTF_8);
+	}
+
+	private static void assertMalformed(String descriptor, int position) {
+		DescriptorTokenizer tokenizer = new DescriptorTokenizer(descriptor.getBytes(StandardCharsets.UTF_8));
+		try {
+			while (tokenizer.next()) {
+				// keep reading until the error
+			}
+			Assert.fail("malformed input accepted: " + descriptor);
+		} catch (DescriptorFormatException e) {
+			Assert.assertEquals(position, e.getPosition());
+		}
+	}
+
+}
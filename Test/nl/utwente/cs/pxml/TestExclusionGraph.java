@@ -0,0 +1,46 @@
+package nl.utwente.cs.pxml;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestExclusionGraph {
+
+	/**
+	 * Tests {@link ExclusionGraph#of(Descriptor[])} against testing every pair, and the groups being compatible.
+	 */
+	@Test
+	public void testGraph() {
+		Random random = new Random(23);
+		Descriptor[] descriptors = new Descriptor[300];
+		for (int i = 0; i < descriptors.length; i++) {
+			StringBuilder descriptor = new StringBuilder();
+			for (int j = 0, size = random.nextInt(4); j < size; j++) {
+				// distinct variables, keeping the descriptors consistent
+				descriptor.append("excl-").append(j * 10 + random.nextInt(10)).append('=').append(random.nextInt(3))
+						.append(' ');
+			}
+			descriptors[i] = Descriptor.compile(descriptor.toString());
+		}
+
+		ExclusionGraph graph = ExclusionGraph.of(descriptors);
+		int edges = 0;
+		for (int a = 0; a < descriptors.length; a++) {
+			for (int b = 0; b < descriptors.length; b++) {
+				boolean exclusive = a != b && descriptors[a].isExclusiveWith(descriptors[b]);
+				Assert.assertEquals(exclusive, graph.isExclusive(a, b));
+				edges += exclusive && a < b ? 1 : 0;
+			}
+		}
+		Assert.assertEquals(edges, graph.edges());
+
+		int[] groups = graph.groups();
+		for (int a = 0; a < descriptors.length; a++) {
+			for (int neighbour : graph.neighbours(a)) {
+				Assert.assertTrue(groups[a] != groups[neighbour]);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+package nl.utwente.cs.pxml;
+
+import nl.utwente.cs.pxml.transform.doc.DocumentTransformer;
+
+import org.basex.query.value.item.QNm;
+import org.basex.query.value.node.FElem;
+import org.basex.util.Token;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestExistenceEvaluator {
+
+	/**
+	 * Tests existence probabilities under nested ind, mux, exp and cie nodes, and ancestors being memoized.
+	 */
+	@Test
+	public void testProbability() {
+		FElem c = new FElem("c");
+		FElem b = new FElem("b").add(c);
+		FElem d = new FElem("d");
+		FElem inner = TestExistenceEvaluator.pNode("cie", "descriptors", "var-0=0").add(d);
+		FElem cie = TestExistenceEvaluator.pNode("cie", "descriptors", "var-0=1").add(b).add(inner);
+		FElem ind = TestExistenceEvaluator.pNode("ind", "child-1", "0.4").add(cie);
+		FElem a = new FElem("a");
+		FElem mux = TestExistenceEvaluator.pNode("mux", "none", "0.2", "child-1", "0.5", "child-2", "0.3").add(a)
+				.add(ind);
+		FElem e = new FElem("e");
+		FElem f = new FElem("f");
+		FElem exp = TestExistenceEvaluator.pNode("exp", "subsets", "0:0.4 3:0.6").add(e).add(f);
+		FElem root = new FElem("root").add(mux).add(exp);
+
+		ExistenceEvaluator evaluator = new ExistenceEvaluator(VariableIndex.of(TestPXML.wsdList(new double[] {
+				0.25, 0.75
+		})));
+		Assert.assertEquals(0.09, evaluator.probability(c), 1e-9);
+		// root, mux, ind, cie, b and c
+		Assert.assertEquals(6, evaluator.size());
+		Assert.assertEquals(0.09, evaluator.probability(b), 1e-9);
+		Assert.assertEquals(6, evaluator.size());
+
+		Assert.assertEquals(1.0, evaluator.probability(root), 0.0);
+		Assert.assertEquals(0.5, evaluator.probability(a), 1e-9);
+		Assert.assertEquals(0.3, evaluator.probability(ind), 1e-9);
+		Assert.assertEquals(0.12, evaluator.probability(cie), 1e-9);
+		Assert.assertEquals(0.09, evaluator.probability(inner), 1e-9);
+		// the descriptors of both cie ancestors contradict each other
+		Assert.assertEquals(0.0, evaluator.probability(d), 0.0);
+		Assert.assertEquals(0.6, evaluator.probability(e), 1e-9);
+		Assert.assertEquals(0.6, evaluator.probability(f), 1e-9);
+	}
+
+	/**
+	 * Tests evaluating every child of a wide ind node, the children being numbered in a single walk.
+	 */
+	@Test
+	public void testManySiblings() {
+		int numChilds = 5000;
+		FElem ind = new FElem(new QNm("p:ind", DocumentTransformer.NS_URI));
+		FElem[] children = new FElem[numChilds];
+		for (int i = 0; i < numChilds; i++) {
+			ind.add(new QNm("p:child-" + (i + 1), DocumentTransformer.NS_URI), Token.token(String.valueOf(i
+					/ (double) numChilds)));
+		}
+		for (int i = 0; i < numChilds; i++) {
+			children[i] = new FElem("item");
+			ind.add(children[i]);
+		}
+		new FElem("root").add(ind);
+
+		ExistenceEvaluator evaluator = new ExistenceEvaluator(VariableIndex.of(TestPXML.wsdList()));
+		for (int i = numChilds - 1; i >= 0; i--) {
+			Assert.assertEquals(i / (double) numChilds, evaluator.probability(children[i]), 0.0);
+		}
+		Assert.assertEquals(1, evaluator.childCounts.size());
+		Assert.assertEquals(numChilds, evaluator.positions.size());
+	}
+
+	private static FElem pNode(String name, String... attributes) {
+		FElem pNode = new FElem(new QNm("p:" + name, DocumentTransformer.NS_URI));
+		for (int i = 0; i + 1 < attributes.length; i += 2) {
+			pNode.add(new QNm("p:" + attributes[i], DocumentTransformer.NS_URI), Token.token(attributes[i + 1]));
+		}
+		return pNode;
+	}
+
+}
@@ -0,0 +1,151 @@
+package nl.utwente.cs.pxml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestLineageEvaluator {
+
+	// number of variables and values per variable used in the random formulas
+	protected static final int NUM_VARIABLES = 6;
+	protected static final int NUM_VALUES = 3;
+
+	/**
+	 * Tests {@link Lineage#of(java.util.Collection)} normalization.
+	 */
+	@Test
+	public void testNormalize() {
+		List<Descriptor> clauses = new ArrayList<Descriptor>();
+		clauses.add(Descriptor.compile("a=1 b=1"));
+		// subsumed by a=1 b=1
+		clauses.add(Descriptor.compile("a=1 b=1 c=0"));
+		// inconsistent
+		clauses.add(Descriptor.compile("a=1 a=0"));
+		clauses.add(Descriptor.compile("d=2"));
+		clauses.add(Descriptor.compile("d=2"));
+
+		Lineage lineage = Lineage.of(clauses);
+		Assert.assertEquals(2, lineage.size());
+		Assert.assertEquals(2, lineage.components().length);
+
+		clauses.add(Descriptor.EMPTY);
+		Assert.assertTrue(Lineage.of(clauses).isTrue());
+		Assert.assertTrue(Lineage.of(new ArrayList<Descriptor>()).isFalse());
+	}
+
+	/**
+	 * Tests {@link LineageEvaluator#probability(Lineage)} against enumerating all possible worlds.
+	 */
+	@Test
+	public void testProbability() {
+		Random random = new Random(42);
+		final double[][] distributions = TestLineageEvaluator.distributions(random);
+		final int[] ids = TestLineageEvaluator.ids();
+		ProbabilitySource source = TestLineageEvaluator.source(ids, distributions);
+
+		for (int round = 0; round < 50; round++) {
+			List<Descriptor> clauses = TestLineageEvaluator.formula(random);
+			double expected = TestLineageEvaluator.enumerate(clauses, ids, distributions);
+			double actual = new LineageEvaluator(source).probability(Lineage.of(clauses));
+			Assert.assertEquals("formula " + clauses, expected, actual, 1e-9);
+		}
+	}
+
+	/**
+	 * Creates random value distributions, leaving part of the mass to values not mentioned in any formula.
+	 */
+	protected static double[][] distributions(Random random) {
+		double[][] distributions = new double[NUM_VARIABLES][NUM_VALUES];
+		for (int i = 0; i < NUM_VARIABLES; i++) {
+			double remaining = 1.0;
+			for (int value = 0; value < NUM_VALUES; value++) {
+				distributions[i][value] = remaining * random.nextDouble();
+				remaining -= distributions[i][value];
+			}
+		}
+		return distributions;
+	}
+
+	/**
+	 * Interns the variables used in the random formulas.
+	 */
+	protected static int[] ids() {
+		int[] ids = new int[NUM_VARIABLES];
+		for (int i = 0; i < NUM_VARIABLES; i++) {
+			ids[i] = SymbolTable.SHARED.intern("eval-" + i);
+		}
+		return ids;
+	}
+
+	/**
+	 * Creates a source reading from distributions, variable ids[i] having distribution distributions[i].
+	 */
+	protected static ProbabilitySource source(final int[] ids, final double[][] distributions) {
+		return new ProbabilitySource() {
+			@Override
+			public double probability(int variable, int value) {
+				for (int i = 0; i < ids.length; i++) {
+					if (ids[i] == variable) {
+						return value < NUM_VALUES ? distributions[i][value] : 0.0;
+					}
+				}
+				return 0.0;
+			}
+		};
+	}
+
+	/**
+	 * Creates a random disjunction of up to 8 clauses of up to 3 conditions each.
+	 */
+	protected static List<Descriptor> formula(Random random) {
+		List<Descriptor> clauses = new ArrayList<Descriptor>();
+		for (int i = 0, numClauses = 1 + random.nextInt(8); i < numClauses; i++) {
+			StringBuilder clause = new StringBuilder();
+			for (int j = 0, numConditions = 1 + random.nextInt(3); j < numConditions; j++) {
+				clause.append("eval-").append(random.nextInt(NUM_VARIABLES)).append('=')
+						.append(random.nextInt(NUM_VALUES)).append(' ');
+			}
+			clauses.add(Descriptor.compile(clause.toString()));
+		}
+		return clauses;
+	}
+
+	/**
+	 * Sums the probabilities of all worlds (including the 'other' value NUM_VALUES) in which any clause holds.
+	 */
+	protected static double enumerate(List<Descriptor> clauses, int[] ids, double[][] distributions) {
+		double total = 0.0;
+		int[] world = new int[ids.length];
+		for (int w = 0, numWorlds = (int) Math.pow(NUM_VALUES + 1, ids.length); w < numWorlds; w++) {
+			double probability = 1.0;
+			for (int i = 0, rest = w; i < ids.length; i++, rest /= NUM_VALUES + 1) {
+				world[i] = rest % (NUM_VALUES + 1);
+				double sum = 0.0;
+				for (double p : distributions[i]) {
+					sum += p;
+				}
+				probability *= world[i] < NUM_VALUES ? distributions[i][world[i]] : 1.0 - sum;
+			}
+
+			for (Descriptor clause : clauses) {
+				boolean holds = true;
+				for (int c = 0; c < clause.size() && holds; c++) {
+					for (int i = 0; i < ids.length; i++) {
+						if (ids[i] == clause.variable(c)) {
+							holds = world[i] == clause.value(c);
+						}
+					}
+				}
+				if (holds) {
+					total += probability;
+					break;
+				}
+			}
+		}
+		return total;
+	}
+
+}
@@ -1,14 +1,28 @@
 package nl.utwente.cs.pxml;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import nl.utwente.cs.pxml.transform.doc.DocumentTransformer;
 import nl.utwente.cs.pxml.util.CollectionUtils;
 
+import org.basex.query.QueryException;
 import org.basex.query.value.Value;
+import org.basex.query.value.ValueBuilder;
+import org.basex.query.value.item.Dbl;
+import org.basex.query.value.item.QNm;
 import org.basex.query.value.item.Str;
+import org.basex.query.value.node.ANode;
+import org.basex.query.value.node.FElem;
 import org.basex.query.value.seq.Empty;
-import org.basex.query.value.seq.ItemSeq;
+import org.basex.query.value.type.AtomType;
+import org.basex.util.Token;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -55,7 +69,7 @@ public class TestPXML {
 		for (int i = 0; i < set2.length; i++) {
 			strs[i] = Str.get(set2[i]);
 		}
-		Value sequence = ItemSeq.get(strs, set2.length);
+		Value sequence = ValueBuilder.value(strs, set2.length, AtomType.STR);
 		// set 2 has two duplicates, subtract 2 from its length
 		Assert.assertEquals(subject.combine(set1str, sequence).length(), (set2.length - 2) * (descriptorLength + 1) - 1);
 
@@ -123,6 +137,187 @@ public class TestPXML {
 		Assert.assertTrue(subject.mutuallyExclusive(set32, set31));
 	}
 
+	/**
+	 * Tests {@link PXML#probability(ANode, Str)} against a small wsd-list.
+	 */
+	@Test
+	public void testProbability() {
+		ANode wsdList = TestPXML.wsdList(new double[] { 0.25, 0.75 }, new double[] { 0.5, 0.3, 0.2 });
+
+		Assert.assertEquals(0.75, subject.probability(wsdList, Str.get("var-0=1")), 1e-9);
+		Assert.assertEquals(0.25 * 0.2, subject.probability(wsdList, Str.get("var-0=0 var-1=2")), 1e-9);
+		// duplicate conditions are only counted once
+		Assert.assertEquals(0.3, subject.probability(wsdList, Str.get("var-1=1 var-1=1")), 1e-9);
+		// unknown variables and values have probability 0.0
+		Assert.assertEquals(0.0, subject.probability(wsdList, Str.get("var-0=2")), 1e-9);
+		Assert.assertEquals(0.0, subject.probability(wsdList, Str.get("var-9=0")), 1e-9);
+		// the empty descriptor is always true
+		Assert.assertEquals(1.0, subject.probability(wsdList, Str.get("")), 1e-9);
+	}
+
+	/**
+	 * Tests {@link PXML#probabilityAny(ANode, Value)} on overlapping descriptors.
+	 */
+	@Test
+	public void testProbabilityAny() throws Exception {
+		ANode wsdList = TestPXML.wsdList(new double[] { 0.4, 0.6 }, new double[] { 0.9, 0.1 });
+
+		// P(var-0=1 or var-1=1) = 1 - P(var-0=0) * P(var-1=0)
+		Value any = ValueBuilder.value(new Str[] { Str.get("var-0=1"), Str.get("var-1=1") }, 2, AtomType.STR);
+		Assert.assertEquals(1.0 - 0.4 * 0.9, subject.probabilityAny(wsdList, any), 1e-9);
+
+		// mutually exclusive descriptors simply add up
+		Value exclusive = ValueBuilder.value(new Str[] { Str.get("var-0=1 var-1=1"), Str.get("var-0=0 var-1=1") }, 2,
+				AtomType.STR);
+		Assert.assertEquals(0.1, subject.probabilityAny(wsdList, exclusive), 1e-9);
+
+		// the empty sequence is never true
+		Assert.assertEquals(0.0, subject.probabilityAny(wsdList, Empty.SEQ), 1e-9);
+	}
+
+	/**
+	 * Tests {@link PXML#expectedCount(ANode, Value)}, {@link PXML#expectedSum(ANode, Value, Value)} and
+	 * {@link PXML#expectedAverage(ANode, Value, Value)}.
+	 */
+	@Test
+	public void testExpectedValues() throws Exception {
+		ANode wsdList = TestPXML.wsdList(new double[] { 0.4, 0.6 }, new double[] { 0.9, 0.1 });
+
+		// the inconsistent descriptor never holds, the empty one always does
+		Value descriptors = ValueBuilder.value(new Str[] { Str.get("var-0=1"), Str.get("var-0=1 var-1=1"),
+				Str.get("var-1=0 var-1=1"), Str.get("") }, 4, AtomType.STR);
+		Value values = ValueBuilder.value(new Dbl[] { Dbl.get(10.0), Dbl.get(20.0), Dbl.get(30.0), Dbl.get(40.0) }, 4,
+				AtomType.DBL);
+		double count = 0.6 + 0.06 + 1.0;
+		double sum = 0.6 * 10.0 + 0.06 * 20.0 + 40.0;
+
+		Assert.assertEquals(count, subject.expectedCount(wsdList, descriptors), 1e-9);
+		Assert.assertEquals(sum, subject.expectedSum(wsdList, descriptors, values), 1e-9);
+		Assert.assertEquals(sum / count, ((Dbl) subject.expectedAverage(wsdList, descriptors, values)).dbl(null), 1e-9);
+
+		// the average is undefined when no result is expected
+		Value never = ValueBuilder.value(new Str[] { Str.get("var-0=0 var-0=1") }, 1, AtomType.STR);
+		Assert.assertEquals(0, subject.expectedAverage(wsdList, never, Dbl.get(1.0)).size());
+	}
+
+	/**
+	 * Tests {@link PXML#observe(ANode, Value)}, {@link PXML#conditionalProbability(ANode, Str, Value)} and
+	 * {@link PXML#retract(ANode)}.
+	 */
+	@Test
+	public void testEvidence() throws Exception {
+		ANode wsdList = TestPXML.wsdList(new double[] { 0.4, 0.6 }, new double[] { 0.5, 0.3, 0.2 });
+		Value evidence = ValueBuilder.value(new Str[] { Str.get("var-1=1") }, 1, AtomType.STR);
+
+		// ad hoc evidence: P(var-0=1 var-1=1 | var-1=1) = P(var-0=1), an inconsistent descriptor never holds
+		Assert.assertEquals(0.6, subject.conditionalProbability(wsdList, Str.get("var-0=1 var-1=1"), evidence), 1e-9);
+		Assert.assertEquals(0.0, subject.conditionalProbability(wsdList, Str.get("var-1=2"), evidence), 1e-9);
+		Assert.assertEquals(0.3, subject.probability(wsdList, Str.get("var-1=1")), 1e-9);
+
+		// registered evidence conditions all probabilities read afterwards (cached ones included)
+		Assert.assertEquals(0.3, subject.observe(wsdList, evidence), 1e-9);
+		Assert.assertEquals("var-1=1", subject.evidence(wsdList));
+		Assert.assertEquals(1.0, subject.probability(wsdList, Str.get("var-1=1")), 1e-9);
+		Assert.assertEquals(0.0, subject.probability(wsdList, Str.get("var-1=0")), 1e-9);
+		Assert.assertEquals(0.6, subject.probability(wsdList, Str.get("var-0=1")), 1e-9);
+		// but only for the query that observed it
+		PXML other = new PXML();
+		Assert.assertEquals("", other.evidence(wsdList));
+		Assert.assertEquals(0.3, other.probability(wsdList, Str.get("var-1=1")), 1e-9);
+		// observing the same conditions again tells nothing new
+		Assert.assertEquals(1.0, subject.observe(wsdList, evidence), 1e-9);
+
+		// contradicting and impossible evidence is refused without changing anything
+		try {
+			subject.observe(wsdList, Str.get("var-1=2"));
+			Assert.fail("contradicting evidence accepted");
+		} catch (QueryException e) {
+			// expected
+		}
+		try {
+			subject.observe(wsdList, Str.get("var-0=5"));
+			Assert.fail("impossible evidence accepted");
+		} catch (QueryException e) {
+			// expected
+		}
+		Assert.assertEquals("var-1=1", subject.evidence(wsdList));
+
+		// evidence survives a rebuild of the index, until retracted, existence probabilities do not
+		Assert.assertEquals(1.0, subject.existence(wsdList, wsdList), 1e-9);
+		Assert.assertNotNull(subject.existence);
+		subject.invalidate(wsdList);
+		Assert.assertNull(subject.existence);
+		Assert.assertEquals(0.0, subject.probability(wsdList, Str.get("var-1=2")), 1e-9);
+		subject.retract(wsdList);
+		Assert.assertEquals("", subject.evidence(wsdList));
+		Assert.assertEquals(0.3, subject.probability(wsdList, Str.get("var-1=1")), 1e-9);
+		Assert.assertEquals(0.2, subject.probability(wsdList, Str.get("var-1=2")), 1e-9);
+	}
+
+	/**
+	 * Tests queries observing and retracting evidence while others read the same wsd-list, none of them seeing
+	 * probabilities conditioned on evidence other than their own.
+	 */
+	@Test
+	public void testConcurrentEvidence() throws Exception {
+		final ANode wsdList = TestPXML.wsdList(new double[] { 0.4, 0.6 }, new double[] { 0.5, 0.3, 0.2 });
+		final Str condition = Str.get("var-1=1");
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int t = 0; t < 8; t++) {
+			final boolean observing = t % 2 == 0;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					PXML pxml = new PXML();
+					for (int i = 0; i < 2000; i++) {
+						if (observing) {
+							Assert.assertEquals(0.3, pxml.observe(wsdList, condition), 1e-9);
+							Assert.assertEquals(1.0, pxml.probability(wsdList, condition), 1e-9);
+							pxml.retract(wsdList);
+							if (i % 100 == 0) {
+								// have the index rebuilt under a new generation now and then
+								pxml.invalidate(wsdList);
+							}
+						}
+						Assert.assertEquals(0.3, pxml.probability(wsdList, condition), 1e-9);
+					}
+					return null;
+				}
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+		try {
+			for (Future<Void> result : executor.invokeAll(tasks)) {
+				// rethrows any failed assertion
+				result.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Creates a wsd-list like the one DocumentTransformer writes, variable i having the value probabilities in
+	 * distributions[i].
+	 * 
+	 * @param distributions
+	 *            The value probabilities per variable.
+	 * @return A p:variables element.
+	 */
+	public static ANode wsdList(double[]... distributions) {
+		FElem variables = new FElem(new QNm("p:variables", DocumentTransformer.NS_URI));
+		for (int i = 0; i < distributions.length; i++) {
+			FElem variable = new FElem(new QNm("p:var-" + i, DocumentTransformer.NS_URI));
+			for (int value = 0; value < distributions[i].length; value++) {
+				variable.add(new QNm("p:val-" + value, DocumentTransformer.NS_URI),
+						Token.token(String.valueOf(distributions[i][value])));
+			}
+			variables.add(variable);
+		}
+		return variables;
+	}
+
 	/**
 	 * Asserts element being a member of collection. Calls {@link Assert#fail(String)} otherwise.
 	 * 
@@ -0,0 +1,61 @@
+package nl.utwente.cs.pxml;
+
+import org.basex.util.Token;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestSubsetDistribution {
+
+	/**
+	 * Tests the probabilities of children and sets of children existing.
+	 */
+	@Test
+	public void testProbabilities() {
+		// {}, {1, 3}, {1, 2}
+		SubsetDistribution distribution = SubsetDistribution.parse(Token.token(" 0:0.2  5:0.5 3:0.3 "), 0);
+		Assert.assertEquals(3, distribution.size());
+		Assert.assertArrayEquals(new long[] { 5 }, distribution.mask(1));
+		Assert.assertEquals(0.8, distribution.childProbability(1), 1e-9);
+		Assert.assertEquals(0.3, distribution.childProbability(2), 1e-9);
+		Assert.assertEquals(0.5, distribution.childProbability(3), 1e-9);
+		Assert.assertEquals(0.0, distribution.childProbability(4), 1e-9);
+		Assert.assertEquals(0.5, distribution.allProbability(1, 3), 1e-9);
+		Assert.assertEquals(0.0, distribution.allProbability(2, 3), 1e-9);
+		Assert.assertEquals(1.0, distribution.allProbability(), 1e-9);
+		Assert.assertEquals(1.6, distribution.expectedChildren(), 1e-9);
+	}
+
+	/**
+	 * Tests masks of more than 64 children being spread over multiple words.
+	 */
+	@Test
+	public void testWideMasks() {
+		// {1, 65, 70}, {2}
+		SubsetDistribution distribution = SubsetDistribution.parse(
+				Token.token("210000000000000001:0.75 2:0.25"), 0);
+		Assert.assertArrayEquals(new long[] { 1, 0x21 }, distribution.mask(0));
+		Assert.assertArrayEquals(new long[] { 2, 0 }, distribution.mask(1));
+		Assert.assertEquals(0.75, distribution.childProbability(70), 1e-9);
+		Assert.assertEquals(0.75, distribution.allProbability(1, 65), 1e-9);
+		Assert.assertEquals(0.0, distribution.allProbability(2, 65), 1e-9);
+		Assert.assertEquals(0.0, distribution.childProbability(129), 1e-9);
+		Assert.assertEquals(2.5, distribution.expectedChildren(), 1e-9);
+	}
+
+	/**
+	 * Tests malformed subsets being rejected.
+	 */
+	@Test
+	public void testMalformed() {
+		for (String malformed : new String[] { "5", ":0.5", "5:0.5 3", "g:0.5", "5:half" }) {
+			try {
+				SubsetDistribution.parse(Token.token(malformed), 0);
+				Assert.fail("accepted " + malformed);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		Assert.assertEquals(0, SubsetDistribution.parse(null, 0).size());
+	}
+
+}
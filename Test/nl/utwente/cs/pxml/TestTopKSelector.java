@@ -0,0 +1,76 @@
+package nl.utwente.cs.pxml;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTopKSelector {
+
+	/**
+	 * Tests {@link TopKSelector#select(Descriptor[])} against sorting all probabilities, and skipping lookups.
+	 */
+	@Test
+	public void testSelect() {
+		Random random = new Random(11);
+		int[] ids = TestLineageEvaluator.ids();
+		ProbabilitySource source = TestLineageEvaluator.source(ids, TestLineageEvaluator.distributions(random));
+
+		Descriptor[] candidates = new Descriptor[500];
+		long conditions = 0;
+		for (int i = 0; i < candidates.length; i++) {
+			StringBuilder descriptor = new StringBuilder();
+			for (int j = 0, size = 1 + random.nextInt(5); j < size; j++) {
+				descriptor.append("eval-").append(random.nextInt(TestLineageEvaluator.NUM_VARIABLES)).append('=')
+						.append(random.nextInt(TestLineageEvaluator.NUM_VALUES)).append(' ');
+			}
+			candidates[i] = Descriptor.compile(descriptor.toString());
+			conditions += candidates[i].size();
+		}
+
+		double[] expected = new double[candidates.length];
+		for (int i = 0; i < candidates.length; i++) {
+			expected[i] = candidates[i].isConsistent() ? 1.0 : 0.0;
+			for (int c = 0; c < candidates[i].size(); c++) {
+				expected[i] *= source.probability(candidates[i].variable(c), candidates[i].value(c));
+			}
+		}
+		double[] sorted = expected.clone();
+		Arrays.sort(sorted);
+
+		TopKSelector.Selection selection = new TopKSelector(10, source).select(candidates);
+		Assert.assertEquals(10, selection.size());
+		for (int rank = 0; rank < selection.size(); rank++) {
+			Assert.assertEquals(sorted[sorted.length - 1 - rank], selection.probability(rank), 1e-12);
+			Assert.assertEquals(expected[selection.position(rank)], selection.probability(rank), 1e-12);
+		}
+		Assert.assertTrue(selection.lookups() < conditions);
+
+		// asking for more than available returns all candidates
+		Assert.assertEquals(3, new TopKSelector(10, source).select(Arrays.copyOf(candidates, 3)).size());
+		Assert.assertEquals(0, new TopKSelector(0, source).select(candidates).size());
+	}
+
+	/**
+	 * Tests candidates with equal probabilities keeping their relative order.
+	 */
+	@Test
+	public void testTies() {
+		ProbabilitySource source = new ProbabilitySource() {
+			@Override
+			public double probability(int variable, int value) {
+				return 0.5;
+			}
+		};
+		Descriptor[] candidates = {
+				Descriptor.compile("tie-1=0 tie-2=0"), Descriptor.compile("tie-1=1"), Descriptor.compile("tie-2=1"),
+				Descriptor.compile("tie-3=0")
+		};
+
+		TopKSelector.Selection selection = new TopKSelector(2, source).select(candidates);
+		Assert.assertEquals(1, selection.position(0));
+		Assert.assertEquals(2, selection.position(1));
+	}
+
+}
@@ -0,0 +1,130 @@
+package nl.utwente.cs.pxml;
+
+import java.io.File;
+import java.io.IOException;
+
+import nl.utwente.cs.pxml.transform.doc.DocumentTransformer;
+
+import org.basex.query.value.item.QNm;
+import org.basex.query.value.item.Str;
+import org.basex.query.value.node.FElem;
+import org.basex.util.Token;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestVariableTable {
+
+	/**
+	 * Tests reading back a table written row by row.
+	 */
+	@Test
+	public void testWriteAndOpen() throws Exception {
+		File file = TestVariableTable.write(new double[] { 0.25, 0.75 }, new double[] { 0.5, 0.3, 0.2 },
+				new double[] { 1.0 });
+		VariableTable table = VariableTable.open(file);
+
+		Assert.assertEquals(3, table.count());
+		Assert.assertEquals(3, table.width());
+		Assert.assertEquals(0.75, table.probability(0, 1), 0.0);
+		Assert.assertEquals(0.2, table.probability(1, 2), 0.0);
+		// short rows are padded with 0.0, anything outside the table has probability 0.0
+		Assert.assertEquals(0.0, table.probability(0, 2), 0.0);
+		Assert.assertEquals(0.0, table.probability(2, 1), 0.0);
+		Assert.assertEquals(0.0, table.probability(3, 0), 0.0);
+		Assert.assertEquals(0.0, table.probability(0, -1), 0.0);
+	}
+
+	/**
+	 * Tests the rows of variables being parsed from their names.
+	 */
+	@Test
+	public void testRow() {
+		Assert.assertEquals(0, VariableTable.row("var-0"));
+		Assert.assertEquals(1234567890123L, VariableTable.row("var-1234567890123"));
+		Assert.assertEquals(-1, VariableTable.row("var-"));
+		Assert.assertEquals(-1, VariableTable.row("var-1a"));
+		Assert.assertEquals(-1, VariableTable.row("x-1"));
+	}
+
+	/**
+	 * Tests probabilities and evidence on a wsd-list referring to a sidecar instead of listing its variables.
+	 */
+	@Test
+	public void testSidecarIndex() throws Exception {
+		File file = TestVariableTable.write(new double[] { 0.4, 0.6 }, new double[] { 0.9, 0.1 });
+		FElem wsdList = new FElem(new QNm("p:variables", DocumentTransformer.NS_URI));
+		wsdList.add(new QNm("p:sidecar", DocumentTransformer.NS_URI), Token.token(file.getName()));
+		// listed variables take precedence over the sidecar
+		FElem listed = new FElem(new QNm("p:var-1", DocumentTransformer.NS_URI));
+		listed.add(new QNm("p:val-0", DocumentTransformer.NS_URI), Token.token("0.7"));
+		listed.add(new QNm("p:val-1", DocumentTransformer.NS_URI), Token.token("0.3"));
+		wsdList.add(listed);
+
+		// the sidecar is referred to relative to the sidecar directory
+		System.setProperty(VariableIndex.SIDECAR_DIR_PROPERTY, file.getParent());
+		try {
+			PXML pxml = new PXML();
+			Assert.assertEquals(0.6, pxml.probability(wsdList, Str.get("var-0=1")), 0.0);
+			Assert.assertEquals(0.6 * 0.3, pxml.probability(wsdList, Str.get("var-0=1 var-1=1")), 1e-9);
+			Assert.assertEquals(0.0, pxml.probability(wsdList, Str.get("var-2=0")), 0.0);
+
+			Assert.assertEquals(0.4, pxml.observe(wsdList, Str.get("var-0=0")), 0.0);
+			Assert.assertEquals(0.0, pxml.probability(wsdList, Str.get("var-0=1")), 0.0);
+			pxml.retract(wsdList);
+			Assert.assertEquals(0.6, pxml.probability(wsdList, Str.get("var-0=1")), 0.0);
+		} finally {
+			System.clearProperty(VariableIndex.SIDECAR_DIR_PROPERTY);
+		}
+	}
+
+	/**
+	 * Tests sidecar paths being confined to the sidecar directory unless explicitly allowed otherwise.
+	 */
+	@Test
+	public void testResolve() throws Exception {
+		File directory = new File(System.getProperty("java.io.tmpdir")).getCanonicalFile();
+		System.setProperty(VariableIndex.SIDECAR_DIR_PROPERTY, directory.getPath());
+		try {
+			Assert.assertEquals(new File(directory, "variables.pxv"), VariableIndex.resolve("variables.pxv"));
+			Assert.assertEquals(new File(directory, "variables.pxv"), VariableIndex.resolve("a/../variables.pxv"));
+			for (String path : new String[] { new File(directory, "variables.pxv").getPath(), "../variables.pxv",
+					"a/../../variables.pxv" }) {
+				try {
+					VariableIndex.resolve(path);
+					Assert.fail(path + " accepted");
+				} catch (IOException e) {
+					// expected
+				}
+			}
+
+			System.setProperty(VariableIndex.SIDECAR_UNRESTRICTED_PROPERTY, "true");
+			Assert.assertEquals(new File("/variables.pxv"), VariableIndex.resolve("/variables.pxv"));
+			Assert.assertEquals(new File(directory, "../variables.pxv"), VariableIndex.resolve("../variables.pxv"));
+		} finally {
+			System.clearProperty(VariableIndex.SIDECAR_DIR_PROPERTY);
+			System.clearProperty(VariableIndex.SIDECAR_UNRESTRICTED_PROPERTY);
+		}
+	}
+
+	/**
+	 * Writes a temporary table holding the given rows.
+	 */
+	private static File write(double[]... rows) throws IOException {
+		int width = 1;
+		for (double[] row : rows) {
+			width = Math.max(width, row.length);
+		}
+		File file = File.createTempFile("variables", VariableTable.EXTENSION);
+		file.deleteOnExit();
+		VariableTable.Writer writer = new VariableTable.Writer(file, width, rows.length);
+		try {
+			for (double[] row : rows) {
+				writer.add(row);
+			}
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+}
@@ -0,0 +1,86 @@
+package nl.utwente.cs.pxml;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestWorldEnumerator {
+
+	/**
+	 * Tests all worlds being enumerated once, in descending order when requested, with zero-probability values pruned.
+	 */
+	@Test
+	public void testEnumerate() {
+		ProbabilitySource source = VariableIndex.of(TestPXML.wsdList(new double[] { 0.3, 0.7 }, new double[] { 0.0,
+				0.2, 0.5, 0.3 }, new double[] { 0.9, 0.1 }));
+		Descriptor[] descriptors = {
+				Descriptor.compile("var-0=1 var-1=1"), Descriptor.compile("var-1=0"),
+				Descriptor.compile("var-1=2 var-1=3"), Descriptor.compile("var-2=0 var-2=1")
+		};
+
+		for (boolean ordered : new boolean[] { false, true }) {
+			WorldEnumerator enumerator = new WorldEnumerator(descriptors, source, ordered, 1.0, Long.MAX_VALUE);
+			// var-2 only occurs in an inconsistent descriptor (var-1=2 as well), var-1=0 is impossible
+			Assert.assertEquals(2, enumerator.variables().length);
+			Assert.assertEquals(4, enumerator.size());
+
+			double total = 0.0, any = 0.0, previous = 1.0;
+			int count = 0;
+			WorldEnumerator.World world;
+			while ((world = enumerator.next()) != null) {
+				count++;
+				total += world.probability();
+				if (world.holds(descriptors[0])) {
+					any += world.probability();
+				}
+				Assert.assertFalse(world.holds(descriptors[1]));
+				if (ordered) {
+					Assert.assertTrue(world.probability() <= previous);
+					previous = world.probability();
+				}
+			}
+			// var-0 in {0, 1}, var-1 in {1, other}
+			Assert.assertEquals(4, count);
+			Assert.assertEquals(1.0, total, 1e-9);
+			Assert.assertEquals(0.7 * 0.2, any, 1e-9);
+		}
+	}
+
+	/**
+	 * Tests enumeration stopping at the requested probability mass or number of worlds.
+	 */
+	@Test
+	public void testThresholds() {
+		double[][] distributions = new double[20][];
+		Descriptor[] descriptors = new Descriptor[20];
+		for (int i = 0; i < 20; i++) {
+			distributions[i] = new double[] { 0.5, 0.5 };
+			descriptors[i] = Descriptor.compile("var-" + i + "=1");
+		}
+		ProbabilitySource source = VariableIndex.of(TestPXML.wsdList(distributions));
+
+		// a million worlds, but only the first few are ever expanded
+		WorldEnumerator enumerator = new WorldEnumerator(descriptors, source, true, 1.0, 3);
+		Assert.assertEquals(3, enumerator.size());
+		int count = 0;
+		while (enumerator.next() != null) {
+			count++;
+		}
+		Assert.assertEquals(3, count);
+
+		Assert.assertEquals(1 << 20, new WorldEnumerator(descriptors, source, false, 1.0, Long.MAX_VALUE).size());
+
+		enumerator = new WorldEnumerator(descriptors, source, false, 0.001, Long.MAX_VALUE);
+		// counting the worlds up to the mass does not advance the enumerator itself
+		long size = enumerator.size();
+		double seen = 0.0;
+		count = 0;
+		WorldEnumerator.World world;
+		while ((world = enumerator.next()) != null) {
+			seen += world.probability();
+			count++;
+		}
+		Assert.assertTrue(seen >= 0.001 && seen < 0.001 + Math.pow(0.5, 20));
+		Assert.assertEquals(size, count);
+	}
+
+}
@@ -0,0 +1,85 @@
+package nl.utwente.cs.pxml;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.basex.query.QueryException;
+import org.basex.query.value.item.Str;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestWorldSampler {
+
+	/**
+	 * Tests {@link WorldSampler} estimates covering the exact probabilities.
+	 */
+	@Test
+	public void testEstimates() {
+		Random random = new Random(3);
+		int[] ids = TestLineageEvaluator.ids();
+		double[][] distributions = TestLineageEvaluator.distributions(random);
+		ProbabilitySource source = TestLineageEvaluator.source(ids, distributions);
+		List<Descriptor> clauses = TestLineageEvaluator.formula(random);
+		Descriptor[] descriptors = clauses.toArray(new Descriptor[clauses.size()]);
+
+		WorldSampler.Estimates estimates = new WorldSampler(descriptors, source).sample(200000, 1L, 0.0, 3.0,
+				ForkJoinPool.commonPool());
+		Assert.assertEquals(200000, estimates.samples());
+		for (int i = 0; i < descriptors.length; i++) {
+			double exact = new LineageEvaluator(source).probability(Lineage.of(clauses.subList(i, i + 1)));
+			Assert.assertTrue(estimates.lower(i) <= exact && exact <= estimates.upper(i));
+		}
+		double any = new LineageEvaluator(source).probability(Lineage.of(clauses));
+		Assert.assertTrue(estimates.lower(descriptors.length) <= any && any <= estimates.upper(descriptors.length));
+	}
+
+	/**
+	 * Tests {@link WorldSampler} being reproducible regardless of the number of threads, and stopping early.
+	 */
+	@Test
+	public void testDeterminism() {
+		Random random = new Random(5);
+		ProbabilitySource source = TestLineageEvaluator.source(TestLineageEvaluator.ids(),
+				TestLineageEvaluator.distributions(random));
+		List<Descriptor> clauses = TestLineageEvaluator.formula(random);
+		WorldSampler sampler = new WorldSampler(clauses.toArray(new Descriptor[clauses.size()]), source);
+
+		WorldSampler.Estimates one = sampler.sample(50000, 42L, 0.0, 1.96, new ForkJoinPool(1));
+		WorldSampler.Estimates four = sampler.sample(50000, 42L, 0.0, 1.96, new ForkJoinPool(4));
+		for (int i = 0; i <= clauses.size(); i++) {
+			Assert.assertEquals(one.probability(i), four.probability(i), 0.0);
+		}
+
+		WorldSampler.Estimates early = sampler.sample(10000000, 42L, 0.01, 1.96, new ForkJoinPool(2));
+		Assert.assertTrue(early.samples() < 10000000);
+		Assert.assertTrue(early.maxHalfWidth() <= 0.01);
+	}
+
+	/**
+	 * Tests sampling no worlds being refused, and estimates without samples covering [0, 1] rather than being NaN.
+	 */
+	@Test
+	public void testNoSamples() throws Exception {
+		WorldSampler sampler = new WorldSampler(new Descriptor[] { Descriptor.compile("var-0=1") },
+				VariableIndex.of(TestPXML.wsdList(new double[] { 0.5, 0.5 })));
+		try {
+			sampler.sample(0, 42L, 0.0, 1.96, new ForkJoinPool(1));
+			Assert.fail("sampling no worlds accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new PXML().sample(TestPXML.wsdList(new double[] { 0.5, 0.5 }), Str.get("var-0=1"), 0);
+			Assert.fail("sampling no worlds accepted");
+		} catch (QueryException e) {
+			// expected
+		}
+
+		WorldSampler.Estimates none = new WorldSampler.Estimates(new long[2], 0, 1.96);
+		Assert.assertEquals(0.0, none.probability(0), 0.0);
+		Assert.assertEquals(0.0, none.lower(0), 0.0);
+		Assert.assertEquals(1.0, none.upper(0), 0.0);
+	}
+
+}
@@ -0,0 +1,90 @@
+package nl.utwente.cs.pxml;
+
+import org.basex.core.Context;
+import org.basex.query.QueryProcessor;
+import org.basex.query.iter.Iter;
+import org.basex.query.value.Value;
+import org.basex.query.value.item.Str;
+import org.basex.query.value.node.ANode;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestWorldSequence {
+
+	/**
+	 * Tests taking the first world of a million not advancing the enumerator past it.
+	 */
+	@Test
+	public void testLazy() throws Exception {
+		double[][] distributions = new double[20][];
+		StringBuilder descriptor = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			distributions[i] = new double[] { 0.5, 0.5 };
+			descriptor.append(" var-").append(i).append("=1");
+		}
+		ANode wsdList = TestPXML.wsdList(distributions);
+
+		Value value = new PXML().worlds(wsdList, Str.get(descriptor.toString().trim()));
+		Assert.assertTrue(value instanceof WorldSequence);
+		WorldSequence worlds = (WorldSequence) value;
+		Assert.assertEquals(0, worlds.enumerator.count);
+
+		Iter iter = worlds.iter();
+		Assert.assertNotNull(iter.next());
+		Assert.assertEquals(1, worlds.enumerator.count);
+		// worlds pulled are kept rather than enumerated again
+		Assert.assertSame(worlds.itemAt(0), worlds.iter().next());
+		Assert.assertEquals(1, worlds.enumerator.count);
+		Assert.assertNotNull(worlds.itemAt(2));
+		Assert.assertEquals(3, worlds.enumerator.count);
+	}
+
+	/**
+	 * Tests the size of a sequence being that of the enumeration, iterating past the end giving null.
+	 */
+	@Test
+	public void testSize() throws Exception {
+		ANode wsdList = TestPXML.wsdList(new double[] { 0.3, 0.7 }, new double[] { 0.0, 0.2, 0.5, 0.3 });
+		Value worlds = new PXML().worlds(wsdList, Str.get("var-0=1 var-1=1"));
+
+		// var-0 in {0, 1}, var-1 in {1, other}
+		Assert.assertEquals(4, worlds.size());
+		Iter iter = worlds.iter();
+		for (int i = 0; i < 4; i++) {
+			Assert.assertNotNull(iter.next());
+		}
+		Assert.assertNull(iter.next());
+		Assert.assertNull(worlds.itemAt(4));
+	}
+
+	/**
+	 * Tests queries taking a few worlds of a million giving those worlds, without pulling the rest.
+	 */
+	@Test
+	public void testQuery() throws Exception {
+		double[][] distributions = new double[20][];
+		StringBuilder descriptor = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			distributions[i] = new double[] { 0.5, 0.5 };
+			descriptor.append(" var-").append(i).append("=1");
+		}
+		ANode wsdList = TestPXML.wsdList(distributions);
+		WorldSequence worlds = (WorldSequence) new PXML().worlds(wsdList, Str.get(descriptor.toString().trim()));
+
+		Context context = new Context();
+		try {
+			QueryProcessor query = new QueryProcessor("declare variable $w external; "
+					+ "string-join((count($w), count(subsequence($w, 2, 2)), head($w) is $w[1]), ' ')", context);
+			try {
+				query.bind("w", worlds);
+				Assert.assertEquals("1048576 2 true", query.value().serialize().toString());
+			} finally {
+				query.close();
+			}
+			Assert.assertEquals(3, worlds.enumerator.count);
+		} finally {
+			context.close();
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+package nl.utwente.cs.pxml.transform.doc;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import nl.utwente.cs.pxml.ProbabilityNodeType;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class TestCorpusGenerator {
+
+	/**
+	 * Tests the manifest matching the generated document, and the document being reproducible from its seed.
+	 */
+	@Test
+	public void testGenerate() throws Exception {
+		File output = File.createTempFile("corpus", ".xml");
+		File copy = File.createTempFile("corpus", ".xml");
+		try {
+			CorpusGenerator generator = new CorpusGenerator(new DocumentTransformer());
+			generator.numRecords = 50;
+			generator.depth = 2;
+			generator.fanOut = 3;
+			generator.textSize = 20;
+			generator.output = output.getPath();
+			Properties manifest = generator.generate(42);
+
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			Document result = factory.newDocumentBuilder().parse(output);
+
+			Assert.assertEquals(50, result.getElementsByTagName("record").getLength());
+			int elements = result.getElementsByTagName("corpus").getLength()
+					+ result.getElementsByTagName("record").getLength()
+					+ result.getElementsByTagName("section").getLength()
+					+ result.getElementsByTagName("text").getLength();
+			Assert.assertEquals(manifest.getProperty("elements"), String.valueOf(elements));
+			Assert.assertEquals(manifest.getProperty("textNodes"),
+					String.valueOf(result.getElementsByTagName("text").getLength()));
+			for (ProbabilityNodeType type : ProbabilityNodeType.values()) {
+				Assert.assertEquals(manifest.getProperty("pNodes." + type.name().toLowerCase()), String.valueOf(
+						result.getElementsByTagNameNS(DocumentTransformer.NS_URI, type.nodeName).getLength()));
+			}
+			Assert.assertEquals(manifest.getProperty("variables"), String.valueOf(result
+					.getElementsByTagNameNS(DocumentTransformer.NS_URI, "variables").item(0).getChildNodes().getLength()));
+
+			generator.output = copy.getPath();
+			generator.generate(42);
+			Assert.assertArrayEquals(Files.readAllBytes(output.toPath()), Files.readAllBytes(copy.toPath()));
+		} finally {
+			output.delete();
+			copy.delete();
+			new File(output.getPath() + ".manifest").delete();
+			new File(copy.getPath() + ".manifest").delete();
+		}
+	}
+
+}
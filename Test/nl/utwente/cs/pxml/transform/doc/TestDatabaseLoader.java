@@ -0,0 +1,120 @@
+package nl.utwente.cs.pxml.transform.doc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.basex.core.Context;
+import org.basex.core.cmd.DropDB;
+import org.basex.core.cmd.XQuery;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+public class TestDatabaseLoader {
+
+	protected Context context;
+	protected String name;
+
+	@Before
+	public void setUp() {
+		this.context = new Context();
+		this.name = "pxml-test-" + System.nanoTime();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		new DropDB(this.name).execute(this.context);
+		this.context.close();
+	}
+
+	/**
+	 * Tests loading a transformed DOM into a database, pNodes and variables included.
+	 */
+	@Test
+	public void testLoadDocument() throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		Document doc = factory.newDocumentBuilder().parse(
+				new InputSource(new StringReader(TestDatabaseLoader.items())));
+		DocumentTransformer transformer = new DocumentTransformer();
+		transformer.random = new SplittableRandom(5);
+		transformer.pNodesOccurrence = 0.5f;
+		transformer.transform(doc);
+
+		new DatabaseLoader(this.context).load(this.name, doc);
+		this.assertLoaded(transformer.report().numVariables());
+		int pNodes = 0;
+		for (int count : transformer.report().pNodes) {
+			pNodes += count;
+		}
+		Assert.assertEquals(String.valueOf(pNodes),
+				this.query("count($doc//p:*[not(ancestor-or-self::p:variables)][not(self::p:text)])"));
+	}
+
+	/**
+	 * Tests streaming a transformation into a database while writing it to a file as well.
+	 */
+	@Test
+	public void testLoadStreaming() throws Exception {
+		File input = File.createTempFile("input", ".xml");
+		input.deleteOnExit();
+		OutputStream out = new FileOutputStream(input);
+		try {
+			out.write(TestDatabaseLoader.items().getBytes(StandardCharsets.UTF_8));
+		} finally {
+			out.close();
+		}
+		File output = File.createTempFile("output", ".xml");
+		output.deleteOnExit();
+
+		DocumentTransformer settings = new DocumentTransformer();
+		settings.random = new SplittableRandom(5);
+		settings.pNodesOccurrence = 0.5f;
+		new DatabaseLoader(this.context).load(this.name, new StreamingDocumentTransformer(settings), input, output);
+		// 200 items of 3 elements and the document element
+		this.assertLoaded(settings.determineNumVariables(601));
+
+		// the file holds the same document as the database
+		Assert.assertEquals(this.query("count($doc//node())"), new XQuery("count(doc('"
+				+ output.getAbsolutePath().replace("'", "''") + "')//node())").execute(this.context));
+	}
+
+	/**
+	 * Asserts the database holding all original elements in order and the list of variables.
+	 */
+	protected void assertLoaded(int numVariables) throws Exception {
+		Assert.assertEquals("200", this.query("count($doc//item)"));
+		Assert.assertEquals("true", this.query("deep-equal(for $item in $doc//item return string($item/@n), "
+				+ "for $i in 0 to 199 return string($i))"));
+		Assert.assertEquals("1", this.query("count($doc/*/p:variables)"));
+		Assert.assertEquals(String.valueOf(numVariables), this.query("count($doc/*/p:variables/*)"));
+		Assert.assertEquals("true", this.query("every $var in $doc/*/p:variables/* satisfies "
+				+ "abs(sum($var/@*/number()) - 1.0) < 1e-9"));
+	}
+
+	/**
+	 * Queries the database, bound to $doc, with the probability namespace declared.
+	 */
+	protected String query(String query) throws Exception {
+		return new XQuery("declare namespace p = '" + DocumentTransformer.NS_URI + "'; let $doc := db:open('"
+				+ this.name + "') return " + query).execute(this.context).trim();
+	}
+
+	private static String items() {
+		StringBuilder input = new StringBuilder("<root>");
+		for (int i = 0; i < 200; i++) {
+			input.append("<item n=\"").append(i).append("\"><a/><b>").append(i).append("</b></item>");
+		}
+		return input.append("</root>").toString();
+	}
+
+}
@@ -0,0 +1,363 @@
+package nl.utwente.cs.pxml.transform.doc;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import nl.utwente.cs.pxml.ProbabilityNodeType;
+import nl.utwente.cs.pxml.SubsetDistribution;
+import nl.utwente.cs.pxml.VariableTable;
+
+import org.basex.util.Token;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+public class TestDocumentTransformer {
+
+	/**
+	 * Tests {@link DocumentTransformer#transformPartitioned(Document)} producing the same output for a seed regardless
+	 * of the number of threads.
+	 */
+	@Test
+	public void testDeterminism() throws Exception {
+		String first = TestDocumentTransformer.transform(2);
+		Assert.assertEquals(first, TestDocumentTransformer.transform(4));
+		Assert.assertEquals(first, TestDocumentTransformer.transform(7));
+		Assert.assertTrue(first.contains("p:variables"));
+		// the partitions all have pNodes to compare
+		Assert.assertTrue(first.contains("p:" + ProbabilityNodeType.MUTEX.nodeName));
+	}
+
+	/**
+	 * Tests the partitioned transformation inserting as many pNodes as a single threaded one, even though every
+	 * partition is too small to get a single pNode by its own share.
+	 */
+	@Test
+	public void testPartitionedDensity() throws Exception {
+		int serial = TestDocumentTransformer.countPNodes(TestDocumentTransformer.transformDocument(1, null));
+		Assert.assertTrue(serial > 0);
+		for (int threads : new int[] { 2, 4 }) {
+			int partitioned = TestDocumentTransformer.countPNodes(TestDocumentTransformer.transformDocument(threads,
+					null));
+			Assert.assertTrue(threads + " threads: " + partitioned + " pNodes, " + serial + " serially",
+					Math.abs(partitioned - serial) <= serial / 20);
+		}
+	}
+
+	/**
+	 * Tests the pNodes of a document being shared out over partitions by size, the remainder in a reproducible way.
+	 */
+	@Test
+	public void testDistributePNodes() {
+		DocumentTransformer transformer = new DocumentTransformer();
+		transformer.random = new SplittableRandom(5);
+		int[] sizes = { 3, 0, 3, 6, 3 };
+		int[] shares = transformer.distributePNodes(sizes, 7);
+		// 7 * 3 / 15 rounded down is 1, 7 * 6 / 15 is 2, leaving 2 drawn at random
+		int total = 0;
+		for (int i = 0; i < sizes.length; i++) {
+			Assert.assertTrue(shares[i] >= 7 * sizes[i] / 15);
+			total += shares[i];
+		}
+		Assert.assertEquals(0, shares[1]);
+		Assert.assertEquals(7, total);
+
+		transformer.random = new SplittableRandom(5);
+		Assert.assertArrayEquals(shares, transformer.distributePNodes(sizes, 7));
+		Assert.assertArrayEquals(new int[2], transformer.distributePNodes(new int[2], 7));
+	}
+
+	/**
+	 * Tests {@link DocumentTransformer#transform(Document)} on a single thread being reproducible for a seed, and
+	 * wrapping children of the document element (which the partitioned transformation never does).
+	 */
+	@Test
+	public void testSerialDeterminism() throws Exception {
+		String first = TestDocumentTransformer.transform(1);
+		Assert.assertEquals(first, TestDocumentTransformer.transform(1));
+
+		Element root = TestDocumentTransformer.transformDocument(1, null).getDocumentElement();
+		boolean wrapped = false;
+		for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+			wrapped |= DocumentTransformer.NS_URI.equals(child.getNamespaceURI())
+					&& !"variables".equals(child.getLocalName());
+		}
+		Assert.assertTrue(wrapped);
+	}
+
+	/**
+	 * Tests the report of a single pass transformation matching the transformed document.
+	 */
+	@Test
+	public void testReport() throws Exception {
+		StringBuilder input = new StringBuilder("<root>");
+		for (int i = 0; i < 500; i++) {
+			input.append("<item><a/><b/></item>");
+		}
+		input.append("</root>");
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		Document doc = factory.newDocumentBuilder().parse(new InputSource(new StringReader(input.toString())));
+
+		DocumentTransformer transformer = new DocumentTransformer();
+		transformer.transform(doc);
+		TransformReport report = transformer.report();
+
+		Assert.assertEquals(1501, report.numNodes());
+		Assert.assertEquals(transformer.determineNumVariables(1501), report.numVariables());
+		for (ProbabilityNodeType type : ProbabilityNodeType.values()) {
+			Assert.assertEquals(doc.getElementsByTagNameNS(DocumentTransformer.NS_URI, type.nodeName).getLength(),
+					report.count(type));
+		}
+		Assert.assertArrayEquals(new Object[] {
+				"collect", "insert", "attributes", "variables"
+		}, report.phases().keySet().toArray());
+	}
+
+	/**
+	 * Tests the structure after a single pass transformation: all original elements kept in document order, and the
+	 * probabilities of every ind, mux and exp node covering exactly its children as positioned after all wrapping.
+	 */
+	@Test
+	public void testSinglePassStructure() throws Exception {
+		Document doc = TestDocumentTransformer.parse(TestDocumentTransformer.items(500));
+		DocumentTransformer transformer = new DocumentTransformer();
+		transformer.random = new SplittableRandom(3);
+		transformer.pNodesOccurrence = 0.5f;
+		transformer.transform(doc);
+
+		NodeList items = doc.getElementsByTagName("item");
+		Assert.assertEquals(500, items.getLength());
+		for (int i = 0; i < items.getLength(); i++) {
+			Assert.assertEquals(String.valueOf(i), ((Element) items.item(i)).getAttribute("n"));
+		}
+
+		for (ProbabilityNodeType type : new ProbabilityNodeType[] { ProbabilityNodeType.INDEPENDENT,
+				ProbabilityNodeType.MUTEX }) {
+			NodeList pNodes = doc.getElementsByTagNameNS(DocumentTransformer.NS_URI, type.nodeName);
+			Assert.assertEquals(transformer.report().count(type), pNodes.getLength());
+			for (int i = 0; i < pNodes.getLength(); i++) {
+				Element pNode = (Element) pNodes.item(i);
+				int numChilds = pNode.getChildNodes().getLength();
+				Assert.assertTrue(numChilds > 0);
+				Assert.assertTrue(pNode.hasAttributeNS(DocumentTransformer.NS_URI, "child-" + numChilds));
+				Assert.assertFalse(pNode.hasAttributeNS(DocumentTransformer.NS_URI, "child-" + (numChilds + 1)));
+			}
+		}
+		NodeList exps = doc.getElementsByTagNameNS(DocumentTransformer.NS_URI, ProbabilityNodeType.EXPLICIT.nodeName);
+		for (int i = 0; i < exps.getLength(); i++) {
+			Element exp = (Element) exps.item(i);
+			SubsetDistribution distribution = SubsetDistribution.parse(
+					Token.token(exp.getAttributeNS(DocumentTransformer.NS_URI, "subsets")), 0);
+			Assert.assertEquals(0.0, distribution.childProbability(exp.getChildNodes().getLength() + 1), 0.0);
+		}
+	}
+
+	/**
+	 * Tests {@link DocumentTransformer#wrapTextNodes(Document, org.w3c.dom.NodeList)} wrapping every text node, not
+	 * just those from the tenth child on.
+	 */
+	@Test
+	public void testWrapTextNodes() throws Exception {
+		StringBuilder input = new StringBuilder("<root><mixed>");
+		for (int i = 0; i < 12; i++) {
+			input.append("text ").append(i).append("<e/>");
+		}
+		input.append("</mixed></root>");
+		Document doc = TestDocumentTransformer.parse(input.toString());
+		Element mixed = (Element) doc.getElementsByTagName("mixed").item(0);
+
+		new DocumentTransformer().wrapTextNodes(doc, mixed.getChildNodes());
+		Assert.assertEquals(24, mixed.getChildNodes().getLength());
+		for (Node child = mixed.getFirstChild(); child != null; child = child.getNextSibling()) {
+			Assert.assertEquals(Node.ELEMENT_NODE, child.getNodeType());
+		}
+		NodeList wrappers = doc.getElementsByTagNameNS(DocumentTransformer.NS_URI, "text");
+		Assert.assertEquals(12, wrappers.getLength());
+		for (int i = 0; i < 12; i++) {
+			Assert.assertEquals("text " + i, wrappers.item(i).getTextContent());
+		}
+	}
+
+	/**
+	 * Tests the document element never being wrapped, even when pNodes are inserted at every chance.
+	 */
+	@Test
+	public void testDocumentElementNotWrapped() throws Exception {
+		for (long seed = 0; seed < 20; seed++) {
+			Document doc = TestDocumentTransformer.parse("<root><a/><b/></root>");
+			DocumentTransformer transformer = new DocumentTransformer();
+			transformer.random = new SplittableRandom(seed);
+			transformer.pNodesOccurrence = 1.0f;
+			transformer.transform(doc);
+			Assert.assertEquals("root", doc.getDocumentElement().getNodeName());
+		}
+	}
+
+	/**
+	 * Tests the subsets of explicit nodes being distinct, capped and summing to one.
+	 */
+	@Test
+	public void testExplicitAttributes() {
+		DocumentTransformer transformer = new DocumentTransformer();
+		transformer.random = new SplittableRandom(7);
+		transformer.maxExpSubsetsPwr = 3;
+		for (int numChilds : new int[] { 1, 2, 3, 5, 70 }) {
+			String subsets = transformer.createExplicitAttributes(numChilds).get("subsets");
+			SubsetDistribution distribution = SubsetDistribution.parse(Token.token(subsets), 0);
+			Assert.assertEquals(Math.min(8, (1 << Math.min(numChilds, 4)) / 2), distribution.size());
+
+			Set<List<Long>> masks = new HashSet<List<Long>>();
+			double sum = 0.0;
+			for (int i = 0; i < distribution.size(); i++) {
+				List<Long> mask = new ArrayList<Long>();
+				for (long word : distribution.mask(i)) {
+					mask.add(word);
+				}
+				Assert.assertTrue(masks.add(mask));
+				sum += distribution.probability(i);
+			}
+			Assert.assertEquals(1.0, sum, 1e-9);
+			Assert.assertEquals(0.0, distribution.childProbability(numChilds + 1), 0.0);
+		}
+	}
+
+	/**
+	 * Tests the variables written to a sidecar being the ones that would otherwise be listed.
+	 */
+	@Test
+	public void testSidecar() throws Exception {
+		Document listed = TestDocumentTransformer.transformDocument(1, null);
+		File file = File.createTempFile("variables", VariableTable.EXTENSION);
+		file.deleteOnExit();
+		Document referring = TestDocumentTransformer.transformDocument(1, file.getPath());
+
+		Element variables = (Element) referring.getElementsByTagNameNS(DocumentTransformer.NS_URI, "variables").item(0);
+		// referred to relative to the directory of the output
+		Assert.assertEquals(file.getName(), variables.getAttributeNS(DocumentTransformer.NS_URI, "sidecar"));
+		Assert.assertFalse(variables.hasChildNodes());
+
+		VariableTable table = VariableTable.open(file);
+		NodeList vars = listed.getElementsByTagNameNS(DocumentTransformer.NS_URI, "variables").item(0).getChildNodes();
+		Assert.assertEquals(vars.getLength(), table.count());
+		for (int i = 0; i < vars.getLength(); i++) {
+			Element var = (Element) vars.item(i);
+			for (int value = 0; value < DocumentTransformer.VARIABLE_VALUES; value++) {
+				Assert.assertEquals(Double.parseDouble(var.getAttributeNS(DocumentTransformer.NS_URI, "val-" + value)),
+						table.probability(i, value), 0.0);
+			}
+		}
+	}
+
+	/**
+	 * Tests sidecars being referred to by relative paths only, refusing those outside the directory of the output.
+	 */
+	@Test
+	public void testSidecarReference() throws Exception {
+		File directory = new File("output").getAbsoluteFile();
+		Assert.assertEquals("variables.pxv", DocumentTransformer.reference(new File(directory, "variables.pxv"),
+				directory));
+		Assert.assertEquals("sidecars/variables.pxv", DocumentTransformer.reference(new File(directory,
+				"sidecars/../sidecars/variables.pxv"), directory));
+		Assert.assertEquals("variables.pxv", DocumentTransformer.reference(new File("variables.pxv"), null));
+		for (File outside : new File[] { new File(directory, "../variables.pxv"), directory }) {
+			try {
+				DocumentTransformer.reference(outside, directory);
+				Assert.fail(outside + " is not in " + directory);
+			} catch (DocumentTransformerException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * Tests a sidecar outside the directory of the output failing the transformation without being written.
+	 */
+	@Test
+	public void testSidecarOutside() throws Exception {
+		File directory = Files.createTempDirectory("output").toFile();
+		File file = new File(directory.getParentFile(), directory.getName() + VariableTable.EXTENSION);
+		DocumentTransformer transformer = new DocumentTransformer();
+		transformer.sidecar = file.getPath();
+		transformer.outputDirectory = directory;
+		try {
+			transformer.transform(TestDocumentTransformer.parse(TestDocumentTransformer.items(10)));
+			Assert.fail("sidecar " + file + " is not in " + directory);
+		} catch (DocumentTransformerException e) {
+			Assert.assertFalse(file.exists());
+		} finally {
+			directory.delete();
+		}
+	}
+
+	private static String items(int count) {
+		StringBuilder input = new StringBuilder("<root>");
+		for (int i = 0; i < count; i++) {
+			input.append("<item n=\"").append(i).append("\"><a/><b/></item>");
+		}
+		return input.append("</root>").toString();
+	}
+
+	private static int countPNodes(Document doc) {
+		int count = 0;
+		for (ProbabilityNodeType type : ProbabilityNodeType.values()) {
+			count += doc.getElementsByTagNameNS(DocumentTransformer.NS_URI, type.nodeName).getLength();
+		}
+		return count;
+	}
+
+	private static Document parse(String input) throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		return factory.newDocumentBuilder().parse(new InputSource(new StringReader(input)));
+	}
+
+	private static String transform(int threads) throws Exception {
+		Document doc = TestDocumentTransformer.transformDocument(threads, null);
+		StringWriter output = new StringWriter();
+		TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(output));
+		return output.toString();
+	}
+
+	private static Document transformDocument(int threads, String sidecar) throws Exception {
+		StringBuilder input = new StringBuilder("<root>");
+		for (int i = 0; i < 100; i++) {
+			input.append("<section>");
+			for (int j = 0; j < 20; j++) {
+				input.append("<item><a>").append(i).append("</a><b/><c>").append(j).append("</c></item>");
+			}
+			input.append("</section>");
+		}
+		input.append("</root>");
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		Document doc = factory.newDocumentBuilder().parse(new InputSource(new StringReader(input.toString())));
+
+		DocumentTransformer transformer = new DocumentTransformer();
+		transformer.seed = 42L;
+		transformer.random = new SplittableRandom(transformer.seed);
+		transformer.threads = threads;
+		transformer.sidecar = sidecar;
+		// the output is written next to the sidecar
+		transformer.outputDirectory = sidecar == null ? null : new File(sidecar).getAbsoluteFile().getParentFile();
+		transformer.transform(doc);
+		return doc;
+	}
+
+}
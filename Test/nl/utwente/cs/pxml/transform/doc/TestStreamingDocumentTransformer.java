@@ -0,0 +1,63 @@
+package nl.utwente.cs.pxml.transform.doc;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class TestStreamingDocumentTransformer {
+
+	/**
+	 * Tests the streamed output keeping all original elements and giving every pNode attributes for exactly its
+	 * children, with a buffer small enough to force cutting pNodes short.
+	 */
+	@Test
+	public void testTransform() throws Exception {
+		StringBuilder input = new StringBuilder("<root>");
+		for (int i = 0; i < 200; i++) {
+			input.append("<item id=\"").append(i).append("\"> text <a/><b><c>").append(i).append("</c></b></item>\n");
+		}
+		input.append("</root>");
+
+		DocumentTransformer settings = new DocumentTransformer();
+		settings.pNodesOccurrence = 0.5f;
+		settings.maxBufferedEvents = 16;
+		StringWriter output = new StringWriter();
+		new StreamingDocumentTransformer(settings).transform(
+				XMLInputFactory.newInstance().createXMLEventReader(new StringReader(input.toString())),
+				XMLOutputFactory.newInstance().createXMLEventWriter(output), 1001);
+
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		Document result = factory.newDocumentBuilder().parse(
+				new ByteArrayInputStream(output.toString().getBytes(StandardCharsets.UTF_8)));
+
+		Assert.assertEquals(200, result.getElementsByTagName("item").getLength());
+		Assert.assertEquals(200, result.getElementsByTagName("c").getLength());
+
+		NodeList mutexes = result.getElementsByTagNameNS(DocumentTransformer.NS_URI, "mux");
+		Assert.assertTrue(mutexes.getLength() > 0);
+		for (int i = 0; i < mutexes.getLength(); i++) {
+			Element pNode = (Element) mutexes.item(i);
+			int numChilds = pNode.getChildNodes().getLength();
+			Assert.assertTrue(pNode.hasAttributeNS(DocumentTransformer.NS_URI, "none"));
+			Assert.assertTrue(pNode.hasAttributeNS(DocumentTransformer.NS_URI, "child-" + numChilds));
+			Assert.assertFalse(pNode.hasAttributeNS(DocumentTransformer.NS_URI, "child-" + (numChilds + 1)));
+		}
+
+		Element variables = (Element) result.getElementsByTagNameNS(DocumentTransformer.NS_URI, "variables").item(0);
+		Assert.assertSame(result.getDocumentElement(), variables.getParentNode());
+		Assert.assertEquals(settings.determineNumVariables(1001), variables.getChildNodes().getLength());
+	}
+
+}
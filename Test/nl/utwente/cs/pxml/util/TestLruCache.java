@@ -0,0 +1,42 @@
+package nl.utwente.cs.pxml.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestLruCache {
+
+	/**
+	 * Tests {@link LruCache} evicting the least recently used entry when full.
+	 */
+	@Test
+	public void testEviction() {
+		// a single segment makes the eviction order exact
+		LruCache<String, Integer> cache = new LruCache<String, Integer>(2, 1);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		// touch a, making b the least recently used
+		Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+		cache.put("c", 3);
+
+		Assert.assertEquals(2, cache.size());
+		Assert.assertNull(cache.get("b"));
+		Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+		Assert.assertEquals(Integer.valueOf(3), cache.get("c"));
+	}
+
+	/**
+	 * Tests {@link LruCache} never exceeding its capacity over all segments.
+	 */
+	@Test
+	public void testCapacity() {
+		LruCache<Integer, Integer> cache = new LruCache<Integer, Integer>(100);
+		for (int i = 0; i < 10000; i++) {
+			cache.put(i, i);
+		}
+		Assert.assertTrue(cache.size() <= cache.capacity());
+
+		cache.clear();
+		Assert.assertEquals(0, cache.size());
+	}
+
+}
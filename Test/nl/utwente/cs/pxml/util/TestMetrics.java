@@ -0,0 +1,60 @@
+package nl.utwente.cs.pxml.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMetrics {
+
+	protected boolean enabled;
+
+	@Before
+	public void setUp() {
+		this.enabled = Metrics.isEnabled();
+	}
+
+	@After
+	public void tearDown() {
+		Metrics.setEnabled(this.enabled);
+	}
+
+	/**
+	 * Tests counters and histograms recording only while enabled, and being reset.
+	 */
+	@Test
+	public void testRecording() {
+		Metrics.Counter counter = Metrics.counter("test.counter");
+		Metrics.Histogram histogram = Metrics.histogram("test.histogram");
+		Assert.assertSame(counter, Metrics.counter("test.counter"));
+		Metrics.reset();
+
+		Metrics.setEnabled(false);
+		counter.increment();
+		histogram.record(100);
+		Assert.assertEquals(0, counter.value());
+		Assert.assertEquals(0, histogram.count());
+		Assert.assertEquals(0L, Metrics.start());
+
+		Metrics.setEnabled(true);
+		counter.add(3);
+		counter.increment();
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i * 10);
+		}
+		Assert.assertEquals(4, counter.value());
+		Assert.assertEquals(100, histogram.count());
+		Assert.assertEquals(50500, histogram.total());
+		Assert.assertEquals(1000, histogram.max());
+		// quantiles are upper bounds, off by less than a factor of two
+		long median = histogram.quantile(0.5);
+		Assert.assertTrue(median >= 500 && median < 1000);
+		Assert.assertEquals(1000, histogram.quantile(1.0));
+
+		Metrics.reset();
+		Assert.assertEquals(0, counter.value());
+		Assert.assertEquals(0, histogram.count());
+		Assert.assertEquals(0, histogram.quantile(0.5));
+	}
+
+}
@@ -0,0 +1,80 @@
+package nl.utwente.cs.pxml.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestRoaringBitmap {
+
+	/**
+	 * Tests adding, intersecting and uniting sparse and dense groups against sorted sets.
+	 */
+	@Test
+	public void testOperations() {
+		Random random = new Random(3);
+		// dense in the first group (bitmap), sparse in the others (arrays)
+		int[][] ranges = { { 0, 1 << 16, 3 }, { 1 << 17, 1 << 24, 4000 } };
+		RoaringBitmap[] bitmaps = new RoaringBitmap[2];
+		List<TreeSet<Integer>> expected = new ArrayList<TreeSet<Integer>>();
+		for (int b = 0; b < 2; b++) {
+			bitmaps[b] = new RoaringBitmap();
+			expected.add(new TreeSet<Integer>());
+			for (int[] range : ranges) {
+				for (int value = range[0]; value < range[1]; value += 1 + random.nextInt(range[2])) {
+					bitmaps[b].add(value);
+					expected.get(b).add(value);
+				}
+			}
+			// adding again changes nothing
+			bitmaps[b].add(expected.get(b).first());
+			Assert.assertArrayEquals(TestRoaringBitmap.array(expected.get(b)), bitmaps[b].toArray());
+			Assert.assertEquals(expected.get(b).size(), bitmaps[b].cardinality());
+		}
+
+		TreeSet<Integer> and = new TreeSet<Integer>(expected.get(0));
+		and.retainAll(expected.get(1));
+		TreeSet<Integer> or = new TreeSet<Integer>(expected.get(0));
+		or.addAll(expected.get(1));
+		Assert.assertArrayEquals(TestRoaringBitmap.array(and), bitmaps[0].and(bitmaps[1]).toArray());
+		RoaringBitmap union = bitmaps[0].or(bitmaps[1]);
+		Assert.assertArrayEquals(TestRoaringBitmap.array(or), union.toArray());
+		Assert.assertTrue(bitmaps[0].sizeInBytes() < expected.get(0).size() * 4L);
+
+		// containers shared by the union are copied before being added to
+		union.add(1 << 20 | 1);
+		union.add(1 << 20 | 2);
+		Assert.assertArrayEquals(TestRoaringBitmap.array(expected.get(0)), bitmaps[0].toArray());
+		Assert.assertTrue(union.contains(1 << 20 | 2));
+	}
+
+	/**
+	 * Tests groups turning from arrays into bitmaps and back.
+	 */
+	@Test
+	public void testConversion() {
+		RoaringBitmap even = new RoaringBitmap();
+		RoaringBitmap odd = new RoaringBitmap();
+		for (int value = RoaringBitmap.MAX_ARRAY * 4; value >= 0; value--) {
+			(value % 2 == 0 ? even : odd).add(value);
+		}
+		Assert.assertEquals(RoaringBitmap.MAX_ARRAY * 2 + 1, even.cardinality());
+		Assert.assertTrue(even.and(odd).isEmpty());
+		Assert.assertEquals(RoaringBitmap.MAX_ARRAY * 4 + 1, even.or(odd).cardinality());
+		Assert.assertEquals(RoaringBitmap.of(2, 4, 6), even.and(RoaringBitmap.of(6, 2, 3, 4)));
+		Assert.assertFalse(even.contains(-1));
+	}
+
+	private static int[] array(TreeSet<Integer> set) {
+		int[] array = new int[set.size()];
+		int i = 0;
+		for (int value : set) {
+			array[i++] = value;
+		}
+		return array;
+	}
+
+}